@@ -0,0 +1,120 @@
+package de.jjakobus.emailrestservice;
+
+import de.jjakobus.emailrestservice.model.Email;
+import de.jjakobus.emailrestservice.model.EmailAddress;
+import de.jjakobus.emailrestservice.model.EmailState;
+import de.jjakobus.emailrestservice.model.dtos.EmailAddressDto;
+import de.jjakobus.emailrestservice.model.dtos.InsertEmailDto;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Creates emails of given body length and number of receivers for benchmarks. Texts are random (but reproducible)
+ * words, so they are neither empty nor trivially compressible.
+ *
+ * @author jjakobus
+ */
+public final class BenchmarkEmails {
+
+  /** Modification date of all created emails. */
+  private static final Date MODIFIED_DATE = new Date(1_718_359_584_106L);
+
+  private BenchmarkEmails() {
+    // Utility class.
+  }
+
+  /**
+   * Creates a new email (as inserted by clients) with given information.
+   *
+   * @param state state of email
+   * @param bodyLength number of characters of body
+   * @param receiversCount number of "to" receivers ("cc" receivers are half as many)
+   * @return new email
+   */
+  public static InsertEmailDto createInsertEmail(EmailState state, int bodyLength, int receiversCount) {
+
+    return new InsertEmailDto(
+        state,
+        new EmailAddressDto("sender@example.com", "Sender"),
+        createReceivers(receiversCount),
+        createReceivers(receiversCount / 2),
+        "Subject of benchmark email",
+        createText(bodyLength),
+        MODIFIED_DATE);
+  }
+
+  /**
+   * Creates a new email entity (as loaded from the database) with given information.
+   *
+   * @param id id of email
+   * @param state state of email
+   * @param bodyLength number of characters of body
+   * @param receiversCount number of "to" receivers ("cc" receivers are half as many)
+   * @return new email entity
+   */
+  public static Email createEmailEntity(long id, EmailState state, int bodyLength, int receiversCount) {
+
+    Email email = new Email(
+        state,
+        new EmailAddress("sender@example.com", "Sender"),
+        // Entities hold mutable lists, like loaded by JPA.
+        new ArrayList<>(toEntities(createReceivers(receiversCount))),
+        new ArrayList<>(toEntities(createReceivers(receiversCount / 2))),
+        "Subject of benchmark email",
+        createText(bodyLength),
+        MODIFIED_DATE);
+    email.setId(id);
+
+    return email;
+  }
+
+  /**
+   * Creates given number of distinct receivers.
+   *
+   * @param count number of receivers
+   * @return receivers
+   */
+  public static List<EmailAddressDto> createReceivers(int count) {
+
+    return IntStream.range(0, count)
+        .mapToObj(i -> new EmailAddressDto("receiver-" + i + "@example.com", i % 2 == 0 ? "Receiver " + i : null))
+        .toList();
+  }
+
+  /**
+   * Maps given receivers to entities.
+   *
+   * @param receivers receivers to map
+   * @return receiver entities
+   */
+  public static List<EmailAddress> toEntities(List<EmailAddressDto> receivers) {
+
+    return receivers.stream()
+        .map(receiver -> new EmailAddress(receiver.address(), receiver.displayName()))
+        .toList();
+  }
+
+  /**
+   * Creates a text of random lower case words with given length.
+   *
+   * @param length number of characters
+   * @return text
+   */
+  private static String createText(int length) {
+    Random random = new Random(42);
+    StringBuilder text = new StringBuilder(length + 16);
+    while (text.length() < length) {
+      int wordLength = 2 + random.nextInt(9);
+      for (int i = 0; i < wordLength; i++) {
+        text.append((char) ('a' + random.nextInt(26)));
+      }
+      text.append(' ');
+    }
+
+    return text.substring(0, length);
+  }
+}
@@ -0,0 +1,52 @@
+package de.jjakobus.emailrestservice.model;
+
+import de.jjakobus.emailrestservice.BenchmarkEmails;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link EmailAddress#hashCode()} and {@link EmailAddress#equals(Object)} on lists of receivers, as used when
+ * comparing emails (updates) and collecting distinct addresses.
+ *
+ * @author jjakobus
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmailAddressBenchmark {
+
+  /** Number of receivers. */
+  @Param({"1", "50"})
+  private int receiversCount;
+
+  private List<EmailAddress> receivers;
+  private List<EmailAddress> equalReceivers;
+
+  @Setup
+  public void setUp() {
+    receivers = BenchmarkEmails.toEntities(BenchmarkEmails.createReceivers(receiversCount));
+    // Equal addresses in separate instances (and strings), so equals compares characters.
+    equalReceivers = BenchmarkEmails.toEntities(BenchmarkEmails.createReceivers(receiversCount));
+  }
+
+  @Benchmark
+  public int hashCodeOfReceivers() {
+    return receivers.hashCode();
+  }
+
+  @Benchmark
+  public boolean equalsOfEqualReceivers() {
+    return receivers.equals(equalReceivers);
+  }
+
+  @Benchmark
+  public int distinctReceivers() {
+    return new HashSet<>(receivers).size();
+  }
+}
@@ -0,0 +1,75 @@
+package de.jjakobus.emailrestservice.model.dtos;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import de.jjakobus.emailrestservice.BenchmarkEmails;
+import de.jjakobus.emailrestservice.model.EmailState;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures JSON serialization of {@link EmailDto} (responses) and deserialization of {@link EmailDto} (updates) and
+ * {@link InsertEmailDto} (inserts) with an object mapper configured like the one of the service.
+ *
+ * @author jjakobus
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmailDtoJsonBenchmark {
+
+  /** Number of characters of email bodies. */
+  @Param({"256", "16384"})
+  private int bodyLength;
+
+  /** Number of "to" receivers of emails. */
+  @Param({"1", "50"})
+  private int receiversCount;
+
+  private ObjectWriter emailWriter;
+  private ObjectReader emailReader;
+  private ObjectReader insertEmailReader;
+
+  private EmailDto email;
+  private byte[] emailJson;
+  private byte[] insertEmailJson;
+
+  @Setup
+  public void setUp() throws IOException {
+    // Same defaults as Spring Boot's object mapper.
+    ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json()
+        .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+        .build();
+    emailWriter = objectMapper.writerFor(EmailDto.class);
+    emailReader = objectMapper.readerFor(EmailDto.class);
+    insertEmailReader = objectMapper.readerFor(InsertEmailDto.class);
+
+    email = BenchmarkEmails.createEmailEntity(42, EmailState.SENT, bodyLength, receiversCount).toDto();
+    emailJson = emailWriter.writeValueAsBytes(email);
+    insertEmailJson = objectMapper.writeValueAsBytes(
+        BenchmarkEmails.createInsertEmail(EmailState.SENT, bodyLength, receiversCount));
+  }
+
+  @Benchmark
+  public byte[] serializeEmail() throws IOException {
+    return emailWriter.writeValueAsBytes(email);
+  }
+
+  @Benchmark
+  public EmailDto deserializeEmail() throws IOException {
+    return emailReader.readValue(emailJson);
+  }
+
+  @Benchmark
+  public InsertEmailDto deserializeInsertEmail() throws IOException {
+    return insertEmailReader.readValue(insertEmailJson);
+  }
+}
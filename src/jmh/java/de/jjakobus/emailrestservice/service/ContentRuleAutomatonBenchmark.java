@@ -0,0 +1,80 @@
+package de.jjakobus.emailrestservice.service;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Measures the throughput of scanning email contents for content rules. Every invocation scans a text of
+ * {@link #TEXT_LENGTH} (ASCII) characters not containing any rule, so the whole text has to be scanned. As an operation
+ * is counted per character and the score is reported per microsecond, the score equals the throughput in MB/s.
+ * <p>
+ * Compares the {@link ContentRuleAutomaton} (single scan for all rules) with searching every rule one by one.
+ *
+ * @author jjakobus
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@OperationsPerInvocation(ContentRuleAutomatonBenchmark.TEXT_LENGTH)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContentRuleAutomatonBenchmark {
+
+  /** Number of characters (bytes) scanned per invocation. */
+  static final int TEXT_LENGTH = 1_000_000;
+
+  /** Number of content rules. */
+  @Param({"10", "1000", "10000"})
+  private int rulesCount;
+
+  private String text;
+  private List<String> rules;
+  private ContentRuleAutomaton automaton;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    // Words of lower case letters, phrases contain digits, so text never contains a phrase.
+    StringBuilder textBuilder = new StringBuilder(TEXT_LENGTH);
+    while (textBuilder.length() < TEXT_LENGTH) {
+      textBuilder.append(randomWord(random, "abcdefghijklmnopqrstuvwxyz")).append(' ');
+    }
+    text = textBuilder.substring(0, TEXT_LENGTH);
+
+    rules = IntStream.range(0, rulesCount)
+        .mapToObj(i -> randomWord(random, "abcdefghijklmnopqrstuvwxyz") + " " + i)
+        .toList();
+    automaton = ContentRuleAutomaton.of(rules);
+  }
+
+  @Benchmark
+  public boolean automaton() {
+    return automaton.matches(text);
+  }
+
+  @Benchmark
+  public boolean naivePerRule() {
+    String lowerCaseText = text.toLowerCase(Locale.ROOT);
+    for (String rule : rules) {
+      if (lowerCaseText.contains(rule)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String randomWord(Random random, String alphabet) {
+    int length = 3 + random.nextInt(8);
+    StringBuilder word = new StringBuilder(length);
+    for (int i = 0; i < length; i++) {
+      word.append(alphabet.charAt(random.nextInt(alphabet.length())));
+    }
+    return word.toString();
+  }
+}
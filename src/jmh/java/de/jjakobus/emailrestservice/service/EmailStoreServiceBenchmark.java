@@ -0,0 +1,87 @@
+package de.jjakobus.emailrestservice.service;
+
+import de.jjakobus.emailrestservice.BenchmarkEmails;
+import de.jjakobus.emailrestservice.model.Email;
+import de.jjakobus.emailrestservice.model.EmailState;
+import de.jjakobus.emailrestservice.model.dtos.EmailDto;
+import de.jjakobus.emailrestservice.model.dtos.InsertEmailDto;
+import de.jjakobus.emailrestservice.model.exceptions.EmailUpdateNotAllowedException;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time (and, with {@code -prof gc}, the allocated bytes) per email of the mapping and update rule paths
+ * every insert, query and update request runs through: mapping entities to DTOs, creating entities of new emails and
+ * checking updates (a state change of a non-draft email compares the whole content, a content change of a draft does
+ * not). Updates are checked against stored emails loaded as entities and, like by bulk updates and the reactive
+ * variant, read into DTOs. Comparing content should not allocate at all.
+ *
+ * @author jjakobus
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmailStoreServiceBenchmark {
+
+  /** Number of characters of email bodies. */
+  @Param({"256", "16384"})
+  private int bodyLength;
+
+  /** Number of "to" receivers of emails (long lists dominate comparing receivers). */
+  @Param({"1", "50", "500"})
+  private int receiversCount;
+
+  private InsertEmailDto newEmail;
+  private Email sentEmail;
+  private EmailDto sentEmailDto;
+  private EmailDto sentEmailToSpam;
+  private Email draftEmail;
+  private EmailDto changedDraftEmail;
+
+  @Setup
+  public void setUp() {
+    newEmail = BenchmarkEmails.createInsertEmail(EmailState.SENT, bodyLength, receiversCount);
+
+    sentEmail = BenchmarkEmails.createEmailEntity(42, EmailState.SENT, bodyLength, receiversCount);
+    sentEmailDto = sentEmail.toDto();
+    // Equal content in separate instances, like sent by clients.
+    sentEmailToSpam = BenchmarkEmails.createEmailEntity(42, EmailState.SPAM, bodyLength, receiversCount).toDto();
+
+    draftEmail = BenchmarkEmails.createEmailEntity(42, EmailState.DRAFT, bodyLength, receiversCount);
+    Email changedDraftEmailEntity = BenchmarkEmails.createEmailEntity(42, EmailState.DRAFT, bodyLength, receiversCount);
+    changedDraftEmailEntity.setSubject("Changed subject");
+    changedDraftEmail = changedDraftEmailEntity.toDto();
+  }
+
+  @Benchmark
+  public EmailDto toDto() {
+    return sentEmail.toDto();
+  }
+
+  @Benchmark
+  public Email createEmailEntityFromNewEmail() {
+    return EmailStoreService.createEmailEntityFromNewEmail(newEmail);
+  }
+
+  @Benchmark
+  public Email checkStateUpdateAllowed() throws EmailUpdateNotAllowedException {
+    EmailStoreService.checkUpdateAllowed(sentEmail, sentEmailToSpam);
+    return sentEmail;
+  }
+
+  @Benchmark
+  public Email checkDraftUpdateAllowed() throws EmailUpdateNotAllowedException {
+    EmailStoreService.checkUpdateAllowed(draftEmail, changedDraftEmail);
+    return draftEmail;
+  }
+
+  @Benchmark
+  public EmailDto checkStateUpdateAllowedOfDto() throws EmailUpdateNotAllowedException {
+    EmailStoreService.checkUpdateAllowed(sentEmailDto, sentEmailToSpam);
+    return sentEmailDto;
+  }
+}
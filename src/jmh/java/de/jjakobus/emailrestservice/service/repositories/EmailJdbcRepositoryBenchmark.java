@@ -0,0 +1,91 @@
+package de.jjakobus.emailrestservice.service.repositories;
+
+import de.jjakobus.emailrestservice.BenchmarkEmails;
+import de.jjakobus.emailrestservice.EmailRestServiceApp;
+import de.jjakobus.emailrestservice.model.Email;
+import de.jjakobus.emailrestservice.model.EmailState;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Measures the throughput (rows per second) of inserting new emails with their receivers by JDBC batches
+ * ({@link EmailJdbcRepository#insertAll}) and by the JPA repository ({@link EmailRepository#saveAll}, the insert path
+ * used before). Unlike the other benchmarks, this one needs the PostgreSQL instance configured in application.yml
+ * (started e.g. by {@code docker-compose up -d postgres-db}). All emails are deleted after every iteration.
+ * Every email has two "to" and one "cc" receiver, so it is stored as four rows. Settings can be overridden for the
+ * forked JVM like for the service, e.g. the Hibernate batch size of the JPA path by
+ * {@code -jvmArgsAppend -Dspring.jpa.properties.hibernate.jdbc.batch_size=5}.
+ *
+ * @author jjakobus
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class EmailJdbcRepositoryBenchmark {
+
+  /** Number of emails inserted per operation (matches {@link #ROWS_PER_OPERATION}). */
+  private static final int EMAILS_COUNT = 1000;
+
+  /** Number of rows inserted per operation (email, two "to" and one "cc" receiver per email). */
+  private static final int ROWS_PER_OPERATION = EMAILS_COUNT * 4;
+
+  /** Number of characters of email bodies (body column holds up to 255). */
+  private static final int BODY_LENGTH = 255;
+
+  private ConfigurableApplicationContext context;
+  private EmailJdbcRepository emailJdbcRepository;
+  private EmailRepository emailRepository;
+  private JdbcTemplate jdbcTemplate;
+
+  private List<Email> newEmails;
+
+  @Setup(Level.Trial)
+  public void startService() {
+    context = new SpringApplicationBuilder(EmailRestServiceApp.class)
+        .web(WebApplicationType.NONE)
+        .run();
+    emailJdbcRepository = context.getBean(EmailJdbcRepository.class);
+    emailRepository = context.getBean(EmailRepository.class);
+    jdbcTemplate = context.getBean(JdbcTemplate.class);
+  }
+
+  @Setup(Level.Invocation)
+  public void createNewEmails() {
+    // Inserted entities get ids, so every operation inserts new instances.
+    newEmails = IntStream.range(0, EMAILS_COUNT)
+        .mapToObj(i -> BenchmarkEmails.createEmailEntity(0, EmailState.SENT, BODY_LENGTH, 2))
+        .toList();
+  }
+
+  @TearDown(Level.Iteration)
+  public void deleteEmails() {
+    jdbcTemplate.execute("TRUNCATE email_to, email_cc, email");
+  }
+
+  @TearDown(Level.Trial)
+  public void stopService() {
+    context.close();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS_PER_OPERATION)
+  public List<Email> insertAllJdbcBatches() {
+    return emailJdbcRepository.insertAll(newEmails);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS_PER_OPERATION)
+  public Iterable<Email> saveAllJpa() {
+    return emailRepository.saveAll(newEmails);
+  }
+}
@@ -0,0 +1,98 @@
+package de.jjakobus.emailrestservice.config;
+
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.transaction.reactive.TransactionalOperator;
+
+/**
+ * Configuration of the reactive variant of the Email REST service (profile {@value #PROFILE}), which serves requests
+ * non-blocking using WebFlux on Netty and R2DBC instead of Spring MVC and JDBC. Scheduled tasks and schema migrations
+ * keep using the JDBC datasource.
+ * <p>
+ * The R2DBC connection pool is not exposed as bean, as Spring Boot's JDBC datasource backs off if there is any R2DBC
+ * connection factory. For the same reason, R2DBC auto-configuration is excluded and its properties
+ * ({@code spring.r2dbc.*}) are read here.
+ *
+ * @author jjakobus
+ */
+@Configuration
+@Profile(ReactiveEmailRestServiceConfig.PROFILE)
+public class ReactiveEmailRestServiceConfig implements DisposableBean {
+
+  /** Profile activating the reactive variant. */
+  public static final String PROFILE = "reactive";
+
+  /** Pool of R2DBC connections used by requests. */
+  private final ConnectionPool connectionPool;
+
+  /**
+   * Creates the configuration of the reactive variant including its connection pool.
+   *
+   * @param url R2DBC url of database
+   * @param username username of database
+   * @param password password of database
+   * @param maxPoolSize maximum number of pooled connections
+   */
+  @Autowired
+  public ReactiveEmailRestServiceConfig(
+      @Value("${spring.r2dbc.url}") String url,
+      @Value("${spring.r2dbc.username}") String username,
+      @Value("${spring.r2dbc.password}") String password,
+      @Value("${spring.r2dbc.pool.max-size}") int maxPoolSize) {
+    ConnectionFactoryOptions options = ConnectionFactoryOptions.parse(url).mutate()
+        .option(ConnectionFactoryOptions.USER, username)
+        .option(ConnectionFactoryOptions.PASSWORD, password)
+        .build();
+    this.connectionPool = new ConnectionPool(ConnectionPoolConfiguration.builder(ConnectionFactories.get(options))
+        .initialSize(0)
+        .maxSize(maxPoolSize)
+        .build());
+  }
+
+  /**
+   * Serves requests with Netty (Tomcat would be preferred, as it is on the classpath for the blocking variant).
+   *
+   * @return factory of web server
+   */
+  @Bean
+  public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+    return new NettyReactiveWebServerFactory();
+  }
+
+  /**
+   * Client running statements on pooled R2DBC connections.
+   *
+   * @return database client
+   */
+  @Bean
+  public DatabaseClient reactiveDatabaseClient() {
+    return DatabaseClient.create(connectionPool);
+  }
+
+  /**
+   * Operator running reactive pipelines in R2DBC transactions. Its transaction manager is not exposed as bean, so
+   * {@code @Transactional} keeps using the JPA transaction manager.
+   *
+   * @return transactional operator
+   */
+  @Bean
+  public TransactionalOperator reactiveTransactionalOperator() {
+    return TransactionalOperator.create(new R2dbcTransactionManager(connectionPool));
+  }
+
+  @Override
+  public void destroy() {
+    connectionPool.dispose();
+  }
+}
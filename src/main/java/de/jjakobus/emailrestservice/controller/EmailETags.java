@@ -0,0 +1,68 @@
+package de.jjakobus.emailrestservice.controller;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.lang.Nullable;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Converts between versions of stored emails and entity tags (HTTP header {@code ETag}), shared by the blocking and the
+ * reactive controller. The entity tag of an email is made of its id and version, so it changes with every update and
+ * differs between emails. Entity tags are strong: every change of an email (content or state) changes its version.
+ *
+ * @author jjakobus
+ */
+final class EmailETags {
+
+  /** Matches any version in {@code If-Match}. */
+  private static final String ANY = "*";
+
+  /** Separator of id and version in entity tags. */
+  private static final char SEPARATOR = '-';
+
+  private EmailETags() {
+    // Utility class.
+  }
+
+  /**
+   * Returns the entity tag of the email with given id and version.
+   *
+   * @param id id of email
+   * @param version version of email
+   * @return entity tag (quoted)
+   */
+  static String toETag(long id, long version) {
+    return "\"" + id + SEPARATOR + version + "\"";
+  }
+
+  /**
+   * Returns the version an update of the email with given id must be based on, given by an {@code If-Match} header
+   * with a single entity tag returned by {@link #toETag(long, long)} for that email. Returns BAD_REQUEST status for any
+   * other (e.g. weak) entity tag.
+   *
+   * @param id id of updated email
+   * @param ifMatch value of {@code If-Match} header, can be null
+   * @return expected version, null if header is absent or matches any version
+   */
+  @Nullable
+  static Long parseIfMatch(long id, @Nullable String ifMatch) {
+    if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals(ANY)) {
+      return null;
+    }
+
+    String eTag = ifMatch.trim();
+    String idPrefix = "\"" + id + SEPARATOR;
+    if (eTag.length() > idPrefix.length() + 1 && eTag.startsWith(idPrefix) && eTag.endsWith("\"")) {
+      try {
+        return Long.parseLong(eTag.substring(idPrefix.length(), eTag.length() - 1));
+
+      } catch (NumberFormatException e) {
+        // Not a version, handled below.
+
+      }
+    }
+
+    throw new ResponseStatusException(
+        HttpStatus.BAD_REQUEST,
+        "If-Match must contain a single entity tag returned with the email.");
+  }
+}
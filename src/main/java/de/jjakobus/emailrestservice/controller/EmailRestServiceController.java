@@ -1,17 +1,50 @@
 package de.jjakobus.emailrestservice.controller;
 
-import de.jjakobus.emailrestservice.model.EmailAddress;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.RuntimeJsonMappingException;
+import de.jjakobus.emailrestservice.config.ReactiveEmailRestServiceConfig;
+import de.jjakobus.emailrestservice.model.EmailState;
+import de.jjakobus.emailrestservice.model.SpamFilterType;
+import de.jjakobus.emailrestservice.model.dtos.EmailCacheStatsDto;
 import de.jjakobus.emailrestservice.model.dtos.EmailDto;
+import de.jjakobus.emailrestservice.model.dtos.EmailFilterDto;
+import de.jjakobus.emailrestservice.model.dtos.EmailPageDto;
+import de.jjakobus.emailrestservice.model.dtos.EmailStateUpdateDto;
+import de.jjakobus.emailrestservice.model.dtos.EmailUpdateResultDto;
+import de.jjakobus.emailrestservice.model.dtos.ImportResultDto;
 import de.jjakobus.emailrestservice.model.dtos.InsertEmailDto;
+import de.jjakobus.emailrestservice.model.dtos.SpamFilterDto;
 import de.jjakobus.emailrestservice.model.exceptions.EmailNotFoundException;
 import de.jjakobus.emailrestservice.model.exceptions.EmailUpdateNotAllowedException;
+import de.jjakobus.emailrestservice.model.exceptions.EmailVersionConflictException;
+import de.jjakobus.emailrestservice.model.exceptions.InvalidCursorException;
+import de.jjakobus.emailrestservice.model.exceptions.InvalidSpamFilterException;
+import de.jjakobus.emailrestservice.model.exceptions.SpamFilterNotFoundException;
 import de.jjakobus.emailrestservice.service.EmailSpamFilterService;
 import de.jjakobus.emailrestservice.service.EmailStoreService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
 import java.util.List;
 import java.util.Objects;
 
@@ -23,26 +56,56 @@ import static java.util.Objects.requireNonNull;
  * @author jjakobus
  */
 @RestController()
+@Profile("!" + ReactiveEmailRestServiceConfig.PROFILE)
 @RequestMapping("${email-rest-service.request-path}")
 public class EmailRestServiceController {
 
+  /** Line separator of newline-delimited JSON. */
+  private static final byte NDJSON_LINE_SEPARATOR = '\n';
+
   /** Service managing emails store. */
   private final EmailStoreService emailStore;
 
+  /** Service classifying spam emails. */
+  private final EmailSpamFilterService spamService;
+
+  /** Reader of new emails sent as newline-delimited JSON. */
+  private final ObjectReader insertEmailReader;
+
+  /** Writer of stored emails returned as newline-delimited JSON. */
+  private final ObjectWriter emailWriter;
+
+  /** Number of emails stored at once when inserting streamed emails. */
+  private final int bulkInsertChunkSize;
+
+  /** Number of emails imported at once when importing streamed emails. */
+  private final int bulkImportChunkSize;
+
   /**
    * Creates a new controller to handle REST requests.
    *
    * @param emailStore service managing emails store
+   * @param spamService service classifying spam emails
+   * @param objectMapper object mapper used to (de-)serialize streamed emails
+   * @param bulkInsertChunkSize number of emails stored at once when inserting streamed emails
+   * @param bulkImportChunkSize number of emails imported at once when importing streamed emails
    */
   @Autowired
   public EmailRestServiceController(
       EmailStoreService emailStore,
-      EmailSpamFilterService spamService) {
+      EmailSpamFilterService spamService,
+      ObjectMapper objectMapper,
+      @Value("${email-rest-service.bulk-insert-chunk-size}") int bulkInsertChunkSize,
+      @Value("${email-rest-service.bulk-import-chunk-size}") int bulkImportChunkSize) {
     this.emailStore = requireNonNull(emailStore, "emailStore must not be null.");
-
-    // For now, simply add "carl@gbtec.com" to spam service as single filter.
-    EmailAddress carlEmailAddress = new EmailAddress("carl@gbtec.com", null);
-    spamService.addFilterAddress(carlEmailAddress);
+    this.spamService = requireNonNull(spamService, "spamService must not be null.");
+    requireNonNull(objectMapper, "objectMapper must not be null.");
+    this.insertEmailReader = objectMapper.readerFor(InsertEmailDto.class);
+    this.emailWriter = objectMapper.writerFor(EmailDto.class)
+        // Keep response stream open for further emails.
+        .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    this.bulkInsertChunkSize = bulkInsertChunkSize;
+    this.bulkImportChunkSize = bulkImportChunkSize;
   }
 
   /**
@@ -76,17 +139,104 @@ public class EmailRestServiceController {
   }
 
   /**
-   * Returns the email matching given id. If there is no matching email, NOT_FOUND status gets returned.
+   * Inserts new emails streamed as newline-delimited JSON (one email per line) into store and streams back all emails
+   * stored successfully as newline-delimited JSON. Emails are parsed, stored and returned in chunks while the request
+   * is read, so memory usage does not depend on the number of emails sent. As the response is streamed, a malformed
+   * line aborts the response; emails of previous lines stay stored.
+   *
+   * @param request request containing new emails as newline-delimited JSON
+   * @param response response to stream stored emails to
+   * @throws IOException if reading request or writing response fails
+   */
+  @PostMapping(path = "/insert", params = "bulk", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+  public void handleStreamingBulkInsertEmail(
+      HttpServletRequest request,
+      HttpServletResponse response) throws IOException {
+    response.setStatus(HttpStatus.CREATED.value());
+    response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+    response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+    OutputStream responseStream = response.getOutputStream();
+
+    try (MappingIterator<InsertEmailDto> newEmails = insertEmailReader.readValues(request.getInputStream())) {
+      emailStore.saveEmails(
+          newEmails,
+          bulkInsertChunkSize,
+          savedEmails -> writeNdjsonChunk(responseStream, savedEmails));
+
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+
+    }
+  }
+
+  /**
+   * Imports new emails streamed as newline-delimited JSON (one email per line) into store using the database's bulk
+   * import, which is meant for large backfills. In contrast to inserting emails, stored emails are not returned, only
+   * their number. Emails are imported in chunks while the request is read. If a line is malformed, BAD_REQUEST status
+   * gets returned; emails of previous chunks stay imported.
+   *
+   * @param request request containing new emails as newline-delimited JSON
+   * @return result of import
+   * @throws IOException if reading request fails
+   */
+  @ResponseStatus(HttpStatus.CREATED)
+  @PostMapping(path = "/insert", params = "import", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+  public ImportResultDto handleBulkImportEmail(HttpServletRequest request) throws IOException {
+
+    long importedCount;
+    try (MappingIterator<InsertEmailDto> newEmails = insertEmailReader.readValues(request.getInputStream())) {
+      importedCount = emailStore.importEmails(newEmails, bulkImportChunkSize);
+
+    } catch (RuntimeJsonMappingException e) {
+      throw new ResponseStatusException(
+          HttpStatus.BAD_REQUEST,
+          "Import of emails aborted because of malformed email, see details for reason.",
+          e);
+
+    }
+
+    return new ImportResultDto(importedCount);
+  }
+
+  /**
+   * Writes given emails as newline-delimited JSON to given stream and flushes it, so client receives chunk directly.
+   *
+   * @param stream stream to write to
+   * @param emails emails to write
+   */
+  private void writeNdjsonChunk(OutputStream stream, List<EmailDto> emails) {
+    try {
+      for (EmailDto email : emails) {
+        emailWriter.writeValue(stream, email);
+        stream.write(NDJSON_LINE_SEPARATOR);
+      }
+      stream.flush();
+
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+
+    }
+  }
+
+  /**
+   * Returns the email matching given id with its entity tag ({@code ETag}, to be passed to updates). If the client's
+   * copy is still up to date (entity tag given by {@code If-None-Match}), NOT_MODIFIED status gets returned, looking up
+   * the version of the email only. If there is no matching email, NOT_FOUND status gets returned.
    *
    * @param id searched id
-   * @return matching email, if present; else NOT_FOUND
+   * @param request current request
+   * @return matching email, if present and modified; else NOT_MODIFIED or NOT_FOUND
    */
-  @ResponseStatus(HttpStatus.OK)
   @GetMapping(path = "/query")
-  public EmailDto handleQueryEmailById(@RequestParam long id) {
+  public ResponseEntity<EmailDto> handleQueryEmailById(@RequestParam long id, WebRequest request) {
 
     EmailDto matchedEmail;
     try {
+      // Answer polling clients without reading (and sending) the email, if unchanged.
+      if (request.getHeader(HttpHeaders.IF_NONE_MATCH) != null
+          && request.checkNotModified(EmailETags.toETag(id, emailStore.getEmailVersion(id)))) {
+        return null;
+      }
       matchedEmail = emailStore.getEmail(id);
 
     } catch (EmailNotFoundException e) {
@@ -97,7 +247,9 @@ public class EmailRestServiceController {
 
     }
 
-    return matchedEmail;
+    return ResponseEntity.ok()
+        .eTag(EmailETags.toETag(id, matchedEmail.version()))
+        .body(matchedEmail);
   }
 
   /**
@@ -117,20 +269,131 @@ public class EmailRestServiceController {
   }
 
   /**
-   * Updates the email of given id with supplied updated email. If there is no matching email, NOT_FOUND status gets
-   * returned.
+   * Lists the emails matching given (optional) conditions page by page, newest (last modified) emails first. Next page
+   * is requested by passing the cursor returned with the previous page; there is no further page if returned cursor is
+   * null. If cursor is malformed or limit is not positive, BAD_REQUEST status gets returned.
+   *
+   * @param states states of emails (one of), all states if absent
+   * @param from email address of sender, any sender if absent
+   * @param modifiedFrom lower bound of modification date (inclusive, ISO date-time), no bound if absent
+   * @param modifiedTo upper bound of modification date (exclusive, ISO date-time), no bound if absent
+   * @param cursor cursor of page, first page if absent
+   * @param limit maximum number of emails of page (capped by service)
+   * @return page of emails
+   */
+  @ResponseStatus(HttpStatus.OK)
+  @GetMapping(path = "/list")
+  public EmailPageDto handleListEmails(
+      @RequestParam(name = "state", required = false) List<EmailState> states,
+      @RequestParam(required = false) String from,
+      @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date modifiedFrom,
+      @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date modifiedTo,
+      @RequestParam(required = false) String cursor,
+      @RequestParam(defaultValue = "50") int limit) {
+
+    if (limit < 1) {
+      throw new ResponseStatusException(
+          HttpStatus.BAD_REQUEST,
+          "Limit must be positive.");
+    }
+
+    try {
+      return emailStore.listEmails(new EmailFilterDto(states, from, modifiedFrom, modifiedTo), cursor, limit);
+
+    } catch (InvalidCursorException e) {
+      throw new ResponseStatusException(
+          HttpStatus.BAD_REQUEST,
+          "Cursor is invalid, use cursor returned with previous page.",
+          e);
+
+    }
+  }
+
+  /**
+   * Updates the email of given id with supplied updated email and returns its new version as entity tag ({@code ETag}).
+   * If there is no matching email, NOT_FOUND status gets returned. If update is not allowed, BAD_REQUEST status gets
+   * returned. If the email has been changed concurrently, i.e. does not have the version given by {@code If-Match}
+   * (if present) or is changed while updating, CONFLICT status gets returned.
    *
    * @param id id of email to update
+   * @param ifMatch entity tag of the version the update is based on (optional)
    * @param updatedEmail updated email
+   * @return empty response with new entity tag
    */
-  @ResponseStatus(HttpStatus.OK)
   @PutMapping(path = "/update/{id}")
-  public void handleUpdateEmail(
+  public ResponseEntity<Void> handleUpdateEmail(
       @PathVariable long id,
+      @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch,
       @RequestBody EmailDto updatedEmail) {
 
+    long version;
+    try {
+      version = emailStore.updateEmail(id, updatedEmail, EmailETags.parseIfMatch(id, ifMatch));
+
+    } catch (EmailNotFoundException e) {
+      throw new ResponseStatusException(
+          HttpStatus.NOT_FOUND,
+          "No email found to update with id '" + id + "'.",
+          e);
+
+    } catch (EmailUpdateNotAllowedException e) {
+      throw new ResponseStatusException(
+          HttpStatus.BAD_REQUEST,
+          "Update of email not allowed, see details for reason.",
+          e);
+
+    } catch (EmailVersionConflictException e) {
+      throw new ResponseStatusException(
+          HttpStatus.CONFLICT,
+          "Email has been changed concurrently, query it again and retry update.",
+          e);
+
+    }
+
+    return ResponseEntity.ok()
+        .eTag(EmailETags.toETag(id, version))
+        .build();
+  }
+
+  /**
+   * Updates all emails with the ids of supplied updated emails and returns the outcome per updated email (in the same
+   * order): updated (with new version), not found, not allowed or conflict (changed concurrently). Emails that cannot
+   * be updated do not prevent updating the other emails, so OK status gets returned in any case.
+   *
+   * @param updatedEmails updated emails
+   * @return outcome of update per updated email
+   */
+  @ResponseStatus(HttpStatus.OK)
+  @PutMapping(path = "/update", params = "bulk")
+  public List<EmailUpdateResultDto> handleBulkUpdateEmail(@RequestBody List<EmailDto> updatedEmails) {
+    // Filter possible null values.
+    updatedEmails = updatedEmails.stream()
+        .filter(Objects::nonNull)
+        .toList();
+
+    return emailStore.updateEmails(updatedEmails);
+  }
+
+  /**
+   * Changes the state of the email of given id to the given state only (without any content), and returns its new
+   * version as entity tag ({@code ETag}). If there is no matching email, NOT_FOUND status gets returned. If the state
+   * change is not allowed (same rules as for updates), BAD_REQUEST status gets returned. If the email does not have the
+   * version given by {@code If-Match} (if present), CONFLICT status gets returned.
+   *
+   * @param id id of email to update
+   * @param ifMatch entity tag of the version the update is based on (optional)
+   * @param stateUpdate new state of email
+   * @return empty response with new entity tag
+   */
+  @PatchMapping(path = "/update/{id}")
+  public ResponseEntity<Void> handleUpdateEmailState(
+      @PathVariable long id,
+      @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+      @RequestBody EmailStateUpdateDto stateUpdate) {
+
+    long version;
     try {
-      emailStore.updateEmail(id, updatedEmail);
+      version = emailStore.updateEmailState(id, stateUpdate.state(), EmailETags.parseIfMatch(id, ifMatch));
 
     } catch (EmailNotFoundException e) {
       throw new ResponseStatusException(
@@ -144,7 +407,34 @@ public class EmailRestServiceController {
           "Update of email not allowed, see details for reason.",
           e);
 
+    } catch (EmailVersionConflictException e) {
+      throw new ResponseStatusException(
+          HttpStatus.CONFLICT,
+          "Email has been changed concurrently, query it again and retry update.",
+          e);
+
     }
+
+    return ResponseEntity.ok()
+        .eTag(EmailETags.toETag(id, version))
+        .build();
+  }
+
+  /**
+   * Changes the state of all emails of given ids to the given state only (without any content) and returns the ids of
+   * the changed emails. Emails not found or not allowed to change to the given state are left unchanged.
+   *
+   * @param ids ids of emails to update
+   * @param stateUpdate new state of emails
+   * @return ids of updated emails
+   */
+  @ResponseStatus(HttpStatus.OK)
+  @PatchMapping(path = "/update", params = "bulk")
+  public List<Long> handleBulkUpdateEmailState(
+      @RequestParam List<Long> ids,
+      @RequestBody EmailStateUpdateDto stateUpdate) {
+
+    return emailStore.updateEmailStates(ids, stateUpdate.state());
   }
 
   /**
@@ -180,4 +470,80 @@ public class EmailRestServiceController {
 
     emailStore.deleteEmails(ids);
   }
+
+  /**
+   * Returns the statistics (hits, misses, evictions, size) of the cache of stored emails.
+   *
+   * @return cache statistics
+   */
+  @ResponseStatus(HttpStatus.OK)
+  @GetMapping(path = "/cache/stats")
+  public EmailCacheStatsDto handleQueryCacheStats() {
+
+    return emailStore.getCacheStats();
+  }
+
+  /**
+   * Returns all current spam filters.
+   *
+   * @return list of spam filters
+   */
+  @ResponseStatus(HttpStatus.OK)
+  @GetMapping(path = "/spam-filter/query")
+  public List<SpamFilterDto> handleQuerySpamFilters() {
+
+    return spamService.getFilters();
+  }
+
+  /**
+   * Adds given spam filter, which is applied from the next run of the spam classification on. Returns CREATED status
+   * if filter has been added and OK status if it was present already. If filter is invalid (e.g. a malformed domain
+   * rule), BAD_REQUEST status gets returned.
+   *
+   * @param newFilter new spam filter
+   * @return empty response with status
+   */
+  @PostMapping(path = "/spam-filter/insert")
+  public ResponseEntity<Void> handleInsertSpamFilter(@RequestBody SpamFilterDto newFilter) {
+
+    boolean added;
+    try {
+      added = spamService.addFilter(newFilter);
+
+    } catch (InvalidSpamFilterException e) {
+      throw new ResponseStatusException(
+          HttpStatus.BAD_REQUEST,
+          "Spam filter is invalid, see details for reason.",
+          e);
+
+    }
+
+    HttpStatus status = added
+        ? HttpStatus.CREATED
+        : HttpStatus.OK;
+    return ResponseEntity.status(status).build();
+  }
+
+  /**
+   * Removes the spam filter of given type and value. If there is no matching filter, NOT_FOUND status gets returned.
+   *
+   * @param type type of filter to remove
+   * @param value value of filter to remove
+   */
+  @ResponseStatus(HttpStatus.OK)
+  @DeleteMapping(path = "/spam-filter/delete")
+  public void handleDeleteSpamFilter(
+      @RequestParam SpamFilterType type,
+      @RequestParam String value) {
+
+    try {
+      spamService.removeFilter(new SpamFilterDto(type, value));
+
+    } catch (SpamFilterNotFoundException e) {
+      throw new ResponseStatusException(
+          HttpStatus.NOT_FOUND,
+          "No spam filter found to delete of type '" + type + "' and value '" + value + "'.",
+          e);
+    }
+  }
 }
@@ -0,0 +1,270 @@
+package de.jjakobus.emailrestservice.controller;
+
+import de.jjakobus.emailrestservice.config.ReactiveEmailRestServiceConfig;
+import de.jjakobus.emailrestservice.model.dtos.EmailCacheStatsDto;
+import de.jjakobus.emailrestservice.model.dtos.EmailDto;
+import de.jjakobus.emailrestservice.model.dtos.EmailStateUpdateDto;
+import de.jjakobus.emailrestservice.model.dtos.EmailUpdateResultDto;
+import de.jjakobus.emailrestservice.model.dtos.InsertEmailDto;
+import de.jjakobus.emailrestservice.model.exceptions.EmailNotFoundException;
+import de.jjakobus.emailrestservice.model.exceptions.EmailUpdateNotAllowedException;
+import de.jjakobus.emailrestservice.model.exceptions.EmailVersionConflictException;
+import de.jjakobus.emailrestservice.service.ReactiveEmailStoreService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Objects;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Defines CRUD endpoints of the Email REST API for the reactive variant of the service (same paths, parameters and
+ * DTOs as {@link EmailRestServiceController}) and delegates the tasks to the reactive service. Streaming inserts,
+ * imports, listing and spam filter management are offered by the blocking variant only.
+ *
+ * @author jjakobus
+ */
+@RestController()
+@Profile(ReactiveEmailRestServiceConfig.PROFILE)
+@RequestMapping("${email-rest-service.request-path}")
+public class ReactiveEmailRestServiceController {
+
+  /** Service managing emails store. */
+  private final ReactiveEmailStoreService emailStore;
+
+  /**
+   * Creates a new controller to handle REST requests.
+   *
+   * @param emailStore service managing emails store
+   */
+  @Autowired
+  public ReactiveEmailRestServiceController(ReactiveEmailStoreService emailStore) {
+    this.emailStore = requireNonNull(emailStore, "emailStore must not be null.");
+  }
+
+  /**
+   * Inserts given email into store and returns stored email if successful.
+   *
+   * @param newEmail new email
+   * @return stored email
+   */
+  @ResponseStatus(HttpStatus.CREATED)
+  @PostMapping(path = "/insert")
+  public Mono<EmailDto> handleInsertEmail(@RequestBody InsertEmailDto newEmail) {
+
+    return emailStore.saveEmail(newEmail);
+  }
+
+  /**
+   * Inserts a list of new emails into store and returns all emails stored successfully.
+   *
+   * @param newEmails new emails
+   * @return stored emails
+   */
+  @ResponseStatus(HttpStatus.CREATED)
+  @PostMapping(path = "/insert", params = "bulk")
+  public Flux<EmailDto> handleBulkInsertEmail(@RequestBody List<InsertEmailDto> newEmails) {
+    // Filter possible null values.
+    newEmails = newEmails.stream()
+        .filter(Objects::nonNull)
+        .toList();
+
+    return emailStore.saveEmails(newEmails);
+  }
+
+  /**
+   * Returns the email of given id with its entity tag ({@code ETag}, to be passed to updates). If the client's copy is
+   * still up to date (entity tag given by {@code If-None-Match}), NOT_MODIFIED status gets returned, looking up the
+   * version of the email only. If there is no matching email, NOT_FOUND status gets returned.
+   *
+   * @param id searched id
+   * @param exchange current exchange
+   * @return matching email, if present and modified; else NOT_MODIFIED or NOT_FOUND
+   */
+  @GetMapping(path = "/query")
+  public Mono<ResponseEntity<EmailDto>> handleQueryEmailById(@RequestParam long id, ServerWebExchange exchange) {
+
+    // Answer polling clients without reading (and sending) the email, if unchanged.
+    Mono<Boolean> notModified = exchange.getRequest().getHeaders().containsKey(HttpHeaders.IF_NONE_MATCH)
+        ? emailStore.getEmailVersion(id).map(version -> exchange.checkNotModified(EmailETags.toETag(id, version)))
+        : Mono.just(false);
+
+    return notModified
+        .flatMap(isNotModified -> isNotModified
+            ? Mono.<ResponseEntity<EmailDto>>empty()
+            : emailStore.getEmail(id).map(email -> ResponseEntity.ok()
+                .eTag(EmailETags.toETag(id, email.version()))
+                .body(email)))
+        .onErrorMap(EmailNotFoundException.class, e -> new ResponseStatusException(
+            HttpStatus.NOT_FOUND,
+            "No email found matching id '" + id + "'.",
+            e));
+  }
+
+  /**
+   * Returns the emails matching given ids. If for some ids no email is found, returned list will be shorter than list
+   * of ids. If no email gets found, an empty list gets returned.
+   *
+   * @param ids searched ids
+   * @return list of all found emails (can be shorter than given ids)
+   */
+  @ResponseStatus(HttpStatus.OK)
+  @GetMapping(path = "/query", params = "bulk")
+  public Mono<List<EmailDto>> handleBulkQueryEmailById(@RequestParam List<Long> ids) {
+
+    return emailStore.getEmails(ids);
+  }
+
+  /**
+   * Updates the email of given id with supplied updated email and returns its new version as entity tag ({@code ETag}).
+   * If there is no matching email, NOT_FOUND status gets returned. If update is not allowed, BAD_REQUEST status gets
+   * returned. If the email has been changed concurrently, CONFLICT status gets returned.
+   *
+   * @param id id of email to update
+   * @param ifMatch entity tag of the version the update is based on (optional)
+   * @param updatedEmail updated email
+   * @return empty response with new entity tag
+   */
+  @PutMapping(path = "/update/{id}")
+  public Mono<ResponseEntity<Void>> handleUpdateEmail(
+      @PathVariable long id,
+      @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+      @RequestBody EmailDto updatedEmail) {
+
+    return emailStore.updateEmail(id, updatedEmail, EmailETags.parseIfMatch(id, ifMatch))
+        .map(version -> ResponseEntity.ok()
+            .eTag(EmailETags.toETag(id, version))
+            .<Void>build())
+        .onErrorMap(EmailNotFoundException.class, e -> new ResponseStatusException(
+            HttpStatus.NOT_FOUND,
+            "No email found to update with id '" + id + "'.",
+            e))
+        .onErrorMap(EmailUpdateNotAllowedException.class, e -> new ResponseStatusException(
+            HttpStatus.BAD_REQUEST,
+            "Update of email not allowed, see details for reason.",
+            e))
+        .onErrorMap(EmailVersionConflictException.class, e -> new ResponseStatusException(
+            HttpStatus.CONFLICT,
+            "Email has been changed concurrently, query it again and retry update.",
+            e));
+  }
+
+  /**
+   * Updates all emails with the ids of supplied updated emails and returns the outcome per updated email, see
+   * {@link EmailRestServiceController#handleBulkUpdateEmail}.
+   *
+   * @param updatedEmails updated emails
+   * @return outcome of update per updated email
+   */
+  @ResponseStatus(HttpStatus.OK)
+  @PutMapping(path = "/update", params = "bulk")
+  public Mono<List<EmailUpdateResultDto>> handleBulkUpdateEmail(@RequestBody List<EmailDto> updatedEmails) {
+    // Filter possible null values.
+    updatedEmails = updatedEmails.stream()
+        .filter(Objects::nonNull)
+        .toList();
+
+    return emailStore.updateEmails(updatedEmails);
+  }
+
+  /**
+   * Changes the state of the email of given id to the given state only (without any content), see
+   * {@link EmailRestServiceController#handleUpdateEmailState}.
+   *
+   * @param id id of email to update
+   * @param ifMatch entity tag of the version the update is based on (optional)
+   * @param stateUpdate new state of email
+   * @return empty response with new entity tag
+   */
+  @PatchMapping(path = "/update/{id}")
+  public Mono<ResponseEntity<Void>> handleUpdateEmailState(
+      @PathVariable long id,
+      @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+      @RequestBody EmailStateUpdateDto stateUpdate) {
+
+    return emailStore.updateEmailState(id, stateUpdate.state(), EmailETags.parseIfMatch(id, ifMatch))
+        .map(version -> ResponseEntity.ok()
+            .eTag(EmailETags.toETag(id, version))
+            .<Void>build())
+        .onErrorMap(EmailNotFoundException.class, e -> new ResponseStatusException(
+            HttpStatus.NOT_FOUND,
+            "No email found to update with id '" + id + "'.",
+            e))
+        .onErrorMap(EmailUpdateNotAllowedException.class, e -> new ResponseStatusException(
+            HttpStatus.BAD_REQUEST,
+            "Update of email not allowed, see details for reason.",
+            e))
+        .onErrorMap(EmailVersionConflictException.class, e -> new ResponseStatusException(
+            HttpStatus.CONFLICT,
+            "Email has been changed concurrently, query it again and retry update.",
+            e));
+  }
+
+  /**
+   * Changes the state of all emails of given ids to the given state only (without any content) and returns the ids of
+   * the changed emails. Emails not found or not allowed to change to the given state are left unchanged.
+   *
+   * @param ids ids of emails to update
+   * @param stateUpdate new state of emails
+   * @return ids of updated emails
+   */
+  @ResponseStatus(HttpStatus.OK)
+  @PatchMapping(path = "/update", params = "bulk")
+  public Mono<List<Long>> handleBulkUpdateEmailState(
+      @RequestParam List<Long> ids,
+      @RequestBody EmailStateUpdateDto stateUpdate) {
+
+    return emailStore.updateEmailStates(ids, stateUpdate.state());
+  }
+
+  /**
+   * Deletes the email of given id. If there is no matching email, NOT_FOUND status gets returned.
+   *
+   * @param id id of email to delete
+   * @return completion of delete
+   */
+  @ResponseStatus(HttpStatus.OK)
+  @DeleteMapping(path = "/delete/{id}")
+  public Mono<Void> handleDeleteEmail(@PathVariable long id) {
+
+    return emailStore.deleteEmail(id)
+        .onErrorMap(EmailNotFoundException.class, e -> new ResponseStatusException(
+            HttpStatus.NOT_FOUND,
+            "No email found to delete with id '" + id + "'.",
+            e));
+  }
+
+  /**
+   * Deletes all emails of given ids. If for some ids no email is found, there will be no consequence.
+   *
+   * @param ids ids of emails to delete
+   * @return completion of delete
+   */
+  @ResponseStatus(HttpStatus.OK)
+  @DeleteMapping(path = "/delete", params = "bulk")
+  public Mono<Void> handleDeleteEmails(@RequestParam List<Long> ids) {
+
+    return emailStore.deleteEmails(ids).then();
+  }
+
+  /**
+   * Returns the statistics (hits, misses, evictions, size) of the cache of stored emails.
+   *
+   * @return cache statistics
+   */
+  @ResponseStatus(HttpStatus.OK)
+  @GetMapping(path = "/cache/stats")
+  public EmailCacheStatsDto handleQueryCacheStats() {
+
+    return emailStore.getCacheStats();
+  }
+}
@@ -1,8 +1,11 @@
 package de.jjakobus.emailrestservice.model;
 
+import de.jjakobus.emailrestservice.model.dtos.EmailAddressDto;
 import de.jjakobus.emailrestservice.model.dtos.EmailDto;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.NotNull;
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.ColumnDefault;
 import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 
 import java.util.Date;
@@ -12,17 +15,23 @@ import java.util.Objects;
 import static java.util.Objects.requireNonNull;
 
 /**
- * Represents a single email.
+ * Represents a single email. Emails are indexed by modification date and id (in total and per state), so listing
+ * emails page-wise by keyset (see {@code EmailSpecifications}) costs an index range scan for every page.
  *
  * @author jjakobus
  */
 @Entity
+@Table(indexes = {
+    @Index(name = "email_modified_date_id_idx", columnList = "modified_date, id"),
+    @Index(name = "email_state_modified_date_id_idx", columnList = "state, modified_date, id")
+})
 @EntityListeners(AuditingEntityListener.class)
 public class Email {
 
-  /** ID of email. */
+  /** ID of email. Allocation size matches sequence increment and JDBC batch size of inserts. */
   @Id
-  @GeneratedValue(strategy = GenerationType.AUTO)
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "email_seq")
+  @SequenceGenerator(name = "email_seq", sequenceName = "email_seq", allocationSize = 50)
   private long id;
 
   /** The current state of the email. */
@@ -35,14 +44,22 @@ public class Email {
   @Embedded
   private EmailAddress from;
 
+  /**
+   * Number of emails whose receivers are loaded at once, as soon as the receivers of one (loaded) email are accessed.
+   * This way mapping many emails to DTOs costs one query per receiver list and batch instead of one per email.
+   */
+  private static final int RECEIVERS_BATCH_SIZE = 1000;
+
   /** The main receivers of the email. */
   @NotNull
   @ElementCollection
+  @BatchSize(size = RECEIVERS_BATCH_SIZE)
   private List<EmailAddress> to;
 
   /** The "carbon copy" receivers of the mail. */
   @NotNull
   @ElementCollection
+  @BatchSize(size = RECEIVERS_BATCH_SIZE)
   private List<EmailAddress> cc;
 
   /** Subject of the email (can be empty). */
@@ -57,6 +74,14 @@ public class Email {
   @NotNull
   private Date modifiedDate;
 
+  /**
+   * Version of the email, incremented by every update to detect concurrent updates (optimistic locking). Defaults to 0
+   * in the database, so existing emails and emails inserted by JDBC (without version) get the initial version.
+   */
+  @Version
+  @ColumnDefault("0")
+  private long version;
+
 
   /* constructors */
 
@@ -108,7 +133,51 @@ public class Email {
         cc.stream().map(EmailAddress::toDto).toList(),
         subject,
         body,
-        modifiedDate);
+        modifiedDate,
+        version);
+  }
+
+  /**
+   * Checks whether given DTO has the same content as this entity, i.e. all information except state and version are
+   * equal. Compares field by field, stops at the first difference and creates no objects (unlike comparing with
+   * {@link #toDto()}). Dates are compared by their instant, as dates loaded by JPA are {@link java.sql.Timestamp}s,
+   * which are never equal to other dates.
+   *
+   * @param dto DTO to compare with
+   * @return whether content is equal
+   */
+  public boolean hasSameContent(EmailDto dto) {
+
+    return id == dto.id()
+        && modifiedDate.getTime() == dto.modifiedDate().getTime()
+        && subject.equals(dto.subject())
+        && from.hasSameContent(dto.from())
+        && haveSameContent(to, dto.to())
+        && haveSameContent(cc, dto.cc())
+        && body.equals(dto.body());
+  }
+
+  /**
+   * Checks whether given lists of email addresses have the same content in the same order.
+   *
+   * @param addresses email addresses (entities)
+   * @param dtos email addresses (DTOs)
+   * @return whether content is equal
+   */
+  private static boolean haveSameContent(List<EmailAddress> addresses, List<EmailAddressDto> dtos) {
+    int size = addresses.size();
+    if (size != dtos.size()) {
+      return false;
+    }
+
+    // Compare by index, not creating iterators.
+    for (int i = 0; i < size; i++) {
+      if (!addresses.get(i).hasSameContent(dtos.get(i))) {
+        return false;
+      }
+    }
+
+    return true;
   }
 
   /* getter + setter methods. */
@@ -177,6 +246,14 @@ public class Email {
     this.modifiedDate = requireNonNull(modifiedDate, "modifiedDate must not be null.");
   }
 
+  public long getVersion() {
+    return version;
+  }
+
+  public void setVersion(long version) {
+    this.version = version;
+  }
+
   /* equals, hashCode, toString */
 
   @Override
@@ -195,12 +272,13 @@ public class Email {
         && Objects.equals(cc, email.cc)
         && Objects.equals(subject, email.subject)
         && Objects.equals(body, email.body)
-        && Objects.equals(modifiedDate, email.modifiedDate);
+        && Objects.equals(modifiedDate, email.modifiedDate)
+        && version == email.version;
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(id, state, from, to, cc, subject, body, modifiedDate);
+    return Objects.hash(id, state, from, to, cc, subject, body, modifiedDate, version);
   }
 
   @Override
@@ -214,6 +292,7 @@ public class Email {
         ", subject='" + subject + '\'' +
         ", body='" + body + '\'' +
         ", modifiedDate=" + modifiedDate +
+        ", version=" + version +
         '}';
   }
 }
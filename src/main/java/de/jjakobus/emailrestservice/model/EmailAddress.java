@@ -59,6 +59,19 @@ public class EmailAddress {
         displayName);
   }
 
+  /**
+   * Checks whether given DTO has the same information as this entity, like {@link #toDto()} would be equal to it, but
+   * without creating a DTO.
+   *
+   * @param dto DTO to compare with
+   * @return whether address and display name are equal
+   */
+  public boolean hasSameContent(EmailAddressDto dto) {
+
+    return address.equals(dto.address())
+        && Objects.equals(displayName, dto.displayName());
+  }
+
   /* getter + setter */
 
   public String getAddress() {
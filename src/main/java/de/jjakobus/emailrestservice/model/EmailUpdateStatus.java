@@ -0,0 +1,22 @@
+package de.jjakobus.emailrestservice.model;
+
+/**
+ * Represents the outcome of updating a single email as part of a bulk update.
+ *
+ * @author jjakobus
+ */
+public enum EmailUpdateStatus {
+
+  /** The email has been updated. */
+  UPDATED,
+
+  /** There is no email with the given id. */
+  NOT_FOUND,
+
+  /** The update is not allowed, e.g. changes the content of a non-draft email. */
+  NOT_ALLOWED,
+
+  /** The email has been changed concurrently, so the update has not been applied. */
+  CONFLICT
+
+}
@@ -0,0 +1,103 @@
+package de.jjakobus.emailrestservice.model;
+
+import de.jjakobus.emailrestservice.model.dtos.SpamFilterDto;
+import jakarta.persistence.*;
+import jakarta.validation.constraints.NotNull;
+
+import java.util.Objects;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Represents a filter of the SPAM classification. Emails matching a filter are classified as SPAM.
+ *
+ * @author jjakobus
+ */
+@Entity
+@Table(uniqueConstraints = @UniqueConstraint(
+    name = "spam_filter_type_value_key",
+    columnNames = {"type", "value"}))
+public class SpamFilter {
+
+  /** Generated id of filter. */
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  private Long id;
+
+  /** Type of filter. */
+  @NotNull
+  @Enumerated(EnumType.STRING)
+  private SpamFilterType type;
+
+  /** Value matched by filter, e.g. an email address. */
+  @NotNull
+  private String value;
+
+  /* constructors */
+
+  protected SpamFilter() {
+    // Required by JPA.
+  }
+
+  /**
+   * Creates a new filter.
+   *
+   * @param type type of filter
+   * @param value value matched by filter
+   */
+  public SpamFilter(
+      SpamFilterType type,
+      String value) {
+    this.type = requireNonNull(type, "type must not be null.");
+    this.value = requireNonNull(value, "value must not be null.");
+  }
+
+  /* getter + setter */
+
+  public Long getId() {
+    return id;
+  }
+
+  public SpamFilterType getType() {
+    return type;
+  }
+
+  public String getValue() {
+    return value;
+  }
+
+  /* DTO conversion */
+
+  public SpamFilterDto toDto() {
+    return new SpamFilterDto(type, value);
+  }
+
+  /* equals, hashCode, toString */
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    SpamFilter that = (SpamFilter) o;
+    return type == that.type
+        && Objects.equals(value, that.value);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(type, value);
+  }
+
+  @Override
+  public String toString() {
+    return "SpamFilter{" +
+        "id=" + id +
+        ", type=" + type +
+        ", value='" + value + '\'' +
+        '}';
+  }
+}
@@ -0,0 +1,83 @@
+package de.jjakobus.emailrestservice.model;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.validation.constraints.NotNull;
+
+import java.util.Objects;
+
+/**
+ * Represents a range of email ids pending SPAM classification, claimed by one instance of the service at a time. Ranges
+ * never overlap, so the lower bound identifies a range. Ranges are enqueued and claimed set-based (see
+ * {@code SpamFilterRangeRepository}), the entity defines their table only.
+ *
+ * @author jjakobus
+ */
+@Entity
+public class SpamFilterPendingRange {
+
+  /** Lower bound of ids (exclusive). */
+  @Id
+  private long rangeStart;
+
+  /** Upper bound of ids (inclusive). */
+  @NotNull
+  private long rangeEnd;
+
+  /* constructors */
+
+  protected SpamFilterPendingRange() {
+    // Required by JPA.
+  }
+
+  /**
+   * Creates a new range of email ids pending SPAM classification.
+   *
+   * @param rangeStart lower bound of ids (exclusive)
+   * @param rangeEnd upper bound of ids (inclusive)
+   */
+  public SpamFilterPendingRange(
+      long rangeStart,
+      long rangeEnd) {
+    this.rangeStart = rangeStart;
+    this.rangeEnd = rangeEnd;
+  }
+
+  /* getter */
+
+  public long getRangeStart() {
+    return rangeStart;
+  }
+
+  public long getRangeEnd() {
+    return rangeEnd;
+  }
+
+  /* equals, hashCode, toString */
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    SpamFilterPendingRange that = (SpamFilterPendingRange) o;
+    return rangeStart == that.rangeStart
+        && rangeEnd == that.rangeEnd;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(rangeStart, rangeEnd);
+  }
+
+  @Override
+  public String toString() {
+    return "SpamFilterPendingRange{" +
+        "rangeStart=" + rangeStart +
+        ", rangeEnd=" + rangeEnd +
+        '}';
+  }
+}
@@ -0,0 +1,22 @@
+package de.jjakobus.emailrestservice.model;
+
+/**
+ * Represents the type of a SPAM filter, i.e. what part of an email the filter's value is matched against.
+ *
+ * @author jjakobus
+ */
+public enum SpamFilterType {
+
+  /** A filter matching the email address of the sender (from) exactly. */
+  SENDER,
+
+  /**
+   * A filter matching the domain of the sender's email address, either exactly ("spam.example" or "*@spam.example") or
+   * all of its subdomains ("*.bulkmailer.net").
+   */
+  DOMAIN,
+
+  /** A filter matching a phrase contained in subject or body (case-insensitive). */
+  CONTENT
+
+}
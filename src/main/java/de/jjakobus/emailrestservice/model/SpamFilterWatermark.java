@@ -0,0 +1,88 @@
+package de.jjakobus.emailrestservice.model;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.validation.constraints.NotNull;
+
+import java.util.Objects;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Represents the progress of the SPAM classification: all emails up to (including) the last classified id have been
+ * classified already and do not need to be looked at again.
+ *
+ * @author jjakobus
+ */
+@Entity
+public class SpamFilterWatermark {
+
+  /** Name of the classification the watermark belongs to. */
+  @Id
+  private String name;
+
+  /** Id of the last email that has been classified. */
+  @NotNull
+  private long lastClassifiedEmailId;
+
+  /* constructors */
+
+  protected SpamFilterWatermark() {
+    // Required by JPA.
+  }
+
+  /**
+   * Creates a new watermark.
+   *
+   * @param name name of the classification the watermark belongs to
+   * @param lastClassifiedEmailId id of the last email that has been classified
+   */
+  public SpamFilterWatermark(
+      String name,
+      long lastClassifiedEmailId) {
+    this.name = requireNonNull(name, "name must not be null.");
+    this.lastClassifiedEmailId = lastClassifiedEmailId;
+  }
+
+  /* getter + setter */
+
+  public String getName() {
+    return name;
+  }
+
+  public long getLastClassifiedEmailId() {
+    return lastClassifiedEmailId;
+  }
+
+  public void setLastClassifiedEmailId(long lastClassifiedEmailId) {
+    this.lastClassifiedEmailId = lastClassifiedEmailId;
+  }
+
+  /* equals, hashCode, toString */
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    SpamFilterWatermark that = (SpamFilterWatermark) o;
+    return lastClassifiedEmailId == that.lastClassifiedEmailId
+        && Objects.equals(name, that.name);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(name, lastClassifiedEmailId);
+  }
+
+  @Override
+  public String toString() {
+    return "SpamFilterWatermark{" +
+        "name='" + name + '\'' +
+        ", lastClassifiedEmailId=" + lastClassifiedEmailId +
+        '}';
+  }
+}
@@ -0,0 +1,20 @@
+package de.jjakobus.emailrestservice.model.dtos;
+
+/**
+ * Represents the statistics of the in-process cache of emails in context of DTOs.
+ *
+ * @param hitCount number of lookups of cached emails
+ * @param missCount number of lookups of not cached emails
+ * @param evictionCount number of emails evicted because of the cache's size limit
+ * @param size (estimated) number of cached emails
+ * @param weight (estimated) memory of cached emails in bytes
+ * @author jjakobus
+ */
+public record EmailCacheStatsDto(
+    long hitCount,
+    long missCount,
+    long evictionCount,
+    long size,
+    long weight) {
+
+}
@@ -18,6 +18,7 @@ import static java.util.Objects.requireNonNull;
  * @param subject subject of the email (can be empty)
  * @param body body (the main content) of the mail (can be empty)
  * @param modifiedDate the date the email was modified last
+ * @param version version of the stored email, incremented by every update (ignored when updating an email)
  * @author jjakobus
  */
 public record EmailDto(
@@ -28,7 +29,8 @@ public record EmailDto(
     List<EmailAddressDto> cc,
     String subject,
     String body,
-    Date modifiedDate) {
+    Date modifiedDate,
+    long version) {
 
   public EmailDto(
       long id,
@@ -38,7 +40,8 @@ public record EmailDto(
       List<EmailAddressDto> cc,
       String subject,
       String body,
-      Date modifiedDate) {
+      Date modifiedDate,
+      long version) {
     this.id = id;
     this.state = requireNonNull(state, "state must not be null.");
     this.from = requireNonNull(from, "from must not be null.");
@@ -47,5 +50,26 @@ public record EmailDto(
     this.subject = requireNonNull(subject, "subject must not be null.");
     this.body = requireNonNull(body, "body must not be null.");
     this.modifiedDate = requireNonNull(modifiedDate, "modifiedDate must not be null.");
+    this.version = version;
+  }
+
+  /**
+   * Checks whether given email has the same content as this one, i.e. all information except state and version are
+   * equal. Like {@link de.jjakobus.emailrestservice.model.Email#hasSameContent(EmailDto)}, but for emails read into
+   * DTOs. Dates are compared by their instant, as dates read from the database are {@link java.sql.Timestamp}s, which
+   * are never equal to other dates.
+   *
+   * @param other email to compare with
+   * @return whether content is equal
+   */
+  public boolean hasSameContent(EmailDto other) {
+
+    return id == other.id()
+        && modifiedDate.getTime() == other.modifiedDate().getTime()
+        && subject.equals(other.subject())
+        && from.equals(other.from())
+        && to.equals(other.to())
+        && cc.equals(other.cc())
+        && body.equals(other.body());
   }
 }
@@ -0,0 +1,26 @@
+package de.jjakobus.emailrestservice.model.dtos;
+
+import de.jjakobus.emailrestservice.model.EmailState;
+import org.springframework.lang.Nullable;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Represents the conditions of listing emails in context of DTOs. Conditions that are null are not applied.
+ *
+ * @param states states of emails (one of), null or empty for any state
+ * @param senderAddress email address of sender, null for any sender
+ * @param modifiedFrom lower bound of modification date (inclusive), null for no bound
+ * @param modifiedTo upper bound of modification date (exclusive), null for no bound
+ * @author jjakobus
+ */
+public record EmailFilterDto(
+    @Nullable List<EmailState> states,
+    @Nullable String senderAddress,
+    @Nullable Date modifiedFrom,
+    @Nullable Date modifiedTo) {
+
+  /** Filter matching all emails. */
+  public static final EmailFilterDto NONE = new EmailFilterDto(null, null, null, null);
+}
@@ -0,0 +1,23 @@
+package de.jjakobus.emailrestservice.model.dtos;
+
+import org.springframework.lang.Nullable;
+
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Represents a page of listed emails in context of DTOs.
+ *
+ * @param emails emails of page
+ * @param nextCursor opaque cursor to request the next page, null if this is the last page
+ * @author jjakobus
+ */
+public record EmailPageDto(
+    List<EmailDto> emails,
+    @Nullable String nextCursor) {
+
+  public EmailPageDto {
+    requireNonNull(emails, "emails must not be null.");
+  }
+}
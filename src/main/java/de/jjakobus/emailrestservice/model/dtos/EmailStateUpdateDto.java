@@ -0,0 +1,20 @@
+package de.jjakobus.emailrestservice.model.dtos;
+
+import de.jjakobus.emailrestservice.model.EmailState;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Represents the change of the state of (already stored) emails in context of DTOs, without any content.
+ *
+ * @param state new state of the emails
+ * @author jjakobus
+ */
+public record EmailStateUpdateDto(
+    EmailState state) {
+
+  public EmailStateUpdateDto(
+      EmailState state) {
+    this.state = requireNonNull(state, "state must not be null.");
+  }
+}
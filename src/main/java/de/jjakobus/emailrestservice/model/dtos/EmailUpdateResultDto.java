@@ -0,0 +1,26 @@
+package de.jjakobus.emailrestservice.model.dtos;
+
+import de.jjakobus.emailrestservice.model.EmailUpdateStatus;
+import org.springframework.lang.Nullable;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Represents the outcome of updating a single email as part of a bulk update in context of DTOs.
+ *
+ * @param id id of email
+ * @param status outcome of update
+ * @param version new version of email, null if not updated
+ * @param reason reason why email has not been updated, null if updated
+ * @author jjakobus
+ */
+public record EmailUpdateResultDto(
+    long id,
+    EmailUpdateStatus status,
+    @Nullable Long version,
+    @Nullable String reason) {
+
+  public EmailUpdateResultDto {
+    requireNonNull(status, "status must not be null.");
+  }
+}
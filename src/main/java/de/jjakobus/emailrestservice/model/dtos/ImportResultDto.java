@@ -0,0 +1,12 @@
+package de.jjakobus.emailrestservice.model.dtos;
+
+/**
+ * Represents the result of a bulk import of new emails in context of DTOs.
+ *
+ * @param importedCount number of imported emails
+ * @author jjakobus
+ */
+public record ImportResultDto(
+    long importedCount) {
+
+}
@@ -0,0 +1,22 @@
+package de.jjakobus.emailrestservice.model.dtos;
+
+import de.jjakobus.emailrestservice.model.SpamFilterType;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Represents a filter of the SPAM classification in context of DTOs.
+ *
+ * @param type type of filter
+ * @param value value matched by filter, e.g. an email address
+ * @author jjakobus
+ */
+public record SpamFilterDto(
+    SpamFilterType type,
+    String value) {
+
+  public SpamFilterDto {
+    requireNonNull(type, "type must not be null.");
+    requireNonNull(value, "value must not be null.");
+  }
+}
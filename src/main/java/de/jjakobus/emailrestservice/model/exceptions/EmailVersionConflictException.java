@@ -0,0 +1,25 @@
+package de.jjakobus.emailrestservice.model.exceptions;
+
+/**
+ * Exception when an email has been changed concurrently, e.g. it does not have the version an update is based on.
+ *
+ * @author jjakobus
+ */
+public class EmailVersionConflictException extends Exception {
+
+  public EmailVersionConflictException() {
+  }
+
+  public EmailVersionConflictException(String message) {
+    super(message);
+  }
+
+  public EmailVersionConflictException(String message, Throwable cause) {
+    super(message, cause);
+  }
+
+  @Override
+  public String toString() {
+    return "EmailVersionConflictException{} " + super.toString();
+  }
+}
@@ -0,0 +1,25 @@
+package de.jjakobus.emailrestservice.model.exceptions;
+
+/**
+ * Exception when a cursor of a listed page is malformed, e.g. not created by this service.
+ *
+ * @author jjakobus
+ */
+public class InvalidCursorException extends Exception {
+
+  public InvalidCursorException() {
+  }
+
+  public InvalidCursorException(String message) {
+    super(message);
+  }
+
+  public InvalidCursorException(String message, Throwable cause) {
+    super(message, cause);
+  }
+
+  @Override
+  public String toString() {
+    return "InvalidCursorException{} " + super.toString();
+  }
+}
@@ -0,0 +1,25 @@
+package de.jjakobus.emailrestservice.model.exceptions;
+
+/**
+ * Exception when a SPAM filter is invalid, e.g. a domain filter that is not a valid domain rule.
+ *
+ * @author jjakobus
+ */
+public class InvalidSpamFilterException extends Exception {
+
+  public InvalidSpamFilterException() {
+  }
+
+  public InvalidSpamFilterException(String message) {
+    super(message);
+  }
+
+  public InvalidSpamFilterException(String message, Throwable cause) {
+    super(message, cause);
+  }
+
+  @Override
+  public String toString() {
+    return "InvalidSpamFilterException{} " + super.toString();
+  }
+}
@@ -0,0 +1,25 @@
+package de.jjakobus.emailrestservice.model.exceptions;
+
+/**
+ * Exception when no stored SPAM filter matches given filter.
+ *
+ * @author jjakobus
+ */
+public class SpamFilterNotFoundException extends Exception {
+
+  public SpamFilterNotFoundException() {
+  }
+
+  public SpamFilterNotFoundException(String message) {
+    super(message);
+  }
+
+  public SpamFilterNotFoundException(String message, Throwable cause) {
+    super(message, cause);
+  }
+
+  @Override
+  public String toString() {
+    return "SpamFilterNotFoundException{} " + super.toString();
+  }
+}
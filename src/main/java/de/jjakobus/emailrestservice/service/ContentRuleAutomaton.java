@@ -0,0 +1,254 @@
+package de.jjakobus.emailrestservice.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Immutable matcher of content rules (phrases), compiled into a single Aho-Corasick automaton. A text is scanned once,
+ * character by character, to find out whether it contains any of the phrases. Costs are linear in the length of the
+ * text and independent of the number of phrases (apart from building the automaton).
+ * <p>
+ * Phrases are matched case-insensitively anywhere in the text, e.g. phrase "cheap pills" matches text "Buy CHEAP PILLS
+ * now!".
+ *
+ * @author jjakobus
+ */
+public final class ContentRuleAutomaton {
+
+  /** Automaton without any phrase (never matching). */
+  public static final ContentRuleAutomaton EMPTY = of(List.of());
+
+  /** Number of characters with a dense transition table from the initial state (ASCII). */
+  private static final int DENSE_ROOT_SIZE = 128;
+
+  /** Initial state of automaton. */
+  private static final int ROOT = 0;
+
+  /** Transition characters of each state (sorted ascending). */
+  private final char[][] transitionChars;
+
+  /** Target states of each state's transitions (same order as characters). */
+  private final int[][] transitionTargets;
+
+  /** Dense transitions of initial state for ASCII characters (initial state if there is none). */
+  private final int[] rootTransitions;
+
+  /** Failure state of each state: state of the longest proper suffix that is a prefix of a phrase. */
+  private final int[] failures;
+
+  /** Whether a phrase ends in each state (including phrases ending in one of its failure states). */
+  private final boolean[] accepting;
+
+  /** Number of phrases of automaton. */
+  private final int size;
+
+  private ContentRuleAutomaton(
+      char[][] transitionChars,
+      int[][] transitionTargets,
+      int[] rootTransitions,
+      int[] failures,
+      boolean[] accepting,
+      int size) {
+    this.transitionChars = transitionChars;
+    this.transitionTargets = transitionTargets;
+    this.rootTransitions = rootTransitions;
+    this.failures = failures;
+    this.accepting = accepting;
+    this.size = size;
+  }
+
+  /**
+   * Compiles given phrases into a new automaton.
+   *
+   * @param phrases phrases to match
+   * @return automaton matching phrases
+   * @throws IllegalArgumentException if a phrase is invalid
+   */
+  public static ContentRuleAutomaton of(Collection<String> phrases) {
+    requireNonNull(phrases, "phrases must not be null.");
+
+    // Build trie of all phrases.
+    List<Map<Character, Integer>> trie = new ArrayList<>();
+    List<Boolean> phraseEnds = new ArrayList<>();
+    trie.add(new TreeMap<>());
+    phraseEnds.add(false);
+    for (String phrase : phrases) {
+      String normalizedPhrase = normalizeRule(phrase);
+      int state = ROOT;
+      for (int i = 0; i < normalizedPhrase.length(); i++) {
+        Integer next = trie.get(state).get(normalizedPhrase.charAt(i));
+        if (next == null) {
+          next = trie.size();
+          trie.add(new TreeMap<>());
+          phraseEnds.add(false);
+          trie.get(state).put(normalizedPhrase.charAt(i), next);
+        }
+        state = next;
+      }
+      phraseEnds.set(state, true);
+    }
+
+    // Convert trie into compact arrays.
+    int statesCount = trie.size();
+    char[][] transitionChars = new char[statesCount][];
+    int[][] transitionTargets = new int[statesCount][];
+    boolean[] accepting = new boolean[statesCount];
+    for (int state = 0; state < statesCount; state++) {
+      Map<Character, Integer> transitions = trie.get(state);
+      transitionChars[state] = new char[transitions.size()];
+      transitionTargets[state] = new int[transitions.size()];
+      int i = 0;
+      for (Map.Entry<Character, Integer> transition : transitions.entrySet()) {
+        transitionChars[state][i] = transition.getKey();
+        transitionTargets[state][i] = transition.getValue();
+        i++;
+      }
+      accepting[state] = phraseEnds.get(state);
+    }
+
+    int[] rootTransitions = new int[DENSE_ROOT_SIZE];
+    for (int i = 0; i < transitionChars[ROOT].length && transitionChars[ROOT][i] < DENSE_ROOT_SIZE; i++) {
+      rootTransitions[transitionChars[ROOT][i]] = transitionTargets[ROOT][i];
+    }
+
+    // Compute failure states breadth-first, so failure states of shorter prefixes are known already.
+    int[] failures = new int[statesCount];
+    Queue<Integer> queue = new ArrayDeque<>();
+    for (int target : transitionTargets[ROOT]) {
+      failures[target] = ROOT;
+      queue.add(target);
+    }
+    while (!queue.isEmpty()) {
+      int state = queue.remove();
+      for (int i = 0; i < transitionChars[state].length; i++) {
+        char c = transitionChars[state][i];
+        int target = transitionTargets[state][i];
+
+        int failure = failures[state];
+        int failureTarget;
+        while ((failureTarget = transition(transitionChars, transitionTargets, failure, c)) < 0 && failure != ROOT) {
+          failure = failures[failure];
+        }
+        failures[target] = failureTarget >= 0 ? failureTarget : ROOT;
+        // A phrase ending in failure state ends in target state, too (suffix of it).
+        accepting[target] |= accepting[failures[target]];
+
+        queue.add(target);
+      }
+    }
+
+    return new ContentRuleAutomaton(
+        transitionChars, transitionTargets, rootTransitions, failures, accepting, phrases.size());
+  }
+
+  /**
+   * Normalizes given content rule (phrase): strips leading and trailing whitespace and converts it to lower case.
+   *
+   * @param phrase phrase to normalize
+   * @return normalized phrase
+   * @throws IllegalArgumentException if phrase is blank
+   */
+  public static String normalizeRule(String phrase) {
+    requireNonNull(phrase, "phrase must not be null.");
+
+    String normalizedPhrase = toLowerCase(phrase.strip());
+    if (normalizedPhrase.isEmpty()) {
+      throw new IllegalArgumentException("Content rule must not be blank.");
+    }
+
+    return normalizedPhrase;
+  }
+
+  /**
+   * Converts given text to lower case character by character, exactly like texts are converted while matching.
+   *
+   * @param text text to convert
+   * @return lower case text
+   */
+  private static String toLowerCase(String text) {
+    char[] chars = text.toCharArray();
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = Character.toLowerCase(chars[i]);
+    }
+    return new String(chars);
+  }
+
+  /**
+   * Checks whether given text contains any phrase of automaton.
+   *
+   * @param text text to scan
+   * @return whether a phrase has been found
+   */
+  public boolean matches(CharSequence text) {
+    requireNonNull(text, "text must not be null.");
+    if (size == 0) {
+      return false;
+    }
+
+    int state = ROOT;
+    for (int i = 0; i < text.length(); i++) {
+      char c = Character.toLowerCase(text.charAt(i));
+
+      int next;
+      while ((next = transition(state, c)) < 0 && state != ROOT) {
+        state = failures[state];
+      }
+      state = next >= 0 ? next : ROOT;
+
+      if (accepting[state]) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Checks whether automaton contains no phrase at all.
+   *
+   * @return whether automaton is empty
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Returns the number of phrases of automaton.
+   *
+   * @return number of phrases
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the target state of given state's transition on given character.
+   *
+   * @param state source state
+   * @param c (lower case) character
+   * @return target state, negative if there is no transition
+   */
+  private int transition(int state, char c) {
+    if (state == ROOT && c < DENSE_ROOT_SIZE) {
+      int target = rootTransitions[c];
+      return target != ROOT ? target : -1;
+    }
+    return transition(transitionChars, transitionTargets, state, c);
+  }
+
+  private static int transition(char[][] transitionChars, int[][] transitionTargets, int state, char c) {
+    int i = Arrays.binarySearch(transitionChars[state], c);
+    return i >= 0
+        ? transitionTargets[state][i]
+        : -1;
+  }
+}
@@ -0,0 +1,211 @@
+package de.jjakobus.emailrestservice.service;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Immutable matcher of domain rules built as trie of reversed domain labels, e.g. rule "mail.spam.example" is stored as
+ * path "example" → "spam" → "mail". Looking up a domain walks the trie label by label from the top-level domain, so a
+ * lookup costs O(number of labels of domain), independent of the number of rules.
+ * <p>
+ * Supported rules (see {@link #normalizeRule(String)}):
+ * <ul>
+ *   <li>"spam.example" or "*@spam.example": matches domain "spam.example" exactly</li>
+ *   <li>"*.bulkmailer.net": matches all subdomains of "bulkmailer.net" (e.g. "eu.bulkmailer.net"), but not
+ *   "bulkmailer.net" itself</li>
+ * </ul>
+ * Domains are matched case-insensitively.
+ *
+ * @author jjakobus
+ */
+public final class DomainRuleTrie {
+
+  /** Prefix of rules matching all subdomains. */
+  private static final String SUBDOMAINS_PREFIX = "*.";
+
+  /** Prefix of rules matching all addresses of a domain. */
+  private static final String ADDRESSES_PREFIX = "*@";
+
+  /** Trie without any rule. */
+  public static final DomainRuleTrie EMPTY = new DomainRuleTrie(new Node(), 0);
+
+  /** Root node of trie (representing the empty domain). */
+  private final Node root;
+
+  /** Number of rules in trie. */
+  private final int size;
+
+  private DomainRuleTrie(Node root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  /**
+   * Creates a new trie matching all given rules.
+   *
+   * @param rules domain rules
+   * @return trie of rules
+   * @throws IllegalArgumentException if a rule is invalid
+   */
+  public static DomainRuleTrie of(Collection<String> rules) {
+    requireNonNull(rules, "rules must not be null.");
+
+    Node root = new Node();
+    for (String rule : rules) {
+      String normalizedRule = normalizeRule(rule);
+      boolean subdomains = normalizedRule.startsWith(SUBDOMAINS_PREFIX);
+      String domain = subdomains
+          ? normalizedRule.substring(SUBDOMAINS_PREFIX.length())
+          : normalizedRule;
+
+      // Walk labels from top-level domain to lowest label, creating missing nodes.
+      Node node = root;
+      int labelEnd = domain.length();
+      while (labelEnd > 0) {
+        int labelStart = domain.lastIndexOf('.', labelEnd - 1) + 1;
+        node = node.getOrCreateChild(domain.substring(labelStart, labelEnd));
+        labelEnd = labelStart - 1;
+      }
+
+      if (subdomains) {
+        node.matchesSubdomains = true;
+      } else {
+        node.matchesDomain = true;
+      }
+    }
+
+    return new DomainRuleTrie(root, rules.size());
+  }
+
+  /**
+   * Normalizes given domain rule: converts it to lower case and strips a leading "*@" (matching all addresses of a
+   * domain is the same as matching the domain).
+   *
+   * @param rule rule to normalize
+   * @return normalized rule
+   * @throws IllegalArgumentException if rule is invalid, e.g. contains empty labels or "@"
+   */
+  public static String normalizeRule(String rule) {
+    requireNonNull(rule, "rule must not be null.");
+
+    String normalizedRule = rule.trim().toLowerCase(Locale.ROOT);
+    if (normalizedRule.startsWith(ADDRESSES_PREFIX)) {
+      normalizedRule = normalizedRule.substring(ADDRESSES_PREFIX.length());
+    }
+
+    String domain = normalizedRule.startsWith(SUBDOMAINS_PREFIX)
+        ? normalizedRule.substring(SUBDOMAINS_PREFIX.length())
+        : normalizedRule;
+    if (domain.isEmpty()
+        || domain.startsWith(".")
+        || domain.endsWith(".")
+        || domain.contains("..")
+        || domain.contains("@")
+        || domain.contains("*")) {
+      throw new IllegalArgumentException("Invalid domain rule '" + rule + "'.");
+    }
+
+    return normalizedRule;
+  }
+
+  /**
+   * Extracts the (lower case) domain of given email address, i.e. everything after the last "@". Addresses without
+   * "@" are returned as a whole.
+   *
+   * @param address email address
+   * @return domain of address
+   */
+  public static String domainOf(String address) {
+    requireNonNull(address, "address must not be null.");
+
+    return address.substring(address.lastIndexOf('@') + 1).toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Checks whether given domain is matched by a rule of trie.
+   *
+   * @param domain domain to check (case-insensitive)
+   * @return whether domain is matched
+   */
+  public boolean matches(String domain) {
+    requireNonNull(domain, "domain must not be null.");
+
+    Node node = root;
+    int labelEnd = domain.length();
+    while (labelEnd > 0) {
+      int labelStart = domain.lastIndexOf('.', labelEnd - 1) + 1;
+      node = node.getChild(domain.substring(labelStart, labelEnd).toLowerCase(Locale.ROOT));
+      if (node == null) {
+        return false;
+      }
+      labelEnd = labelStart - 1;
+      if (labelEnd > 0 && node.matchesSubdomains) {
+        // There are labels left, so domain is a subdomain of node's domain.
+        return true;
+      }
+    }
+
+    return node.matchesDomain;
+  }
+
+  /**
+   * Checks whether sender of given email address is matched by a rule of trie.
+   *
+   * @param address email address of sender
+   * @return whether sender's domain is matched
+   */
+  public boolean matchesAddress(String address) {
+    return !isEmpty() && matches(domainOf(address));
+  }
+
+  /**
+   * Checks whether trie contains no rule at all.
+   *
+   * @return whether trie is empty
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Returns the number of rules in trie.
+   *
+   * @return number of rules
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * A node of the trie, representing a domain (the labels on the path from root).
+   */
+  private static final class Node {
+
+    /** Child nodes by their (lowest) label, null if there is none. */
+    private Map<String, Node> children;
+
+    /** Whether the domain of node itself is matched. */
+    private boolean matchesDomain;
+
+    /** Whether all subdomains of node's domain are matched. */
+    private boolean matchesSubdomains;
+
+    private Node getChild(String label) {
+      return children != null
+          ? children.get(label)
+          : null;
+    }
+
+    private Node getOrCreateChild(String label) {
+      if (children == null) {
+        // Most nodes have a single child only.
+        children = new HashMap<>(2);
+      }
+      return children.computeIfAbsent(label, key -> new Node());
+    }
+  }
+}
@@ -0,0 +1,243 @@
+package de.jjakobus.emailrestservice.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import de.jjakobus.emailrestservice.model.dtos.EmailAddressDto;
+import de.jjakobus.emailrestservice.model.dtos.EmailCacheStatsDto;
+import de.jjakobus.emailrestservice.model.dtos.EmailDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.unit.DataSize;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Bounded in-process cache of stored emails by id. Size is limited by the (estimated) memory of cached emails, so a few
+ * emails with large bodies do not push out many small ones unnoticed. Least valuable emails are evicted first.
+ * <p>
+ * Emails must be invalidated whenever they are changed in the database. Invalidations take effect after the current
+ * transaction (if any) has been committed, and emails read from the database before an invalidation are not put into
+ * the cache afterward, so cached emails never fall behind the database for longer than a transaction.
+ *
+ * @author jjakobus
+ */
+@Component
+public class EmailCache {
+
+  /** Estimated memory (in bytes) of an email without its texts, e.g. object headers, id, state and date. */
+  private static final int EMAIL_BASE_WEIGHT = 128;
+
+  /** Estimated memory (in bytes) of an email address without its texts. */
+  private static final int EMAIL_ADDRESS_BASE_WEIGHT = 48;
+
+  /* Logger messages. */
+  private static final String MSG_INVALIDATED_EMAILS = "Invalidated {} cached emails.";
+  private static final String MSG_INVALIDATED_ID_RANGE = "Invalidated cached emails with ids in ({}, {}].";
+  private static final String MSG_INVALIDATED_ALL = "Invalidated all cached emails.";
+
+  /** Logger of cache. */
+  private final Logger logger = LoggerFactory.getLogger(EmailCache.class);
+
+  /** Cached emails by id. */
+  private final Cache<Long, EmailDto> cache;
+
+  /** Number of invalidations so far (guarded by this), used to detect invalidations during reads. */
+  private long invalidationsCount;
+
+  /**
+   * Creates a new, empty cache of emails.
+   *
+   * @param maxWeight maximum (estimated) memory of cached emails
+   */
+  @Autowired
+  public EmailCache(@Value("${email-rest-service.email-cache-max-weight}") DataSize maxWeight) {
+    requireNonNull(maxWeight, "maxWeight must not be null.");
+    this.cache = Caffeine.newBuilder()
+        .maximumWeight(maxWeight.toBytes())
+        .weigher((Long id, EmailDto email) -> weigh(email))
+        .recordStats()
+        .build();
+  }
+
+  /**
+   * Returns the cached email with given id.
+   *
+   * @param id id of email
+   * @return cached email, empty if not cached
+   */
+  public Optional<EmailDto> get(long id) {
+    return Optional.ofNullable(cache.getIfPresent(id));
+  }
+
+  /**
+   * Returns all cached emails with given ids.
+   *
+   * @param ids ids of emails
+   * @return cached emails by id (ids of not cached emails are missing)
+   */
+  public Map<Long, EmailDto> getAll(Collection<Long> ids) {
+    requireNonNull(ids, "ids must not be null.");
+
+    return cache.getAllPresent(ids);
+  }
+
+  /**
+   * Returns a token to be passed to {@link #putAll(Collection, long)} for emails read from the database afterward.
+   *
+   * @return current read token
+   */
+  public synchronized long getReadToken() {
+    return invalidationsCount;
+  }
+
+  /**
+   * Caches given emails read from the database, unless any email has been invalidated since given read token was
+   * obtained (then emails might be outdated already).
+   *
+   * @param emails emails read from the database
+   * @param readToken token obtained by {@link #getReadToken()} before reading emails
+   */
+  public synchronized void putAll(Collection<EmailDto> emails, long readToken) {
+    requireNonNull(emails, "emails must not be null.");
+
+    if (readToken != invalidationsCount) {
+      return;
+    }
+    for (EmailDto email : emails) {
+      cache.put(email.id(), email);
+    }
+  }
+
+  /**
+   * Invalidates the cached emails with given ids, after the current transaction has been committed.
+   *
+   * @param ids ids of changed emails
+   */
+  public void invalidate(Collection<Long> ids) {
+    requireNonNull(ids, "ids must not be null.");
+
+    // Copy ids, as given collection might be changed until commit.
+    List<Long> invalidatedIds = List.copyOf(ids);
+    afterCommit(() -> {
+      synchronized (this) {
+        invalidationsCount++;
+        cache.invalidateAll(invalidatedIds);
+      }
+      logger.debug(MSG_INVALIDATED_EMAILS, invalidatedIds.size());
+    });
+  }
+
+  /**
+   * Invalidates all cached emails with ids in given range, after the current transaction has been committed. Meant for
+   * bulk updates that do not load the ids of changed emails.
+   *
+   * @param fromId lower bound of ids (exclusive)
+   * @param toId upper bound of ids (inclusive)
+   */
+  public void invalidateIdRange(long fromId, long toId) {
+
+    afterCommit(() -> {
+      synchronized (this) {
+        invalidationsCount++;
+        cache.asMap().keySet().removeIf(id -> id > fromId && id <= toId);
+      }
+      logger.debug(MSG_INVALIDATED_ID_RANGE, fromId, toId);
+    });
+  }
+
+  /**
+   * Invalidates all cached emails right away, e.g. when changes of emails might have been missed.
+   */
+  public void invalidateAll() {
+
+    synchronized (this) {
+      invalidationsCount++;
+      cache.invalidateAll();
+    }
+    logger.debug(MSG_INVALIDATED_ALL);
+  }
+
+  /**
+   * Returns the statistics of this cache since its creation.
+   *
+   * @return cache statistics
+   */
+  public EmailCacheStatsDto getStats() {
+    // Apply pending (asynchronous) maintenance, so size and weight include all cached emails.
+    cache.cleanUp();
+    CacheStats stats = cache.stats();
+
+    return new EmailCacheStatsDto(
+        stats.hitCount(),
+        stats.missCount(),
+        stats.evictionCount(),
+        cache.estimatedSize(),
+        cache.policy().eviction()
+            .map(eviction -> eviction.weightedSize().orElse(0))
+            .orElse(0L));
+  }
+
+  /**
+   * Runs given action after the current transaction has been committed, or right away if there is no transaction.
+   *
+   * @param action action to run
+   */
+  private static void afterCommit(Runnable action) {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      action.run();
+      return;
+    }
+
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+      @Override
+      public void afterCommit() {
+        action.run();
+      }
+    });
+  }
+
+  /**
+   * Estimates the memory (in bytes) of given email, dominated by its texts (two bytes per char at most).
+   *
+   * @param email email to weigh
+   * @return estimated memory of email
+   */
+  private static int weigh(EmailDto email) {
+    long weight = EMAIL_BASE_WEIGHT
+        + 2L * (email.subject().length() + email.body().length())
+        + weigh(email.from());
+    for (EmailAddressDto receiver : email.to()) {
+      weight += weigh(receiver);
+    }
+    for (EmailAddressDto receiver : email.cc()) {
+      weight += weigh(receiver);
+    }
+
+    return (int) Math.min(weight, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Estimates the memory (in bytes) of given email address.
+   *
+   * @param address email address to weigh
+   * @return estimated memory of email address
+   */
+  private static long weigh(EmailAddressDto address) {
+    int displayNameLength = address.displayName() != null
+        ? address.displayName().length()
+        : 0;
+
+    return EMAIL_ADDRESS_BASE_WEIGHT + 2L * (address.address().length() + displayNameLength);
+  }
+}
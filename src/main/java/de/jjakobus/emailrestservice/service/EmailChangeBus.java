@@ -0,0 +1,293 @@
+package de.jjakobus.emailrestservice.service;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Publishes changes of stored emails to all instances of the service (sharing the same database) using PostgreSQL's
+ * {@code NOTIFY}, and invalidates the cached emails of this instance on changes published by any instance (including
+ * this one) using {@code LISTEN}. Notifications are sent within the current transaction (if any), so they are delivered
+ * after the change has been committed only. Changes of SPAM filters are published on the same channel, and every
+ * instance reloads the filters of its {@link SpamFilterRegistry} on them.
+ * <p>
+ * Listening holds one connection of the pool for the lifetime of the service. If the connection is lost, notifications
+ * might be missed, so all cached emails are invalidated and SPAM filters are reloaded when listening again.
+ *
+ * @author jjakobus
+ */
+@Component
+public class EmailChangeBus implements SmartLifecycle {
+
+  /** Channel of notifications about changed emails. */
+  static final String CHANNEL = "email_changed";
+
+  /** Prefix of notifications about changed emails by ids, followed by comma-separated ids. */
+  static final String IDS_PREFIX = "ids:";
+
+  /** Prefix of notifications about changed emails by id range, followed by lower (exclusive) and upper bound. */
+  static final String ID_RANGE_PREFIX = "range:";
+
+  /** Payload of notifications about changed SPAM filters. */
+  static final String SPAM_FILTERS_PAYLOAD = "spam-filters";
+
+  /**
+   * Maximum number of ids sent in a single notification (payload is limited to 8000 bytes). More ids are sent as the
+   * range of all ids instead.
+   */
+  static final int MAX_IDS_PER_NOTIFICATION = 300;
+
+  /** Maximum time (in ms) waiting for notifications, before checking whether listening should be stopped. */
+  private static final int POLL_TIMEOUT_MILLIS = 500;
+
+  /** Time (in ms) to wait before listening again after the connection has been lost. */
+  private static final long RECONNECT_DELAY_MILLIS = 5000;
+
+  /* SQL statements. */
+  private static final String SQL_NOTIFY = "SELECT pg_notify(?, ?)";
+  private static final String SQL_LISTEN = "LISTEN " + CHANNEL;
+  private static final String SQL_UNLISTEN = "UNLISTEN " + CHANNEL;
+
+  /* Logger messages. */
+  private static final String MSG_LISTENING = "Listening to changes of emails on channel '{}'.";
+  private static final String MSG_LISTENING_FAILED = "Listening to changes of emails failed, retrying in {} ms.";
+  private static final String MSG_MALFORMED_NOTIFICATION = "Ignoring malformed notification about changed emails: {}.";
+
+  /** Logger of bus. */
+  private final Logger logger = LoggerFactory.getLogger(EmailChangeBus.class);
+
+  /** Cache of emails of this instance. */
+  private final EmailCache emailCache;
+
+  /** Registry of SPAM filters of this instance. */
+  private final SpamFilterRegistry spamFilterRegistry;
+
+  /** JDBC template to send notifications with. */
+  private final JdbcTemplate jdbcTemplate;
+
+  /** Source of the connection listening to notifications. */
+  private final DataSource dataSource;
+
+  /** Thread listening to notifications, null if not running. */
+  private volatile Thread listenerThread;
+
+  /**
+   * Creates a new bus of changes of emails.
+   *
+   * @param emailCache cache of emails of this instance
+   * @param spamFilterRegistry registry of SPAM filters of this instance
+   * @param jdbcTemplate JDBC template to send notifications with
+   * @param dataSource source of the connection listening to notifications
+   */
+  @Autowired
+  public EmailChangeBus(
+      EmailCache emailCache,
+      SpamFilterRegistry spamFilterRegistry,
+      JdbcTemplate jdbcTemplate,
+      DataSource dataSource) {
+    this.emailCache = requireNonNull(emailCache, "emailCache must not be null.");
+    this.spamFilterRegistry = requireNonNull(spamFilterRegistry, "spamFilterRegistry must not be null.");
+    this.jdbcTemplate = requireNonNull(jdbcTemplate, "jdbcTemplate must not be null.");
+    this.dataSource = requireNonNull(dataSource, "dataSource must not be null.");
+  }
+
+  /**
+   * Publishes that the emails with given ids have been changed. Cached emails of this instance are invalidated after
+   * the current transaction has been committed, all other instances are notified on commit.
+   *
+   * @param ids ids of changed emails
+   */
+  public void publishChanged(Collection<Long> ids) {
+    requireNonNull(ids, "ids must not be null.");
+    if (ids.isEmpty()) {
+      return;
+    }
+
+    String payload = createPayload(ids);
+    // Invalidate like any notified instance (cache defers invalidation until commit).
+    handleNotification(payload);
+    sendNotification(payload);
+  }
+
+  /**
+   * Creates the payload of a notification about the changed emails with given ids. Too many ids for a single
+   * notification are sent as the range of all ids in between instead.
+   *
+   * @param ids ids of changed emails (not empty)
+   * @return payload of notification
+   */
+  static String createPayload(Collection<Long> ids) {
+
+    if (ids.size() > MAX_IDS_PER_NOTIFICATION) {
+      long minId = ids.stream().mapToLong(Long::longValue).min().orElseThrow();
+      long maxId = ids.stream().mapToLong(Long::longValue).max().orElseThrow();
+      return ID_RANGE_PREFIX + (minId - 1) + "," + maxId;
+    }
+
+    return IDS_PREFIX + ids.stream()
+        .map(String::valueOf)
+        .collect(Collectors.joining(","));
+  }
+
+  /**
+   * Publishes that (some) emails with ids in given range have been changed. Cached emails of this instance are
+   * invalidated after the current transaction has been committed, all other instances are notified on commit.
+   *
+   * @param fromId lower bound of ids (exclusive)
+   * @param toId upper bound of ids (inclusive)
+   */
+  public void publishChangedIdRange(long fromId, long toId) {
+
+    emailCache.invalidateIdRange(fromId, toId);
+    sendNotification(ID_RANGE_PREFIX + fromId + "," + toId);
+  }
+
+  /**
+   * Publishes that SPAM filters have been changed, so all other instances reload their filters on commit. The filters
+   * of this instance are expected to be reloaded already.
+   */
+  public void publishSpamFiltersChanged() {
+    sendNotification(SPAM_FILTERS_PAYLOAD);
+  }
+
+  /**
+   * Sends a notification with given payload to all listening instances (on commit of current transaction, if any).
+   *
+   * @param payload payload of notification
+   */
+  private void sendNotification(String payload) {
+    jdbcTemplate.queryForList(SQL_NOTIFY, CHANNEL, payload);
+  }
+
+  /**
+   * Invalidates the cached emails named in given payload of a notification, or reloads the SPAM filters.
+   *
+   * @param payload payload of notification
+   */
+  void handleNotification(String payload) {
+
+    try {
+      if (payload.startsWith(IDS_PREFIX)) {
+        List<Long> ids = Arrays.stream(payload.substring(IDS_PREFIX.length()).split(","))
+            .map(Long::valueOf)
+            .toList();
+        emailCache.invalidate(ids);
+
+      } else if (payload.startsWith(ID_RANGE_PREFIX)) {
+        String[] bounds = payload.substring(ID_RANGE_PREFIX.length()).split(",");
+        emailCache.invalidateIdRange(Long.parseLong(bounds[0]), Long.parseLong(bounds[1]));
+
+      } else if (payload.equals(SPAM_FILTERS_PAYLOAD)) {
+        spamFilterRegistry.reload();
+
+      } else {
+        logger.warn(MSG_MALFORMED_NOTIFICATION, payload);
+
+      }
+
+    } catch (RuntimeException e) {
+      logger.warn(MSG_MALFORMED_NOTIFICATION, payload, e);
+
+    }
+  }
+
+  /**
+   * Listens to notifications until listening is stopped, connecting again if the connection is lost.
+   */
+  private void listen() {
+
+    while (listenerThread == Thread.currentThread()) {
+      try (Connection connection = dataSource.getConnection()) {
+        try (Statement statement = connection.createStatement()) {
+          statement.execute(SQL_LISTEN);
+        }
+        // Changes might have been missed while not listening.
+        emailCache.invalidateAll();
+        spamFilterRegistry.reload();
+        logger.info(MSG_LISTENING, CHANNEL);
+
+        PGConnection pgConnection = connection.unwrap(PGConnection.class);
+        while (listenerThread == Thread.currentThread()) {
+          PGNotification[] notifications = pgConnection.getNotifications(POLL_TIMEOUT_MILLIS);
+          if (notifications != null) {
+            for (PGNotification notification : notifications) {
+              handleNotification(notification.getParameter());
+            }
+          }
+        }
+
+        // Do not return a listening connection to the pool.
+        try (Statement statement = connection.createStatement()) {
+          statement.execute(SQL_UNLISTEN);
+        }
+
+      } catch (SQLException e) {
+        if (listenerThread != Thread.currentThread()) {
+          // Stopped while waiting for notifications.
+          return;
+        }
+        logger.warn(MSG_LISTENING_FAILED, RECONNECT_DELAY_MILLIS, e);
+        try {
+          Thread.sleep(RECONNECT_DELAY_MILLIS);
+
+        } catch (InterruptedException interrupted) {
+          Thread.currentThread().interrupt();
+          return;
+
+        }
+      }
+    }
+  }
+
+  /* Lifecycle methods. */
+
+  @Override
+  public synchronized void start() {
+    if (listenerThread != null) {
+      return;
+    }
+
+    listenerThread = new Thread(this::listen, "email-change-listener");
+    listenerThread.setDaemon(true);
+    listenerThread.start();
+  }
+
+  @Override
+  public synchronized void stop() {
+    Thread stoppedThread = listenerThread;
+    if (stoppedThread == null) {
+      return;
+    }
+
+    listenerThread = null;
+    stoppedThread.interrupt();
+    try {
+      stoppedThread.join(2L * POLL_TIMEOUT_MILLIS);
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+
+    }
+  }
+
+  @Override
+  public boolean isRunning() {
+    return listenerThread != null;
+  }
+}
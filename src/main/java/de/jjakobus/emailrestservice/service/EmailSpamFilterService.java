@@ -1,90 +1,445 @@
 package de.jjakobus.emailrestservice.service;
 
 import de.jjakobus.emailrestservice.model.Email;
-import de.jjakobus.emailrestservice.model.EmailAddress;
 import de.jjakobus.emailrestservice.model.EmailState;
+import de.jjakobus.emailrestservice.model.SpamFilterWatermark;
+import de.jjakobus.emailrestservice.model.SpamFilterType;
+import de.jjakobus.emailrestservice.model.dtos.SpamFilterDto;
+import de.jjakobus.emailrestservice.model.exceptions.InvalidSpamFilterException;
+import de.jjakobus.emailrestservice.model.exceptions.SpamFilterNotFoundException;
+import de.jjakobus.emailrestservice.service.repositories.EmailJdbcRepository;
 import de.jjakobus.emailrestservice.service.repositories.EmailRepository;
+import de.jjakobus.emailrestservice.service.repositories.SpamFilterRangeRepository;
+import de.jjakobus.emailrestservice.service.repositories.SpamFilterRangeRepository.IdRange;
+import de.jjakobus.emailrestservice.service.repositories.SpamFilterWatermarkRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Optional;
+import java.util.OptionalInt;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static java.util.Objects.requireNonNull;
 
 /**
  * Analyses stored emails and classifies individual mails as SPAM based on set filters. Service is scheduled to run
- * every day at 10:00. Current implementation allows to set email addresses (sender) as filter only.
+ * every day at 10:00. Filters are managed by the {@link SpamFilterRegistry}. Current implementation allows to set email
+ * addresses (sender), domains of senders (see {@link DomainRuleTrie}) and phrases in subject or body (see
+ * {@link ContentRuleAutomaton}) as filter.
+ * To not look at the same emails again on every run, the id of the last enqueued email is persisted as watermark and
+ * only emails with higher ids are enqueued for classification. Enqueued emails are split into id ranges, which are
+ * claimed and classified by all running instances in parallel (see {@link SpamFilterRangeRepository}), so adding
+ * instances shortens a run instead of repeating the same work. Emails becoming SENT below the watermark (drafts sent
+ * after their id has been classified, or emails stored with ids allocated before the last run) are enqueued by their
+ * ids (see {@link #enqueueSentEmails(Collection)}). A full rescan of all emails is done when filters change and
+ * scheduled regularly.
+ * Matching emails are marked by set-based update statements, each covering a limited range of ids to keep lock times
+ * short. Emails are never loaded, so the costs of a run are dominated by the database. For domain filters, the distinct
+ * sender domains of a range are matched in memory first, so the update statement lists matching domains only. For
+ * content filters, subjects and bodies of a range are streamed and scanned in memory, then matching emails are updated
+ * by their ids.
  *
  * @author jjakobus
  */
 @Service
 public class EmailSpamFilterService {
 
+  /** Name of the watermark of the SPAM classification. */
+  static final String WATERMARK_NAME = "spam-filter";
+
+  /** Name of the marker (watermark row without a meaningful id) recording that default filters have been added. */
+  static final String DEFAULT_FILTERS_MARKER_NAME = "spam-filter-defaults";
+
+  /** Filters added once, on the first start of the service on a database. */
+  static final List<SpamFilterDto> DEFAULT_FILTERS = List.of(
+      new SpamFilterDto(SpamFilterType.SENDER, "carl@gbtec.com"));
+
   /* Logger messages. */
   private static final String MSG_RUNNING_SPAM_CLASSIFICATION =
-      "Running scheduled SPAM classification task with filter email addresses: {}.";
+      "Running scheduled SPAM classification task with {} filters.";
+  private static final String MSG_ENQUEUED_EMAIL_RANGES = "Enqueued {} ranges of emails with ids up to {}.";
+  private static final String MSG_CLASSIFYING_EMAIL_RANGE = "Classifying emails with ids in ({}, {}].";
+  private static final String MSG_CLASSIFIED_EMAIL_RANGE = "Classified {} mails with ids in ({}, {}] as SPAM.";
+  private static final String MSG_CLASSIFYING_EMAIL_RANGE_FAILED =
+      "Could not classify emails with ids in ({}, {}], range is left pending for the next run.";
   private static final String MSG_SUCCESSFULLY_CLASSIFIED_MAILS = "Classified {} mails as SPAM.";
-  private static final String MSG_ADDED_SPAM_FILTER = "Added new filter address: {}.";
+  private static final String MSG_REQUESTED_FULL_RESCAN = "Requested full rescan of all emails on next run.";
+  private static final String MSG_ADDED_DEFAULT_FILTERS = "Added default SPAM filters: {}.";
+  private static final String MSG_ENQUEUED_SENT_EMAILS = "Enqueued {} ranges of sent emails with ids {}.";
+  private static final String MSG_ENQUEUING_SENT_EMAILS_FAILED =
+      "Could not enqueue sent emails with ids {}, they are classified by the next full rescan.";
 
   /** Logger of service. */
   private final Logger logger = LoggerFactory.getLogger(EmailSpamFilterService.class);
 
+  /* Exception messages. */
+  private static final String MSG_NO_SUCH_FILTER = "There is no SPAM filter %s.";
+  private static final String MSG_INVALID_FILTER = "SPAM filter %s is invalid.";
+  private static final String MSG_INVALID_DEFAULT_FILTER = "Default SPAM filter %s is invalid.";
+
   /** Repository of emails. */
   private final EmailRepository emailRepository;
 
-  /** Spam filters for sender email. */
-  private final Set<EmailAddress> filteredEmails;
+  /** Repository to update emails set-based. */
+  private final EmailJdbcRepository emailJdbcRepository;
+
+  /** Repository of the classification's watermark. */
+  private final SpamFilterWatermarkRepository watermarkRepository;
+
+  /** Queue of id ranges pending classification, shared by all instances. */
+  private final SpamFilterRangeRepository spamFilterRangeRepository;
+
+  /** Operations to run claimed ranges in transactions. */
+  private final TransactionOperations transactionOperations;
+
+  /** Registry of spam filters. */
+  private final SpamFilterRegistry spamFilterRegistry;
+
+  /** Bus publishing changes of emails (classified emails) and filters to all instances. */
+  private final EmailChangeBus emailChangeBus;
+
+  /** Number of ids covered by a single update statement. */
+  private final long idRangeSize;
 
   /**
    * Creates a new service for managing stored emails.
    *
    * @param emailRepository repository of emails
+   * @param emailJdbcRepository repository to update emails set-based
+   * @param watermarkRepository repository of the classification's watermark
+   * @param spamFilterRangeRepository queue of id ranges pending classification, shared by all instances
+   * @param transactionOperations operations to run claimed ranges in transactions
+   * @param spamFilterRegistry registry of spam filters
+   * @param emailChangeBus bus publishing changes of emails (classified emails) and filters to all instances
+   * @param idRangeSize number of ids covered by a single update statement
    */
   @Autowired
-  public EmailSpamFilterService(EmailRepository emailRepository) {
+  public EmailSpamFilterService(
+      EmailRepository emailRepository,
+      EmailJdbcRepository emailJdbcRepository,
+      SpamFilterWatermarkRepository watermarkRepository,
+      SpamFilterRangeRepository spamFilterRangeRepository,
+      TransactionOperations transactionOperations,
+      SpamFilterRegistry spamFilterRegistry,
+      EmailChangeBus emailChangeBus,
+      @Value("${email-rest-service.spam-filter-id-range-size}") long idRangeSize) {
     this.emailRepository = requireNonNull(emailRepository, "emailRepository must not be null.");
-    filteredEmails = new HashSet<>();
+    this.emailJdbcRepository = requireNonNull(emailJdbcRepository, "emailJdbcRepository must not be null.");
+    this.watermarkRepository = requireNonNull(watermarkRepository, "watermarkRepository must not be null.");
+    this.spamFilterRangeRepository =
+        requireNonNull(spamFilterRangeRepository, "spamFilterRangeRepository must not be null.");
+    this.transactionOperations = requireNonNull(transactionOperations, "transactionOperations must not be null.");
+    this.spamFilterRegistry = requireNonNull(spamFilterRegistry, "spamFilterRegistry must not be null.");
+    this.emailChangeBus = requireNonNull(emailChangeBus, "emailChangeBus must not be null.");
+    if (idRangeSize < 1) {
+      throw new IllegalArgumentException("idRangeSize must be positive.");
+    }
+    this.idRangeSize = idRangeSize;
   }
 
   /**
-   * Scans all stored emails and classifies those as SPAM that are matching set filters.
+   * Enqueues all stored emails not classified by a previous run and classifies those as SPAM that are matching set
+   * filters. Classifies range by range, as long as there are ranges not claimed by other instances (running at the same
+   * time), so every instance adds to the throughput. A range failing to be classified is left pending and skipped for
+   * the rest of the run, so it does not block the ranges after it. Logs the number of emails classified by this
+   * instance.
    */
   @Scheduled(cron = "${email-rest-service.spam-filter-cron}")
   public void classifySpamEmails() {
-    logger.info(MSG_RUNNING_SPAM_CLASSIFICATION, filteredEmails);
+    // Use same filters for whole run, even if changed meanwhile.
+    SpamFilterSnapshot filters = spamFilterRegistry.getSnapshot();
+    logger.info(MSG_RUNNING_SPAM_CLASSIFICATION, filters.getFilters().size());
+
+    long maxId = emailRepository.findMaxId();
+    int enqueuedRangesCount = spamFilterRangeRepository.enqueueIdRanges(WATERMARK_NAME, maxId, idRangeSize);
+    logger.debug(MSG_ENQUEUED_EMAIL_RANGES, enqueuedRangesCount, maxId);
+
+    int classifiedEmailsCount = 0;
+    Set<Long> failedRangeStarts = new HashSet<>();
+    // Mark SENT emails of filtered senders (not deleted, draft or already spam) as SPAM, range by range.
+    OptionalInt rangeClassifiedCount = classifySpamEmailsInNextIdRange(filters, failedRangeStarts);
+    while (rangeClassifiedCount.isPresent()) {
+      classifiedEmailsCount += rangeClassifiedCount.getAsInt();
+      rangeClassifiedCount = classifySpamEmailsInNextIdRange(filters, failedRangeStarts);
+    }
+
+    logger.info(MSG_SUCCESSFULLY_CLASSIFIED_MAILS, classifiedEmailsCount);
+  }
+
+  /**
+   * Claims the next pending range of ids (not failed before) and classifies all SENT emails in it matching given
+   * filters as SPAM. Range is claimed and classified in one transaction, so it is left pending if classification
+   * fails. Then the failure is logged and the range is added to the failed ranges. Publishes the range as changed, if
+   * any email has been classified.
+   *
+   * @param filters filters to apply
+   * @param failedRangeStarts lower bounds of ranges failed before, extended by the range if it fails
+   * @return number of emails classified as SPAM (0 if failed), empty if there is no unclaimed range
+   */
+  private OptionalInt classifySpamEmailsInNextIdRange(SpamFilterSnapshot filters, Set<Long> failedRangeStarts) {
+    AtomicReference<IdRange> claimedRangeReference = new AtomicReference<>();
+
+    try {
+      Integer rangeClassifiedCount = transactionOperations.execute(status -> {
+        Optional<IdRange> claimedRange = spamFilterRangeRepository.claimNextIdRange(failedRangeStarts);
+        if (claimedRange.isEmpty()) {
+          return null;
+        }
+
+        IdRange range = claimedRange.get();
+        claimedRangeReference.set(range);
+        logger.debug(MSG_CLASSIFYING_EMAIL_RANGE, range.fromId(), range.toId());
+        int classifiedCount = classifySpamEmailsInIdRange(filters, range.fromId(), range.toId());
+        if (classifiedCount > 0) {
+          // Ids of classified emails are not loaded, so publish whole range.
+          emailChangeBus.publishChangedIdRange(range.fromId(), range.toId());
+        }
+        logger.debug(MSG_CLASSIFIED_EMAIL_RANGE, classifiedCount, range.fromId(), range.toId());
+        return classifiedCount;
+      });
+
+      return rangeClassifiedCount != null
+          ? OptionalInt.of(rangeClassifiedCount)
+          : OptionalInt.empty();
 
-    // Go through filters (email addresses).
-    List<Email> filteredSpamEmails = filteredEmails.stream()
-        .map(EmailAddress::getAddress)
-        // Collect matching stored emails (list each).
-        .map(emailRepository::findAllByFrom_Address)
-        .flatMap(Collection::stream)
-        // Look at SENT emails only (not at deleted, draft or already spam).
-        .filter(email -> email.getState() == EmailState.SENT)
-        .toList();
+    } catch (RuntimeException e) {
+      IdRange failedRange = claimedRangeReference.get();
+      if (failedRange == null) {
+        // Claiming itself failed (e.g. database not available), so no range can be classified.
+        throw e;
+      }
+      logger.warn(MSG_CLASSIFYING_EMAIL_RANGE_FAILED, failedRange.fromId(), failedRange.toId(), e);
+      failedRangeStarts.add(failedRange.fromId());
+      return OptionalInt.of(0);
 
-    // Mark all spam mails as SPAM.
-    filteredSpamEmails.forEach(email -> email.setState(EmailState.SPAM));
+    }
+  }
+
+  /**
+   * Classifies all SENT emails with ids in given range matching given filters as SPAM.
+   *
+   * @param filters filters to apply
+   * @param fromId lower bound of ids (exclusive)
+   * @param toId upper bound of ids (inclusive)
+   * @return number of emails classified as SPAM
+   */
+  private int classifySpamEmailsInIdRange(SpamFilterSnapshot filters, long fromId, long toId) {
+    int classifiedEmailsCount = 0;
+
+    if (!filters.getSenderAddresses().isEmpty()) {
+      classifiedEmailsCount += emailJdbcRepository.transitionStateBySendersInIdRange(
+          filters.getSenderAddresses(), EmailState.SENT, EmailState.SPAM, fromId, toId);
+    }
 
-    // Save = update spam emails.
-    emailRepository.saveAll(filteredSpamEmails);
+    DomainRuleTrie senderDomains = filters.getSenderDomains();
+    if (!senderDomains.isEmpty()) {
+      List<String> matchingDomains = emailJdbcRepository.findSenderDomainsInIdRange(EmailState.SENT, fromId, toId)
+          .stream()
+          .filter(senderDomains::matches)
+          .toList();
+      classifiedEmailsCount += emailJdbcRepository.transitionStateBySenderDomainsInIdRange(
+          matchingDomains, EmailState.SENT, EmailState.SPAM, fromId, toId);
+    }
 
-    logger.info(MSG_SUCCESSFULLY_CLASSIFIED_MAILS, filteredSpamEmails.size());
+    ContentRuleAutomaton contentRules = filters.getContentRules();
+    if (!contentRules.isEmpty()) {
+      // Emails already classified by sender filters above are not SENT anymore, so are not scanned again.
+      List<Long> matchingIds = emailJdbcRepository.findIdsByContentInIdRange(EmailState.SENT, fromId, toId,
+          filters::matchesContent);
+      classifiedEmailsCount += emailJdbcRepository.transitionStateByIdIn(
+          matchingIds, EmailState.SENT, EmailState.SPAM);
+    }
+
+    return classifiedEmailsCount;
+  }
+
+  /**
+   * Requests a rescan of all stored emails on the next run of the classification, e.g. because filters changed.
+   * Scheduled regularly to catch up on emails not covered by the watermark.
+   */
+  @Scheduled(cron = "${email-rest-service.spam-filter-full-rescan-cron}")
+  public void requestFullRescan() {
+    watermarkRepository.save(new SpamFilterWatermark(WATERMARK_NAME, 0));
+    logger.debug(MSG_REQUESTED_FULL_RESCAN);
   }
 
   /**
-   * Adds a new email address to be filtered as SPAM.
+   * Enqueues given emails that have become SENT (stored as SENT or sent drafts) for classification by the next run, if
+   * their ids are not above the watermark, i.e. would not be enqueued by the next run anymore. Emails are enqueued
+   * after the current transaction has been committed (right away without transaction), so they are visible to the run.
+   * If enqueuing fails, the emails are left to the next full rescan and the failure is logged only, as the emails have
+   * been stored successfully.
    *
-   * @param emailAddress new filter email address
+   * @param ids ids of emails that have become SENT
    */
-  public void addFilterAddress(EmailAddress emailAddress) {
-    filteredEmails.add(emailAddress);
-    logger.debug(MSG_ADDED_SPAM_FILTER, emailAddress);
+  public void enqueueSentEmails(Collection<Long> ids) {
+    requireNonNull(ids, "ids must not be null.");
+    if (ids.isEmpty()) {
+      return;
+    }
+
+    // Copy ids, as given collection might be changed until commit.
+    List<Long> sentIds = List.copyOf(ids);
+    afterCommit(() -> {
+      try {
+        int enqueuedRangesCount = spamFilterRangeRepository.enqueueIds(WATERMARK_NAME, sentIds, idRangeSize);
+        logger.debug(MSG_ENQUEUED_SENT_EMAILS, enqueuedRangesCount, sentIds);
+
+      } catch (DataAccessException e) {
+        logger.warn(MSG_ENQUEUING_SENT_EMAILS_FAILED, sentIds, e);
+
+      }
+    });
+  }
+
+  /**
+   * Runs given action after the current transaction has been committed, or right away if there is no transaction.
+   *
+   * @param action action to run
+   */
+  private static void afterCommit(Runnable action) {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      action.run();
+      return;
+    }
+
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+      @Override
+      public void afterCommit() {
+        action.run();
+      }
+    });
+  }
+
+  /**
+   * Returns all current spam filters.
+   *
+   * @return spam filters
+   */
+  public List<SpamFilterDto> getFilters() {
+    return spamFilterRegistry.getSnapshot().getFilters();
+  }
+
+  /**
+   * Adds the default filters like {@link #addFilter(SpamFilterDto)} (i.e. published to all instances, with a full
+   * rescan), unless they have been added to the database before, so removed default filters stay removed. Runs once
+   * the service has been started. Adding is recorded by a marker after the filters have been added, so they are added
+   * again on the next start, if adding fails in between.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void addDefaultFiltersOnce() {
+    if (watermarkRepository.existsById(DEFAULT_FILTERS_MARKER_NAME)) {
+      return;
+    }
+
+    for (SpamFilterDto filter : DEFAULT_FILTERS) {
+      try {
+        addFilter(filter);
+
+      } catch (InvalidSpamFilterException e) {
+        throw new IllegalStateException(MSG_INVALID_DEFAULT_FILTER.formatted(filter), e);
+
+      }
+    }
+    watermarkRepository.save(new SpamFilterWatermark(DEFAULT_FILTERS_MARKER_NAME, 0));
+    logger.info(MSG_ADDED_DEFAULT_FILTERS, DEFAULT_FILTERS);
+  }
+
+  /**
+   * Adds a new spam filter, if not present yet, and publishes it to all instances. As already classified emails might
+   * match the new filter, a full rescan is requested.
+   *
+   * @param filter new filter
+   * @return whether filter has been added (false if already present)
+   * @throws InvalidSpamFilterException if filter is invalid
+   */
+  public boolean addFilter(SpamFilterDto filter) throws InvalidSpamFilterException {
+    requireNonNull(filter, "filter must not be null.");
+
+    boolean added = spamFilterRegistry.addFilter(normalizeFilter(filter));
+    if (added) {
+      emailChangeBus.publishSpamFiltersChanged();
+      requestFullRescan();
+    }
+
+    return added;
+  }
+
+  /**
+   * Removes given spam filter from all instances. Emails already classified as SPAM by the filter are left unchanged.
+   *
+   * @param filter filter to remove
+   * @throws SpamFilterNotFoundException if there is no such filter
+   */
+  public void removeFilter(SpamFilterDto filter) throws SpamFilterNotFoundException {
+    requireNonNull(filter, "filter must not be null.");
+
+    SpamFilterDto normalizedFilter;
+    try {
+      normalizedFilter = normalizeFilter(filter);
+
+    } catch (InvalidSpamFilterException e) {
+      // Invalid filter cannot have been added.
+      throw new SpamFilterNotFoundException(MSG_NO_SUCH_FILTER.formatted(filter), e);
+
+    }
+
+    if (!spamFilterRegistry.removeFilter(normalizedFilter)) {
+      throw new SpamFilterNotFoundException(MSG_NO_SUCH_FILTER.formatted(filter));
+    }
+    emailChangeBus.publishSpamFiltersChanged();
+  }
+
+  /**
+   * Normalizes given filter, so equivalent filters are stored the same way, e.g. domain and content filters in lower
+   * case.
+   *
+   * @param filter filter to normalize
+   * @return normalized filter
+   * @throws InvalidSpamFilterException if filter is invalid
+   */
+  private static SpamFilterDto normalizeFilter(SpamFilterDto filter) throws InvalidSpamFilterException {
+
+    try {
+      return switch (filter.type()) {
+        case SENDER -> filter;
+        case DOMAIN -> new SpamFilterDto(filter.type(), DomainRuleTrie.normalizeRule(filter.value()));
+        case CONTENT -> new SpamFilterDto(filter.type(), ContentRuleAutomaton.normalizeRule(filter.value()));
+      };
+
+    } catch (IllegalArgumentException e) {
+      throw new InvalidSpamFilterException(MSG_INVALID_FILTER.formatted(filter), e);
+
+    }
+  }
+
+  /**
+   * Checks whether given email is classified as SPAM by current filters, i.e. whether its sender or its content is
+   * matching a filter. Does not check the email's state. Can be called concurrently (and cheaply) to classify new
+   * emails before storing them.
+   *
+   * @param email email to check
+   * @return whether email is filtered
+   */
+  public boolean isSpam(Email email) {
+    requireNonNull(email, "email must not be null.");
+
+    SpamFilterSnapshot filters = spamFilterRegistry.getSnapshot();
+    return filters.matchesSender(email.getFrom().getAddress())
+        || filters.matchesContent(email.getSubject(), email.getBody());
   }
 }
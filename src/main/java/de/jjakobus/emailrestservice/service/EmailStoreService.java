@@ -3,18 +3,49 @@ package de.jjakobus.emailrestservice.service;
 import de.jjakobus.emailrestservice.model.Email;
 import de.jjakobus.emailrestservice.model.EmailAddress;
 import de.jjakobus.emailrestservice.model.EmailState;
+import de.jjakobus.emailrestservice.model.EmailUpdateStatus;
 import de.jjakobus.emailrestservice.model.dtos.EmailAddressDto;
+import de.jjakobus.emailrestservice.model.dtos.EmailCacheStatsDto;
 import de.jjakobus.emailrestservice.model.dtos.EmailDto;
+import de.jjakobus.emailrestservice.model.dtos.EmailFilterDto;
+import de.jjakobus.emailrestservice.model.dtos.EmailPageDto;
+import de.jjakobus.emailrestservice.model.dtos.EmailUpdateResultDto;
 import de.jjakobus.emailrestservice.model.dtos.InsertEmailDto;
 import de.jjakobus.emailrestservice.model.exceptions.EmailNotFoundException;
 import de.jjakobus.emailrestservice.model.exceptions.EmailUpdateNotAllowedException;
+import de.jjakobus.emailrestservice.model.exceptions.EmailVersionConflictException;
+import de.jjakobus.emailrestservice.model.exceptions.InvalidCursorException;
+import de.jjakobus.emailrestservice.service.repositories.EmailJdbcRepository;
 import de.jjakobus.emailrestservice.service.repositories.EmailRepository;
+import de.jjakobus.emailrestservice.service.repositories.EmailSpecifications;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
 import java.util.stream.StreamSupport;
 
 import static java.util.Objects.requireNonNull;
@@ -29,13 +60,19 @@ import static java.util.stream.Collectors.toList;
 public class EmailStoreService {
 
   /* Logger messages. */
+  private static final String MSG_CLASSIFIED_NEW_EMAIL_AS_SPAM = "Classified new email from {} as SPAM.";
   private static final String MSG_SAVED_NEW_EMAIL = "Saved new email with id {} from insert description: {}.";
   private static final String MSG_SAVED_NEW_EMAILS = "Saved {}/{} new emails with ids {} from insert descriptions: {}.";
+  private static final String MSG_SAVED_NEW_EMAILS_STREAMED = "Saved {} new emails streamed in chunks of {}.";
+  private static final String MSG_IMPORTED_NEW_EMAILS = "Imported {} new emails in chunks of {}.";
   private static final String MSG_FOUND_MATCHING_EMAILS = "Found {} of searched {} emails with ids {}. ";
+  private static final String MSG_LISTED_EMAILS = "Listed {} emails matching {} after cursor {}.";
   private static final String MSG_FOUND_EMAIL_TO_UPDATE = "Found email to update with id {}.";
   private static final String MSG_UPDATE_IS_ALLOWED = "Successfully checked email update is allowed.";
   private static final String MSG_SAVED_UPDATED_EMAIL = "Saved updated email of id {}: {}";
-  private static final String MSG_FOUND_EMAIL_TO_DELETE = "Found email to delete with id {}.";
+  private static final String MSG_SAVED_UPDATED_EMAILS = "Saved {}/{} updated emails with ids {}.";
+  private static final String MSG_UPDATED_EMAIL_STATE = "Changed state of email with id {} to {}.";
+  private static final String MSG_UPDATED_EMAIL_STATES = "Changed state of {}/{} emails with ids {} to {}.";
   private static final String MSG_DELETED_EMAIL = "Marked email with id {} as DELETED.";
   private static final String MSG_DELETED_EMAILS = "Marked {}/{} email of ids {} as DELETED.";
   
@@ -45,23 +82,69 @@ public class EmailStoreService {
   /* Exception messages. */
   private static final String MSG_NO_EMAIL_WITH_ID = "There is no email with id '%s'.";
   private static final String MSG_UPDATE_NOT_ALLOWED = "Update of email (id: %s) is not allowed, reason %s.";
+  private static final String MSG_INVALID_CURSOR = "Cursor '%s' is invalid.";
+  private static final String MSG_VERSION_CONFLICT =
+      "Email (id: %s) has version %s, but update is based on version %s.";
+  private static final String MSG_CONCURRENT_UPDATE = "Email (id: %s) has been changed concurrently.";
+
+  /** Maximum number of ids passed to a single statement. */
+  private static final int MAX_IDS_PER_STATEMENT = 1000;
+
+  /** Maximum number of emails of a listed page. */
+  static final int MAX_PAGE_SIZE = 1000;
+
+  /** Separator of modification date and id in (decoded) cursors. */
+  private static final char CURSOR_SEPARATOR = '|';
 
   /** Repository of emails. */
   private final EmailRepository emailRepository;
 
+  /** JDBC repository of emails for bulk operations. */
+  private final EmailJdbcRepository emailJdbcRepository;
+
+  /** Service classifying spam emails. */
+  private final EmailSpamFilterService spamService;
+
+  /** Cache of stored emails by id. */
+  private final EmailCache emailCache;
+
+  /** Bus publishing changes of emails to all instances. */
+  private final EmailChangeBus emailChangeBus;
+
+  /** Whether new emails are classified as SPAM before storing them. */
+  private final boolean inlineSpamFilter;
+
   /**
    * Creates a new service for managing stored emails.
    *
    * @param emailRepository repository of emails
+   * @param emailJdbcRepository JDBC repository of emails for bulk operations
+   * @param spamService service classifying spam emails
+   * @param emailCache cache of stored emails by id
+   * @param emailChangeBus bus publishing changes of emails to all instances
+   * @param inlineSpamFilter whether new emails are classified as SPAM before storing them
    */
   @Autowired
-  public EmailStoreService(EmailRepository emailRepository) {
+  public EmailStoreService(
+      EmailRepository emailRepository,
+      EmailJdbcRepository emailJdbcRepository,
+      EmailSpamFilterService spamService,
+      EmailCache emailCache,
+      EmailChangeBus emailChangeBus,
+      @Value("${email-rest-service.spam-filter-inline}") boolean inlineSpamFilter) {
     this.emailRepository = requireNonNull(emailRepository, "emailRepository must not be null.");
+    this.emailJdbcRepository = requireNonNull(emailJdbcRepository, "emailJdbcRepository must not be null.");
+    this.spamService = requireNonNull(spamService, "spamService must not be null.");
+    this.emailCache = requireNonNull(emailCache, "emailCache must not be null.");
+    this.emailChangeBus = requireNonNull(emailChangeBus, "emailChangeBus must not be null.");
+    this.inlineSpamFilter = inlineSpamFilter;
   }
 
   /**
    * Saves the given new email to the email store and returns the stored email as {@link EmailDto}.
    * As specified by Spring JPA repository, there can be changes made to returned email compared to given one!
+   * If inline spam filtering is enabled, a SENT email matching the spam filters is stored as SPAM. A SENT email is
+   * enqueued for the scheduled spam classification, if its id might have been classified already.
    *
    * @param newEmail email to save
    * @return saved email
@@ -69,21 +152,44 @@ public class EmailStoreService {
   public EmailDto saveEmail(InsertEmailDto newEmail) {
     requireNonNull(newEmail, "newEmail must not be null.");
 
-    Email newEmailEntity = createEmailEntityFromNewEmail(newEmail);
+    Email newEmailEntity = createClassifiedEmailEntityFromNewEmail(newEmail);
     Email insertedEmailEntity = emailRepository.save(newEmailEntity);
+    spamService.enqueueSentEmails(getSentEmailIds(List.of(insertedEmailEntity)));
 
     logger.debug(MSG_SAVED_NEW_EMAIL, insertedEmailEntity.getId(), insertedEmailEntity);
 
     return insertedEmailEntity.toDto();
   }
 
+  /**
+   * Creates a new {@link Email} entity containing all information from given new email {@link InsertEmailDto}. If
+   * inline spam filtering is enabled and the new email is SENT and matching the spam filters (sender or content), the
+   * entity's state is set to SPAM. Emails that are missed this way (e.g. because the filter has been added later) are
+   * classified by the scheduled spam classification.
+   *
+   * @param newEmail new email to create entity for
+   * @return (classified) email entity
+   */
+  private Email createClassifiedEmailEntityFromNewEmail(InsertEmailDto newEmail) {
+    Email newEmailEntity = createEmailEntityFromNewEmail(newEmail);
+
+    if (inlineSpamFilter
+        && newEmailEntity.getState() == EmailState.SENT
+        && spamService.isSpam(newEmailEntity)) {
+      newEmailEntity.setState(EmailState.SPAM);
+      logger.debug(MSG_CLASSIFIED_NEW_EMAIL_AS_SPAM, newEmailEntity.getFrom());
+    }
+
+    return newEmailEntity;
+  }
+
   /**
    * Creates a new {@link Email} entity containing all information from given new email {@link InsertEmailDto}.
    *
    * @param newEmail new email to create entity for
    * @return email entity
    */
-  private static Email createEmailEntityFromNewEmail(InsertEmailDto newEmail) {
+  static Email createEmailEntityFromNewEmail(InsertEmailDto newEmail) {
 
     return new Email(
         newEmail.state(),
@@ -107,7 +213,7 @@ public class EmailStoreService {
    * @param addressDto address to create entity for
    * @return address entity
    */
-  private static EmailAddress createEmailAddressEntityFrom(EmailAddressDto addressDto) {
+  static EmailAddress createEmailAddressEntityFrom(EmailAddressDto addressDto) {
 
     return new EmailAddress(
         addressDto.address(),
@@ -116,7 +222,10 @@ public class EmailStoreService {
 
   /**
    * Saves all given new emails to the email store and returns all successfully stored emails as {@link EmailDto}.
-   * As specified by Spring JPA repository, there can be changes made to returned emails compared to given ones!
+   * Emails are inserted using JDBC batches (grouped per table) instead of JPA, as JPA inserts emails and their
+   * receivers interleaved, which prevents efficient batching. If inline spam filtering is enabled, SENT emails matching
+   * the spam filters are stored as SPAM. SENT emails are enqueued for the scheduled spam classification like in
+   * {@link #saveEmail(InsertEmailDto)}.
    *
    * @param newEmails emails to save
    * @return saved emails
@@ -125,9 +234,10 @@ public class EmailStoreService {
     requireNonNull(newEmails, "newEmails must not be null.");
 
     List<Email> newEmailEntities = newEmails.stream()
-        .map(EmailStoreService::createEmailEntityFromNewEmail)
+        .map(this::createClassifiedEmailEntityFromNewEmail)
         .toList();
-    Iterable<Email> insertedEmailEntities = emailRepository.saveAll(newEmailEntities);
+    List<Email> insertedEmailEntities = emailJdbcRepository.insertAll(newEmailEntities);
+    spamService.enqueueSentEmails(getSentEmailIds(insertedEmailEntities));
     List<EmailDto> insertedEmailDtos = emailEntitiesToDtos(insertedEmailEntities);
 
     logger.debug(MSG_SAVED_NEW_EMAILS, insertedEmailDtos.size(), newEmails.size(),
@@ -135,6 +245,110 @@ public class EmailStoreService {
     return insertedEmailDtos;
   }
 
+  /**
+   * Saves all new emails supplied by given iterator to the email store in chunks of given size. As soon as a chunk is
+   * stored, the stored emails are passed to given consumer and the chunk is released. This way an arbitrary amount of
+   * emails (e.g. parsed lazily from a request stream) can be saved without holding all of them in memory. Null elements
+   * are skipped.
+   *
+   * @param newEmails emails to save
+   * @param chunkSize maximum number of emails saved at once
+   * @param savedChunkConsumer consumer of each chunk of saved emails
+   * @return number of saved emails
+   */
+  public long saveEmails(
+      Iterator<InsertEmailDto> newEmails,
+      int chunkSize,
+      Consumer<List<EmailDto>> savedChunkConsumer) {
+    requireNonNull(savedChunkConsumer, "savedChunkConsumer must not be null.");
+
+    long savedEmailsCount = processInChunks(newEmails, chunkSize, chunk -> {
+      List<EmailDto> savedEmails = saveEmails(chunk);
+      savedChunkConsumer.accept(savedEmails);
+      return savedEmails.size();
+    });
+
+    logger.debug(MSG_SAVED_NEW_EMAILS_STREAMED, savedEmailsCount, chunkSize);
+    return savedEmailsCount;
+  }
+
+  /**
+   * Imports all new emails supplied by given iterator into the email store using the database's bulk import
+   * ({@code COPY}), which is faster than inserts but does not return the stored emails. Emails are imported in chunks
+   * of given size, each chunk in its own transaction, so memory usage does not depend on the number of emails. Null
+   * elements are skipped.
+   *
+   * @param newEmails emails to import
+   * @param chunkSize maximum number of emails imported at once
+   * @return number of imported emails
+   */
+  public long importEmails(Iterator<InsertEmailDto> newEmails, int chunkSize) {
+
+    long importedEmailsCount = processInChunks(newEmails, chunkSize, chunk -> {
+      List<Email> newEmailEntities = chunk.stream()
+          .map(this::createClassifiedEmailEntityFromNewEmail)
+          .toList();
+      List<Email> importedEmailEntities = emailJdbcRepository.copyAll(newEmailEntities);
+      spamService.enqueueSentEmails(getSentEmailIds(importedEmailEntities));
+      return importedEmailEntities.size();
+    });
+
+    logger.debug(MSG_IMPORTED_NEW_EMAILS, importedEmailsCount, chunkSize);
+    return importedEmailsCount;
+  }
+
+  /**
+   * Returns the ids of given stored emails that are SENT, e.g. to enqueue them for the scheduled spam classification.
+   *
+   * @param emailEntities stored emails
+   * @return ids of SENT emails
+   */
+  private static List<Long> getSentEmailIds(List<Email> emailEntities) {
+
+    return emailEntities.stream()
+        .filter(email -> email.getState() == EmailState.SENT)
+        .map(Email::getId)
+        .toList();
+  }
+
+  /**
+   * Collects the new emails supplied by given iterator into chunks of given size and passes every chunk to given
+   * processor. Null elements are skipped. Only a single chunk is held in memory at a time.
+   *
+   * @param newEmails new emails to process
+   * @param chunkSize maximum number of emails per chunk
+   * @param chunkProcessor processor of a chunk returning the number of processed emails
+   * @return total number of processed emails
+   */
+  private static long processInChunks(
+      Iterator<InsertEmailDto> newEmails,
+      int chunkSize,
+      ToIntFunction<List<InsertEmailDto>> chunkProcessor) {
+    requireNonNull(newEmails, "newEmails must not be null.");
+    if (chunkSize < 1) {
+      throw new IllegalArgumentException("chunkSize must be positive.");
+    }
+
+    long processedEmailsCount = 0;
+    List<InsertEmailDto> chunk = new ArrayList<>(chunkSize);
+    while (newEmails.hasNext()) {
+      InsertEmailDto newEmail = newEmails.next();
+      if (newEmail != null) {
+        chunk.add(newEmail);
+      }
+
+      if (chunk.size() == chunkSize) {
+        processedEmailsCount += chunkProcessor.applyAsInt(chunk);
+        chunk.clear();
+      }
+    }
+    if (!chunk.isEmpty()) {
+      processedEmailsCount += chunkProcessor.applyAsInt(chunk);
+    }
+
+    return processedEmailsCount;
+  }
+
   /**
    * Maps given {@link Iterable} of {@link Email} entities to DTO type {@link EmailDto} and returns them as a List.
    *
@@ -150,7 +364,7 @@ public class EmailStoreService {
 
   /**
    * Returns the email that is stored with the given id. If no email with that id is stored, an
-   * {@link EmailNotFoundException} gets raised.
+   * {@link EmailNotFoundException} gets raised. Email is served from cache, if cached.
    *
    * @param id id to search
    * @return stored email with id, else empty optional
@@ -158,43 +372,192 @@ public class EmailStoreService {
    */
   public EmailDto getEmail(long id) throws EmailNotFoundException {
 
-    return emailRepository.findById(id)
-        .map(Email::toDto)
+    Optional<EmailDto> cachedEmail = emailCache.get(id);
+    if (cachedEmail.isPresent()) {
+      return cachedEmail.get();
+    }
+
+    long readToken = emailCache.getReadToken();
+    List<EmailDto> readEmails = emailJdbcRepository.findDtosByIdIn(List.of(id));
+    emailCache.putAll(readEmails, readToken);
+
+    return readEmails.stream()
+        .findFirst()
+        .orElseThrow(() -> new EmailNotFoundException(
+            String.format(MSG_NO_EMAIL_WITH_ID, id)));
+  }
+
+  /**
+   * Returns the version of the email that is stored with the given id, without reading the email itself (e.g. to check
+   * whether a client's copy is still up to date). If no email with that id is stored, an {@link EmailNotFoundException}
+   * gets raised. Version is served from cache, if email is cached.
+   *
+   * @param id id to search
+   * @return version of stored email with id
+   * @throws EmailNotFoundException no email with given id
+   */
+  public long getEmailVersion(long id) throws EmailNotFoundException {
+
+    Optional<EmailDto> cachedEmail = emailCache.get(id);
+    if (cachedEmail.isPresent()) {
+      return cachedEmail.get().version();
+    }
+
+    return emailJdbcRepository.findVersionById(id)
         .orElseThrow(() -> new EmailNotFoundException(
             String.format(MSG_NO_EMAIL_WITH_ID, id)));
   }
 
   /**
    * Returns the emails that are stored with the given ids. Not found emails are ignored, so result List can be empty.
+   * Cached emails are served from cache, all others are read into DTOs directly (without managed entities) using a
+   * constant number of queries.
    *
    * @param ids ids to search
-   * @return matched emails, can be empty
+   * @return matched emails ordered by id, can be empty
    */
   public List<EmailDto> getEmails(List<Long> ids) {
     requireNonNull(ids, "ids must not be null.");
 
-    Iterable<Email> matchedEmailEntities = emailRepository.findAllById(ids);
-    List<EmailDto> matchedEmailDtos = emailEntitiesToDtos(matchedEmailEntities);
+    Map<Long, EmailDto> matchedEmailsById = new TreeMap<>(emailCache.getAll(ids));
+    List<Long> missingIds = ids.stream()
+        .filter(id -> !matchedEmailsById.containsKey(id))
+        .distinct()
+        .toList();
+    if (!missingIds.isEmpty()) {
+      long readToken = emailCache.getReadToken();
+      List<EmailDto> readEmails = emailJdbcRepository.findDtosByIdIn(missingIds);
+      emailCache.putAll(readEmails, readToken);
+      readEmails.forEach(email -> matchedEmailsById.put(email.id(), email));
+    }
+    List<EmailDto> matchedEmailDtos = List.copyOf(matchedEmailsById.values());
 
     logger.debug(MSG_FOUND_MATCHING_EMAILS, matchedEmailDtos.size(), ids.size(), ids);
     return matchedEmailDtos;
   }
 
+  /**
+   * Lists the emails matching given filter page by page, newest (last modified) emails first. The first page is
+   * requested without cursor, every further page with the cursor returned with the previous page. Pages are sought by
+   * keyset (modification date and id of the last email of the previous page) instead of an offset, so every page
+   * costs the same, no matter how many pages precede it.
+   *
+   * @param filter conditions of listed emails
+   * @param cursor cursor returned with previous page, null for first page
+   * @param limit maximum number of emails of page (at most {@value #MAX_PAGE_SIZE})
+   * @return page of emails with cursor of next page
+   * @throws InvalidCursorException if cursor is malformed
+   */
+  @Transactional(readOnly = true)
+  public EmailPageDto listEmails(
+      EmailFilterDto filter,
+      @Nullable String cursor,
+      int limit) throws InvalidCursorException {
+    requireNonNull(filter, "filter must not be null.");
+    if (limit < 1) {
+      throw new IllegalArgumentException("limit must be positive.");
+    }
+    int pageSize = Math.min(limit, MAX_PAGE_SIZE);
+
+    List<Specification<Email>> conditions = new ArrayList<>();
+    if (filter.states() != null && !filter.states().isEmpty()) {
+      conditions.add(EmailSpecifications.hasStateIn(filter.states()));
+    }
+    if (filter.senderAddress() != null) {
+      conditions.add(EmailSpecifications.hasSender(filter.senderAddress()));
+    }
+    if (filter.modifiedFrom() != null) {
+      conditions.add(EmailSpecifications.isModifiedFrom(filter.modifiedFrom()));
+    }
+    if (filter.modifiedTo() != null) {
+      conditions.add(EmailSpecifications.isModifiedBefore(filter.modifiedTo()));
+    }
+    if (cursor != null) {
+      conditions.add(decodeCursor(cursor));
+    }
+
+    // Fetch one more email than requested to find out whether there is a next page.
+    List<Email> emailEntities = emailRepository.findBy(Specification.allOf(conditions), query -> query
+        .sortBy(EmailSpecifications.KEYSET_ORDER)
+        .limit(pageSize + 1)
+        .all());
+    boolean hasNextPage = emailEntities.size() > pageSize;
+    List<Email> pageEmailEntities = hasNextPage
+        ? emailEntities.subList(0, pageSize)
+        : emailEntities;
+    String nextCursor = hasNextPage
+        ? encodeCursor(pageEmailEntities.get(pageSize - 1))
+        : null;
+
+    logger.debug(MSG_LISTED_EMAILS, pageEmailEntities.size(), filter, cursor);
+    return new EmailPageDto(emailEntitiesToDtos(pageEmailEntities), nextCursor);
+  }
+
+  /**
+   * Creates the (opaque) cursor of the page following given email: Base64 of its modification date (with full
+   * precision) and id.
+   *
+   * @param lastEmail last email of page
+   * @return cursor of next page
+   */
+  private static String encodeCursor(Email lastEmail) {
+    String keyset = lastEmail.getModifiedDate().toInstant().toString() + CURSOR_SEPARATOR + lastEmail.getId();
+
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(keyset.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Decodes given cursor into the condition of emails following the keyset encoded in cursor.
+   *
+   * @param cursor cursor created by {@link #encodeCursor(Email)}
+   * @return condition of emails of next page
+   * @throws InvalidCursorException if cursor is malformed
+   */
+  private static Specification<Email> decodeCursor(String cursor) throws InvalidCursorException {
+
+    try {
+      String keyset = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+      int separatorIndex = keyset.indexOf(CURSOR_SEPARATOR);
+      // Use timestamp to keep sub-millisecond precision of database.
+      Date modifiedDate = Timestamp.from(Instant.parse(keyset.substring(0, separatorIndex)));
+      long id = Long.parseLong(keyset.substring(separatorIndex + 1));
+
+      return EmailSpecifications.isAfterKeyset(modifiedDate, id);
+
+    } catch (RuntimeException e) {
+      // Base64, date or id malformed or separator missing.
+      throw new InvalidCursorException(MSG_INVALID_CURSOR.formatted(cursor), e);
+
+    }
+  }
+
   /**
    * Updates the stored email with given id with the updated email's version. If there is no email stored with specified
    * id, an {@link EmailNotFoundException} gets raised. If email is no DRAFT and updated email changes more than the
    * state, {@link EmailUpdateNotAllowedException} gets raised.
+   * <p>
+   * Concurrent updates are detected by the version of the email (optimistic locking, no rows are locked): if the
+   * stored email does not have the expected version, or is changed by someone else between reading and writing it,
+   * {@link EmailVersionConflictException} gets raised and nothing is updated. The version of the updated email (DTO) is
+   * ignored.
+   * <p>
+   * A sent draft is enqueued for the scheduled spam classification, as its id might have been classified already.
    *
    * @param id id of email to update
    * @param updatedEmail updated email's version
+   * @param expectedVersion version the stored email must have, null to update any version
+   * @return new version of updated email
    * @throws EmailNotFoundException no email with given id
    * @throws EmailUpdateNotAllowedException given email must not be updated
+   * @throws EmailVersionConflictException email has been changed concurrently
    */
+  @Transactional(rollbackFor = EmailVersionConflictException.class)
   @SuppressWarnings("java:S6204") // toList() cannot be used because entities need a mutable list!
-  public void updateEmail(
+  public long updateEmail(
       long id,
-      EmailDto updatedEmail
-  ) throws EmailNotFoundException, EmailUpdateNotAllowedException {
+      EmailDto updatedEmail,
+      @Nullable Long expectedVersion
+  ) throws EmailNotFoundException, EmailUpdateNotAllowedException, EmailVersionConflictException {
     requireNonNull(updatedEmail, "updatedEmail must not be null.");
 
     Email emailEntity = emailRepository.findById(id)
@@ -203,10 +566,16 @@ public class EmailStoreService {
 
     logger.debug(MSG_FOUND_EMAIL_TO_UPDATE, id);
 
+    if (expectedVersion != null && emailEntity.getVersion() != expectedVersion) {
+      throw new EmailVersionConflictException(
+          String.format(MSG_VERSION_CONFLICT, id, emailEntity.getVersion(), expectedVersion));
+    }
+
     // Check update is allowed (throws exception if not).
     checkUpdateAllowed(emailEntity, updatedEmail);
     logger.debug(MSG_UPDATE_IS_ALLOWED);
 
+    boolean sendsDraft = emailEntity.getState() == EmailState.DRAFT && updatedEmail.state() == EmailState.SENT;
     emailEntity.setState(updatedEmail.state());
     emailEntity.setFrom(
         createEmailAddressEntityFrom(updatedEmail.from()));
@@ -222,9 +591,175 @@ public class EmailStoreService {
     emailEntity.setBody(updatedEmail.body());
     emailEntity.setModifiedDate(updatedEmail.modifiedDate());
 
-    // Save = update entity.
-    emailRepository.save(emailEntity);
+    // Save = update entity, flush to detect concurrent updates (version changed since read) right here.
+    try {
+      emailRepository.saveAndFlush(emailEntity);
+
+    } catch (OptimisticLockingFailureException e) {
+      throw new EmailVersionConflictException(String.format(MSG_CONCURRENT_UPDATE, id), e);
+
+    }
+    emailChangeBus.publishChanged(List.of(id));
+    if (sendsDraft) {
+      spamService.enqueueSentEmails(List.of(id));
+    }
     logger.debug(MSG_SAVED_UPDATED_EMAIL, emailEntity.getId(), emailEntity);
+
+    return emailEntity.getVersion();
+  }
+
+  /**
+   * Updates all stored emails with the ids of given updated emails, each like
+   * {@link #updateEmail(long, EmailDto, Long)} without expected version, and returns the outcome per given email (in
+   * the same order). Emails not found or not allowed to be updated are left unchanged, but do not prevent updating the
+   * other emails.
+   * <p>
+   * Emails are updated chunk-wise: all emails of a chunk are read at once (without managed entities), every update is
+   * checked by {@link #checkUpdateAllowed(EmailDto, EmailDto)}, and all allowed updates are written by JDBC batches,
+   * guarded by the version read. Updates changing the state only (e.g. sending drafts) do not rewrite content and
+   * receivers. Emails changed concurrently between reading and writing are reported as
+   * {@link EmailUpdateStatus#CONFLICT}. The versions of the updated emails (DTOs) are ignored. Sent drafts are enqueued
+   * for the scheduled spam classification like in {@link #updateEmail(long, EmailDto, Long)}.
+   *
+   * @param updatedEmails updated emails' versions
+   * @return outcome of update per given email
+   */
+  @Transactional
+  public List<EmailUpdateResultDto> updateEmails(List<EmailDto> updatedEmails) {
+    requireNonNull(updatedEmails, "updatedEmails must not be null.");
+
+    List<EmailUpdateResultDto> results = new ArrayList<>(updatedEmails.size());
+    List<Long> sentDraftIds = new ArrayList<>();
+    for (int chunkStart = 0; chunkStart < updatedEmails.size(); chunkStart += MAX_IDS_PER_STATEMENT) {
+      results.addAll(updateEmailsChunk(updatedEmails.subList(
+          chunkStart, Math.min(chunkStart + MAX_IDS_PER_STATEMENT, updatedEmails.size())), sentDraftIds));
+    }
+    List<Long> updatedIds = results.stream()
+        .filter(result -> result.status() == EmailUpdateStatus.UPDATED)
+        .map(EmailUpdateResultDto::id)
+        .toList();
+    emailChangeBus.publishChanged(updatedIds);
+    spamService.enqueueSentEmails(sentDraftIds);
+
+    logger.debug(MSG_SAVED_UPDATED_EMAILS, updatedIds.size(), updatedEmails.size(), updatedIds);
+    return results;
+  }
+
+  /**
+   * Updates all stored emails with the ids of given updated emails (at most {@value #MAX_IDS_PER_STATEMENT}), see
+   * {@link #updateEmails(List)}.
+   *
+   * @param updatedEmails updated emails' versions
+   * @param sentDraftIds collects the ids of updated drafts that have been sent
+   * @return outcome of update per given email
+   */
+  private List<EmailUpdateResultDto> updateEmailsChunk(List<EmailDto> updatedEmails, List<Long> sentDraftIds) {
+
+    Map<Long, EmailDto> storedEmailsById = new HashMap<>();
+    List<Long> ids = updatedEmails.stream()
+        .map(EmailDto::id)
+        .distinct()
+        .toList();
+    emailJdbcRepository.findDtosByIdIn(ids).forEach(email -> storedEmailsById.put(email.id(), email));
+
+    // Collect allowed updates (with version read) and their positions; all others get their result right away.
+    EmailUpdateResultDto[] results = new EmailUpdateResultDto[updatedEmails.size()];
+    List<EmailDto> contentUpdates = new ArrayList<>();
+    List<Integer> contentUpdateIndexes = new ArrayList<>();
+    List<EmailDto> stateUpdates = new ArrayList<>();
+    List<Integer> stateUpdateIndexes = new ArrayList<>();
+    for (int i = 0; i < updatedEmails.size(); i++) {
+      EmailDto updatedEmail = updatedEmails.get(i);
+      EmailDto storedEmail = storedEmailsById.get(updatedEmail.id());
+      if (storedEmail == null) {
+        results[i] = new EmailUpdateResultDto(updatedEmail.id(), EmailUpdateStatus.NOT_FOUND, null,
+            String.format(MSG_NO_EMAIL_WITH_ID, updatedEmail.id()));
+        continue;
+      }
+
+      try {
+        checkUpdateAllowed(storedEmail, updatedEmail);
+
+      } catch (EmailUpdateNotAllowedException e) {
+        results[i] = new EmailUpdateResultDto(updatedEmail.id(), EmailUpdateStatus.NOT_ALLOWED, null, e.getMessage());
+        continue;
+
+      }
+
+      EmailDto versionedUpdate = new EmailDto(
+          updatedEmail.id(),
+          updatedEmail.state(),
+          updatedEmail.from(),
+          updatedEmail.to(),
+          updatedEmail.cc(),
+          updatedEmail.subject(),
+          updatedEmail.body(),
+          updatedEmail.modifiedDate(),
+          storedEmail.version());
+      if (storedEmail.hasSameContent(updatedEmail)) {
+        stateUpdates.add(versionedUpdate);
+        stateUpdateIndexes.add(i);
+      } else {
+        contentUpdates.add(versionedUpdate);
+        contentUpdateIndexes.add(i);
+      }
+    }
+
+    collectWriteResults(contentUpdates, contentUpdateIndexes, emailJdbcRepository.updateAll(contentUpdates), results);
+    collectWriteResults(stateUpdates, stateUpdateIndexes, emailJdbcRepository.updateStateAll(stateUpdates), results);
+
+    List<EmailUpdateResultDto> resultsList = List.of(results);
+    sentDraftIds.addAll(getSentDraftIds(updatedEmails, storedEmailsById, resultsList));
+    return resultsList;
+  }
+
+  /**
+   * Returns the ids of the given updated emails that have sent a draft, i.e. are SENT, have been stored as DRAFT and
+   * are {@link EmailUpdateStatus#UPDATED}.
+   *
+   * @param updatedEmails updated emails' versions
+   * @param storedEmailsById stored emails (as read before the update) by id
+   * @param results outcome of update per updated email (in the same order)
+   * @return ids of sent drafts
+   */
+  static List<Long> getSentDraftIds(
+      List<EmailDto> updatedEmails,
+      Map<Long, EmailDto> storedEmailsById,
+      List<EmailUpdateResultDto> results) {
+
+    List<Long> sentDraftIds = new ArrayList<>();
+    for (int i = 0; i < updatedEmails.size(); i++) {
+      EmailDto updatedEmail = updatedEmails.get(i);
+      if (results.get(i).status() == EmailUpdateStatus.UPDATED
+          && updatedEmail.state() == EmailState.SENT
+          && storedEmailsById.get(updatedEmail.id()).state() == EmailState.DRAFT) {
+        sentDraftIds.add(updatedEmail.id());
+      }
+    }
+
+    return sentDraftIds;
+  }
+
+  /**
+   * Stores the results of written updates at their positions in given results.
+   *
+   * @param updates written updates (with version read)
+   * @param indexes positions of updates in results
+   * @param updatedCounts number of updated rows per update
+   * @param results results to store at
+   */
+  private static void collectWriteResults(
+      List<EmailDto> updates,
+      List<Integer> indexes,
+      int[] updatedCounts,
+      EmailUpdateResultDto[] results) {
+
+    for (int i = 0; i < updates.size(); i++) {
+      long id = updates.get(i).id();
+      results[indexes.get(i)] = updatedCounts[i] > 0
+          ? new EmailUpdateResultDto(id, EmailUpdateStatus.UPDATED, updates.get(i).version() + 1, null)
+          : new EmailUpdateResultDto(id, EmailUpdateStatus.CONFLICT, null, String.format(MSG_CONCURRENT_UPDATE, id));
+    }
   }
 
   /**
@@ -240,34 +775,73 @@ public class EmailStoreService {
    * @param updatedEmail updated email
    * @throws EmailUpdateNotAllowedException if update is not allowed
    */
-  private static void checkUpdateAllowed(
+  static void checkUpdateAllowed(
       Email origEmail,
       EmailDto updatedEmail
   ) throws EmailUpdateNotAllowedException {
+    // Compare without mapping (and temporarily changing) the managed entity.
+    checkUpdateAllowed(origEmail.getId(), origEmail.getState(), () -> origEmail.hasSameContent(updatedEmail),
+        updatedEmail);
+  }
+
+  /**
+   * Checks whether updating given stored email (read into a DTO) with updated email is allowed or not, following the
+   * rules of {@link #checkUpdateAllowed(Email, EmailDto)}. Throws {@link EmailUpdateNotAllowedException}, if update is
+   * not allowed.
+   *
+   * @param storedEmail stored email
+   * @param updatedEmail updated email
+   * @throws EmailUpdateNotAllowedException if update is not allowed
+   */
+  static void checkUpdateAllowed(
+      EmailDto storedEmail,
+      EmailDto updatedEmail
+  ) throws EmailUpdateNotAllowedException {
+    checkUpdateAllowed(storedEmail.id(), storedEmail.state(), () -> storedEmail.hasSameContent(updatedEmail),
+        updatedEmail);
+  }
+
+  /**
+   * Checks whether updating the original email of given id and state with updated email is allowed or not, see
+   * {@link #checkUpdateAllowed(Email, EmailDto)}. Contents are compared only if the rules depend on it.
+   *
+   * @param origId id of original email
+   * @param origState state of original email
+   * @param sameContent checks whether original and updated email have the same content (all fields except state and
+   *                    version)
+   * @param updatedEmail updated email
+   * @throws EmailUpdateNotAllowedException if update is not allowed
+   */
+  private static void checkUpdateAllowed(
+      long origId,
+      EmailState origState,
+      BooleanSupplier sameContent,
+      EmailDto updatedEmail
+  ) throws EmailUpdateNotAllowedException {
 
     // 1) Check ID is unchanged.
-    if (origEmail.getId() != updatedEmail.id()) {
+    if (origId != updatedEmail.id()) {
       throw new EmailUpdateNotAllowedException(
-          String.format(MSG_UPDATE_NOT_ALLOWED, origEmail.getId(), "changed id"));
+          String.format(MSG_UPDATE_NOT_ALLOWED, origId, "changed id"));
 
     }
 
     // Check if DRAFT email.
-    if (origEmail.getState() == EmailState.DRAFT) {
+    if (origState == EmailState.DRAFT) {
 
       // 2) Check state of updated mail is DRAFT (unchanged) or SENT.
       if (updatedEmail.state() != EmailState.DRAFT
           && updatedEmail.state() != EmailState.SENT) {
         throw new EmailUpdateNotAllowedException(
-            String.format(MSG_UPDATE_NOT_ALLOWED, origEmail.getId(), "DRAFT email to other than DRAFT or SENT"));
+            String.format(MSG_UPDATE_NOT_ALLOWED, origId, "DRAFT email to other than DRAFT or SENT"));
 
       }
 
       // 3) Check content change only in state DRAFT (state changed to SENT).
       if (updatedEmail.state() != EmailState.DRAFT
-          && haveDifferentContent(origEmail, updatedEmail)) {
+          && !sameContent.getAsBoolean()) {
         throw new EmailUpdateNotAllowedException(
-            String.format(MSG_UPDATE_NOT_ALLOWED, origEmail.getId(), "no content change on DRAFT email to SENT"));
+            String.format(MSG_UPDATE_NOT_ALLOWED, origId, "no content change on DRAFT email to SENT"));
 
       }
 
@@ -277,14 +851,14 @@ public class EmailStoreService {
       // 4) Check state of updated mail is anything but DRAFT.
       if (updatedEmail.state() == EmailState.DRAFT) {
         throw new EmailUpdateNotAllowedException(
-            String.format(MSG_UPDATE_NOT_ALLOWED, origEmail.getId(), "non-DRAFT email to DRAFT"));
+            String.format(MSG_UPDATE_NOT_ALLOWED, origId, "non-DRAFT email to DRAFT"));
 
       }
 
       // 5) Check all fields except state are unchanged (exception on changed content).
-      if (haveDifferentContent(origEmail, updatedEmail)) {
+      if (!sameContent.getAsBoolean()) {
         throw new EmailUpdateNotAllowedException(
-            String.format(MSG_UPDATE_NOT_ALLOWED, origEmail.getId(), "non-DRAFT changed content"));
+            String.format(MSG_UPDATE_NOT_ALLOWED, origId, "non-DRAFT changed content"));
 
       }
     }
@@ -292,25 +866,120 @@ public class EmailStoreService {
   }
 
   /**
-   * Checks whether original email (entity) and updated email (DTO) have different content. All fields are relevant
-   * except state of the mail.
+   * Changes the state of the stored email with given id, without reading or writing its content: a single conditional
+   * update statement changes the state only if the email is in a state allowed to change to given state (same rules as
+   * {@link #checkUpdateAllowed(Email, EmailDto)} for an unchanged content) and, if given, has the expected version.
+   * Only if nothing is updated, the email is read to raise the matching exception. A draft changed to SENT is changed
+   * by a statement of its own, so it is known to be enqueued for the scheduled spam classification (see
+   * {@link #updateEmail(long, EmailDto, Long)}).
    *
-   * @param origEmail original email
-   * @param updatedEmail updated email
-   * @return whether emails are unequal content-wise
+   * @param id id of email to update
+   * @param state new state of email
+   * @param expectedVersion version the stored email must have, null to update any version
+   * @return new version of updated email
+   * @throws EmailNotFoundException no email with given id
+   * @throws EmailUpdateNotAllowedException state of email must not be changed to given state
+   * @throws EmailVersionConflictException email has been changed concurrently
    */
-  private static boolean haveDifferentContent(Email origEmail, EmailDto updatedEmail) {
-    // To compare content of emails temporarily override orig state with updated state.
-    // This way equals will return false, if any other information has changed (not allowed).
+  @Transactional
+  public long updateEmailState(
+      long id,
+      EmailState state,
+      @Nullable Long expectedVersion
+  ) throws EmailNotFoundException, EmailUpdateNotAllowedException, EmailVersionConflictException {
+    requireNonNull(state, "state must not be null.");
 
-    // Get DTO of that entity to compare, reset state of original entity afterward.
-    EmailState origState = origEmail.getState();
-    origEmail.setState(updatedEmail.state());
+    Set<EmailState> allowedStates = getStatesAllowedToChangeTo(state);
+    Optional<Long> newVersion = Optional.empty();
+    if (state == EmailState.SENT) {
+      newVersion = emailJdbcRepository.transitionStateById(id, EnumSet.of(EmailState.DRAFT), state, expectedVersion);
+      if (newVersion.isPresent()) {
+        spamService.enqueueSentEmails(List.of(id));
+      }
+    }
+    if (newVersion.isEmpty()) {
+      newVersion = emailJdbcRepository.transitionStateById(id, allowedStates, state, expectedVersion);
+    }
+    if (newVersion.isEmpty()) {
+      // Nothing updated, read email to find out why.
+      EmailDto storedEmail = emailJdbcRepository.findDtosByIdIn(List.of(id)).stream()
+          .findFirst()
+          .orElseThrow(() -> new EmailNotFoundException(
+              String.format(MSG_NO_EMAIL_WITH_ID, id)));
 
-    EmailDto origEmailDto = origEmail.toDto();
-    origEmail.setState(origState);
+      if (expectedVersion != null && storedEmail.version() != expectedVersion) {
+        throw new EmailVersionConflictException(
+            String.format(MSG_VERSION_CONFLICT, id, storedEmail.version(), expectedVersion));
+      }
+      if (!allowedStates.contains(storedEmail.state())) {
+        throw new EmailUpdateNotAllowedException(
+            String.format(MSG_UPDATE_NOT_ALLOWED, id, storedEmail.state() == EmailState.DRAFT
+                ? "DRAFT email to other than DRAFT or SENT"
+                : "non-DRAFT email to DRAFT"));
+      }
+      // State has been changed in between (and changed back since).
+      throw new EmailVersionConflictException(String.format(MSG_CONCURRENT_UPDATE, id));
+    }
+    emailChangeBus.publishChanged(List.of(id));
+
+    logger.debug(MSG_UPDATED_EMAIL_STATE, id, state);
+    return newVersion.get();
+  }
+
+  /**
+   * Changes the state of all stored emails with given ids to given state, without reading or writing their content.
+   * Emails not found by some given ids or not allowed to change to given state (see
+   * {@link #updateEmailState(long, EmailState, Long)}) are left unchanged. Emails are updated chunk-wise using a single
+   * statement per chunk (and another one sending the drafts of a chunk first, if changed to SENT).
+   *
+   * @param ids ids of emails to update
+   * @param state new state of emails
+   * @return ids of updated emails in ascending order
+   */
+  @Transactional
+  public List<Long> updateEmailStates(List<Long> ids, EmailState state) {
+    requireNonNull(ids, "ids must not be null.");
+    requireNonNull(state, "state must not be null.");
+
+    Set<EmailState> allowedStates = getStatesAllowedToChangeTo(state);
+    List<Long> updatedIds = new ArrayList<>();
+    List<Long> sentDraftIds = new ArrayList<>();
+    for (int chunkStart = 0; chunkStart < ids.size(); chunkStart += MAX_IDS_PER_STATEMENT) {
+      List<Long> chunkIds = ids.subList(chunkStart, Math.min(chunkStart + MAX_IDS_PER_STATEMENT, ids.size()));
+      if (state == EmailState.SENT) {
+        Set<Long> chunkSentDraftIds =
+            new HashSet<>(emailJdbcRepository.transitionStateByIdIn(chunkIds, EnumSet.of(EmailState.DRAFT), state));
+        sentDraftIds.addAll(chunkSentDraftIds);
+        chunkIds = chunkIds.stream()
+            .filter(id -> !chunkSentDraftIds.contains(id))
+            .toList();
+      }
+      updatedIds.addAll(emailJdbcRepository.transitionStateByIdIn(chunkIds, allowedStates, state));
+    }
+    updatedIds.addAll(sentDraftIds);
+    updatedIds.sort(null);
+    emailChangeBus.publishChanged(updatedIds);
+    spamService.enqueueSentEmails(sentDraftIds);
+
+    logger.debug(MSG_UPDATED_EMAIL_STATES, updatedIds.size(), ids.size(), updatedIds, state);
+    return updatedIds;
+  }
 
-    return !origEmailDto.equals(updatedEmail);
+  /**
+   * Returns the states an email must have one of to change its state to given state without changing its content,
+   * following the rules of {@link #checkUpdateAllowed(Email, EmailDto)}: DRAFT emails can be changed to DRAFT or SENT,
+   * non-draft emails to any state but DRAFT.
+   *
+   * @param state new state
+   * @return states allowed to change to given state
+   */
+  static Set<EmailState> getStatesAllowedToChangeTo(EmailState state) {
+
+    return switch (state) {
+      case DRAFT -> EnumSet.of(EmailState.DRAFT);
+      case SENT -> EnumSet.allOf(EmailState.class);
+      case DELETED, SPAM -> EnumSet.complementOf(EnumSet.of(EmailState.DRAFT));
+    };
   }
 
   /**
@@ -321,38 +990,46 @@ public class EmailStoreService {
    * @throws EmailNotFoundException no email with given id
    */
   public void deleteEmail(long id) throws EmailNotFoundException {
-    Email emailToDelete = emailRepository.findById(id)
-        .orElseThrow(() -> new EmailNotFoundException(
-            String.format(MSG_NO_EMAIL_WITH_ID, id)));
-
-    logger.debug(MSG_FOUND_EMAIL_TO_DELETE, emailToDelete.getId());
 
-    // Set state to 'DELETED'.
-    emailToDelete.setState(EmailState.DELETED);
+    // Set state to 'DELETED' (without loading email).
+    int deletedEmailsCount = emailRepository.updateStateByIdIn(List.of(id), EmailState.DELETED);
+    emailChangeBus.publishChanged(List.of(id));
+    if (deletedEmailsCount == 0) {
+      throw new EmailNotFoundException(
+          String.format(MSG_NO_EMAIL_WITH_ID, id));
+    }
 
-    // Save = update email.
-    emailRepository.save(emailToDelete);
-    logger.debug(MSG_DELETED_EMAIL, emailToDelete.getId());
+    logger.debug(MSG_DELETED_EMAIL, id);
   }
 
   /**
-   * Deletes all stored emails with given ids. Emails not found by some given ids, are ignored.
+   * Deletes all stored emails with given ids. Emails not found by some given ids, are ignored. Emails are updated
+   * chunk-wise using a single statement per chunk, without loading them.
    *
    * @param ids ids of emails to delete
+   * @return number of deleted emails
    */
-  public void deleteEmails(List<Long> ids) {
+  public int deleteEmails(List<Long> ids) {
     requireNonNull(ids, "ids must not be null.");
 
     int deletedEmailsCount = 0;
-    Iterable<Email> emailsToDelete = emailRepository.findAllById(ids);
-    for (Email emailToDelete : emailsToDelete) {
-      // Set state to 'DELETED'.
-      emailToDelete.setState(EmailState.DELETED);
-      deletedEmailsCount++;
+    for (int chunkStart = 0; chunkStart < ids.size(); chunkStart += MAX_IDS_PER_STATEMENT) {
+      List<Long> chunkIds = ids.subList(chunkStart, Math.min(chunkStart + MAX_IDS_PER_STATEMENT, ids.size()));
+      // Set state to 'DELETED' (without loading emails).
+      deletedEmailsCount += emailRepository.updateStateByIdIn(chunkIds, EmailState.DELETED);
     }
+    emailChangeBus.publishChanged(ids);
 
-    // Save = update email.
-    emailRepository.saveAll(emailsToDelete);
     logger.debug(MSG_DELETED_EMAILS, deletedEmailsCount, ids.size(), ids);
+    return deletedEmailsCount;
+  }
+
+  /**
+   * Returns the statistics of the cache of stored emails.
+   *
+   * @return cache statistics
+   */
+  public EmailCacheStatsDto getCacheStats() {
+    return emailCache.getStats();
   }
 }
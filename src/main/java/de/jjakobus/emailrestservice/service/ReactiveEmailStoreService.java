@@ -0,0 +1,568 @@
+package de.jjakobus.emailrestservice.service;
+
+import de.jjakobus.emailrestservice.config.ReactiveEmailRestServiceConfig;
+import de.jjakobus.emailrestservice.model.Email;
+import de.jjakobus.emailrestservice.model.EmailState;
+import de.jjakobus.emailrestservice.model.EmailUpdateStatus;
+import de.jjakobus.emailrestservice.model.dtos.EmailCacheStatsDto;
+import de.jjakobus.emailrestservice.model.dtos.EmailDto;
+import de.jjakobus.emailrestservice.model.dtos.EmailUpdateResultDto;
+import de.jjakobus.emailrestservice.model.dtos.InsertEmailDto;
+import de.jjakobus.emailrestservice.model.exceptions.EmailNotFoundException;
+import de.jjakobus.emailrestservice.model.exceptions.EmailUpdateNotAllowedException;
+import de.jjakobus.emailrestservice.model.exceptions.EmailVersionConflictException;
+import de.jjakobus.emailrestservice.service.repositories.ReactiveEmailRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Handles all store-related operations regarding emails non-blocking, for the reactive variant of the service. Follows
+ * the same rules as {@link EmailStoreService} (e.g. which updates are allowed) and shares the cache of emails and the
+ * publishing of changes to all instances with it, so both variants can run side by side on the same database.
+ *
+ * @author jjakobus
+ */
+@Service
+@Profile(ReactiveEmailRestServiceConfig.PROFILE)
+public class ReactiveEmailStoreService {
+
+  /* Logger messages. */
+  private static final String MSG_CLASSIFIED_NEW_EMAIL_AS_SPAM = "Classified new email from {} as SPAM.";
+  private static final String MSG_SAVED_NEW_EMAILS = "Saved {} new emails.";
+  private static final String MSG_FOUND_MATCHING_EMAILS = "Found {} of searched {} emails with ids {}. ";
+  private static final String MSG_SAVED_UPDATED_EMAIL = "Saved updated email of id {}.";
+  private static final String MSG_SAVED_UPDATED_EMAILS = "Saved {}/{} updated emails.";
+  private static final String MSG_UPDATED_EMAIL_STATE = "Changed state of email with id {} to {}.";
+  private static final String MSG_UPDATED_EMAIL_STATES = "Changed state of {}/{} emails with ids {} to {}.";
+  private static final String MSG_DELETED_EMAILS = "Marked {}/{} email of ids {} as DELETED.";
+  private static final String MSG_ENQUEUED_SENT_EMAILS = "Enqueued {} ranges of sent emails with ids {}.";
+  private static final String MSG_ENQUEUING_SENT_EMAILS_FAILED =
+      "Could not enqueue sent emails with ids {}, they are classified by the next full rescan.";
+
+  /** Logger of service. */
+  private final Logger logger = LoggerFactory.getLogger(ReactiveEmailStoreService.class);
+
+  /* Exception messages. */
+  private static final String MSG_NO_EMAIL_WITH_ID = "There is no email with id '%s'.";
+  private static final String MSG_VERSION_CONFLICT =
+      "Email (id: %s) has version %s, but update is based on version %s.";
+  private static final String MSG_UPDATE_NOT_ALLOWED = "Update of email (id: %s) is not allowed, reason %s.";
+  private static final String MSG_CONCURRENT_UPDATE = "Email (id: %s) has been changed concurrently.";
+
+  /** Reactive repository of emails. */
+  private final ReactiveEmailRepository emailRepository;
+
+  /** Operator running changes in transactions. */
+  private final TransactionalOperator transactionalOperator;
+
+  /** Service classifying spam emails. */
+  private final EmailSpamFilterService spamService;
+
+  /** Cache of stored emails by id. */
+  private final EmailCache emailCache;
+
+  /** Bus handling changes of emails of all instances. */
+  private final EmailChangeBus emailChangeBus;
+
+  /** Whether new emails are classified as SPAM before storing them. */
+  private final boolean inlineSpamFilter;
+
+  /** Number of ids per range enqueued for the scheduled spam classification. */
+  private final long spamFilterIdRangeSize;
+
+  /**
+   * Creates a new reactive service for managing stored emails.
+   *
+   * @param emailRepository reactive repository of emails
+   * @param transactionalOperator operator running changes in transactions
+   * @param spamService service classifying spam emails
+   * @param emailCache cache of stored emails by id
+   * @param emailChangeBus bus handling changes of emails of all instances
+   * @param inlineSpamFilter whether new emails are classified as SPAM before storing them
+   * @param spamFilterIdRangeSize number of ids per range enqueued for the scheduled spam classification
+   */
+  @Autowired
+  public ReactiveEmailStoreService(
+      ReactiveEmailRepository emailRepository,
+      TransactionalOperator transactionalOperator,
+      EmailSpamFilterService spamService,
+      EmailCache emailCache,
+      EmailChangeBus emailChangeBus,
+      @Value("${email-rest-service.spam-filter-inline}") boolean inlineSpamFilter,
+      @Value("${email-rest-service.spam-filter-id-range-size}") long spamFilterIdRangeSize) {
+    this.emailRepository = requireNonNull(emailRepository, "emailRepository must not be null.");
+    this.transactionalOperator = requireNonNull(transactionalOperator, "transactionalOperator must not be null.");
+    this.spamService = requireNonNull(spamService, "spamService must not be null.");
+    this.emailCache = requireNonNull(emailCache, "emailCache must not be null.");
+    this.emailChangeBus = requireNonNull(emailChangeBus, "emailChangeBus must not be null.");
+    this.inlineSpamFilter = inlineSpamFilter;
+    if (spamFilterIdRangeSize < 1) {
+      throw new IllegalArgumentException("spamFilterIdRangeSize must be positive.");
+    }
+    this.spamFilterIdRangeSize = spamFilterIdRangeSize;
+  }
+
+  /**
+   * Saves the given new email to the email store and returns the stored email. If inline spam filtering is enabled, a
+   * SENT email matching the spam filters is stored as SPAM.
+   *
+   * @param newEmail email to save
+   * @return saved email
+   */
+  public Mono<EmailDto> saveEmail(InsertEmailDto newEmail) {
+    requireNonNull(newEmail, "newEmail must not be null.");
+
+    return saveEmails(List.of(newEmail)).single();
+  }
+
+  /**
+   * Saves all given new emails to the email store in a single transaction and returns the stored emails. If inline
+   * spam filtering is enabled, SENT emails matching the spam filters are stored as SPAM. SENT emails are enqueued for
+   * the scheduled spam classification like by {@link EmailStoreService#saveEmails(List)}.
+   *
+   * @param newEmails emails to save
+   * @return saved emails
+   */
+  public Flux<EmailDto> saveEmails(List<InsertEmailDto> newEmails) {
+    requireNonNull(newEmails, "newEmails must not be null.");
+
+    return Flux.defer(() -> {
+      List<Email> newEmailEntities = newEmails.stream()
+          .map(this::createClassifiedEmailEntityFromNewEmail)
+          .toList();
+      return emailRepository.insertAll(newEmailEntities)
+          .as(transactionalOperator::transactional)
+          .collectList()
+          .flatMapMany(insertedEmails -> enqueueSentEmails(insertedEmails.stream()
+                  .filter(email -> email.state() == EmailState.SENT)
+                  .map(EmailDto::id)
+                  .toList())
+              .thenMany(Flux.fromIterable(insertedEmails)))
+          .doOnComplete(() -> logger.debug(MSG_SAVED_NEW_EMAILS, newEmailEntities.size()));
+    });
+  }
+
+  /**
+   * Creates a new {@link Email} entity containing all information from given new email, classified as SPAM like
+   * {@link EmailStoreService} does, if inline spam filtering is enabled.
+   *
+   * @param newEmail new email to create entity for
+   * @return (classified) email entity
+   */
+  private Email createClassifiedEmailEntityFromNewEmail(InsertEmailDto newEmail) {
+    Email newEmailEntity = EmailStoreService.createEmailEntityFromNewEmail(newEmail);
+
+    if (inlineSpamFilter
+        && newEmailEntity.getState() == EmailState.SENT
+        && spamService.isSpam(newEmailEntity)) {
+      newEmailEntity.setState(EmailState.SPAM);
+      logger.debug(MSG_CLASSIFIED_NEW_EMAIL_AS_SPAM, newEmailEntity.getFrom());
+    }
+
+    return newEmailEntity;
+  }
+
+  /**
+   * Returns the email that is stored with the given id, or an {@link EmailNotFoundException} if there is none. Email is
+   * served from cache, if cached.
+   *
+   * @param id id to search
+   * @return stored email with id
+   */
+  public Mono<EmailDto> getEmail(long id) {
+
+    return Mono.defer(() -> {
+      Optional<EmailDto> cachedEmail = emailCache.get(id);
+      if (cachedEmail.isPresent()) {
+        return Mono.just(cachedEmail.get());
+      }
+
+      long readToken = emailCache.getReadToken();
+      return emailRepository.findDtosByIdIn(List.of(id))
+          .collectList()
+          .doOnNext(readEmails -> emailCache.putAll(readEmails, readToken))
+          .flatMap(readEmails -> readEmails.isEmpty()
+              ? Mono.error(new EmailNotFoundException(MSG_NO_EMAIL_WITH_ID.formatted(id)))
+              : Mono.just(readEmails.get(0)));
+    });
+  }
+
+  /**
+   * Returns the version of the email that is stored with the given id without reading the email itself, or an
+   * {@link EmailNotFoundException} if there is none. Version is served from cache, if email is cached.
+   *
+   * @param id id to search
+   * @return version of stored email with id
+   */
+  public Mono<Long> getEmailVersion(long id) {
+
+    return Mono.defer(() -> emailCache.get(id)
+        .map(email -> Mono.just(email.version()))
+        .orElseGet(() -> emailRepository.findVersionById(id)
+            .switchIfEmpty(Mono.error(() -> new EmailNotFoundException(MSG_NO_EMAIL_WITH_ID.formatted(id))))));
+  }
+
+  /**
+   * Returns the emails that are stored with the given ids. Not found emails are ignored, so result list can be empty.
+   * Cached emails are served from cache, all others are read using a constant number of queries.
+   *
+   * @param ids ids to search
+   * @return matched emails ordered by id, can be empty
+   */
+  public Mono<List<EmailDto>> getEmails(List<Long> ids) {
+    requireNonNull(ids, "ids must not be null.");
+
+    return Mono.defer(() -> {
+      Map<Long, EmailDto> matchedEmailsById = new TreeMap<>(emailCache.getAll(ids));
+      List<Long> missingIds = ids.stream()
+          .filter(id -> !matchedEmailsById.containsKey(id))
+          .distinct()
+          .toList();
+
+      Mono<List<EmailDto>> readEmails = Mono.just(List.of());
+      if (!missingIds.isEmpty()) {
+        long readToken = emailCache.getReadToken();
+        readEmails = emailRepository.findDtosByIdIn(missingIds)
+            .collectList()
+            .doOnNext(emails -> emailCache.putAll(emails, readToken));
+      }
+
+      return readEmails.map(emails -> {
+        emails.forEach(email -> matchedEmailsById.put(email.id(), email));
+        List<EmailDto> matchedEmailDtos = List.copyOf(matchedEmailsById.values());
+
+        logger.debug(MSG_FOUND_MATCHING_EMAILS, matchedEmailDtos.size(), ids.size(), ids);
+        return matchedEmailDtos;
+      });
+    });
+  }
+
+  /**
+   * Updates the stored email with given id with the updated email's version. Fails with an
+   * {@link EmailNotFoundException} if there is no email with given id, with an {@link EmailUpdateNotAllowedException}
+   * if the update is not allowed and with an {@link EmailVersionConflictException} if the email does not have the
+   * expected version or is changed concurrently (see {@link EmailStoreService#updateEmail}). A sent draft is enqueued
+   * for the scheduled spam classification.
+   *
+   * @param id id of email to update
+   * @param updatedEmail updated email's version
+   * @param expectedVersion version the stored email must have, null to update any version
+   * @return new version of updated email
+   */
+  public Mono<Long> updateEmail(long id, EmailDto updatedEmail, @Nullable Long expectedVersion) {
+    requireNonNull(updatedEmail, "updatedEmail must not be null.");
+
+    return Mono.defer(() -> {
+      List<Long> sentDraftIds = new ArrayList<>(1);
+      Mono<Long> update = emailRepository.findDtosByIdIn(List.of(id))
+          .next()
+          .switchIfEmpty(Mono.error(() -> new EmailNotFoundException(MSG_NO_EMAIL_WITH_ID.formatted(id))))
+          .flatMap(storedEmail -> {
+            if (expectedVersion != null && storedEmail.version() != expectedVersion) {
+              return Mono.error(new EmailVersionConflictException(
+                  MSG_VERSION_CONFLICT.formatted(id, storedEmail.version(), expectedVersion)));
+            }
+
+            // Update only if version is unchanged since read (no rows are locked).
+            return checkUpdateAllowed(storedEmail, updatedEmail)
+                .then(emailRepository.update(id, storedEmail.version(), updatedEmail))
+                .flatMap(updatedCount -> updatedCount == 0
+                    ? Mono.error(new EmailVersionConflictException(MSG_CONCURRENT_UPDATE.formatted(id)))
+                    : Mono.just(storedEmail.version() + 1))
+                .doOnNext(version -> {
+                  if (storedEmail.state() == EmailState.DRAFT && updatedEmail.state() == EmailState.SENT) {
+                    sentDraftIds.add(id);
+                  }
+                });
+          });
+
+      return changeEmails(List.of(id), update, sentDraftIds);
+    }).doOnSuccess(version -> logger.debug(MSG_SAVED_UPDATED_EMAIL, id));
+  }
+
+  /**
+   * Updates all stored emails with the ids of given updated emails and returns the outcome per given email (in the
+   * same order), like {@link EmailStoreService#updateEmails(List)}. All emails are read by a single query, updates are
+   * written one after another within a single transaction.
+   *
+   * @param updatedEmails updated emails' versions
+   * @return outcome of update per given email
+   */
+  public Mono<List<EmailUpdateResultDto>> updateEmails(List<EmailDto> updatedEmails) {
+    requireNonNull(updatedEmails, "updatedEmails must not be null.");
+    if (updatedEmails.isEmpty()) {
+      return Mono.just(List.of());
+    }
+
+    List<Long> ids = updatedEmails.stream()
+        .map(EmailDto::id)
+        .distinct()
+        .toList();
+    return Mono.defer(() -> {
+      List<Long> sentDraftIds = new ArrayList<>();
+      Mono<List<EmailUpdateResultDto>> update = emailRepository.findDtosByIdIn(ids)
+          .collectMap(EmailDto::id)
+          .flatMap(storedEmailsById -> Flux.fromIterable(updatedEmails)
+              .concatMap(updatedEmail -> updateStoredEmail(storedEmailsById.get(updatedEmail.id()), updatedEmail))
+              .collectList()
+              .doOnNext(results -> sentDraftIds.addAll(
+                  EmailStoreService.getSentDraftIds(updatedEmails, storedEmailsById, results))));
+
+      return changeEmails(ids, update, sentDraftIds);
+    }).doOnNext(results -> logger.debug(MSG_SAVED_UPDATED_EMAILS, results.stream()
+            .filter(result -> result.status() == EmailUpdateStatus.UPDATED)
+            .count(), updatedEmails.size()));
+  }
+
+  /**
+   * Updates given stored email with updated email, if allowed and still stored in the version read.
+   *
+   * @param storedEmail stored email, null if not found
+   * @param updatedEmail updated email
+   * @return outcome of update
+   */
+  private Mono<EmailUpdateResultDto> updateStoredEmail(@Nullable EmailDto storedEmail, EmailDto updatedEmail) {
+    long id = updatedEmail.id();
+    if (storedEmail == null) {
+      return Mono.just(new EmailUpdateResultDto(id, EmailUpdateStatus.NOT_FOUND, null,
+          MSG_NO_EMAIL_WITH_ID.formatted(id)));
+    }
+
+    return checkUpdateAllowed(storedEmail, updatedEmail)
+        .then(Mono.defer(() -> emailRepository.update(id, storedEmail.version(), updatedEmail)))
+        .map(updatedCount -> updatedCount > 0
+            ? new EmailUpdateResultDto(id, EmailUpdateStatus.UPDATED, storedEmail.version() + 1, null)
+            : new EmailUpdateResultDto(id, EmailUpdateStatus.CONFLICT, null, MSG_CONCURRENT_UPDATE.formatted(id)))
+        .onErrorResume(EmailUpdateNotAllowedException.class, e -> Mono.just(
+            new EmailUpdateResultDto(id, EmailUpdateStatus.NOT_ALLOWED, null, e.getMessage())));
+  }
+
+  /**
+   * Checks whether updating given stored email with updated email is allowed, using the rules of
+   * {@link EmailStoreService}.
+   *
+   * @param storedEmail stored email
+   * @param updatedEmail updated email
+   * @return completion, or {@link EmailUpdateNotAllowedException} if update is not allowed
+   */
+  private static Mono<Void> checkUpdateAllowed(EmailDto storedEmail, EmailDto updatedEmail) {
+
+    try {
+      EmailStoreService.checkUpdateAllowed(storedEmail, updatedEmail);
+      return Mono.empty();
+
+    } catch (EmailUpdateNotAllowedException e) {
+      return Mono.error(e);
+
+    }
+  }
+
+  /**
+   * Changes the state of the stored email with given id using a single conditional statement, without reading or
+   * writing its content. Fails like {@link EmailStoreService#updateEmailState(long, EmailState, Long)}, reading the
+   * email only if nothing is updated. A draft changed to SENT is enqueued for the scheduled spam classification (like
+   * by that method).
+   *
+   * @param id id of email to update
+   * @param state new state of email
+   * @param expectedVersion version the stored email must have, null to update any version
+   * @return new version of updated email
+   */
+  public Mono<Long> updateEmailState(long id, EmailState state, @Nullable Long expectedVersion) {
+    requireNonNull(state, "state must not be null.");
+
+    Set<EmailState> allowedStates = EmailStoreService.getStatesAllowedToChangeTo(state);
+    return Mono.defer(() -> {
+      List<Long> sentDraftIds = new ArrayList<>(1);
+      // Send a draft by a statement of its own, so it is known to be enqueued for the spam classification.
+      Mono<Long> sendDraft = state == EmailState.SENT
+          ? emailRepository.transitionStateById(id, EnumSet.of(EmailState.DRAFT), state, expectedVersion)
+              .doOnNext(version -> sentDraftIds.add(id))
+          : Mono.empty();
+      Mono<Long> update = sendDraft
+          .switchIfEmpty(Mono.defer(
+              () -> emailRepository.transitionStateById(id, allowedStates, state, expectedVersion)))
+          // Nothing updated, read email to find out why.
+          .switchIfEmpty(Mono.defer(() -> emailRepository.findDtosByIdIn(List.of(id))
+              .next()
+              .switchIfEmpty(Mono.error(() -> new EmailNotFoundException(MSG_NO_EMAIL_WITH_ID.formatted(id))))
+              .flatMap(storedEmail -> {
+                if (expectedVersion != null && storedEmail.version() != expectedVersion) {
+                  return Mono.error(new EmailVersionConflictException(
+                      MSG_VERSION_CONFLICT.formatted(id, storedEmail.version(), expectedVersion)));
+                }
+                if (!allowedStates.contains(storedEmail.state())) {
+                  return Mono.error(new EmailUpdateNotAllowedException(
+                      MSG_UPDATE_NOT_ALLOWED.formatted(id, storedEmail.state() == EmailState.DRAFT
+                          ? "DRAFT email to other than DRAFT or SENT"
+                          : "non-DRAFT email to DRAFT")));
+                }
+                // State has been changed in between (and changed back since).
+                return Mono.error(new EmailVersionConflictException(MSG_CONCURRENT_UPDATE.formatted(id)));
+              })));
+
+      return changeEmails(List.of(id), update, sentDraftIds);
+    }).doOnSuccess(version -> logger.debug(MSG_UPDATED_EMAIL_STATE, id, state));
+  }
+
+  /**
+   * Changes the state of all stored emails with given ids using a single statement, without reading or writing their
+   * content (and another one sending the drafts first, if changed to SENT, to enqueue them for the scheduled spam
+   * classification). Emails not found or not allowed to change to given state are left unchanged.
+   *
+   * @param ids ids of emails to update
+   * @param state new state of emails
+   * @return ids of updated emails in ascending order
+   */
+  public Mono<List<Long>> updateEmailStates(List<Long> ids, EmailState state) {
+    requireNonNull(ids, "ids must not be null.");
+    requireNonNull(state, "state must not be null.");
+    if (ids.isEmpty()) {
+      return Mono.just(List.of());
+    }
+
+    Set<EmailState> allowedStates = EmailStoreService.getStatesAllowedToChangeTo(state);
+    if (state != EmailState.SENT) {
+      return changeEmails(ids, emailRepository.transitionStateByIdIn(ids, allowedStates, state).sort().collectList())
+          .doOnNext(updatedIds ->
+              logger.debug(MSG_UPDATED_EMAIL_STATES, updatedIds.size(), ids.size(), updatedIds, state));
+    }
+
+    return Mono.defer(() -> {
+      // Send drafts by a statement of their own, so they are known to be enqueued for the spam classification.
+      List<Long> sentDraftIds = new ArrayList<>();
+      Mono<List<Long>> update = emailRepository.transitionStateByIdIn(ids, EnumSet.of(EmailState.DRAFT), state)
+          .collect(Collectors.toSet())
+          .flatMap(draftIds -> {
+            sentDraftIds.addAll(draftIds);
+            List<Long> otherIds = ids.stream()
+                .filter(id -> !draftIds.contains(id))
+                .toList();
+            return emailRepository.transitionStateByIdIn(otherIds, allowedStates, state)
+                .concatWith(Flux.fromIterable(draftIds))
+                .sort()
+                .collectList();
+          });
+
+      return changeEmails(ids, update, sentDraftIds);
+    }).doOnNext(updatedIds ->
+            logger.debug(MSG_UPDATED_EMAIL_STATES, updatedIds.size(), ids.size(), updatedIds, state));
+  }
+
+  /**
+   * Deletes the stored email with given id, or fails with an {@link EmailNotFoundException} if there is none.
+   *
+   * @param id id of email to delete
+   * @return completion of delete
+   */
+  public Mono<Void> deleteEmail(long id) {
+
+    return deleteEmails(List.of(id))
+        .flatMap(deletedEmailsCount -> deletedEmailsCount == 0
+            ? Mono.error(new EmailNotFoundException(MSG_NO_EMAIL_WITH_ID.formatted(id)))
+            : Mono.empty());
+  }
+
+  /**
+   * Deletes all stored emails with given ids using a single statement, without loading them. Emails not found by some
+   * given ids are ignored.
+   *
+   * @param ids ids of emails to delete
+   * @return number of deleted emails
+   */
+  public Mono<Long> deleteEmails(List<Long> ids) {
+    requireNonNull(ids, "ids must not be null.");
+    if (ids.isEmpty()) {
+      return Mono.just(0L);
+    }
+
+    // Set state to 'DELETED' (without loading emails).
+    return changeEmails(ids, emailRepository.updateStateByIdIn(ids, EmailState.DELETED))
+        .doOnNext(deletedEmailsCount -> logger.debug(MSG_DELETED_EMAILS, deletedEmailsCount, ids.size(), ids));
+  }
+
+  /**
+   * Runs given change of the emails with given ids in a transaction that notifies all instances on commit (see
+   * {@link EmailChangeBus}). Cached emails of this instance are invalidated after commit.
+   *
+   * @param ids ids of changed emails (not empty)
+   * @param change change emitting its result
+   * @param <T> type of result
+   * @return result of change
+   */
+  private <T> Mono<T> changeEmails(Collection<Long> ids, Mono<T> change) {
+    return changeEmails(ids, change, List.of());
+  }
+
+  /**
+   * Runs given change of the emails with given ids like {@link #changeEmails(Collection, Mono)} and enqueues the emails
+   * that have been sent by the change for the scheduled spam classification after commit.
+   *
+   * @param ids ids of changed emails (not empty)
+   * @param change change emitting its result
+   * @param sentIds ids of emails sent by change, collected while it is running
+   * @param <T> type of result
+   * @return result of change
+   */
+  private <T> Mono<T> changeEmails(Collection<Long> ids, Mono<T> change, Collection<Long> sentIds) {
+    String payload = EmailChangeBus.createPayload(ids);
+
+    return change
+        .flatMap(result -> emailRepository.sendNotification(EmailChangeBus.CHANNEL, payload).thenReturn(result))
+        .as(transactionalOperator::transactional)
+        // Handle own notification right away, so this instance does not serve outdated emails meanwhile.
+        .doOnSuccess(result -> emailChangeBus.handleNotification(payload))
+        .flatMap(result -> enqueueSentEmails(sentIds).thenReturn(result));
+  }
+
+  /**
+   * Enqueues given emails that have become SENT for the scheduled spam classification, like
+   * {@link EmailSpamFilterService#enqueueSentEmails(Collection)}. Must be run after the emails have been committed.
+   * Failures are logged only, as the emails have been stored successfully.
+   *
+   * @param ids ids of emails that have become SENT
+   * @return completion of enqueuing
+   */
+  private Mono<Void> enqueueSentEmails(Collection<Long> ids) {
+    if (ids.isEmpty()) {
+      return Mono.empty();
+    }
+
+    return emailRepository.enqueueSpamFilterIds(EmailSpamFilterService.WATERMARK_NAME, ids, spamFilterIdRangeSize)
+        .doOnNext(enqueuedRangesCount -> logger.debug(MSG_ENQUEUED_SENT_EMAILS, enqueuedRangesCount, ids))
+        .onErrorResume(e -> {
+          logger.warn(MSG_ENQUEUING_SENT_EMAILS_FAILED, ids, e);
+          return Mono.empty();
+        })
+        .then();
+  }
+
+  /**
+   * Returns the statistics of the cache of stored emails.
+   *
+   * @return cache statistics
+   */
+  public EmailCacheStatsDto getCacheStats() {
+    return emailCache.getStats();
+  }
+}
@@ -0,0 +1,122 @@
+package de.jjakobus.emailrestservice.service;
+
+import de.jjakobus.emailrestservice.model.SpamFilter;
+import de.jjakobus.emailrestservice.model.dtos.SpamFilterDto;
+import de.jjakobus.emailrestservice.service.repositories.SpamFilterRepository;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+import java.util.stream.StreamSupport;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Manages the persisted SPAM filters and publishes them as immutable {@link SpamFilterSnapshot}. Readers (e.g. the
+ * scheduled classification or inserting requests) get the current snapshot without any locking. Changes are
+ * serialized, persisted and published by replacing the snapshot as a whole (copy-on-write). Persisted filters are
+ * loaded once the registry has been created (and on every reload), not by its constructor.
+ *
+ * @author jjakobus
+ */
+@Service
+public class SpamFilterRegistry {
+
+  /* Logger messages. */
+  private static final String MSG_LOADED_FILTERS = "Loaded SPAM filters: {}.";
+  private static final String MSG_ADDED_FILTER = "Added SPAM filter: {}.";
+  private static final String MSG_FILTER_ALREADY_PRESENT = "SPAM filter already present: {}.";
+  private static final String MSG_REMOVED_FILTER = "Removed SPAM filter: {}.";
+
+  /** Logger of registry. */
+  private final Logger logger = LoggerFactory.getLogger(SpamFilterRegistry.class);
+
+  /** Repository of filters. */
+  private final SpamFilterRepository spamFilterRepository;
+
+  /** Current snapshot of filters (replaced on every change). */
+  private volatile SpamFilterSnapshot snapshot = SpamFilterSnapshot.EMPTY;
+
+  /**
+   * Creates a new registry without any filters until {@link #reload()}.
+   *
+   * @param spamFilterRepository repository of filters
+   */
+  @Autowired
+  public SpamFilterRegistry(SpamFilterRepository spamFilterRepository) {
+    this.spamFilterRepository = requireNonNull(spamFilterRepository, "spamFilterRepository must not be null.");
+  }
+
+  /**
+   * Returns the current snapshot of all filters. Does not block, even while filters are changed.
+   *
+   * @return current snapshot of filters
+   */
+  public SpamFilterSnapshot getSnapshot() {
+    return snapshot;
+  }
+
+  /**
+   * Adds and persists given filter, if not present yet.
+   *
+   * @param filter filter to add
+   * @return whether filter has been added (false if already present)
+   */
+  public synchronized boolean addFilter(SpamFilterDto filter) {
+    requireNonNull(filter, "filter must not be null.");
+
+    if (spamFilterRepository.existsByTypeAndValue(filter.type(), filter.value())) {
+      logger.debug(MSG_FILTER_ALREADY_PRESENT, filter);
+      return false;
+    }
+
+    try {
+      spamFilterRepository.save(new SpamFilter(filter.type(), filter.value()));
+
+    } catch (DataIntegrityViolationException e) {
+      // Added concurrently by another instance.
+      logger.debug(MSG_FILTER_ALREADY_PRESENT, filter);
+      reload();
+      return false;
+
+    }
+
+    reload();
+    logger.info(MSG_ADDED_FILTER, filter);
+    return true;
+  }
+
+  /**
+   * Removes given filter, if present.
+   *
+   * @param filter filter to remove
+   * @return whether filter has been removed (false if not present)
+   */
+  public synchronized boolean removeFilter(SpamFilterDto filter) {
+    requireNonNull(filter, "filter must not be null.");
+
+    boolean removed = spamFilterRepository.deleteByTypeAndValue(filter.type(), filter.value()) > 0;
+    if (removed) {
+      reload();
+      logger.info(MSG_REMOVED_FILTER, filter);
+    }
+
+    return removed;
+  }
+
+  /**
+   * Loads all persisted filters and publishes them as new snapshot, once the registry has been created and e.g. to pick
+   * up changes of other instances.
+   */
+  @PostConstruct
+  public synchronized void reload() {
+    snapshot = new SpamFilterSnapshot(StreamSupport.stream(spamFilterRepository.findAll().spliterator(), false)
+        .map(SpamFilter::toDto)
+        .toList());
+
+    logger.debug(MSG_LOADED_FILTERS, snapshot.getFilters());
+  }
+}
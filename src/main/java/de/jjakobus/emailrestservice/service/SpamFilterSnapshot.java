@@ -0,0 +1,142 @@
+package de.jjakobus.emailrestservice.service;
+
+import de.jjakobus.emailrestservice.model.SpamFilterType;
+import de.jjakobus.emailrestservice.model.dtos.SpamFilterDto;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Immutable snapshot of all SPAM filters at a point in time. A snapshot never changes after creation, so it can be
+ * read by any number of threads without locking. Changes of filters are published as new snapshot by the
+ * {@link SpamFilterRegistry}.
+ *
+ * @author jjakobus
+ */
+public final class SpamFilterSnapshot {
+
+  /** Snapshot without any filter. */
+  public static final SpamFilterSnapshot EMPTY = new SpamFilterSnapshot(List.of());
+
+  /** All filters of snapshot. */
+  private final List<SpamFilterDto> filters;
+
+  /** Email addresses of all sender filters. */
+  private final Set<String> senderAddresses;
+
+  /** Rules of all domain filters. */
+  private final DomainRuleTrie senderDomains;
+
+  /** Phrases of all content filters. */
+  private final ContentRuleAutomaton contentRules;
+
+  /**
+   * Creates a new snapshot of given filters.
+   *
+   * @param filters filters of snapshot
+   * @throws IllegalArgumentException if a filter is invalid
+   */
+  public SpamFilterSnapshot(Collection<SpamFilterDto> filters) {
+    requireNonNull(filters, "filters must not be null.");
+
+    this.filters = List.copyOf(filters);
+    this.senderAddresses = filters.stream()
+        .filter(filter -> filter.type() == SpamFilterType.SENDER)
+        .map(SpamFilterDto::value)
+        .collect(Collectors.toUnmodifiableSet());
+    this.senderDomains = DomainRuleTrie.of(filters.stream()
+        .filter(filter -> filter.type() == SpamFilterType.DOMAIN)
+        .map(SpamFilterDto::value)
+        .toList());
+    this.contentRules = ContentRuleAutomaton.of(filters.stream()
+        .filter(filter -> filter.type() == SpamFilterType.CONTENT)
+        .map(SpamFilterDto::value)
+        .toList());
+  }
+
+  /**
+   * Returns all filters of snapshot.
+   *
+   * @return (unmodifiable) list of filters
+   */
+  public List<SpamFilterDto> getFilters() {
+    return filters;
+  }
+
+  /**
+   * Returns the email addresses of all sender filters.
+   *
+   * @return (unmodifiable) set of filtered sender addresses
+   */
+  public Set<String> getSenderAddresses() {
+    return senderAddresses;
+  }
+
+  /**
+   * Returns the rules of all domain filters.
+   *
+   * @return domain rules
+   */
+  public DomainRuleTrie getSenderDomains() {
+    return senderDomains;
+  }
+
+  /**
+   * Returns the phrases of all content filters.
+   *
+   * @return content rules
+   */
+  public ContentRuleAutomaton getContentRules() {
+    return contentRules;
+  }
+
+  /**
+   * Checks whether snapshot contains no filter at all.
+   *
+   * @return whether snapshot is empty
+   */
+  public boolean isEmpty() {
+    return filters.isEmpty();
+  }
+
+  /**
+   * Checks whether emails sent by given sender address are matching a filter of snapshot, either a sender filter or a
+   * domain filter. Costs are independent of the number of filters.
+   *
+   * @param senderAddress sender email address
+   * @return whether sender is filtered
+   */
+  public boolean matchesSender(String senderAddress) {
+    requireNonNull(senderAddress, "senderAddress must not be null.");
+
+    return senderAddresses.contains(senderAddress)
+        || senderDomains.matchesAddress(senderAddress);
+  }
+
+  /**
+   * Checks whether given content (subject and body) of an email contains a phrase of any content filter of snapshot.
+   * Subject and body are scanned once each, independent of the number of filters.
+   *
+   * @param subject subject of email
+   * @param body body of email
+   * @return whether content is filtered
+   */
+  public boolean matchesContent(String subject, String body) {
+    requireNonNull(subject, "subject must not be null.");
+    requireNonNull(body, "body must not be null.");
+
+    return contentRules.matches(subject)
+        || contentRules.matches(body);
+  }
+
+  @Override
+  public String toString() {
+    return "SpamFilterSnapshot{" +
+        "filters=" + filters +
+        '}';
+  }
+}
@@ -0,0 +1,736 @@
+package de.jjakobus.emailrestservice.service.repositories;
+
+import de.jjakobus.emailrestservice.model.Email;
+import de.jjakobus.emailrestservice.model.EmailAddress;
+import de.jjakobus.emailrestservice.model.EmailState;
+import de.jjakobus.emailrestservice.model.dtos.EmailAddressDto;
+import de.jjakobus.emailrestservice.model.dtos.EmailDto;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.BiPredicate;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Stores emails using plain JDBC for operations where JPA's per-entity handling is too slow, e.g. inserting many
+ * emails at once. Works on the same tables as {@link EmailRepository}.
+ *
+ * @author jjakobus
+ */
+@Repository
+public class EmailJdbcRepository {
+
+  /**
+   * Number of ids reserved by a single value of the email id sequence. Must match the sequence's increment and the
+   * allocation size of {@link Email}'s id generator (pooled-lo: value v reserves ids v to v + size - 1).
+   */
+  public static final int EMAIL_ID_BLOCK_SIZE = 50;
+
+  /* SQL statements. */
+  private static final String SQL_NEXT_EMAIL_ID_BLOCKS =
+      "SELECT nextval('email_seq') FROM generate_series(1, ?)";
+  private static final String SQL_INSERT_EMAIL =
+      "INSERT INTO email (id, state, address, display_name, subject, body, modified_date) "
+          + "VALUES (?, ?, ?, ?, ?, ?, ?)";
+  private static final String SQL_INSERT_EMAIL_TO =
+      "INSERT INTO email_to (email_id, address, display_name) VALUES (?, ?, ?)";
+  private static final String SQL_INSERT_EMAIL_CC =
+      "INSERT INTO email_cc (email_id, address, display_name) VALUES (?, ?, ?)";
+  private static final String SQL_COPY_EMAIL =
+      "COPY email (id, state, address, display_name, subject, body, modified_date) FROM STDIN WITH (FORMAT csv)";
+  private static final String SQL_COPY_EMAIL_TO =
+      "COPY email_to (email_id, address, display_name) FROM STDIN WITH (FORMAT csv)";
+  private static final String SQL_COPY_EMAIL_CC =
+      "COPY email_cc (email_id, address, display_name) FROM STDIN WITH (FORMAT csv)";
+  private static final String SQL_SELECT_EMAILS_BY_IDS =
+      "SELECT id, state, address, display_name, subject, body, modified_date, version FROM email WHERE id = ANY(?) "
+          + "ORDER BY id";
+  private static final String SQL_SELECT_VERSION_BY_ID = "SELECT version FROM email WHERE id = ?";
+  private static final String SQL_SELECT_EMAIL_TO_BY_EMAIL_IDS =
+      "SELECT email_id, address, display_name FROM email_to WHERE email_id = ANY(?)";
+  private static final String SQL_SELECT_EMAIL_CC_BY_EMAIL_IDS =
+      "SELECT email_id, address, display_name FROM email_cc WHERE email_id = ANY(?)";
+  private static final String SQL_TRANSITION_STATE_BY_SENDERS_IN_ID_RANGE =
+      "UPDATE email SET state = ?, version = version + 1 "
+          + "WHERE state = ? AND address = ANY(?) AND id > ? AND id <= ?";
+  /** Lower case domain of sender address (everything after last "@"), same as {@code DomainRuleTrie.domainOf}. */
+  private static final String SQL_SENDER_DOMAIN = "lower(substring(address from '[^@]*$'))";
+  private static final String SQL_SELECT_SENDER_DOMAINS_IN_ID_RANGE =
+      "SELECT DISTINCT " + SQL_SENDER_DOMAIN + " FROM email WHERE state = ? AND id > ? AND id <= ?";
+  private static final String SQL_TRANSITION_STATE_BY_SENDER_DOMAINS_IN_ID_RANGE =
+      "UPDATE email SET state = ?, version = version + 1 "
+          + "WHERE state = ? AND " + SQL_SENDER_DOMAIN + " = ANY(?) AND id > ? AND id <= ?";
+  private static final String SQL_SELECT_CONTENTS_IN_ID_RANGE =
+      "SELECT id, subject, body FROM email WHERE state = ? AND id > ? AND id <= ?";
+  private static final String SQL_TRANSITION_STATE_BY_IDS =
+      "UPDATE email SET state = ?, version = version + 1 WHERE state = ? AND id = ANY(?)";
+  private static final String SQL_TRANSITION_STATE_BY_ID =
+      "UPDATE email SET state = ?, version = version + 1 WHERE id = ? AND state = ANY(?) RETURNING version";
+  private static final String SQL_TRANSITION_STATE_BY_ID_AND_VERSION =
+      "UPDATE email SET state = ?, version = version + 1 WHERE id = ? AND state = ANY(?) AND version = ? "
+          + "RETURNING version";
+  private static final String SQL_TRANSITION_STATES_BY_IDS =
+      "UPDATE email SET state = ?, version = version + 1 WHERE id = ANY(?) AND state = ANY(?) RETURNING id";
+  private static final String SQL_UPDATE_EMAIL_BY_ID_AND_VERSION =
+      "UPDATE email SET state = ?, address = ?, display_name = ?, subject = ?, body = ?, modified_date = ?, "
+          + "version = version + 1 WHERE id = ? AND version = ?";
+  private static final String SQL_UPDATE_STATE_BY_ID_AND_VERSION =
+      "UPDATE email SET state = ?, version = version + 1 WHERE id = ? AND version = ?";
+  private static final String SQL_DELETE_EMAIL_TO_BY_EMAIL_IDS = "DELETE FROM email_to WHERE email_id = ANY(?)";
+  private static final String SQL_DELETE_EMAIL_CC_BY_EMAIL_IDS = "DELETE FROM email_cc WHERE email_id = ANY(?)";
+
+  /** Number of rows fetched at once when scanning email contents. */
+  private static final int CONTENT_FETCH_SIZE = 1000;
+
+  /** JDBC template to run statements with. */
+  private final JdbcTemplate jdbcTemplate;
+
+  /** Number of rows sent to the database in a single JDBC batch. */
+  private final int batchSize;
+
+  /**
+   * Creates a new JDBC repository of emails.
+   *
+   * @param jdbcTemplate JDBC template to run statements with
+   * @param batchSize number of rows sent to the database in a single JDBC batch
+   */
+  @Autowired
+  public EmailJdbcRepository(
+      JdbcTemplate jdbcTemplate,
+      @Value("${email-rest-service.jdbc-batch-size}") int batchSize) {
+    this.jdbcTemplate = requireNonNull(jdbcTemplate, "jdbcTemplate must not be null.");
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("batchSize must be positive.");
+    }
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Inserts all given new emails including their receivers. Ids are allocated from the email id sequence in blocks
+   * and set on the given entities. Rows are grouped per table (email, email_to, email_cc), so every table is written
+   * in few large JDBC batches.
+   *
+   * @param emails new emails to insert (ids get overridden)
+   * @return given emails with allocated ids
+   */
+  @Transactional
+  public List<Email> insertAll(List<Email> emails) {
+    requireNonNull(emails, "emails must not be null.");
+    if (emails.isEmpty()) {
+      return emails;
+    }
+
+    allocateIds(emails);
+
+    jdbcTemplate.batchUpdate(SQL_INSERT_EMAIL, emails, batchSize, (statement, email) -> {
+      statement.setLong(1, email.getId());
+      statement.setString(2, email.getState().name());
+      statement.setString(3, email.getFrom().getAddress());
+      statement.setString(4, email.getFrom().getDisplayName());
+      statement.setString(5, email.getSubject());
+      statement.setString(6, email.getBody());
+      statement.setTimestamp(7, new Timestamp(email.getModifiedDate().getTime()));
+    });
+    insertReceivers(SQL_INSERT_EMAIL_TO, emails, true);
+    insertReceivers(SQL_INSERT_EMAIL_CC, emails, false);
+
+    return emails;
+  }
+
+  /**
+   * Imports all given new emails including their receivers using PostgreSQL's {@code COPY ... FROM STDIN}, which is
+   * considerably faster than (batched) inserts. Ids are allocated like in {@link #insertAll(List)}. All rows of a
+   * table are sent as a single CSV stream, so callers should limit the number of emails per call.
+   *
+   * @param emails new emails to import (ids get overridden)
+   * @return given emails with allocated ids
+   */
+  @Transactional
+  public List<Email> copyAll(List<Email> emails) {
+    requireNonNull(emails, "emails must not be null.");
+    if (emails.isEmpty()) {
+      return emails;
+    }
+
+    allocateIds(emails);
+
+    StringBuilder emailRows = new StringBuilder();
+    StringBuilder toRows = new StringBuilder();
+    StringBuilder ccRows = new StringBuilder();
+    for (Email email : emails) {
+      appendCsvRow(emailRows,
+          String.valueOf(email.getId()),
+          email.getState().name(),
+          email.getFrom().getAddress(),
+          email.getFrom().getDisplayName(),
+          email.getSubject(),
+          email.getBody(),
+          // Same (local) representation as used by JDBC for timestamps without time zone.
+          new Timestamp(email.getModifiedDate().getTime()).toString());
+      appendReceiverCsvRows(toRows, email.getId(), email.getTo());
+      appendReceiverCsvRows(ccRows, email.getId(), email.getCc());
+    }
+
+    jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+      CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+      try {
+        copyManager.copyIn(SQL_COPY_EMAIL, new StringReader(emailRows.toString()));
+        copyManager.copyIn(SQL_COPY_EMAIL_TO, new StringReader(toRows.toString()));
+        copyManager.copyIn(SQL_COPY_EMAIL_CC, new StringReader(ccRows.toString()));
+
+      } catch (IOException e) {
+        throw new UncheckedIOException("Error copying emails to database.", e);
+
+      }
+      return null;
+    });
+
+    return emails;
+  }
+
+  /**
+   * Searches for the emails with given ids and maps them (including their receivers) straight into DTOs, bypassing
+   * JPA's entity handling (persistence context, dirty checking snapshots). Uses three queries (emails, "to" and "cc"
+   * receivers), each with all ids passed as one array parameter, no matter how many ids are given. Ids without a
+   * matching email are ignored.
+   *
+   * @param ids ids of emails
+   * @return found emails ordered by id, can be empty
+   */
+  @Transactional(readOnly = true)
+  public List<EmailDto> findDtosByIdIn(Collection<Long> ids) {
+    requireNonNull(ids, "ids must not be null.");
+    if (ids.isEmpty()) {
+      return List.of();
+    }
+
+    Long[] idsArray = ids.toArray(Long[]::new);
+    Map<Long, List<EmailAddressDto>> toByEmailId = findReceiversByEmailIdIn(SQL_SELECT_EMAIL_TO_BY_EMAIL_IDS, idsArray);
+    Map<Long, List<EmailAddressDto>> ccByEmailId = findReceiversByEmailIdIn(SQL_SELECT_EMAIL_CC_BY_EMAIL_IDS, idsArray);
+
+    return jdbcTemplate.query(SQL_SELECT_EMAILS_BY_IDS,
+        statement -> statement.setArray(1, statement.getConnection().createArrayOf("bigint", idsArray)),
+        (resultSet, rowNum) -> {
+          long id = resultSet.getLong("id");
+          return new EmailDto(
+              id,
+              EmailState.valueOf(resultSet.getString("state")),
+              mapEmailAddressDto(resultSet),
+              toByEmailId.getOrDefault(id, List.of()),
+              ccByEmailId.getOrDefault(id, List.of()),
+              resultSet.getString("subject"),
+              resultSet.getString("body"),
+              resultSet.getTimestamp("modified_date"),
+              resultSet.getLong("version"));
+        });
+  }
+
+  /**
+   * Returns the version of the email with given id, reading neither its content nor its receivers (primary key lookup
+   * of a single column).
+   *
+   * @param id id of email
+   * @return version of email, empty if there is no email with given id
+   */
+  public Optional<Long> findVersionById(long id) {
+    List<Long> versions = jdbcTemplate.queryForList(SQL_SELECT_VERSION_BY_ID, Long.class, id);
+
+    return versions.stream().findFirst();
+  }
+
+  /**
+   * Changes the state of all emails in given (expected) state sent by one of given sender addresses, looking at emails
+   * with ids in given range only. Uses a single update statement with all addresses passed as one array parameter, so
+   * neither emails nor their ids are loaded. Runs in the caller's transaction (if any), so callers should limit the id
+   * range to keep lock times short.
+   *
+   * @param addresses sender email addresses
+   * @param expectedState state emails must have to be updated
+   * @param state new state
+   * @param fromId lower bound of ids (exclusive)
+   * @param toId upper bound of ids (inclusive)
+   * @return number of updated emails
+   */
+  public int transitionStateBySendersInIdRange(
+      Collection<String> addresses,
+      EmailState expectedState,
+      EmailState state,
+      long fromId,
+      long toId) {
+    requireNonNull(addresses, "addresses must not be null.");
+    requireNonNull(expectedState, "expectedState must not be null.");
+    requireNonNull(state, "state must not be null.");
+    if (addresses.isEmpty()) {
+      return 0;
+    }
+
+    return jdbcTemplate.update(SQL_TRANSITION_STATE_BY_SENDERS_IN_ID_RANGE, statement -> {
+      statement.setString(1, state.name());
+      statement.setString(2, expectedState.name());
+      statement.setArray(3, statement.getConnection().createArrayOf("varchar", addresses.toArray()));
+      statement.setLong(4, fromId);
+      statement.setLong(5, toId);
+    });
+  }
+
+  /**
+   * Searches for the distinct (lower case) sender domains of all emails in given state, looking at emails with ids in
+   * given range only. Usually returns far fewer rows than there are emails in the range, so domains can be matched
+   * against rules in memory.
+   *
+   * @param state state of emails
+   * @param fromId lower bound of ids (exclusive)
+   * @param toId upper bound of ids (inclusive)
+   * @return distinct sender domains
+   */
+  public List<String> findSenderDomainsInIdRange(EmailState state, long fromId, long toId) {
+    requireNonNull(state, "state must not be null.");
+
+    List<String> domains = jdbcTemplate.queryForList(
+        SQL_SELECT_SENDER_DOMAINS_IN_ID_RANGE, String.class, state.name(), fromId, toId);
+    // Emails without sender address have no domain.
+    domains.removeIf(Objects::isNull);
+
+    return domains;
+  }
+
+  /**
+   * Changes the state of all emails in given (expected) state sent from one of given (lower case) domains, looking at
+   * emails with ids in given range only. Works like
+   * {@link #transitionStateBySendersInIdRange(Collection, EmailState, EmailState, long, long)}, but matches the domain
+   * of the sender address.
+   *
+   * @param domains sender domains (lower case)
+   * @param expectedState state emails must have to be updated
+   * @param state new state
+   * @param fromId lower bound of ids (exclusive)
+   * @param toId upper bound of ids (inclusive)
+   * @return number of updated emails
+   */
+  public int transitionStateBySenderDomainsInIdRange(
+      Collection<String> domains,
+      EmailState expectedState,
+      EmailState state,
+      long fromId,
+      long toId) {
+    requireNonNull(domains, "domains must not be null.");
+    requireNonNull(expectedState, "expectedState must not be null.");
+    requireNonNull(state, "state must not be null.");
+    if (domains.isEmpty()) {
+      return 0;
+    }
+
+    return jdbcTemplate.update(SQL_TRANSITION_STATE_BY_SENDER_DOMAINS_IN_ID_RANGE, statement -> {
+      statement.setString(1, state.name());
+      statement.setString(2, expectedState.name());
+      statement.setArray(3, statement.getConnection().createArrayOf("varchar", domains.toArray()));
+      statement.setLong(4, fromId);
+      statement.setLong(5, toId);
+    });
+  }
+
+  /**
+   * Searches for the ids of all emails in given state whose content (subject and body) is matching given predicate,
+   * looking at emails with ids in given range only. Contents are streamed from the database in portions and are
+   * released right after being matched, so only the ids of matching emails are kept in memory.
+   *
+   * @param state state of emails
+   * @param fromId lower bound of ids (exclusive)
+   * @param toId upper bound of ids (inclusive)
+   * @param contentMatcher predicate of subject and body
+   * @return ids of matching emails
+   */
+  @Transactional(readOnly = true) // Database streams results within transactions only.
+  public List<Long> findIdsByContentInIdRange(
+      EmailState state,
+      long fromId,
+      long toId,
+      BiPredicate<String, String> contentMatcher) {
+    requireNonNull(state, "state must not be null.");
+    requireNonNull(contentMatcher, "contentMatcher must not be null.");
+
+    List<Long> ids = new ArrayList<>();
+    jdbcTemplate.query(
+        connection -> {
+          PreparedStatement statement = connection.prepareStatement(SQL_SELECT_CONTENTS_IN_ID_RANGE);
+          statement.setFetchSize(CONTENT_FETCH_SIZE);
+          statement.setString(1, state.name());
+          statement.setLong(2, fromId);
+          statement.setLong(3, toId);
+          return statement;
+        },
+        resultSet -> {
+          if (contentMatcher.test(resultSet.getString("subject"), resultSet.getString("body"))) {
+            ids.add(resultSet.getLong("id"));
+          }
+        });
+
+    return ids;
+  }
+
+  /**
+   * Changes the state of all emails with given ids that are in given (expected) state, using a single update statement
+   * with all ids passed as one array parameter. Emails in another state are left unchanged.
+   *
+   * @param ids ids of emails to update
+   * @param expectedState state emails must have to be updated
+   * @param state new state
+   * @return number of updated emails
+   */
+  public int transitionStateByIdIn(Collection<Long> ids, EmailState expectedState, EmailState state) {
+    requireNonNull(ids, "ids must not be null.");
+    requireNonNull(expectedState, "expectedState must not be null.");
+    requireNonNull(state, "state must not be null.");
+    if (ids.isEmpty()) {
+      return 0;
+    }
+
+    return jdbcTemplate.update(SQL_TRANSITION_STATE_BY_IDS, statement -> {
+      statement.setString(1, state.name());
+      statement.setString(2, expectedState.name());
+      statement.setArray(3, statement.getConnection().createArrayOf("bigint", ids.toArray()));
+    });
+  }
+
+  /**
+   * Changes the state of the email with given id, if it is in one of given (expected) states and, if given, has the
+   * expected version. Uses a single update statement returning the incremented version, so neither the email nor its
+   * receivers are read.
+   *
+   * @param id id of email to update
+   * @param expectedStates states the email must have one of to be updated
+   * @param state new state
+   * @param expectedVersion version the email must have to be updated, null to update any version
+   * @return new version of email, empty if there is no email with given id in expected states (and version)
+   */
+  public Optional<Long> transitionStateById(
+      long id,
+      Collection<EmailState> expectedStates,
+      EmailState state,
+      @Nullable Long expectedVersion) {
+    requireNonNull(expectedStates, "expectedStates must not be null.");
+    requireNonNull(state, "state must not be null.");
+
+    List<Long> versions = jdbcTemplate.query(
+        expectedVersion != null ? SQL_TRANSITION_STATE_BY_ID_AND_VERSION : SQL_TRANSITION_STATE_BY_ID,
+        statement -> {
+          statement.setString(1, state.name());
+          statement.setLong(2, id);
+          statement.setArray(3, createStatesArray(statement, expectedStates));
+          if (expectedVersion != null) {
+            statement.setLong(4, expectedVersion);
+          }
+        },
+        (resultSet, rowNum) -> resultSet.getLong("version"));
+
+    return versions.stream().findFirst();
+  }
+
+  /**
+   * Changes the state of all emails with given ids that are in one of given (expected) states, using a single update
+   * statement with all ids passed as one array parameter. Emails in other states are left unchanged.
+   *
+   * @param ids ids of emails to update
+   * @param expectedStates states emails must have one of to be updated
+   * @param state new state
+   * @return ids of updated emails (in no particular order)
+   */
+  public List<Long> transitionStateByIdIn(
+      Collection<Long> ids,
+      Collection<EmailState> expectedStates,
+      EmailState state) {
+    requireNonNull(ids, "ids must not be null.");
+    requireNonNull(expectedStates, "expectedStates must not be null.");
+    requireNonNull(state, "state must not be null.");
+    if (ids.isEmpty()) {
+      return List.of();
+    }
+
+    return jdbcTemplate.query(SQL_TRANSITION_STATES_BY_IDS,
+        statement -> {
+          statement.setString(1, state.name());
+          statement.setArray(2, statement.getConnection().createArrayOf("bigint", ids.toArray()));
+          statement.setArray(3, createStatesArray(statement, expectedStates));
+        },
+        (resultSet, rowNum) -> resultSet.getLong("id"));
+  }
+
+  /**
+   * Replaces all information of the stored emails with the ids of given emails (including their receivers), if a
+   * stored email still has the version of the given email (optimistic locking, no rows are locked). Versions are
+   * incremented. Emails are updated by JDBC batches, receivers of updated emails are replaced (like JPA does for
+   * element collections) using one delete statement per receivers table and batched inserts.
+   *
+   * @param emails new versions of emails, each with the version the stored email must have
+   * @return number of updated rows per given email (0 if there is no email with its id and version)
+   */
+  @Transactional
+  public int[] updateAll(List<EmailDto> emails) {
+    requireNonNull(emails, "emails must not be null.");
+
+    int[] updatedCounts = updateByIdAndVersion(SQL_UPDATE_EMAIL_BY_ID_AND_VERSION, emails, (statement, email) -> {
+      statement.setString(1, email.state().name());
+      statement.setString(2, email.from().address());
+      statement.setString(3, email.from().displayName());
+      statement.setString(4, email.subject());
+      statement.setString(5, email.body());
+      statement.setTimestamp(6, new Timestamp(email.modifiedDate().getTime()));
+      statement.setLong(7, email.id());
+      statement.setLong(8, email.version());
+    });
+
+    List<EmailDto> updatedEmails = new ArrayList<>();
+    for (int i = 0; i < emails.size(); i++) {
+      if (updatedCounts[i] > 0) {
+        updatedEmails.add(emails.get(i));
+      }
+    }
+    if (!updatedEmails.isEmpty()) {
+      Long[] updatedIds = updatedEmails.stream()
+          .map(EmailDto::id)
+          .toArray(Long[]::new);
+      jdbcTemplate.update(SQL_DELETE_EMAIL_TO_BY_EMAIL_IDS,
+          statement -> statement.setArray(1, statement.getConnection().createArrayOf("bigint", updatedIds)));
+      jdbcTemplate.update(SQL_DELETE_EMAIL_CC_BY_EMAIL_IDS,
+          statement -> statement.setArray(1, statement.getConnection().createArrayOf("bigint", updatedIds)));
+      insertReceiverRows(SQL_INSERT_EMAIL_TO, toReceiverRows(updatedEmails, true));
+      insertReceiverRows(SQL_INSERT_EMAIL_CC, toReceiverRows(updatedEmails, false));
+    }
+
+    return updatedCounts;
+  }
+
+  /**
+   * Changes the state of the stored emails with the ids of given emails to their state, if a stored email still has
+   * the version of the given email. Neither content nor receivers are written. Versions are incremented. Emails are
+   * updated by JDBC batches.
+   *
+   * @param emails emails with new state, each with the version the stored email must have
+   * @return number of updated rows per given email (0 if there is no email with its id and version)
+   */
+  public int[] updateStateAll(List<EmailDto> emails) {
+    requireNonNull(emails, "emails must not be null.");
+
+    return updateByIdAndVersion(SQL_UPDATE_STATE_BY_ID_AND_VERSION, emails, (statement, email) -> {
+      statement.setString(1, email.state().name());
+      statement.setLong(2, email.id());
+      statement.setLong(3, email.version());
+    });
+  }
+
+  /**
+   * Runs given update statement for every given email by JDBC batches.
+   *
+   * @param updateSql update statement
+   * @param emails emails to update
+   * @param setter setter of an email's values to the statement
+   * @return number of updated rows per given email
+   */
+  private int[] updateByIdAndVersion(
+      String updateSql,
+      List<EmailDto> emails,
+      ParameterizedPreparedStatementSetter<EmailDto> setter) {
+    if (emails.isEmpty()) {
+      return new int[0];
+    }
+
+    int[][] batchesUpdatedCounts = jdbcTemplate.batchUpdate(updateSql, emails, batchSize, setter);
+
+    int[] updatedCounts = new int[emails.size()];
+    int i = 0;
+    for (int[] batchUpdatedCounts : batchesUpdatedCounts) {
+      for (int updatedCount : batchUpdatedCounts) {
+        updatedCounts[i++] = updatedCount;
+      }
+    }
+    return updatedCounts;
+  }
+
+  /**
+   * Creates an array parameter of given states (by name) for given statement.
+   *
+   * @param statement statement to create array for
+   * @param states states to pass
+   * @return array of state names
+   * @throws SQLException if array could not be created
+   */
+  private static Array createStatesArray(PreparedStatement statement, Collection<EmailState> states)
+      throws SQLException {
+
+    return statement.getConnection().createArrayOf("varchar", states.stream()
+        .map(EmailState::name)
+        .toArray());
+  }
+
+  /**
+   * Searches for the receivers ("to" or "cc") of all emails with given ids and groups them by email id.
+   *
+   * @param selectSql select statement of receivers table
+   * @param emailIds ids of emails
+   * @return receivers per email id (emails without receivers are missing)
+   */
+  private Map<Long, List<EmailAddressDto>> findReceiversByEmailIdIn(String selectSql, Long[] emailIds) {
+    Map<Long, List<EmailAddressDto>> receiversByEmailId = new HashMap<>();
+    jdbcTemplate.query(selectSql,
+        statement -> statement.setArray(1, statement.getConnection().createArrayOf("bigint", emailIds)),
+        resultSet -> {
+          receiversByEmailId.computeIfAbsent(resultSet.getLong("email_id"), emailId -> new ArrayList<>())
+              .add(mapEmailAddressDto(resultSet));
+        });
+
+    return receiversByEmailId;
+  }
+
+  /**
+   * Maps the address columns of the current row of given result set into a DTO.
+   *
+   * @param resultSet result set positioned at row
+   * @return email address of row
+   * @throws SQLException if columns cannot be read
+   */
+  private static EmailAddressDto mapEmailAddressDto(ResultSet resultSet) throws SQLException {
+    return new EmailAddressDto(resultSet.getString("address"), resultSet.getString("display_name"));
+  }
+
+  /**
+   * Appends a CSV row for every given receiver of the email with given id.
+   *
+   * @param rows CSV rows to append to
+   * @param emailId id of email
+   * @param receivers receivers of email
+   */
+  private static void appendReceiverCsvRows(StringBuilder rows, long emailId, List<EmailAddress> receivers) {
+    for (EmailAddress receiver : receivers) {
+      appendCsvRow(rows,
+          String.valueOf(emailId),
+          receiver.getAddress(),
+          receiver.getDisplayName());
+    }
+  }
+
+  /**
+   * Appends a CSV row of given values. Every value gets quoted (so empty strings stay empty strings), null values are
+   * written unquoted and empty, which is read as NULL by {@code COPY}.
+   *
+   * @param rows CSV rows to append to
+   * @param values values of row (can contain null)
+   */
+  private static void appendCsvRow(StringBuilder rows, @Nullable String... values) {
+    for (int i = 0; i < values.length; i++) {
+      if (i > 0) {
+        rows.append(',');
+      }
+      if (values[i] != null) {
+        rows.append('"')
+            .append(values[i].replace("\"", "\"\""))
+            .append('"');
+      }
+    }
+    rows.append('\n');
+  }
+
+  /**
+   * Allocates ids for all given emails from the email id sequence. Fetches all needed sequence values in a single
+   * query, each value reserving {@link #EMAIL_ID_BLOCK_SIZE} ids.
+   *
+   * @param emails emails to set allocated ids on
+   */
+  private void allocateIds(List<Email> emails) {
+    int blocksCount = (emails.size() + EMAIL_ID_BLOCK_SIZE - 1) / EMAIL_ID_BLOCK_SIZE;
+    List<Long> blockStarts = jdbcTemplate.queryForList(SQL_NEXT_EMAIL_ID_BLOCKS, Long.class, blocksCount);
+
+    Iterator<Long> blockStartIterator = blockStarts.iterator();
+    long nextId = 0;
+    for (int i = 0; i < emails.size(); i++) {
+      if (i % EMAIL_ID_BLOCK_SIZE == 0) {
+        nextId = blockStartIterator.next();
+      }
+      emails.get(i).setId(nextId++);
+    }
+  }
+
+  /**
+   * Inserts the receivers ("to" or "cc") of all given emails into given table.
+   *
+   * @param insertSql insert statement of receivers table
+   * @param emails emails to insert receivers of
+   * @param to whether "to" (true) or "cc" (false) receivers should be inserted
+   */
+  private void insertReceivers(String insertSql, List<Email> emails, boolean to) {
+    List<Receiver> receivers = new ArrayList<>();
+    for (Email email : emails) {
+      for (EmailAddress address : to ? email.getTo() : email.getCc()) {
+        receivers.add(new Receiver(email.getId(), address.getAddress(), address.getDisplayName()));
+      }
+    }
+
+    insertReceiverRows(insertSql, receivers);
+  }
+
+  /**
+   * Collects the receivers ("to" or "cc") of all given emails as rows of the receivers table.
+   *
+   * @param emails emails to collect receivers of
+   * @param to whether "to" (true) or "cc" (false) receivers should be collected
+   * @return rows of receivers table
+   */
+  private static List<Receiver> toReceiverRows(List<EmailDto> emails, boolean to) {
+    List<Receiver> receivers = new ArrayList<>();
+    for (EmailDto email : emails) {
+      for (EmailAddressDto address : to ? email.to() : email.cc()) {
+        receivers.add(new Receiver(email.id(), address.address(), address.displayName()));
+      }
+    }
+
+    return receivers;
+  }
+
+  /**
+   * Inserts given rows into a receivers table by JDBC batches.
+   *
+   * @param insertSql insert statement of receivers table
+   * @param receivers rows to insert
+   */
+  private void insertReceiverRows(String insertSql, List<Receiver> receivers) {
+    jdbcTemplate.batchUpdate(insertSql, receivers, batchSize, (statement, receiver) -> {
+      statement.setLong(1, receiver.emailId());
+      statement.setString(2, receiver.address());
+      statement.setString(3, receiver.displayName());
+    });
+  }
+
+  /**
+   * A single row of a receivers table.
+   *
+   * @param emailId id of email
+   * @param address receiver address
+   * @param displayName receiver display name (nullable)
+   */
+  private record Receiver(long emailId, String address, @Nullable String displayName) {
+  }
+}
@@ -1,17 +1,25 @@
 package de.jjakobus.emailrestservice.service.repositories;
 
 import de.jjakobus.emailrestservice.model.Email;
+import de.jjakobus.emailrestservice.model.EmailState;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 
 
 /**
- * Stores and manages emails using JPA repository connected with database.
+ * Stores and manages emails using JPA repository connected with database. Dynamic queries (e.g. listing emails) are
+ * composed of the conditions in {@link EmailSpecifications}.
  *
  * @author jjakobus
  */
-public interface EmailRepository extends CrudRepository<Email, Long> {
+public interface EmailRepository extends CrudRepository<Email, Long>, JpaSpecificationExecutor<Email> {
 
   /**
    * Searches for all emails with given email address as sender (in from).
@@ -20,4 +28,36 @@ public interface EmailRepository extends CrudRepository<Email, Long> {
    * @return all emails with given from address
    */
   List<Email> findAllByFrom_Address(String address);
+
+  /**
+   * Saves given email and flushes all pending changes right away (implemented by the JPA base repository), so
+   * concurrent changes of the email are detected by the caller instead of on commit.
+   *
+   * @param email email to save
+   * @param <S> type of email
+   * @return saved email
+   */
+  <S extends Email> S saveAndFlush(S email);
+
+  /**
+   * Returns the highest id of all stored emails.
+   *
+   * @return highest id, 0 if there is no email
+   */
+  @Query("select coalesce(max(e.id), 0) from Email e")
+  long findMaxId();
+
+  /**
+   * Sets the state of all emails with given ids using a single update statement, without loading the emails (their
+   * versions are incremented, so concurrent updates of loaded emails fail). Ids without a matching email are ignored.
+   * Callers should limit the number of ids per call.
+   *
+   * @param ids ids of emails to update
+   * @param state new state
+   * @return number of updated emails
+   */
+  @Transactional
+  @Modifying(flushAutomatically = true, clearAutomatically = true)
+  @Query("update Email e set e.state = :state, e.version = e.version + 1 where e.id in :ids")
+  int updateStateByIdIn(@Param("ids") Collection<Long> ids, @Param("state") EmailState state);
 }
@@ -0,0 +1,97 @@
+package de.jjakobus.emailrestservice.service.repositories;
+
+import de.jjakobus.emailrestservice.model.Email;
+import de.jjakobus.emailrestservice.model.EmailState;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.Collection;
+import java.util.Date;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Provides query conditions ({@link Specification}s) of emails, to be combined and passed to
+ * {@link EmailRepository#findBy(Specification, java.util.function.Function)}.
+ *
+ * @author jjakobus
+ */
+public final class EmailSpecifications {
+
+  /** Order of keyset pagination: newest emails first, id as tiebreaker of equal dates. */
+  public static final Sort KEYSET_ORDER = Sort.by(Sort.Order.desc("modifiedDate"), Sort.Order.desc("id"));
+
+  private EmailSpecifications() {
+    // Utility class.
+  }
+
+  /**
+   * Matches emails in one of given states.
+   *
+   * @param states states of emails
+   * @return condition of states
+   */
+  public static Specification<Email> hasStateIn(Collection<EmailState> states) {
+    requireNonNull(states, "states must not be null.");
+
+    return (email, query, builder) -> email.get("state").in(states);
+  }
+
+  /**
+   * Matches emails sent by given sender address.
+   *
+   * @param address sender email address
+   * @return condition of sender
+   */
+  public static Specification<Email> hasSender(String address) {
+    requireNonNull(address, "address must not be null.");
+
+    return (email, query, builder) -> builder.equal(email.get("from").get("address"), address);
+  }
+
+  /**
+   * Matches emails modified at or after given date.
+   *
+   * @param date lower bound of modification date (inclusive)
+   * @return condition of modification date
+   */
+  public static Specification<Email> isModifiedFrom(Date date) {
+    requireNonNull(date, "date must not be null.");
+
+    return (email, query, builder) -> builder.greaterThanOrEqualTo(email.get("modifiedDate"), date);
+  }
+
+  /**
+   * Matches emails modified before given date.
+   *
+   * @param date upper bound of modification date (exclusive)
+   * @return condition of modification date
+   */
+  public static Specification<Email> isModifiedBefore(Date date) {
+    requireNonNull(date, "date must not be null.");
+
+    return (email, query, builder) -> builder.lessThan(email.get("modifiedDate"), date);
+  }
+
+  /**
+   * Matches emails following the email of given modification date and id in {@link #KEYSET_ORDER}, i.e. emails of the
+   * next page. Uses the keyset only, so database can seek to the position in an index of (modified_date, id) instead
+   * of skipping rows like with an offset. The condition on the date alone is redundant, but the database seeks by it
+   * only (the alternatives of the keyset are filters of the scanned rows).
+   *
+   * @param modifiedDate modification date of last email of previous page
+   * @param id id of last email of previous page
+   * @return condition of keyset
+   */
+  public static Specification<Email> isAfterKeyset(Date modifiedDate, long id) {
+    requireNonNull(modifiedDate, "modifiedDate must not be null.");
+
+    return (email, query, builder) -> builder.and(
+        builder.lessThanOrEqualTo(email.get("modifiedDate"), modifiedDate),
+        builder.or(
+            builder.lessThan(email.get("modifiedDate"), modifiedDate),
+            builder.and(
+                builder.equal(email.get("modifiedDate"), modifiedDate),
+                builder.lessThan(email.get("id"), id))));
+  }
+}
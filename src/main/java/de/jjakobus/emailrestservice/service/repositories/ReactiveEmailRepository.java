@@ -0,0 +1,505 @@
+package de.jjakobus.emailrestservice.service.repositories;
+
+import de.jjakobus.emailrestservice.config.ReactiveEmailRestServiceConfig;
+import de.jjakobus.emailrestservice.model.Email;
+import de.jjakobus.emailrestservice.model.EmailAddress;
+import de.jjakobus.emailrestservice.model.EmailState;
+import de.jjakobus.emailrestservice.model.dtos.EmailAddressDto;
+import de.jjakobus.emailrestservice.model.dtos.EmailDto;
+import io.r2dbc.spi.Readable;
+import io.r2dbc.spi.Result;
+import io.r2dbc.spi.Statement;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.lang.Nullable;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+import static de.jjakobus.emailrestservice.service.repositories.EmailJdbcRepository.EMAIL_ID_BLOCK_SIZE;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Stores emails non-blocking using R2DBC for the reactive variant of the service. Works on the same tables (and id
+ * sequence) as {@link EmailRepository} and {@link EmailJdbcRepository}, reading emails into DTOs directly. Writing
+ * methods are meant to be run in a transaction of the caller.
+ *
+ * @author jjakobus
+ */
+@Repository
+@Profile(ReactiveEmailRestServiceConfig.PROFILE)
+public class ReactiveEmailRepository {
+
+  /* SQL statements. */
+  private static final String SQL_NEXT_EMAIL_ID_BLOCKS =
+      "SELECT nextval('email_seq') FROM generate_series(1, $1)";
+  private static final String SQL_INSERT_EMAIL =
+      "INSERT INTO email (id, state, address, display_name, subject, body, modified_date) "
+          + "VALUES ($1, $2, $3, $4, $5, $6, $7)";
+  private static final String SQL_INSERT_EMAIL_TO =
+      "INSERT INTO email_to (email_id, address, display_name) VALUES ($1, $2, $3)";
+  private static final String SQL_INSERT_EMAIL_CC =
+      "INSERT INTO email_cc (email_id, address, display_name) VALUES ($1, $2, $3)";
+  private static final String SQL_SELECT_EMAILS_BY_IDS =
+      "SELECT id, state, address, display_name, subject, body, modified_date, version FROM email WHERE id = ANY($1) "
+          + "ORDER BY id";
+  private static final String SQL_SELECT_VERSION_BY_ID = "SELECT version FROM email WHERE id = $1";
+  private static final String SQL_SELECT_EMAIL_TO_BY_EMAIL_IDS =
+      "SELECT email_id, address, display_name FROM email_to WHERE email_id = ANY($1)";
+  private static final String SQL_SELECT_EMAIL_CC_BY_EMAIL_IDS =
+      "SELECT email_id, address, display_name FROM email_cc WHERE email_id = ANY($1)";
+  private static final String SQL_UPDATE_EMAIL =
+      "UPDATE email SET state = $1, address = $2, display_name = $3, subject = $4, body = $5, modified_date = $6, "
+          + "version = version + 1 WHERE id = $7 AND version = $8";
+  private static final String SQL_DELETE_EMAIL_TO = "DELETE FROM email_to WHERE email_id = $1";
+  private static final String SQL_DELETE_EMAIL_CC = "DELETE FROM email_cc WHERE email_id = $1";
+  private static final String SQL_UPDATE_STATE_BY_IDS =
+      "UPDATE email SET state = $1, version = version + 1 WHERE id = ANY($2)";
+  private static final String SQL_TRANSITION_STATE_BY_ID =
+      "UPDATE email SET state = $1, version = version + 1 WHERE id = $2 AND state = ANY($3) RETURNING version";
+  private static final String SQL_TRANSITION_STATE_BY_ID_AND_VERSION =
+      "UPDATE email SET state = $1, version = version + 1 WHERE id = $2 AND state = ANY($3) AND version = $4 "
+          + "RETURNING version";
+  private static final String SQL_TRANSITION_STATES_BY_IDS =
+      "UPDATE email SET state = $1, version = version + 1 WHERE id = ANY($2) AND state = ANY($3) RETURNING id";
+  private static final String SQL_NOTIFY = "SELECT pg_notify($1, $2)";
+  private static final String SQL_INSERT_PENDING_SPAM_FILTER_RANGES_OF_IDS =
+      "INSERT INTO spam_filter_pending_range (range_start, range_end) "
+          + "SELECT DISTINCT (id - 1) / $1 * $1, (id - 1) / $1 * $1 + $1 FROM unnest($2::bigint[]) AS id "
+          + "WHERE id <= (SELECT last_classified_email_id FROM spam_filter_watermark WHERE name = $3) "
+          + "ON CONFLICT (range_start) "
+          + "DO UPDATE SET range_end = GREATEST(spam_filter_pending_range.range_end, EXCLUDED.range_end)";
+
+  /** Client to run statements with. */
+  private final DatabaseClient databaseClient;
+
+  /**
+   * Creates a new reactive repository of emails.
+   *
+   * @param databaseClient client to run statements with
+   */
+  @Autowired
+  public ReactiveEmailRepository(DatabaseClient databaseClient) {
+    this.databaseClient = requireNonNull(databaseClient, "databaseClient must not be null.");
+  }
+
+  /**
+   * Inserts all given new emails including their receivers. Ids are allocated from the email id sequence in blocks
+   * (like {@link EmailJdbcRepository#insertAll(List)}) and set on the given entities. Rows of every table are sent as a
+   * single batch.
+   *
+   * @param emails new emails to insert (ids get overridden)
+   * @return inserted emails with allocated ids
+   */
+  public Flux<EmailDto> insertAll(List<Email> emails) {
+    requireNonNull(emails, "emails must not be null.");
+    if (emails.isEmpty()) {
+      return Flux.empty();
+    }
+
+    // Rows are bound on subscription, after ids have been allocated.
+    return allocateIds(emails)
+        .then(Mono.defer(() -> insertRows(SQL_INSERT_EMAIL, emails, (statement, email) -> {
+          statement.bind(0, email.getId());
+          statement.bind(1, email.getState().name());
+          statement.bind(2, email.getFrom().getAddress());
+          bindNullable(statement, 3, email.getFrom().getDisplayName());
+          statement.bind(4, email.getSubject());
+          statement.bind(5, email.getBody());
+          statement.bind(6, toLocalDateTime(email.getModifiedDate()));
+        })))
+        .then(Mono.defer(() -> insertReceivers(SQL_INSERT_EMAIL_TO, emails, true)))
+        .then(Mono.defer(() -> insertReceivers(SQL_INSERT_EMAIL_CC, emails, false)))
+        .thenMany(Flux.fromIterable(emails).map(Email::toDto));
+  }
+
+  /**
+   * Searches for the emails with given ids and reads them into DTOs directly, using three queries (emails, "to" and
+   * "cc" receivers) with all ids passed as one array parameter.
+   *
+   * @param ids ids of searched emails
+   * @return found emails ordered by id, including their receivers
+   */
+  public Flux<EmailDto> findDtosByIdIn(Collection<Long> ids) {
+    requireNonNull(ids, "ids must not be null.");
+    if (ids.isEmpty()) {
+      return Flux.empty();
+    }
+
+    Long[] idsArray = ids.toArray(Long[]::new);
+    return findReceiversByEmailIdIn(SQL_SELECT_EMAIL_TO_BY_EMAIL_IDS, idsArray)
+        .zipWhen(toByEmailId -> findReceiversByEmailIdIn(SQL_SELECT_EMAIL_CC_BY_EMAIL_IDS, idsArray))
+        .flatMapMany(receivers -> databaseClient.sql(SQL_SELECT_EMAILS_BY_IDS)
+            .bind(0, idsArray)
+            .map(row -> {
+              long id = requireNonNull(row.get("id", Long.class));
+              return new EmailDto(
+                  id,
+                  EmailState.valueOf(row.get("state", String.class)),
+                  mapEmailAddressDto(row),
+                  receivers.getT1().getOrDefault(id, List.of()),
+                  receivers.getT2().getOrDefault(id, List.of()),
+                  row.get("subject", String.class),
+                  row.get("body", String.class),
+                  Timestamp.valueOf(requireNonNull(row.get("modified_date", LocalDateTime.class))),
+                  requireNonNull(row.get("version", Long.class)));
+            })
+            .all());
+  }
+
+  /**
+   * Returns the version of the email with given id, reading neither its content nor its receivers.
+   *
+   * @param id id of email
+   * @return version of email, empty if there is no email with given id
+   */
+  public Mono<Long> findVersionById(long id) {
+
+    return databaseClient.sql(SQL_SELECT_VERSION_BY_ID)
+        .bind(0, id)
+        .map(row -> requireNonNull(row.get("version", Long.class)))
+        .one();
+  }
+
+  /**
+   * Replaces all information of the stored email with given id (including its receivers) by given email, if the stored
+   * email still has given version. The version is incremented.
+   *
+   * @param id id of stored email
+   * @param expectedVersion version the stored email must have
+   * @param email new version of email
+   * @return number of updated emails (0 if there is no email with given id and version)
+   */
+  public Mono<Long> update(long id, long expectedVersion, EmailDto email) {
+    requireNonNull(email, "email must not be null.");
+
+    DatabaseClient.GenericExecuteSpec updateSpec = databaseClient.sql(SQL_UPDATE_EMAIL)
+        .bind(0, email.state().name())
+        .bind(1, email.from().address());
+    updateSpec = email.from().displayName() != null
+        ? updateSpec.bind(2, email.from().displayName())
+        : updateSpec.bindNull(2, String.class);
+    updateSpec = updateSpec
+        .bind(3, email.subject())
+        .bind(4, email.body())
+        .bind(5, toLocalDateTime(email.modifiedDate()))
+        .bind(6, id)
+        .bind(7, expectedVersion);
+
+    // Replace receivers like JPA does for element collections.
+    return updateSpec.fetch().rowsUpdated()
+        .filter(updatedCount -> updatedCount > 0)
+        .flatMap(updatedCount -> databaseClient.sql(SQL_DELETE_EMAIL_TO).bind(0, id).fetch().rowsUpdated()
+            .then(databaseClient.sql(SQL_DELETE_EMAIL_CC).bind(0, id).fetch().rowsUpdated())
+            .then(insertRows(SQL_INSERT_EMAIL_TO, email.to(), (statement, receiver) ->
+                bindReceiver(statement, id, receiver.address(), receiver.displayName())))
+            .then(insertRows(SQL_INSERT_EMAIL_CC, email.cc(), (statement, receiver) ->
+                bindReceiver(statement, id, receiver.address(), receiver.displayName())))
+            .thenReturn(updatedCount))
+        .defaultIfEmpty(0L);
+  }
+
+  /**
+   * Updates the state of all emails with given ids using a single statement, without loading them.
+   *
+   * @param ids ids of emails
+   * @param state new state
+   * @return number of updated emails
+   */
+  public Mono<Long> updateStateByIdIn(Collection<Long> ids, EmailState state) {
+    requireNonNull(ids, "ids must not be null.");
+    requireNonNull(state, "state must not be null.");
+
+    return databaseClient.sql(SQL_UPDATE_STATE_BY_IDS)
+        .bind(0, state.name())
+        .bind(1, ids.toArray(Long[]::new))
+        .fetch()
+        .rowsUpdated();
+  }
+
+  /**
+   * Changes the state of the email with given id, if it is in one of given (expected) states and, if given, has the
+   * expected version, using a single statement returning the incremented version.
+   *
+   * @param id id of email to update
+   * @param expectedStates states the email must have one of to be updated
+   * @param state new state
+   * @param expectedVersion version the email must have to be updated, null to update any version
+   * @return new version of email, empty if there is no email with given id in expected states (and version)
+   */
+  public Mono<Long> transitionStateById(
+      long id,
+      Collection<EmailState> expectedStates,
+      EmailState state,
+      @Nullable Long expectedVersion) {
+    requireNonNull(expectedStates, "expectedStates must not be null.");
+    requireNonNull(state, "state must not be null.");
+
+    DatabaseClient.GenericExecuteSpec updateSpec = databaseClient.sql(
+            expectedVersion != null ? SQL_TRANSITION_STATE_BY_ID_AND_VERSION : SQL_TRANSITION_STATE_BY_ID)
+        .bind(0, state.name())
+        .bind(1, id)
+        .bind(2, toStateNames(expectedStates));
+    if (expectedVersion != null) {
+      updateSpec = updateSpec.bind(3, expectedVersion);
+    }
+
+    return updateSpec
+        .map(row -> requireNonNull(row.get("version", Long.class)))
+        .one();
+  }
+
+  /**
+   * Changes the state of all emails with given ids that are in one of given (expected) states, using a single
+   * statement without loading them.
+   *
+   * @param ids ids of emails to update
+   * @param expectedStates states emails must have one of to be updated
+   * @param state new state
+   * @return ids of updated emails (in no particular order)
+   */
+  public Flux<Long> transitionStateByIdIn(
+      Collection<Long> ids,
+      Collection<EmailState> expectedStates,
+      EmailState state) {
+    requireNonNull(ids, "ids must not be null.");
+    requireNonNull(expectedStates, "expectedStates must not be null.");
+    requireNonNull(state, "state must not be null.");
+
+    return databaseClient.sql(SQL_TRANSITION_STATES_BY_IDS)
+        .bind(0, state.name())
+        .bind(1, ids.toArray(Long[]::new))
+        .bind(2, toStateNames(expectedStates))
+        .map(row -> requireNonNull(row.get("id", Long.class)))
+        .all();
+  }
+
+  /**
+   * Returns the names of given states as array parameter.
+   *
+   * @param states states
+   * @return names of states
+   */
+  private static String[] toStateNames(Collection<EmailState> states) {
+
+    return states.stream()
+        .map(EmailState::name)
+        .toArray(String[]::new);
+  }
+
+  /**
+   * Enqueues the ranges of given email ids not above the watermark with given name for the SPAM classification, like
+   * {@link SpamFilterRangeRepository#enqueueIds(String, Collection, long)}. Must be run after the emails have been
+   * committed.
+   *
+   * @param watermarkName name of watermark of SPAM classification
+   * @param ids ids to enqueue
+   * @param rangeSize number of ids per range
+   * @return number of enqueued (or extended) ranges
+   */
+  public Mono<Long> enqueueSpamFilterIds(String watermarkName, Collection<Long> ids, long rangeSize) {
+    requireNonNull(watermarkName, "watermarkName must not be null.");
+    requireNonNull(ids, "ids must not be null.");
+    if (ids.isEmpty()) {
+      return Mono.just(0L);
+    }
+
+    return databaseClient.sql(SQL_INSERT_PENDING_SPAM_FILTER_RANGES_OF_IDS)
+        .bind(0, rangeSize)
+        .bind(1, ids.toArray(Long[]::new))
+        .bind(2, watermarkName)
+        .fetch()
+        .rowsUpdated();
+  }
+
+  /**
+   * Sends a notification with given payload on given channel to all listening connections, on commit of the current
+   * transaction.
+   *
+   * @param channel channel of notification
+   * @param payload payload of notification
+   * @return completion of sending
+   */
+  public Mono<Void> sendNotification(String channel, String payload) {
+    requireNonNull(channel, "channel must not be null.");
+    requireNonNull(payload, "payload must not be null.");
+
+    return databaseClient.sql(SQL_NOTIFY)
+        .bind(0, channel)
+        .bind(1, payload)
+        .fetch()
+        .rowsUpdated()
+        .then();
+  }
+
+  /**
+   * Allocates ids for all given emails from the email id sequence. Fetches all needed sequence values in a single
+   * query, each value reserving {@link EmailJdbcRepository#EMAIL_ID_BLOCK_SIZE} ids.
+   *
+   * @param emails emails to set allocated ids on
+   * @return completion of allocation
+   */
+  private Mono<Void> allocateIds(List<Email> emails) {
+    int blocksCount = (emails.size() + EMAIL_ID_BLOCK_SIZE - 1) / EMAIL_ID_BLOCK_SIZE;
+
+    return databaseClient.sql(SQL_NEXT_EMAIL_ID_BLOCKS)
+        .bind(0, blocksCount)
+        .map(row -> row.get(0, Long.class))
+        .all()
+        .collectList()
+        .doOnNext(blockStarts -> {
+          Iterator<Long> blockStartIterator = blockStarts.iterator();
+          long nextId = 0;
+          for (int i = 0; i < emails.size(); i++) {
+            if (i % EMAIL_ID_BLOCK_SIZE == 0) {
+              nextId = blockStartIterator.next();
+            }
+            emails.get(i).setId(nextId++);
+          }
+        })
+        .then();
+  }
+
+  /**
+   * Inserts the receivers ("to" or "cc") of all given emails into given table.
+   *
+   * @param insertSql insert statement of receivers table
+   * @param emails emails to insert receivers of
+   * @param to whether "to" (true) or "cc" (false) receivers should be inserted
+   * @return completion of insert
+   */
+  private Mono<Void> insertReceivers(String insertSql, List<Email> emails, boolean to) {
+    List<Receiver> receivers = new ArrayList<>();
+    for (Email email : emails) {
+      for (EmailAddress address : to ? email.getTo() : email.getCc()) {
+        receivers.add(new Receiver(email.getId(), address));
+      }
+    }
+
+    return insertRows(insertSql, receivers, (statement, receiver) -> bindReceiver(statement,
+        receiver.emailId(), receiver.address().getAddress(), receiver.address().getDisplayName()));
+  }
+
+  /**
+   * Inserts a row for every given element using given insert statement, sending all rows as a single batch.
+   *
+   * @param insertSql insert statement
+   * @param elements elements to insert rows of
+   * @param binder binder of an element's values to the statement
+   * @param <T> type of elements
+   * @return completion of insert
+   */
+  private <T> Mono<Void> insertRows(String insertSql, List<T> elements, BiConsumer<Statement, T> binder) {
+    if (elements.isEmpty()) {
+      return Mono.empty();
+    }
+
+    return databaseClient.inConnectionMany(connection -> {
+      Statement statement = connection.createStatement(insertSql);
+      for (int i = 0; i < elements.size(); i++) {
+        if (i > 0) {
+          statement.add();
+        }
+        binder.accept(statement, elements.get(i));
+      }
+      return Flux.from(statement.execute()).flatMap(Result::getRowsUpdated);
+    }).then();
+  }
+
+  /**
+   * Searches for the receivers ("to" or "cc") of all emails with given ids and groups them by email id.
+   *
+   * @param selectSql select statement of receivers table
+   * @param emailIds ids of emails
+   * @return receivers per email id (emails without receivers are missing)
+   */
+  private Mono<Map<Long, List<EmailAddressDto>>> findReceiversByEmailIdIn(String selectSql, Long[] emailIds) {
+
+    return databaseClient.sql(selectSql)
+        .bind(0, emailIds)
+        .map(row -> new ReceiverDto(requireNonNull(row.get("email_id", Long.class)), mapEmailAddressDto(row)))
+        .all()
+        .collect(Collectors.groupingBy(
+            ReceiverDto::emailId,
+            Collectors.mapping(ReceiverDto::address, Collectors.toList())));
+  }
+
+  /**
+   * Binds the values of a receivers table row to given statement.
+   *
+   * @param statement insert statement of receivers table
+   * @param emailId id of email
+   * @param address address of receiver
+   * @param displayName display name of receiver (nullable)
+   */
+  private static void bindReceiver(Statement statement, long emailId, String address, @Nullable String displayName) {
+    statement.bind(0, emailId);
+    statement.bind(1, address);
+    bindNullable(statement, 2, displayName);
+  }
+
+  /**
+   * Binds given (nullable) text to given statement.
+   *
+   * @param statement statement to bind to
+   * @param index index of parameter
+   * @param value text to bind, can be null
+   */
+  private static void bindNullable(Statement statement, int index, @Nullable String value) {
+    if (value != null) {
+      statement.bind(index, value);
+    } else {
+      statement.bindNull(index, String.class);
+    }
+  }
+
+  /**
+   * Maps the address columns of given row into a DTO.
+   *
+   * @param row row to map
+   * @return email address of row
+   */
+  private static EmailAddressDto mapEmailAddressDto(Readable row) {
+    return new EmailAddressDto(row.get("address", String.class), row.get("display_name", String.class));
+  }
+
+  /**
+   * Converts given date into a timestamp without time zone (in the default time zone, like JDBC does).
+   *
+   * @param date date to convert
+   * @return local date-time of date
+   */
+  private static LocalDateTime toLocalDateTime(Date date) {
+    return new Timestamp(date.getTime()).toLocalDateTime();
+  }
+
+  /**
+   * A single row of a receivers table to insert.
+   *
+   * @param emailId id of email
+   * @param address receiver address
+   */
+  private record Receiver(long emailId, EmailAddress address) {
+  }
+
+  /**
+   * A single row of a receivers table read.
+   *
+   * @param emailId id of email
+   * @param address receiver address
+   */
+  private record ReceiverDto(long emailId, EmailAddressDto address) {
+  }
+}
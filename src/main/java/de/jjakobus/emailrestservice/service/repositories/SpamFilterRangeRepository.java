@@ -0,0 +1,163 @@
+package de.jjakobus.emailrestservice.service.repositories;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Manages the id ranges of emails pending SPAM classification as a work queue shared by all instances of the service.
+ * New emails are enqueued as ranges once (guarded by the watermark), then every instance claims and classifies ranges
+ * until the queue is empty. Emails stored or sent after the watermark has passed their ids are enqueued again by their
+ * ids. A claimed range is locked (skipped by other instances) until the claiming transaction ends and removed on commit
+ * only, so ranges of failed or crashed instances are claimed again.
+ *
+ * @author jjakobus
+ */
+@Repository
+public class SpamFilterRangeRepository {
+
+  /* SQL statements. */
+  private static final String SQL_INSERT_WATERMARK_IF_ABSENT =
+      "INSERT INTO spam_filter_watermark (name, last_classified_email_id) VALUES (?, 0) ON CONFLICT (name) DO NOTHING";
+  private static final String SQL_LOCK_WATERMARK =
+      "SELECT last_classified_email_id FROM spam_filter_watermark WHERE name = ? FOR UPDATE";
+  private static final String SQL_UPDATE_WATERMARK =
+      "UPDATE spam_filter_watermark SET last_classified_email_id = ? WHERE name = ?";
+  /**
+   * Splits ids in (from, to] into ranges of given size (last range can be shorter), merged with pending ranges starting
+   * at the same id (e.g. left over from before the watermark has been reset).
+   */
+  private static final String SQL_INSERT_PENDING_RANGES =
+      "INSERT INTO spam_filter_pending_range (range_start, range_end) "
+          + "SELECT range_start, LEAST(range_start + ?, ?) FROM generate_series(?, ? - 1, ?) AS range_start "
+          + "ON CONFLICT (range_start) "
+          + "DO UPDATE SET range_end = GREATEST(spam_filter_pending_range.range_end, EXCLUDED.range_end)";
+  /** Enqueues the ranges (of given size, aligned to multiples of it) of given ids not above the watermark. */
+  private static final String SQL_INSERT_PENDING_RANGES_OF_IDS =
+      "INSERT INTO spam_filter_pending_range (range_start, range_end) "
+          + "SELECT DISTINCT (id - 1) / ? * ?, (id - 1) / ? * ? + ? FROM unnest(?) AS id "
+          + "WHERE id <= (SELECT last_classified_email_id FROM spam_filter_watermark WHERE name = ?) "
+          + "ON CONFLICT (range_start) "
+          + "DO UPDATE SET range_end = GREATEST(spam_filter_pending_range.range_end, EXCLUDED.range_end)";
+  private static final String SQL_CLAIM_PENDING_RANGE =
+      "DELETE FROM spam_filter_pending_range WHERE (range_start, range_end) = ("
+          + "SELECT range_start, range_end FROM spam_filter_pending_range WHERE range_start <> ALL(?) "
+          + "ORDER BY range_start LIMIT 1 FOR UPDATE SKIP LOCKED) "
+          + "RETURNING range_start, range_end";
+
+  /** JDBC template to run statements with. */
+  private final JdbcTemplate jdbcTemplate;
+
+  /**
+   * Creates a new repository of id ranges pending SPAM classification.
+   *
+   * @param jdbcTemplate JDBC template to run statements with
+   */
+  @Autowired
+  public SpamFilterRangeRepository(JdbcTemplate jdbcTemplate) {
+    this.jdbcTemplate = requireNonNull(jdbcTemplate, "jdbcTemplate must not be null.");
+  }
+
+  /**
+   * Enqueues the ids above given watermark up to given id as ranges of given size and advances the watermark to given
+   * id. The watermark is locked meanwhile, so concurrent calls (e.g. of all instances at the same scheduled time)
+   * enqueue every id once only.
+   *
+   * @param watermarkName name of watermark
+   * @param maxId highest id to enqueue
+   * @param rangeSize number of ids per range
+   * @return number of enqueued (or extended) ranges
+   */
+  @Transactional
+  public int enqueueIdRanges(String watermarkName, long maxId, long rangeSize) {
+    requireNonNull(watermarkName, "watermarkName must not be null.");
+    if (rangeSize < 1) {
+      throw new IllegalArgumentException("rangeSize must be positive.");
+    }
+
+    jdbcTemplate.update(SQL_INSERT_WATERMARK_IF_ABSENT, watermarkName);
+    Long watermark = jdbcTemplate.queryForObject(SQL_LOCK_WATERMARK, Long.class, watermarkName);
+    if (watermark == null || maxId <= watermark) {
+      return 0;
+    }
+
+    int enqueuedCount = jdbcTemplate.update(SQL_INSERT_PENDING_RANGES, rangeSize, maxId, watermark, maxId, rangeSize);
+    jdbcTemplate.update(SQL_UPDATE_WATERMARK, maxId, watermarkName);
+
+    return enqueuedCount;
+  }
+
+  /**
+   * Enqueues given ids again that are not above given watermark (i.e. might have been classified before), e.g. of
+   * emails stored or sent after the watermark has passed their ids. Every id is enqueued as the range of given size
+   * containing it (merged with a pending range starting at the same id). Ids above the watermark are ignored, as they
+   * are enqueued by {@link #enqueueIdRanges(String, long, long)} anyway.
+   * <p>
+   * Must be called after the emails have been committed: then either the watermark read has passed them (and they are
+   * enqueued here) or the watermark is advanced later by a run reading their ids (and classifying them afterward). Runs
+   * in a transaction of its own, so it can be called right after the commit of another transaction.
+   *
+   * @param watermarkName name of watermark
+   * @param ids ids to enqueue
+   * @param rangeSize number of ids per range
+   * @return number of enqueued (or extended) ranges
+   */
+  @Transactional(propagation = Propagation.REQUIRES_NEW)
+  public int enqueueIds(String watermarkName, Collection<Long> ids, long rangeSize) {
+    requireNonNull(watermarkName, "watermarkName must not be null.");
+    requireNonNull(ids, "ids must not be null.");
+    if (rangeSize < 1) {
+      throw new IllegalArgumentException("rangeSize must be positive.");
+    }
+    if (ids.isEmpty()) {
+      return 0;
+    }
+
+    return jdbcTemplate.update(SQL_INSERT_PENDING_RANGES_OF_IDS, statement -> {
+      statement.setLong(1, rangeSize);
+      statement.setLong(2, rangeSize);
+      statement.setLong(3, rangeSize);
+      statement.setLong(4, rangeSize);
+      statement.setLong(5, rangeSize);
+      statement.setArray(6, statement.getConnection().createArrayOf("bigint", ids.toArray()));
+      statement.setString(7, watermarkName);
+    });
+  }
+
+  /**
+   * Claims the pending range with the lowest ids that is not claimed by another transaction and not excluded (e.g.
+   * because classifying it has failed before). Must be called within a transaction: the range stays locked until the
+   * transaction ends and is removed from the queue if the transaction is committed.
+   *
+   * @param excludedRangeStarts lower bounds of ranges not to claim
+   * @return claimed range, empty if there is no unclaimed range
+   */
+  @Transactional(propagation = Propagation.MANDATORY)
+  public Optional<IdRange> claimNextIdRange(Collection<Long> excludedRangeStarts) {
+    requireNonNull(excludedRangeStarts, "excludedRangeStarts must not be null.");
+
+    List<IdRange> claimedRanges = jdbcTemplate.query(SQL_CLAIM_PENDING_RANGE,
+        statement -> statement.setArray(1, statement.getConnection().createArrayOf("bigint",
+            excludedRangeStarts.toArray())),
+        (resultSet, rowNum) -> new IdRange(resultSet.getLong("range_start"), resultSet.getLong("range_end")));
+
+    return claimedRanges.stream().findFirst();
+  }
+
+  /**
+   * A range of email ids.
+   *
+   * @param fromId lower bound of ids (exclusive)
+   * @param toId upper bound of ids (inclusive)
+   */
+  public record IdRange(long fromId, long toId) {
+  }
+}
@@ -0,0 +1,33 @@
+package de.jjakobus.emailrestservice.service.repositories;
+
+import de.jjakobus.emailrestservice.model.SpamFilter;
+import de.jjakobus.emailrestservice.model.SpamFilterType;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Stores and manages filters of the SPAM classification using JPA repository connected with database.
+ *
+ * @author jjakobus
+ */
+public interface SpamFilterRepository extends CrudRepository<SpamFilter, Long> {
+
+  /**
+   * Checks whether there is a filter of given type and value.
+   *
+   * @param type type of filter
+   * @param value value of filter
+   * @return whether matching filter exists
+   */
+  boolean existsByTypeAndValue(SpamFilterType type, String value);
+
+  /**
+   * Deletes the filter of given type and value, if present.
+   *
+   * @param type type of filter
+   * @param value value of filter
+   * @return number of deleted filters
+   */
+  @Transactional
+  long deleteByTypeAndValue(SpamFilterType type, String value);
+}
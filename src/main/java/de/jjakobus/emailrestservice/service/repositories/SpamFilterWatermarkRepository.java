@@ -0,0 +1,13 @@
+package de.jjakobus.emailrestservice.service.repositories;
+
+import de.jjakobus.emailrestservice.model.SpamFilterWatermark;
+import org.springframework.data.repository.CrudRepository;
+
+/**
+ * Stores and manages watermarks of the SPAM classification using JPA repository connected with database.
+ *
+ * @author jjakobus
+ */
+public interface SpamFilterWatermarkRepository extends CrudRepository<SpamFilterWatermark, String> {
+
+}
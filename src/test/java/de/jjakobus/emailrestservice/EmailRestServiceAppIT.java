@@ -3,10 +3,18 @@ package de.jjakobus.emailrestservice;
 import de.jjakobus.emailrestservice.model.Email;
 import de.jjakobus.emailrestservice.model.EmailAddress;
 import de.jjakobus.emailrestservice.model.EmailState;
+import de.jjakobus.emailrestservice.model.EmailUpdateStatus;
+import de.jjakobus.emailrestservice.model.SpamFilterType;
 import de.jjakobus.emailrestservice.model.dtos.EmailDto;
+import de.jjakobus.emailrestservice.model.dtos.EmailPageDto;
+import de.jjakobus.emailrestservice.model.dtos.EmailStateUpdateDto;
+import de.jjakobus.emailrestservice.model.dtos.EmailUpdateResultDto;
+import de.jjakobus.emailrestservice.model.dtos.ImportResultDto;
 import de.jjakobus.emailrestservice.model.dtos.InsertEmailDto;
+import de.jjakobus.emailrestservice.model.dtos.SpamFilterDto;
 import de.jjakobus.emailrestservice.service.EmailSpamFilterService;
 import de.jjakobus.emailrestservice.service.repositories.EmailRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.awaitility.Durations;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -16,21 +24,29 @@ import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
 import org.springframework.boot.test.mock.mockito.SpyBean;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
 import org.springframework.test.context.TestPropertySource;
 import org.testcontainers.containers.PostgreSQLContainer;
 import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
 
 import static de.jjakobus.emailrestservice.EmailTestUtils.*;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
 import static org.awaitility.Awaitility.await;
 import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.verify;
@@ -82,6 +98,13 @@ class EmailRestServiceAppIT {
   @Autowired
   private EmailRepository emailRepository;
 
+  /** REST template to create PATCH requests from (default request factory does not support PATCH). */
+  private TestRestTemplate patchRestTemplate;
+
+  /** Object mapper of application. */
+  @Autowired
+  private ObjectMapper objectMapper;
+
   /** Example emails stored in repository. */
   private Email storedEmail1;
   private Email storedEmail2;
@@ -90,8 +113,9 @@ class EmailRestServiceAppIT {
   private String baseRequestAddress;
 
   @BeforeEach
-  void prepareBaseRequestAddress() {
+  void prepareBaseRequestAddress(@Autowired RestTemplateBuilder restTemplateBuilder) {
     baseRequestAddress = HOST_ADDRESS + ":" + port + PATH;
+    patchRestTemplate = new TestRestTemplate(restTemplateBuilder.requestFactory(JdkClientHttpRequestFactory.class));
   }
 
   @BeforeEach
@@ -114,6 +138,8 @@ class EmailRestServiceAppIT {
     Email matchingAddressStub = createExampleEmailEntity(103, EmailState.SENT);
     matchingAddressStub.setFrom(new EmailAddress("carl@gbtec.com", null));
     Email matchingAddress = emailRepository.save(matchingAddressStub);
+    // Emails saved directly to repository may have ids below the classification's watermark.
+    spamFilterTask.requestFullRescan();
 
     // When & Then
     await().atMost(Durations.TEN_SECONDS).untilAsserted(() -> {
@@ -136,6 +162,46 @@ class EmailRestServiceAppIT {
     });
   }
 
+  @Test
+  void shouldManageSpamFilters() {
+    // Given
+    SpamFilterDto seededFilter = new SpamFilterDto(SpamFilterType.SENDER, "carl@gbtec.com");
+    SpamFilterDto newFilter = new SpamFilterDto(SpamFilterType.SENDER, "spam@domain.de");
+
+    // When
+    ResponseEntity<Void> insertResponse =
+        restTemplate.postForEntity(baseRequestAddress + "/spam-filter/insert", newFilter, Void.class);
+    ResponseEntity<List<SpamFilterDto>> queryResponse =
+        restTemplate.exchange(
+            baseRequestAddress + "/spam-filter/query",
+            HttpMethod.GET,
+            null,
+            new ParameterizedTypeReference<>() {
+            });
+    ResponseEntity<Void> deleteResponse =
+        restTemplate.exchange(
+            baseRequestAddress + "/spam-filter/delete?type={type}&value={value}",
+            HttpMethod.DELETE,
+            null,
+            Void.class,
+            newFilter.type(), newFilter.value());
+
+    // Then
+    assertThat(insertResponse.getStatusCode())
+        .as("HTTP status should be 201 (created).")
+        .isEqualTo(HttpStatus.CREATED);
+    assertThat(queryResponse.getBody())
+        .as("Filters should contain seeded and new filter.")
+        .contains(seededFilter, newFilter);
+    assertThat(deleteResponse.getStatusCode())
+        .as("HTTP status should be 200 (ok).")
+        .isEqualTo(HttpStatus.OK);
+    assertThat(spamFilterTask.getFilters())
+        .as("Deleted filter should not be present anymore.")
+        .contains(seededFilter)
+        .doesNotContain(newFilter);
+  }
+
   /* Test CRUD endpoints exemplary. */
 
   @Test
@@ -194,6 +260,77 @@ class EmailRestServiceAppIT {
         .allMatch(email -> emailRepository.existsById(email.id()));
   }
 
+  @Test
+  void shouldInsertMailsBulkStreamed() throws Exception {
+    // Given
+    InsertEmailDto newEmail = createExampleInsertEmail();
+    String newEmailJson = objectMapper.writeValueAsString(newEmail);
+    String newEmailsNdjson = newEmailJson + "\n" + newEmailJson + "\n" + newEmailJson + "\n";
+
+    HttpHeaders headers = new HttpHeaders();
+    headers.setContentType(MediaType.APPLICATION_NDJSON);
+
+    // When
+    ResponseEntity<String> response =
+        restTemplate.exchange(
+            baseRequestAddress + "/insert?bulk",
+            HttpMethod.POST,
+            new HttpEntity<>(newEmailsNdjson, headers),
+            String.class);
+
+    List<EmailDto> returnedEmails = Arrays.stream(response.getBody().split("\n"))
+        .map(line -> {
+          try {
+            return objectMapper.readValue(line, EmailDto.class);
+          } catch (Exception e) {
+            throw new IllegalStateException("Error parsing returned email.", e);
+          }
+        })
+        .toList();
+
+    // Then
+    assertThat(response.getStatusCode())
+        .as("HTTP status should be 201 (created).")
+        .isEqualTo(HttpStatus.CREATED);
+    assertThat(returnedEmails)
+        .as("All streamed emails should be returned.")
+        .hasSize(3)
+        .as("Returned stored email should contain all information from inserted email.")
+        .allMatch(email -> containsAllInformationFromInsertDto(email, newEmail))
+        .as("Service-side mails should be present.")
+        .allMatch(email -> emailRepository.existsById(email.id()));
+  }
+
+  @Test
+  void shouldImportMailsBulk() throws Exception {
+    // Given
+    String newEmailJson = objectMapper.writeValueAsString(createExampleInsertEmail());
+    String newEmailsNdjson = newEmailJson + "\n" + newEmailJson + "\n" + newEmailJson + "\n";
+    long storedEmailsCount = emailRepository.count();
+
+    HttpHeaders headers = new HttpHeaders();
+    headers.setContentType(MediaType.APPLICATION_NDJSON);
+
+    // When
+    ResponseEntity<ImportResultDto> response =
+        restTemplate.exchange(
+            baseRequestAddress + "/insert?import",
+            HttpMethod.POST,
+            new HttpEntity<>(newEmailsNdjson, headers),
+            ImportResultDto.class);
+
+    // Then
+    assertThat(response.getStatusCode())
+        .as("HTTP status should be 201 (created).")
+        .isEqualTo(HttpStatus.CREATED);
+    assertThat(response.getBody())
+        .as("Result should contain number of imported emails.")
+        .isEqualTo(new ImportResultDto(3));
+    assertThat(emailRepository.count())
+        .as("Imported emails should be present in store.")
+        .isEqualTo(storedEmailsCount + 3);
+  }
+
   @Test
   void shouldQueryMail() {
     // Given
@@ -249,6 +386,52 @@ class EmailRestServiceAppIT {
         .containsExactlyInAnyOrder(expectedEmail1, expectedEmail2);
   }
 
+  @Test
+  void shouldListMailsPageWise() {
+    // Given
+    Email newerEmailStub = createExampleEmailEntity(0, EmailState.SENT);
+    newerEmailStub.setModifiedDate(new Date(1000));
+    Email newerEmail = emailRepository.save(newerEmailStub);
+    List<Long> listedIds = new ArrayList<>();
+
+    // When
+    String cursor = null;
+    int pagesCount = 0;
+    do {
+      ResponseEntity<EmailPageDto> response =
+          restTemplate.getForEntity(
+              baseRequestAddress + "/list?limit=1" + (cursor != null ? "&cursor=" + cursor : ""),
+              EmailPageDto.class);
+      assertThat(response.getStatusCode())
+          .as("HTTP status should be 200 (ok).")
+          .isEqualTo(HttpStatus.OK);
+
+      EmailPageDto page = response.getBody();
+      assertThat(page).isNotNull();
+      page.emails().forEach(email -> listedIds.add(email.id()));
+      cursor = page.nextCursor();
+      pagesCount++;
+    } while (cursor != null && pagesCount < 10);
+
+    ResponseEntity<EmailPageDto> sentResponse =
+        restTemplate.getForEntity(baseRequestAddress + "/list?state=SENT", EmailPageDto.class);
+
+    // Then
+    assertThat(listedIds)
+        .as("All emails should be listed once, newest first, then by descending id.")
+        .containsExactly(
+            newerEmail.getId(),
+            Math.max(storedEmail1.getId(), storedEmail2.getId()),
+            Math.min(storedEmail1.getId(), storedEmail2.getId()));
+    assertThat(sentResponse.getBody())
+        .isNotNull()
+        .extracting(EmailPageDto::emails)
+        .as("Only SENT email should be listed if filtered by state.")
+        .asList()
+        .extracting("id")
+        .containsExactly(newerEmail.getId());
+  }
+
   @Test
   void shouldUpdateMail() {
     // Given
@@ -263,7 +446,8 @@ class EmailRestServiceAppIT {
             draftEmail.cc(),
             "Changed subject",
             "new body content",
-            draftEmail.modifiedDate());
+            draftEmail.modifiedDate(),
+            draftEmail.version());
 
     // When
     ResponseEntity<String> response =
@@ -284,6 +468,221 @@ class EmailRestServiceAppIT {
         .as("Service-side mail should contain updated subject and body.")
         .returns("Changed subject", Email::getSubject)
         .returns("new body content", Email::getBody);
+    assertThat(response.getHeaders().getETag())
+        .as("Entity tag should contain incremented version.")
+        .isEqualTo("\"" + emailId + "-" + (draftEmail.version() + 1) + "\"");
+  }
+
+  @Test
+  void shouldUpdateMailsBulk() {
+    // Given
+    EmailDto draftEmail1 = storedEmail1.toDto();
+    EmailDto draftEmail2 = storedEmail2.toDto();
+    long unknownId = 101;
+    List<EmailDto> updatedEmails = List.of(
+        new EmailDto(
+            draftEmail1.id(),
+            draftEmail1.state(),
+            draftEmail1.from(),
+            draftEmail1.to().subList(0, 1),
+            draftEmail1.cc(),
+            "Changed subject",
+            draftEmail1.body(),
+            draftEmail1.modifiedDate(),
+            draftEmail1.version()),
+        new EmailDto(
+            draftEmail2.id(),
+            EmailState.SENT,
+            draftEmail2.from(),
+            draftEmail2.to(),
+            draftEmail2.cc(),
+            draftEmail2.subject(),
+            draftEmail2.body(),
+            draftEmail2.modifiedDate(),
+            draftEmail2.version()),
+        createExampleEmail(unknownId));
+
+    // When
+    ResponseEntity<List<EmailUpdateResultDto>> response =
+        restTemplate.exchange(
+            baseRequestAddress + "/update?bulk",
+            HttpMethod.PUT,
+            new HttpEntity<>(updatedEmails),
+            new ParameterizedTypeReference<>() {});
+
+    // Then
+    assertThat(response.getStatusCode())
+        .as("HTTP status should be 200 (ok).")
+        .isEqualTo(HttpStatus.OK);
+    assertThat(response.getBody())
+        .as("Outcome of every updated email should be returned in order.")
+        .extracting(EmailUpdateResultDto::id, EmailUpdateResultDto::status, EmailUpdateResultDto::version)
+        .containsExactly(
+            tuple(draftEmail1.id(), EmailUpdateStatus.UPDATED, draftEmail1.version() + 1),
+            tuple(draftEmail2.id(), EmailUpdateStatus.UPDATED, draftEmail2.version() + 1),
+            tuple(unknownId, EmailUpdateStatus.NOT_FOUND, null));
+    assertThat(restTemplate.getForObject(baseRequestAddress + "/query?id={id}", EmailDto.class, draftEmail1.id()))
+        .as("Content of first email should be updated, including its receivers.")
+        .returns("Changed subject", EmailDto::subject)
+        .returns(draftEmail1.to().subList(0, 1), EmailDto::to)
+        .returns(draftEmail1.cc(), EmailDto::cc);
+    assertThat(restTemplate.getForObject(baseRequestAddress + "/query?id={id}", EmailDto.class, draftEmail2.id()))
+        .as("Second email should be SENT with unchanged receivers.")
+        .returns(EmailState.SENT, EmailDto::state)
+        .returns(draftEmail2.to(), EmailDto::to);
+  }
+
+  @Test
+  void shouldNotReturnUnmodifiedMail() {
+    // Given
+    long emailId = storedEmail1.getId(); // Use ID of stored email to run query.
+    ResponseEntity<EmailDto> firstResponse =
+        restTemplate.getForEntity(baseRequestAddress + "/query?id={id}", EmailDto.class, emailId);
+    HttpHeaders headers = new HttpHeaders();
+    headers.setIfNoneMatch(firstResponse.getHeaders().getETag());
+
+    // When
+    ResponseEntity<EmailDto> unmodifiedResponse =
+        restTemplate.exchange(
+            baseRequestAddress + "/query?id={id}",
+            HttpMethod.GET,
+            new HttpEntity<>(headers),
+            EmailDto.class,
+            emailId);
+    restTemplate.delete(baseRequestAddress + "/delete/{id}", emailId);
+    ResponseEntity<EmailDto> modifiedResponse =
+        restTemplate.exchange(
+            baseRequestAddress + "/query?id={id}",
+            HttpMethod.GET,
+            new HttpEntity<>(headers),
+            EmailDto.class,
+            emailId);
+
+    // Then
+    assertThat(unmodifiedResponse.getStatusCode())
+        .as("HTTP status should be 304 (not modified) for unchanged email.")
+        .isEqualTo(HttpStatus.NOT_MODIFIED);
+    assertThat(unmodifiedResponse.getBody())
+        .as("Unchanged email should not be sent again.")
+        .isNull();
+    assertThat(modifiedResponse.getStatusCode())
+        .as("HTTP status should be 200 (ok) for changed email.")
+        .isEqualTo(HttpStatus.OK);
+    assertThat(modifiedResponse.getBody())
+        .as("Changed email should be sent.")
+        .returns(EmailState.DELETED, EmailDto::state);
+  }
+
+  @Test
+  void shouldNotUpdateMailOfOutdatedVersion() {
+    // Given
+    long emailId = storedEmail1.getId(); // Use ID of stored email to update.
+    String outdatedETag = restTemplate.getForEntity(baseRequestAddress + "/query?id={id}", String.class, emailId)
+        .getHeaders().getETag();
+    // Email is changed by someone else meanwhile.
+    restTemplate.delete(baseRequestAddress + "/delete/{id}", emailId);
+    HttpHeaders headers = new HttpHeaders();
+    headers.setIfMatch(outdatedETag);
+
+    // When
+    ResponseEntity<String> response =
+        restTemplate.exchange(
+            baseRequestAddress + "/update/{id}",
+            HttpMethod.PUT,
+            new HttpEntity<>(createExampleEmailEntity(emailId, EmailState.SENT).toDto(), headers),
+            String.class, // There will be no response value, but type is needed anyway, so use String.
+            emailId);
+
+    // Then
+    assertThat(response.getStatusCode())
+        .as("HTTP status should be 409 (conflict).")
+        .isEqualTo(HttpStatus.CONFLICT);
+    assertThat(emailRepository.findById(emailId))
+        .as("Email should not be updated.")
+        .isPresent().get()
+        .returns(EmailState.DELETED, Email::getState);
+  }
+
+  @Test
+  void shouldUpdateMailState() {
+    // Given
+    long emailId = storedEmail1.getId(); // Use ID of stored (DRAFT) email to update.
+    long version = emailRepository.findById(emailId).orElseThrow().getVersion();
+
+    // When
+    ResponseEntity<String> response =
+        patchRestTemplate.exchange(
+            baseRequestAddress + "/update/{id}",
+            HttpMethod.PATCH,
+            new HttpEntity<>(new EmailStateUpdateDto(EmailState.SENT)),
+            String.class, // There will be no response value, but type is needed anyway, so use String.
+            emailId);
+
+    // Then
+    assertThat(response.getStatusCode())
+        .as("HTTP status should be 200 (ok).")
+        .isEqualTo(HttpStatus.OK);
+    assertThat(response.getHeaders().getETag())
+        .as("Entity tag of new version should be returned.")
+        .isEqualTo("\"" + emailId + "-" + (version + 1) + "\"");
+    assertThat(emailRepository.findById(emailId))
+        .as("State of email should be updated, content should be unchanged.")
+        .isPresent().get()
+        .returns(EmailState.SENT, Email::getState)
+        .returns(storedEmail1.getBody(), Email::getBody);
+  }
+
+  @Test
+  void shouldNotUpdateMailStateIfNotAllowed() {
+    // Given
+    long emailId = storedEmail1.getId(); // Use ID of stored (DRAFT) email to update.
+
+    // When
+    ResponseEntity<String> response =
+        patchRestTemplate.exchange(
+            baseRequestAddress + "/update/{id}",
+            HttpMethod.PATCH,
+            new HttpEntity<>(new EmailStateUpdateDto(EmailState.SPAM)),
+            String.class,
+            emailId);
+
+    // Then
+    assertThat(response.getStatusCode())
+        .as("HTTP status should be 400 (bad request) for DRAFT email changed to SPAM.")
+        .isEqualTo(HttpStatus.BAD_REQUEST);
+    assertThat(emailRepository.findById(emailId))
+        .as("Email should not be updated.")
+        .isPresent().get()
+        .returns(EmailState.DRAFT, Email::getState);
+  }
+
+  @Test
+  void shouldUpdateMailStatesBulk() {
+    // Given
+    long emailId1 = storedEmail1.getId(); // Use IDs of stored (DRAFT) emails to update.
+    long emailId2 = storedEmail2.getId();
+    long unknownId = 101;
+
+    // When
+    String idsParam = emailId1 + "," + unknownId + "," + emailId2;
+    ResponseEntity<List<Long>> response =
+        patchRestTemplate.exchange(
+            baseRequestAddress + "/update?bulk&ids={ids}",
+            HttpMethod.PATCH,
+            new HttpEntity<>(new EmailStateUpdateDto(EmailState.SENT)),
+            new ParameterizedTypeReference<>() {},
+            idsParam);
+
+    // Then
+    assertThat(response.getStatusCode())
+        .as("HTTP status should be 200 (ok).")
+        .isEqualTo(HttpStatus.OK);
+    assertThat(response.getBody())
+        .as("Ids of updated emails should be returned.")
+        .containsExactly(Math.min(emailId1, emailId2), Math.max(emailId1, emailId2));
+    assertThat(emailRepository.findAllById(List.of(emailId1, emailId2)))
+        .as("State of emails should be \"SENT\".")
+        .allMatch(email -> email.getState() == EmailState.SENT);
   }
 
   @Test
@@ -0,0 +1,264 @@
+package de.jjakobus.emailrestservice;
+
+import de.jjakobus.emailrestservice.model.Email;
+import de.jjakobus.emailrestservice.service.repositories.EmailJdbcRepository;
+import de.jjakobus.emailrestservice.service.repositories.EmailRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.JRE;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.test.context.TestPropertySource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+
+import static de.jjakobus.emailrestservice.EmailTestUtils.createExampleEmailEntity;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares throughput and latency of the REST service running requests on platform threads (Tomcat's pool) and on
+ * virtual threads against a temporary database. Many concurrent clients query emails by id (bypassing the cache), so
+ * every request blocks on the database. Results are logged for comparison, the test fails on failed requests only.
+ * Virtual threads are tested on Java 21+ only.
+ *
+ * @author jjakobus
+ */
+@Testcontainers(disabledWithoutDocker = true)
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
+@TestPropertySource(properties = {
+    "email-rest-service.request-path=/emails-test", // Control request path for tests.
+    "email-rest-service.email-cache-max-weight=0", // Do not cache, so every request reads from database.
+    "server.tomcat.threads.max=50", // Limit request threads of platform mode (unused by virtual threads).
+    "spring.datasource.hikari.maximum-pool-size=10", // Same limit of concurrent database work in both modes.
+    "spring.datasource.url=jdbc:tc:postgresql://localhost:5432/emails-test", // Use separate test database.
+    "spring.datasource.username=test",
+    "spring.datasource.password=test"
+})
+class EmailRestServiceLoadIT {
+
+  private static final String HOST_ADDRESS = "http://localhost";
+  private static final String PATH = "/emails-test";
+
+  /** Number of stored emails queried by requests. */
+  private static final int EMAILS_COUNT = 1_000;
+
+  /** Number of clients sending requests concurrently (more than request threads of platform mode). */
+  private static final int CLIENTS_COUNT = 400;
+
+  /** Number of requests sent (and not measured) to warm up the service. */
+  private static final int WARMUP_REQUESTS_COUNT = 2_000;
+
+  /** Number of requests measured. */
+  private static final int MEASURED_REQUESTS_COUNT = 20_000;
+
+  private final Logger logger = LoggerFactory.getLogger(EmailRestServiceLoadIT.class);
+
+  /**
+   * Postgres docker container for this integration test.
+   */
+  @Container
+  @ServiceConnection
+  @SuppressWarnings("resource") // Misleading warning about closable container when chaining with...() calls.
+  static PostgreSQLContainer<?> postgresContainer =
+      new PostgreSQLContainer<>("postgres:16.3-alpine")
+          .withDatabaseName("emails-test")
+          .withUsername("test")
+          .withPassword("test")
+          .withExposedPorts(5432);
+
+  /** Client sending requests of all clients. */
+  private final HttpClient httpClient = HttpClient.newBuilder()
+      .version(HttpClient.Version.HTTP_1_1)
+      .build();
+
+  @Nested
+  class PlatformThreads {
+
+    /** The random port used for the application in test. */
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private EmailJdbcRepository emailJdbcRepository;
+
+    @Autowired
+    private EmailRepository emailRepository;
+
+    private List<Long> storedIds;
+
+    @BeforeEach
+    void prepareEmailsInDatabase() {
+      storedIds = storeEmails(emailRepository, emailJdbcRepository);
+    }
+
+    @Test
+    void shouldServeBurstOfRequests() throws Exception {
+      runLoad("platform threads", port, storedIds);
+    }
+  }
+
+  @Nested
+  @EnabledForJreRange(min = JRE.JAVA_21)
+  @TestPropertySource(properties = "spring.threads.virtual.enabled=true")
+  class VirtualThreads {
+
+    /** The random port used for the application in test. */
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private EmailJdbcRepository emailJdbcRepository;
+
+    @Autowired
+    private EmailRepository emailRepository;
+
+    private List<Long> storedIds;
+
+    @BeforeEach
+    void prepareEmailsInDatabase() {
+      storedIds = storeEmails(emailRepository, emailJdbcRepository);
+    }
+
+    @Test
+    void shouldServeBurstOfRequests() throws Exception {
+      runLoad("virtual threads", port, storedIds);
+    }
+  }
+
+  /**
+   * Replaces all emails in the database by new example emails.
+   *
+   * @param emailRepository repository of emails
+   * @param emailJdbcRepository repository to insert emails with
+   * @return ids of stored emails
+   */
+  private static List<Long> storeEmails(EmailRepository emailRepository, EmailJdbcRepository emailJdbcRepository) {
+    emailRepository.deleteAll();
+
+    List<Email> newEmails = LongStream.range(0, EMAILS_COUNT)
+        .mapToObj(i -> createExampleEmailEntity(0))
+        .toList();
+    return emailJdbcRepository.insertAll(newEmails).stream()
+        .map(Email::getId)
+        .toList();
+  }
+
+  /**
+   * Warms up the service, then sends the measured requests by all clients concurrently and logs throughput and
+   * latency percentiles.
+   *
+   * @param mode name of thread mode of service
+   * @param port port of service
+   * @param storedIds ids of emails to query
+   * @throws Exception if sending requests failed
+   */
+  private void runLoad(String mode, int port, List<Long> storedIds) throws Exception {
+    String baseRequestAddress = HOST_ADDRESS + ":" + port + PATH;
+
+    sendRequests(baseRequestAddress, storedIds, WARMUP_REQUESTS_COUNT);
+
+    long start = System.nanoTime();
+    long[] latencyNanos = sendRequests(baseRequestAddress, storedIds, MEASURED_REQUESTS_COUNT);
+    long durationNanos = System.nanoTime() - start;
+
+    Arrays.sort(latencyNanos);
+    logger.info("Served {} requests of {} clients on {}: {} requests/s, p50 {} ms, p99 {} ms, max {} ms.",
+        MEASURED_REQUESTS_COUNT, CLIENTS_COUNT, mode,
+        MEASURED_REQUESTS_COUNT * 1_000_000_000L / durationNanos,
+        toMillis(percentile(latencyNanos, 0.5)),
+        toMillis(percentile(latencyNanos, 0.99)),
+        toMillis(latencyNanos[latencyNanos.length - 1]));
+  }
+
+  /**
+   * Sends given number of requests querying emails by id, split among all clients running concurrently.
+   *
+   * @param baseRequestAddress base address of requests
+   * @param storedIds ids of emails to query
+   * @param requestsCount number of requests
+   * @return latencies of all requests (in ns)
+   * @throws Exception if sending requests failed
+   */
+  private long[] sendRequests(String baseRequestAddress, List<Long> storedIds, int requestsCount) throws Exception {
+    long[] latencyNanos = new long[requestsCount];
+    AtomicInteger nextRequest = new AtomicInteger();
+
+    ExecutorService clients = Executors.newFixedThreadPool(CLIENTS_COUNT);
+    try {
+      List<Future<?>> results = new ArrayList<>();
+      for (int client = 0; client < CLIENTS_COUNT; client++) {
+        results.add(clients.submit(() -> {
+          for (int request = nextRequest.getAndIncrement(); request < requestsCount;
+              request = nextRequest.getAndIncrement()) {
+            long id = storedIds.get(request % storedIds.size());
+            HttpRequest httpRequest = HttpRequest.newBuilder(URI.create(baseRequestAddress + "/query?id=" + id))
+                .GET()
+                .build();
+
+            long start = System.nanoTime();
+            HttpResponse<Void> response = httpClient.send(httpRequest, HttpResponse.BodyHandlers.discarding());
+            latencyNanos[request] = System.nanoTime() - start;
+
+            assertThat(response.statusCode())
+                .as("Every request should succeed.")
+                .isEqualTo(200);
+          }
+          return null;
+        }));
+      }
+      for (Future<?> result : results) {
+        result.get();
+      }
+
+    } finally {
+      clients.shutdownNow();
+      clients.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    return latencyNanos;
+  }
+
+  /**
+   * Returns the given percentile of sorted values (nearest rank).
+   *
+   * @param sortedValues values sorted ascending
+   * @param percentile percentile between 0 and 1
+   * @return value at percentile
+   */
+  private static long percentile(long[] sortedValues, double percentile) {
+    int rank = (int) Math.ceil(percentile * sortedValues.length);
+    return sortedValues[Math.max(rank - 1, 0)];
+  }
+
+  /**
+   * Converts given nanoseconds to milliseconds with a fraction.
+   *
+   * @param nanos nanoseconds
+   * @return milliseconds
+   */
+  private static double toMillis(long nanos) {
+    return nanos / 1_000_000.0;
+  }
+}
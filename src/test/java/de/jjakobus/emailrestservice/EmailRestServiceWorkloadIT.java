@@ -0,0 +1,642 @@
+package de.jjakobus.emailrestservice;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.jjakobus.emailrestservice.model.Email;
+import de.jjakobus.emailrestservice.model.EmailAddress;
+import de.jjakobus.emailrestservice.model.EmailState;
+import de.jjakobus.emailrestservice.model.dtos.EmailAddressDto;
+import de.jjakobus.emailrestservice.model.dtos.EmailDto;
+import de.jjakobus.emailrestservice.model.dtos.InsertEmailDto;
+import de.jjakobus.emailrestservice.service.repositories.EmailJdbcRepository;
+import de.jjakobus.emailrestservice.service.repositories.EmailRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.TestPropertySource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Measures throughput and latency of all CRUD endpoints (single and bulk insert, query, update, delete) under a mixed
+ * workload against a temporary database and writes them to a JSON report, so results of different builds can be
+ * compared (diffed).
+ * <p>
+ * Requests are sent by an open model: they arrive at a given rate (Poisson process with a fixed seed), independent of
+ * how fast the service responds. Latencies are measured from the time a request was due, so a stalled service shows up
+ * in the percentiles instead of lowering the rate (no coordinated omission). The workload is configured by system
+ * properties ({@code -Dload.*}, see {@link Workload#fromSystemProperties()}). The test fails on server errors and
+ * failed requests only.
+ *
+ * @author jjakobus
+ */
+@Testcontainers(disabledWithoutDocker = true)
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
+@TestPropertySource(properties = {
+    "email-rest-service.request-path=/emails-test", // Control request path for tests.
+    "spring.datasource.url=jdbc:tc:postgresql://localhost:5432/emails-test", // Use separate test database.
+    "spring.datasource.username=test",
+    "spring.datasource.password=test"
+})
+class EmailRestServiceWorkloadIT {
+
+  private static final String HOST_ADDRESS = "http://localhost";
+  private static final String PATH = "/emails-test";
+
+  /** Maximum time to wait for outstanding responses after the last request has been sent. */
+  private static final long DRAIN_TIMEOUT_SECONDS = 60;
+
+  /** Status recorded for requests that did not get any response. */
+  private static final int STATUS_FAILED = -1;
+
+  private final Logger logger = LoggerFactory.getLogger(EmailRestServiceWorkloadIT.class);
+
+  /**
+   * Postgres docker container for this integration test.
+   */
+  @Container
+  @ServiceConnection
+  @SuppressWarnings("resource") // Misleading warning about closable container when chaining with...() calls.
+  static PostgreSQLContainer<?> postgresContainer =
+      new PostgreSQLContainer<>("postgres:16.3-alpine")
+          .withDatabaseName("emails-test")
+          .withUsername("test")
+          .withPassword("test")
+          .withExposedPorts(5432);
+
+  /** The random port used for the application in test. */
+  @LocalServerPort
+  private int port;
+
+  @Autowired
+  private EmailJdbcRepository emailJdbcRepository;
+
+  @Autowired
+  private EmailRepository emailRepository;
+
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  /** Client sending all requests (asynchronously, so sending never waits for responses). */
+  private final HttpClient httpClient = HttpClient.newBuilder()
+      .version(HttpClient.Version.HTTP_1_1)
+      .build();
+
+  private final Workload workload = Workload.fromSystemProperties();
+
+  /** Ids of stored draft emails, queried and updated (never deleted, so updates are allowed). */
+  private List<Long> draftIds;
+
+  /** Ids of stored emails to delete (deleting again is allowed). */
+  private List<Long> deletableIds;
+
+  @BeforeEach
+  void prepareEmailsInDatabase() {
+    emailRepository.deleteAll();
+
+    List<Email> newEmails = IntStream.range(0, 2 * workload.storedEmails())
+        .mapToObj(i -> createEmailEntity(workload.bodySize()))
+        .toList();
+    List<Long> storedIds = emailJdbcRepository.insertAll(newEmails).stream()
+        .map(Email::getId)
+        .toList();
+    draftIds = storedIds.subList(0, workload.storedEmails());
+    deletableIds = storedIds.subList(workload.storedEmails(), storedIds.size());
+  }
+
+  @Test
+  void shouldServeOpenWorkload() throws Exception {
+    // Given
+    String baseRequestAddress = HOST_ADDRESS + ":" + port + PATH;
+    // Warm up with other arrivals and ids than measured.
+    runWorkload(baseRequestAddress, workload.warmupSeconds(), new Random(workload.seed() + 1));
+
+    // When
+    LoadReport report = runWorkload(baseRequestAddress, workload.durationSeconds(), new Random(workload.seed()));
+
+    // Then
+    Path reportFile = Path.of(workload.reportFile());
+    Files.createDirectories(reportFile.toAbsolutePath().getParent());
+    objectMapper.writerWithDefaultPrettyPrinter().writeValue(reportFile.toFile(), report);
+    logger.info("Served {} requests at {} requests/s (offered {}/s): p50 {} ms, p99 {} ms, p999 {} ms. Report: {}",
+        report.total().requests(), report.total().requestsPerSecond(), workload.rate(),
+        report.total().p50Millis(), report.total().p99Millis(), report.total().p999Millis(),
+        reportFile.toAbsolutePath());
+
+    assertThat(report.operations().values())
+        .as("No request should fail or cause a server error.")
+        .allSatisfy(operation -> assertThat(operation.statuses().keySet())
+            .allSatisfy(status -> assertThat(status).isBetween(200, 499)));
+  }
+
+  /**
+   * Sends requests of the workload for given time and returns their throughput and latencies.
+   *
+   * @param baseRequestAddress base address of requests
+   * @param seconds time to send requests for
+   * @param random source of arrivals, operations and ids
+   * @return report of all requests
+   * @throws Exception if sending requests failed
+   */
+  private LoadReport runWorkload(String baseRequestAddress, int seconds, Random random) throws Exception {
+    Map<Operation, LatencyRecorder> recorders = new EnumMap<>(Operation.class);
+    for (String operation : workload.mix().keySet()) {
+      recorders.put(Operation.fromName(operation), new LatencyRecorder());
+    }
+    List<CompletableFuture<?>> responses = new ArrayList<>();
+
+    long start = System.nanoTime();
+    long end = start + TimeUnit.SECONDS.toNanos(seconds);
+    double meanArrivalNanos = 1_000_000_000.0 / workload.rate();
+    long dueTime = start;
+    while (true) {
+      // Exponentially distributed time between arrivals.
+      dueTime += (long) (-Math.log(1 - random.nextDouble()) * meanArrivalNanos);
+      if (dueTime >= end) {
+        break;
+      }
+      Operation operation = pickOperation(random);
+      HttpRequest request = createRequest(baseRequestAddress, operation, random);
+
+      long waitNanos = dueTime - System.nanoTime();
+      if (waitNanos > 0) {
+        LockSupport.parkNanos(waitNanos);
+      }
+
+      long requestDueTime = dueTime;
+      LatencyRecorder recorder = recorders.get(operation);
+      responses.add(httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+          .whenComplete((response, failure) -> recorder.record(
+              System.nanoTime() - requestDueTime,
+              failure == null ? response.statusCode() : STATUS_FAILED)));
+    }
+
+    try {
+      CompletableFuture.allOf(responses.toArray(CompletableFuture[]::new))
+          .exceptionally(failure -> null) // Failures are recorded per request.
+          .get(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+    } catch (TimeoutException e) {
+      logger.warn("Responses still outstanding after {} s, reporting completed requests only.", DRAIN_TIMEOUT_SECONDS);
+
+    }
+    long durationNanos = System.nanoTime() - start;
+
+    Map<String, OperationReport> operationReports = new LinkedHashMap<>();
+    LatencyRecorder totalRecorder = new LatencyRecorder();
+    for (Map.Entry<Operation, LatencyRecorder> entry : recorders.entrySet()) {
+      operationReports.put(entry.getKey().getName(), entry.getValue().toReport(durationNanos));
+      totalRecorder.addAll(entry.getValue());
+    }
+
+    return new LoadReport(workload, totalRecorder.toReport(durationNanos), operationReports);
+  }
+
+  /**
+   * Picks the operation of the next request by the weights of the workload mix.
+   *
+   * @param random source of randomness
+   * @return operation of next request
+   */
+  private Operation pickOperation(Random random) {
+    int pick = random.nextInt(workload.totalWeight());
+    for (Map.Entry<String, Integer> entry : workload.mix().entrySet()) {
+      pick -= entry.getValue();
+      if (pick < 0) {
+        return Operation.fromName(entry.getKey());
+      }
+    }
+
+    throw new IllegalStateException("Weights of workload mix changed.");
+  }
+
+  /**
+   * Creates a request of given operation on random emails.
+   *
+   * @param baseRequestAddress base address of requests
+   * @param operation operation of request
+   * @param random source of ids
+   * @return request
+   * @throws JsonProcessingException if serializing the body failed
+   */
+  private HttpRequest createRequest(String baseRequestAddress, Operation operation, Random random)
+      throws JsonProcessingException {
+
+    return switch (operation) {
+      case INSERT -> post(baseRequestAddress + "/insert", createInsertEmail(workload.bodySize()));
+      case BULK_INSERT -> post(baseRequestAddress + "/insert?bulk",
+          IntStream.range(0, workload.bulkSize())
+              .mapToObj(i -> createInsertEmail(workload.bodySize()))
+              .toList());
+      case QUERY -> HttpRequest.newBuilder(URI.create(baseRequestAddress + "/query?id=" + pickId(draftIds, random)))
+          .GET()
+          .build();
+      case BULK_QUERY -> HttpRequest.newBuilder(URI.create(baseRequestAddress + "/query?bulk&ids="
+              + pickIds(draftIds, random)))
+          .GET()
+          .build();
+      case UPDATE -> {
+        long id = pickId(draftIds, random);
+        yield HttpRequest.newBuilder(URI.create(baseRequestAddress + "/update/" + id))
+            .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+            .PUT(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(
+                createUpdatedEmail(id, workload.bodySize(), random))))
+            .build();
+      }
+      case DELETE -> HttpRequest.newBuilder(URI.create(baseRequestAddress + "/delete/" + pickId(deletableIds, random)))
+          .DELETE()
+          .build();
+      case BULK_DELETE -> HttpRequest.newBuilder(URI.create(baseRequestAddress + "/delete?bulk&ids="
+              + pickIds(deletableIds, random)))
+          .DELETE()
+          .build();
+    };
+  }
+
+  /**
+   * Creates a POST request with given body as JSON.
+   *
+   * @param address address of request
+   * @param body body of request
+   * @return request
+   * @throws JsonProcessingException if serializing the body failed
+   */
+  private HttpRequest post(String address, Object body) throws JsonProcessingException {
+
+    return HttpRequest.newBuilder(URI.create(address))
+        .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+        .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)))
+        .build();
+  }
+
+  /**
+   * Picks a random id of given ones.
+   *
+   * @param ids ids to pick from
+   * @param random source of randomness
+   * @return picked id
+   */
+  private static long pickId(List<Long> ids, Random random) {
+    return ids.get(random.nextInt(ids.size()));
+  }
+
+  /**
+   * Picks random ids (as many as the bulk size of the workload) of given ones.
+   *
+   * @param ids ids to pick from
+   * @param random source of randomness
+   * @return comma-separated picked ids
+   */
+  private String pickIds(List<Long> ids, Random random) {
+
+    return IntStream.range(0, workload.bulkSize())
+        .mapToObj(i -> String.valueOf(pickId(ids, random)))
+        .collect(Collectors.joining(","));
+  }
+
+  /**
+   * Creates a new draft email entity with a body of given size.
+   *
+   * @param bodySize number of characters of body
+   * @return new email entity
+   */
+  private static Email createEmailEntity(int bodySize) {
+
+    return new Email(
+        EmailState.DRAFT,
+        new EmailAddress("peter.mueller@gmx.de", "Peter Müller"),
+        List.of(
+            new EmailAddress("juergen.vogel@web.de", null),
+            new EmailAddress("hans-peter@gmail.com", "Hans Peter")),
+        List.of(new EmailAddress("peter.lustig@gmail.com", "Peter Lustig")),
+        "Löwenzahn",
+        "x".repeat(bodySize),
+        new Date(42));
+  }
+
+  /**
+   * Creates a new draft email (as inserted by clients) with a body of given size.
+   *
+   * @param bodySize number of characters of body
+   * @return new email
+   */
+  private static InsertEmailDto createInsertEmail(int bodySize) {
+
+    return new InsertEmailDto(
+        EmailState.DRAFT,
+        new EmailAddressDto("peter.mueller@gmx.de", "Peter Müller"),
+        List.of(
+            new EmailAddressDto("juergen.vogel@web.de", null),
+            new EmailAddressDto("hans-peter@gmail.com", "Hans Peter")),
+        List.of(new EmailAddressDto("peter.lustig@gmail.com", "Peter Lustig")),
+        "Löwenzahn",
+        "x".repeat(bodySize),
+        new Date(42));
+  }
+
+  /**
+   * Creates an update of the draft email with given id, changing its subject.
+   *
+   * @param id id of email
+   * @param bodySize number of characters of body
+   * @param random source of subject
+   * @return updated email
+   */
+  private static EmailDto createUpdatedEmail(long id, int bodySize, Random random) {
+
+    return new EmailDto(
+        id,
+        EmailState.DRAFT,
+        new EmailAddressDto("peter.mueller@gmx.de", "Peter Müller"),
+        List.of(
+            new EmailAddressDto("juergen.vogel@web.de", null),
+            new EmailAddressDto("hans-peter@gmail.com", "Hans Peter")),
+        List.of(new EmailAddressDto("peter.lustig@gmail.com", "Peter Lustig")),
+        "Löwenzahn " + random.nextInt(),
+        "x".repeat(bodySize),
+        new Date(76),
+        0);
+  }
+
+  /**
+   * Operations of the workload, named like in the workload mix and report.
+   */
+  enum Operation {
+    INSERT("insert"),
+    BULK_INSERT("bulk-insert"),
+    QUERY("query"),
+    BULK_QUERY("bulk-query"),
+    UPDATE("update"),
+    DELETE("delete"),
+    BULK_DELETE("bulk-delete");
+
+    private final String name;
+
+    Operation(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Returns the operation of given name.
+     *
+     * @param name name of operation
+     * @return operation
+     */
+    static Operation fromName(String name) {
+
+      return Arrays.stream(values())
+          .filter(operation -> operation.name.equals(name))
+          .findFirst()
+          .orElseThrow(() -> new IllegalArgumentException("Unknown operation '" + name + "' in workload mix."));
+    }
+  }
+
+  /**
+   * Configuration of the workload.
+   *
+   * @param rate offered requests per second
+   * @param durationSeconds measured time
+   * @param warmupSeconds time of (not measured) warmup
+   * @param mix weights by operation name
+   * @param bulkSize number of emails per bulk request
+   * @param bodySize number of characters of email bodies
+   * @param storedEmails number of stored emails queried and updated (and of stored emails deleted)
+   * @param seed seed of arrivals, operations and ids
+   * @param reportFile path of JSON report
+   */
+  record Workload(
+      int rate,
+      int durationSeconds,
+      int warmupSeconds,
+      Map<String, Integer> mix,
+      int bulkSize,
+      int bodySize,
+      int storedEmails,
+      long seed,
+      String reportFile) {
+
+    /** Default weights of operations, mostly reads. */
+    private static final String DEFAULT_MIX =
+        "query=50,bulk-query=10,insert=10,bulk-insert=5,update=15,delete=8,bulk-delete=2";
+
+    /**
+     * Reads the workload from system properties, using defaults for absent ones: {@code load.rate} (200),
+     * {@code load.duration} (30), {@code load.warmup} (10), {@code load.mix} (weights by operation name, e.g.
+     * {@code query=80,update=20}), {@code load.bulk-size} (10), {@code load.body-size} (200, bodies are limited to 255
+     * characters by the schema), {@code load.emails} (1000), {@code load.seed} (42) and {@code load.report}
+     * ({@code target/load-report.json}).
+     *
+     * @return workload
+     */
+    static Workload fromSystemProperties() {
+
+      Workload workload = new Workload(
+          Integer.getInteger("load.rate", 200),
+          Integer.getInteger("load.duration", 30),
+          Integer.getInteger("load.warmup", 10),
+          parseMix(System.getProperty("load.mix", DEFAULT_MIX)),
+          Integer.getInteger("load.bulk-size", 10),
+          Integer.getInteger("load.body-size", 200),
+          Integer.getInteger("load.emails", 1000),
+          Long.getLong("load.seed", 42),
+          System.getProperty("load.report", "target/load-report.json"));
+      if (workload.rate() < 1 || workload.bulkSize() < 1 || workload.storedEmails() < 1 || workload.totalWeight() < 1) {
+        throw new IllegalArgumentException("Rate, bulk size, stored emails and weights of workload must be positive.");
+      }
+
+      return workload;
+    }
+
+    /**
+     * Parses given weights of operations.
+     *
+     * @param mix comma-separated weights by operation name, e.g. {@code query=80,update=20}
+     * @return weights by operation name, in order of operations (operations of weight 0 are omitted)
+     */
+    private static Map<String, Integer> parseMix(String mix) {
+      Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+      for (String weight : mix.split(",")) {
+        String[] nameAndWeight = weight.trim().split("=");
+        if (nameAndWeight.length != 2) {
+          throw new IllegalArgumentException("Malformed weight '" + weight + "' in workload mix.");
+        }
+        int value = Integer.parseInt(nameAndWeight[1].trim());
+        if (value > 0) {
+          weights.put(Operation.fromName(nameAndWeight[0].trim()), value);
+        }
+      }
+
+      Map<String, Integer> weightsByName = new LinkedHashMap<>();
+      weights.forEach((operation, value) -> weightsByName.put(operation.getName(), value));
+
+      return weightsByName;
+    }
+
+    /**
+     * Returns the sum of weights of all operations.
+     *
+     * @return sum of weights
+     */
+    int totalWeight() {
+      return mix.values().stream().mapToInt(Integer::intValue).sum();
+    }
+  }
+
+  /**
+   * Report of a workload run.
+   *
+   * @param workload configuration of workload
+   * @param total results of all requests
+   * @param operations results by operation name
+   */
+  record LoadReport(Workload workload, OperationReport total, Map<String, OperationReport> operations) {
+  }
+
+  /**
+   * Results of requests.
+   *
+   * @param requests number of completed requests
+   * @param requestsPerSecond completed requests per second
+   * @param p50Millis median latency (ms)
+   * @param p99Millis 99th percentile latency (ms)
+   * @param p999Millis 99.9th percentile latency (ms)
+   * @param maxMillis maximum latency (ms)
+   * @param statuses number of requests by response status (-1 for failed requests)
+   */
+  record OperationReport(
+      int requests,
+      double requestsPerSecond,
+      double p50Millis,
+      double p99Millis,
+      double p999Millis,
+      double maxMillis,
+      Map<Integer, Integer> statuses) {
+  }
+
+  /**
+   * Records latencies and statuses of completed requests (thread-safe).
+   */
+  static class LatencyRecorder {
+
+    /** Latencies (in ns) of completed requests, the first {@link #count} are set. */
+    private long[] latencyNanos = new long[1024];
+
+    private int count;
+
+    /** Number of requests by response status. */
+    private final Map<Integer, Integer> statuses = new TreeMap<>();
+
+    /**
+     * Records a completed request.
+     *
+     * @param nanos latency (in ns)
+     * @param status response status
+     */
+    synchronized void record(long nanos, int status) {
+      if (count == latencyNanos.length) {
+        latencyNanos = Arrays.copyOf(latencyNanos, 2 * count);
+      }
+      latencyNanos[count++] = nanos;
+      statuses.merge(status, 1, Integer::sum);
+    }
+
+    /**
+     * Records all requests recorded by given recorder.
+     *
+     * @param other recorder to add requests of
+     */
+    synchronized void addAll(LatencyRecorder other) {
+      synchronized (other) {
+        for (int i = 0; i < other.count; i++) {
+          if (count == latencyNanos.length) {
+            latencyNanos = Arrays.copyOf(latencyNanos, 2 * count);
+          }
+          latencyNanos[count++] = other.latencyNanos[i];
+        }
+        other.statuses.forEach((status, requests) -> statuses.merge(status, requests, Integer::sum));
+      }
+    }
+
+    /**
+     * Returns the results of all recorded requests.
+     *
+     * @param durationNanos time (in ns) requests were sent and completed in
+     * @return results
+     */
+    synchronized OperationReport toReport(long durationNanos) {
+      long[] sortedNanos = Arrays.copyOf(latencyNanos, count);
+      Arrays.sort(sortedNanos);
+
+      return new OperationReport(
+          count,
+          Math.round(count * 1_000_000_000.0 / durationNanos * 10) / 10.0,
+          toMillis(percentile(sortedNanos, 0.5)),
+          toMillis(percentile(sortedNanos, 0.99)),
+          toMillis(percentile(sortedNanos, 0.999)),
+          toMillis(percentile(sortedNanos, 1)),
+          new TreeMap<>(statuses));
+    }
+
+    /**
+     * Returns the given percentile of sorted values (nearest rank), 0 if there are no values.
+     *
+     * @param sortedValues values sorted ascending
+     * @param percentile percentile between 0 and 1
+     * @return value at percentile
+     */
+    private static long percentile(long[] sortedValues, double percentile) {
+      if (sortedValues.length == 0) {
+        return 0;
+      }
+      int rank = (int) Math.ceil(percentile * sortedValues.length);
+      return sortedValues[Math.max(rank - 1, 0)];
+    }
+
+    /**
+     * Converts given nanoseconds to milliseconds, rounded to microseconds.
+     *
+     * @param nanos nanoseconds
+     * @return milliseconds
+     */
+    private static double toMillis(long nanos) {
+      return Math.round(nanos / 1_000.0) / 1_000.0;
+    }
+  }
+}
@@ -143,6 +143,7 @@ public class EmailTestUtils {
         List.of(new EmailAddressDto("peter.lustig@gmail.com", "Peter Lustig")),
         "Löwenzahn",
         "Planung neuer Sendung",
-        new Date(42));
+        new Date(42),
+        0);
   }
 }
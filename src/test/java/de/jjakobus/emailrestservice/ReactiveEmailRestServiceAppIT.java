@@ -0,0 +1,252 @@
+package de.jjakobus.emailrestservice;
+
+import de.jjakobus.emailrestservice.config.ReactiveEmailRestServiceConfig;
+import de.jjakobus.emailrestservice.model.Email;
+import de.jjakobus.emailrestservice.model.EmailState;
+import de.jjakobus.emailrestservice.model.EmailUpdateStatus;
+import de.jjakobus.emailrestservice.model.dtos.EmailDto;
+import de.jjakobus.emailrestservice.model.dtos.EmailStateUpdateDto;
+import de.jjakobus.emailrestservice.model.dtos.EmailUpdateResultDto;
+import de.jjakobus.emailrestservice.model.dtos.InsertEmailDto;
+import de.jjakobus.emailrestservice.service.repositories.EmailRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.List;
+
+import static de.jjakobus.emailrestservice.EmailTestUtils.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+/**
+ * Tests the CRUD endpoints of the reactive variant of the REST service (WebFlux and R2DBC) in an integration-like test
+ * against a temporary database. Emails stored by the blocking variant (JPA) must be served the same way.
+ *
+ * @author jjakobus
+ */
+@Testcontainers(disabledWithoutDocker = true)
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
+@ActiveProfiles(ReactiveEmailRestServiceConfig.PROFILE)
+@TestPropertySource(properties = {
+    "email-rest-service.request-path=/emails-test", // Control request path for tests.
+    "spring.datasource.url=jdbc:tc:postgresql://localhost:5432/emails-test", // Use separate test database.
+    "spring.datasource.username=test",
+    "spring.datasource.password=test"
+})
+class ReactiveEmailRestServiceAppIT {
+
+  private static final String PATH = "/emails-test";
+
+  /**
+   * Postgres docker container for this integration test.
+   */
+  @Container
+  @ServiceConnection
+  @SuppressWarnings("resource") // Misleading warning about closable container when chaining with...() calls.
+  static PostgreSQLContainer<?> postgresContainer =
+      new PostgreSQLContainer<>("postgres:16.3-alpine")
+          .withDatabaseName("emails-test")
+          .withUsername("test")
+          .withPassword("test")
+          .withExposedPorts(5432);
+
+  /**
+   * Connects R2DBC to the same container as JDBC (not covered by service connection without R2DBC auto-configuration).
+   *
+   * @param registry registry of properties
+   */
+  @DynamicPropertySource
+  static void configureR2dbc(DynamicPropertyRegistry registry) {
+    registry.add("spring.r2dbc.url", () -> "r2dbc:postgresql://" + postgresContainer.getHost() + ":"
+        + postgresContainer.getMappedPort(5432) + "/" + postgresContainer.getDatabaseName());
+    registry.add("spring.r2dbc.username", postgresContainer::getUsername);
+    registry.add("spring.r2dbc.password", postgresContainer::getPassword);
+  }
+
+  /** Client to send test requests with. */
+  @Autowired
+  private WebTestClient webTestClient;
+
+  /** Repository of emails in database. */
+  @Autowired
+  private EmailRepository emailRepository;
+
+  /** Example email stored in repository. */
+  private Email storedEmail;
+
+  @BeforeEach
+  void prepareEmailsInDatabase() {
+    // Delete all data (if some were left).
+    emailRepository.deleteAll();
+
+    // Insert new test data (using JPA).
+    storedEmail = emailRepository.save(createExampleEmailEntity(42));
+  }
+
+  @Test
+  void shouldInsertAndQueryMails() {
+    // Given
+    InsertEmailDto newEmail = createExampleInsertEmail();
+
+    // When
+    EmailDto insertedEmail = webTestClient.post()
+        .uri(PATH + "/insert")
+        .bodyValue(newEmail)
+        .exchange()
+        .expectStatus().isCreated()
+        .expectBody(EmailDto.class)
+        .returnResult()
+        .getResponseBody();
+    List<EmailDto> queriedEmails = webTestClient.get()
+        .uri(PATH + "/query?bulk&ids={id1},{id2}", storedEmail.getId(), insertedEmail.id())
+        .exchange()
+        .expectStatus().isOk()
+        .expectBodyList(EmailDto.class)
+        .returnResult()
+        .getResponseBody();
+
+    // Then
+    assertThat(containsAllInformationFromInsertDto(insertedEmail, newEmail))
+        .as("Inserted email should contain all information of new email.")
+        .isTrue();
+    assertThat(queriedEmails)
+        .as("Emails stored by JPA and R2DBC should be found including receivers.")
+        .extracting(EmailDto::id)
+        .containsExactly(storedEmail.getId(), insertedEmail.id());
+    assertThat(queriedEmails.get(0).to())
+        .as("Receivers of email stored by JPA should be found.")
+        .hasSize(storedEmail.getTo().size());
+  }
+
+  @Test
+  void shouldNotReturnUnmodifiedMail() {
+    // Given
+    String eTag = webTestClient.get()
+        .uri(PATH + "/query?id={id}", storedEmail.getId())
+        .exchange()
+        .expectStatus().isOk()
+        .returnResult(EmailDto.class)
+        .getResponseHeaders()
+        .getETag();
+
+    // When & Then
+    webTestClient.get()
+        .uri(PATH + "/query?id={id}", storedEmail.getId())
+        .ifNoneMatch(eTag)
+        .exchange()
+        .expectStatus().isNotModified()
+        .expectBody().isEmpty();
+  }
+
+  @Test
+  void shouldUpdateMail() {
+    // Given
+    Email updatedEmail = createExampleEmailEntity(storedEmail.getId(), EmailState.SENT);
+
+    // When
+    webTestClient.put()
+        .uri(PATH + "/update/{id}", storedEmail.getId())
+        .bodyValue(updatedEmail.toDto())
+        .exchange()
+        .expectStatus().isOk();
+
+    // Then
+    webTestClient.get()
+        .uri(PATH + "/query?id={id}", storedEmail.getId())
+        .exchange()
+        .expectStatus().isOk()
+        .expectBody(EmailDto.class)
+        .value(email -> assertThat(email.state())
+            .as("Email should have updated state.")
+            .isEqualTo(EmailState.SENT));
+  }
+
+  @Test
+  void shouldNotUpdateMailIfNotAllowed() {
+    // Given
+    Email updatedEmail = createExampleEmailEntity(storedEmail.getId(), EmailState.SPAM);
+
+    // When & Then
+    webTestClient.put()
+        .uri(PATH + "/update/{id}", storedEmail.getId())
+        .bodyValue(updatedEmail.toDto())
+        .exchange()
+        .expectStatus().isBadRequest();
+  }
+
+  @Test
+  void shouldUpdateMailsBulk() {
+    // Given
+    long unknownId = 101;
+    List<EmailDto> updatedEmails = List.of(
+        createExampleEmailEntity(storedEmail.getId(), EmailState.SENT).toDto(),
+        createExampleEmail(unknownId));
+
+    // When & Then
+    webTestClient.put()
+        .uri(PATH + "/update?bulk")
+        .bodyValue(updatedEmails)
+        .exchange()
+        .expectStatus().isOk()
+        .expectBodyList(EmailUpdateResultDto.class)
+        .value(results -> assertThat(results)
+            .as("Outcome of every updated email should be returned in order.")
+            .extracting(EmailUpdateResultDto::id, EmailUpdateResultDto::status)
+            .containsExactly(
+                tuple(storedEmail.getId(), EmailUpdateStatus.UPDATED),
+                tuple(unknownId, EmailUpdateStatus.NOT_FOUND)));
+  }
+
+  @Test
+  void shouldUpdateMailState() {
+    // Given
+    long version = emailRepository.findById(storedEmail.getId()).orElseThrow().getVersion();
+
+    // When
+    webTestClient.patch()
+        .uri(PATH + "/update/{id}", storedEmail.getId())
+        .bodyValue(new EmailStateUpdateDto(EmailState.SENT))
+        .exchange()
+        .expectStatus().isOk()
+        .expectHeader().valueEquals(HttpHeaders.ETAG, "\"" + storedEmail.getId() + "-" + (version + 1) + "\"");
+
+    // Then
+    assertThat(emailRepository.findById(storedEmail.getId()))
+        .isPresent().get()
+        .as("Email should have updated state.")
+        .returns(EmailState.SENT, Email::getState);
+  }
+
+  @Test
+  void shouldDeleteMail() {
+    // Given
+    // When
+    webTestClient.delete()
+        .uri(PATH + "/delete/{id}", storedEmail.getId())
+        .exchange()
+        .expectStatus().isOk();
+
+    // Then
+    assertThat(emailRepository.findById(storedEmail.getId()))
+        .isPresent().get()
+        .as("Deleted email should have state DELETED.")
+        .returns(EmailState.DELETED, Email::getState);
+    webTestClient.delete()
+        .uri(PATH + "/delete/{id}", -1)
+        .exchange()
+        .expectStatus().isNotFound();
+  }
+}
@@ -3,10 +3,24 @@ package de.jjakobus.emailrestservice.controller;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.util.StdDateFormat;
+import de.jjakobus.emailrestservice.model.EmailState;
+import de.jjakobus.emailrestservice.model.EmailUpdateStatus;
+import de.jjakobus.emailrestservice.model.SpamFilterType;
+import de.jjakobus.emailrestservice.model.dtos.EmailCacheStatsDto;
 import de.jjakobus.emailrestservice.model.dtos.EmailDto;
+import de.jjakobus.emailrestservice.model.dtos.EmailFilterDto;
+import de.jjakobus.emailrestservice.model.dtos.EmailPageDto;
+import de.jjakobus.emailrestservice.model.dtos.EmailStateUpdateDto;
+import de.jjakobus.emailrestservice.model.dtos.EmailUpdateResultDto;
+import de.jjakobus.emailrestservice.model.dtos.ImportResultDto;
 import de.jjakobus.emailrestservice.model.dtos.InsertEmailDto;
+import de.jjakobus.emailrestservice.model.dtos.SpamFilterDto;
 import de.jjakobus.emailrestservice.model.exceptions.EmailNotFoundException;
 import de.jjakobus.emailrestservice.model.exceptions.EmailUpdateNotAllowedException;
+import de.jjakobus.emailrestservice.model.exceptions.EmailVersionConflictException;
+import de.jjakobus.emailrestservice.model.exceptions.InvalidCursorException;
+import de.jjakobus.emailrestservice.model.exceptions.InvalidSpamFilterException;
+import de.jjakobus.emailrestservice.model.exceptions.SpamFilterNotFoundException;
 import de.jjakobus.emailrestservice.service.EmailSpamFilterService;
 import de.jjakobus.emailrestservice.service.EmailStoreService;
 import org.junit.jupiter.api.Named;
@@ -18,6 +32,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
@@ -25,15 +40,22 @@ import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 
+import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 import static de.jjakobus.emailrestservice.EmailTestUtils.createExampleEmail;
 import static de.jjakobus.emailrestservice.EmailTestUtils.createExampleInsertEmail;
 import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 /**
@@ -51,7 +73,6 @@ class EmailRestServiceControllerTest {
 
   /** Mock of email spam filter service. */
   @MockBean
-  @SuppressWarnings("unused") // Service needs to exist for controller to be created.
   private EmailSpamFilterService emailSpamFilterService;
 
   @Autowired
@@ -126,6 +147,89 @@ class EmailRestServiceControllerTest {
     );
   }
 
+  @Test
+  void shouldHandleStreamingBulkInsertEmail() throws Exception {
+    // Given
+    InsertEmailDto newEmail = createExampleInsertEmail();
+    String newEmailsNdjson = toJson(newEmail) + "\n" + toJson(newEmail) + "\n";
+    EmailDto email1Dto = createExampleEmail(42);
+    EmailDto email2Dto = createExampleEmail(24);
+    String expectedEmailsNdjson = toJson(email1Dto) + "\n" + toJson(email2Dto) + "\n";
+
+    when(emailStore.saveEmails(any(Iterator.class), anyInt(), any()))
+        .thenAnswer(invocation -> {
+          // Consume (and skip) all streamed emails, pass stored emails to consumer chunk-wise.
+          Iterator<InsertEmailDto> newEmails = invocation.getArgument(0);
+          newEmails.forEachRemaining(email -> {
+          });
+          Consumer<List<EmailDto>> savedChunkConsumer = invocation.getArgument(2);
+          savedChunkConsumer.accept(List.of(email1Dto));
+          savedChunkConsumer.accept(List.of(email2Dto));
+          return 2L;
+        });
+
+    // When & Then
+    mockMvc.perform(MockMvcRequestBuilders
+            .post(prefixPath + "/insert")
+            .param("bulk", "true")
+            .contentType(MediaType.APPLICATION_NDJSON)
+            .content(newEmailsNdjson)
+            .accept(MediaType.APPLICATION_NDJSON))
+        .andExpect(status().isCreated())
+        .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON))
+        .andExpect(content().string(expectedEmailsNdjson));
+  }
+
+  @Test
+  void shouldHandleBulkImportEmail() throws Exception {
+    // Given
+    InsertEmailDto newEmail = createExampleInsertEmail();
+    String newEmailsNdjson = toJson(newEmail) + "\n" + toJson(newEmail) + "\n";
+    String expectedResultJson = toJson(new ImportResultDto(2));
+
+    when(emailStore.importEmails(any(Iterator.class), anyInt()))
+        .thenAnswer(invocation -> {
+          Iterator<InsertEmailDto> newEmails = invocation.getArgument(0);
+          long count = 0;
+          for (; newEmails.hasNext(); newEmails.next()) {
+            count++;
+          }
+          return count;
+        });
+
+    // When & Then
+    mockMvc.perform(MockMvcRequestBuilders
+            .post(prefixPath + "/insert")
+            .param("import", "true")
+            .contentType(MediaType.APPLICATION_NDJSON)
+            .content(newEmailsNdjson)
+            .accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isCreated())
+        .andExpect(content().json(expectedResultJson, true));
+  }
+
+  @Test
+  void shouldHandleMalformedBulkImportEmail() throws Exception {
+    // Given
+    String malformedEmailsNdjson = toJson(createExampleInsertEmail()) + "\n{\"state\":\"DRAFT\"}\n";
+
+    when(emailStore.importEmails(any(Iterator.class), anyInt()))
+        .thenAnswer(invocation -> {
+          Iterator<InsertEmailDto> newEmails = invocation.getArgument(0);
+          newEmails.forEachRemaining(email -> {
+          });
+          return 1L;
+        });
+
+    // When & Then
+    mockMvc.perform(MockMvcRequestBuilders
+            .post(prefixPath + "/insert")
+            .param("import", "true")
+            .contentType(MediaType.APPLICATION_NDJSON)
+            .content(malformedEmailsNdjson))
+        .andExpect(status().isBadRequest());
+  }
+
   @Test
   void shouldHandleQueryEmailById() throws Exception {
     // Given
@@ -142,7 +246,53 @@ class EmailRestServiceControllerTest {
             .param("id", String.valueOf(id))
             .accept(MediaType.APPLICATION_JSON_VALUE))
         .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.ETAG, "\"42-0\""))
         .andExpect(content().json(expectedEmailJson, true));
+    // Verify email is not looked up twice (by version) without If-None-Match.
+    verify(emailStore, never()).getEmailVersion(anyLong());
+  }
+
+  @Test
+  void shouldHandleQueryUnmodifiedEmailById() throws Exception {
+    // Given
+    long id = 42;
+
+    when(emailStore.getEmailVersion(id))
+        .thenReturn(3L);
+
+    // When & Then
+    mockMvc.perform(MockMvcRequestBuilders
+            .get(prefixPath + "/query")
+            .param("id", String.valueOf(id))
+            .header(HttpHeaders.IF_NONE_MATCH, "\"42-3\"")
+            .accept(MediaType.APPLICATION_JSON_VALUE))
+        .andExpect(status().isNotModified())
+        .andExpect(header().string(HttpHeaders.ETAG, "\"42-3\""))
+        .andExpect(content().string(""));
+    // Verify email itself is not read.
+    verify(emailStore, never()).getEmail(anyLong());
+  }
+
+  @Test
+  void shouldHandleQueryModifiedEmailById() throws Exception {
+    // Given
+    EmailDto exampleEmail = createExampleEmail(42);
+    long id = 42;
+
+    when(emailStore.getEmailVersion(id))
+        .thenReturn(exampleEmail.version());
+    when(emailStore.getEmail(id))
+        .thenReturn(exampleEmail);
+
+    // When & Then
+    mockMvc.perform(MockMvcRequestBuilders
+            .get(prefixPath + "/query")
+            .param("id", String.valueOf(id))
+            .header(HttpHeaders.IF_NONE_MATCH, "\"42-7\"")
+            .accept(MediaType.APPLICATION_JSON_VALUE))
+        .andExpect(status().isOk())
+        .andExpect(header().stringValues(HttpHeaders.ETAG, "\"42-0\""))
+        .andExpect(content().json(toJson(exampleEmail), true));
   }
 
   @Test
@@ -209,20 +359,160 @@ class EmailRestServiceControllerTest {
     );
   }
 
+  @Test
+  void shouldHandleListEmails() throws Exception {
+    // Given
+    EmailFilterDto expectedFilter = new EmailFilterDto(
+        List.of(EmailState.SENT, EmailState.SPAM),
+        "carl@gbtec.com",
+        new Date(0),
+        new Date(1000));
+    EmailPageDto expectedPage = new EmailPageDto(List.of(createExampleEmail(42)), "next");
+
+    when(emailStore.listEmails(expectedFilter, "cursor", 10))
+        .thenReturn(expectedPage);
+
+    // When & Then
+    mockMvc.perform(MockMvcRequestBuilders
+            .get(prefixPath + "/list")
+            .param("state", "SENT", "SPAM")
+            .param("from", "carl@gbtec.com")
+            .param("modifiedFrom", "1970-01-01T00:00:00.000Z")
+            .param("modifiedTo", "1970-01-01T00:00:01.000Z")
+            .param("cursor", "cursor")
+            .param("limit", "10")
+            .accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk())
+        .andExpect(content().json(toJson(expectedPage), true));
+  }
+
+  @Test
+  void shouldHandleListEmailsWithoutConditions() throws Exception {
+    // Given
+    EmailPageDto expectedPage = new EmailPageDto(List.of(createExampleEmail(42)), null);
+
+    when(emailStore.listEmails(EmailFilterDto.NONE, null, 50))
+        .thenReturn(expectedPage);
+
+    // When & Then
+    mockMvc.perform(MockMvcRequestBuilders
+            .get(prefixPath + "/list")
+            .accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk())
+        .andExpect(content().json(toJson(expectedPage), true));
+  }
+
+  @Test
+  void shouldHandleListEmailsWithInvalidCursor() throws Exception {
+    // Given
+    when(emailStore.listEmails(EmailFilterDto.NONE, "invalid", 50))
+        .thenThrow(new InvalidCursorException("invalid cursor"));
+
+    // When & Then
+    mockMvc.perform(MockMvcRequestBuilders
+            .get(prefixPath + "/list")
+            .param("cursor", "invalid"))
+        .andExpect(status().isBadRequest());
+  }
+
+  @Test
+  void shouldHandleListEmailsWithInvalidLimit() throws Exception {
+    // Given
+    // When & Then
+    mockMvc.perform(MockMvcRequestBuilders
+            .get(prefixPath + "/list")
+            .param("limit", "0"))
+        .andExpect(status().isBadRequest());
+    verifyNoInteractions(emailStore);
+  }
+
+  @Test
+  void shouldHandleQueryCacheStats() throws Exception {
+    // Given
+    EmailCacheStatsDto expectedStats = new EmailCacheStatsDto(10, 2, 1, 5, 4096);
+
+    when(emailStore.getCacheStats())
+        .thenReturn(expectedStats);
+
+    // When & Then
+    mockMvc.perform(MockMvcRequestBuilders
+            .get(prefixPath + "/cache/stats")
+            .accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk())
+        .andExpect(content().json(toJson(expectedStats), true));
+  }
+
   @Test
   void shouldHandleUpdateEmail() throws Exception {
     // Given
     EmailDto updatedEmail = createExampleEmail(42);
     long id = 42;
 
+    when(emailStore.updateEmail(id, updatedEmail, null))
+        .thenReturn(1L);
+
     // When & Then
     mockMvc.perform(MockMvcRequestBuilders
             .put(prefixPath + "/update/" + id)
             .contentType(MediaType.APPLICATION_JSON)
             .content(toJson(updatedEmail)))
-        .andExpect(status().isOk());
-    // Verify call to store's updateEmail(id, updatedEmail).
-    verify(emailStore).updateEmail(id, updatedEmail);
+        .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.ETAG, "\"42-1\""));
+    // Verify call to store's updateEmail(id, updatedEmail, null).
+    verify(emailStore).updateEmail(id, updatedEmail, null);
+  }
+
+  @Test
+  void shouldHandleUpdateEmailOfExpectedVersion() throws Exception {
+    // Given
+    EmailDto updatedEmail = createExampleEmail(42);
+    long id = 42;
+
+    when(emailStore.updateEmail(id, updatedEmail, 3L))
+        .thenReturn(4L);
+
+    // When & Then
+    mockMvc.perform(MockMvcRequestBuilders
+            .put(prefixPath + "/update/" + id)
+            .header(HttpHeaders.IF_MATCH, "\"42-3\"")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(toJson(updatedEmail)))
+        .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.ETAG, "\"42-4\""));
+  }
+
+  @Test
+  void shouldHandleConflictingUpdateEmail() throws Exception {
+    // Given
+    EmailDto updatedEmail = createExampleEmail(42);
+    long id = 42;
+
+    doThrow(EmailVersionConflictException.class)
+        .when(emailStore).updateEmail(id, updatedEmail, 3L);
+
+    // When & Then
+    mockMvc.perform(MockMvcRequestBuilders
+            .put(prefixPath + "/update/" + id)
+            .header(HttpHeaders.IF_MATCH, "\"42-3\"")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(toJson(updatedEmail)))
+        .andExpect(status().isConflict());
+  }
+
+  @Test
+  void shouldHandleUpdateEmailWithEntityTagOfOtherEmail() throws Exception {
+    // Given
+    EmailDto updatedEmail = createExampleEmail(42);
+    long id = 42;
+
+    // When & Then
+    mockMvc.perform(MockMvcRequestBuilders
+            .put(prefixPath + "/update/" + id)
+            .header(HttpHeaders.IF_MATCH, "\"23-3\"")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(toJson(updatedEmail)))
+        .andExpect(status().isBadRequest());
+    verifyNoInteractions(emailStore);
   }
 
   @Test
@@ -232,7 +522,7 @@ class EmailRestServiceControllerTest {
     long id = 42;
 
     doThrow(EmailUpdateNotAllowedException.class)
-        .when(emailStore).updateEmail(id, updatedEmail);
+        .when(emailStore).updateEmail(id, updatedEmail, null);
 
     // When & Then
     mockMvc.perform(MockMvcRequestBuilders
@@ -249,7 +539,7 @@ class EmailRestServiceControllerTest {
     long id = 23;
 
     doThrow(new EmailNotFoundException("no email with id"))
-        .when(emailStore).updateEmail(id, updatedEmail);
+        .when(emailStore).updateEmail(id, updatedEmail, null);
 
     // When & Then
     mockMvc.perform(MockMvcRequestBuilders
@@ -259,6 +549,85 @@ class EmailRestServiceControllerTest {
         .andExpect(status().isNotFound());
   }
 
+  @Test
+  void shouldHandleBulkUpdateEmail() throws Exception {
+    // Given
+    List<EmailDto> updatedEmails = List.of(
+        createExampleEmail(42),
+        createExampleEmail(12));
+
+    List<EmailUpdateResultDto> results = List.of(
+        new EmailUpdateResultDto(42, EmailUpdateStatus.UPDATED, 3L, null),
+        new EmailUpdateResultDto(12, EmailUpdateStatus.NOT_FOUND, null, "There is no email with id '12'."));
+    when(emailStore.updateEmails(updatedEmails))
+        .thenReturn(results);
+
+    // When & Then
+    mockMvc.perform(MockMvcRequestBuilders
+            .put(prefixPath + "/update")
+            .param("bulk", "true")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(toJson(updatedEmails)))
+        .andExpect(status().isOk())
+        .andExpect(content().json(toJson(results), true));
+  }
+
+  @Test
+  void shouldHandleUpdateEmailState() throws Exception {
+    // Given
+    long id = 42;
+
+    when(emailStore.updateEmailState(id, EmailState.SPAM, 3L))
+        .thenReturn(4L);
+
+    // When & Then
+    mockMvc.perform(MockMvcRequestBuilders
+            .patch(prefixPath + "/update/" + id)
+            .header(HttpHeaders.IF_MATCH, "\"42-3\"")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(toJson(new EmailStateUpdateDto(EmailState.SPAM))))
+        .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.ETAG, "\"42-4\""));
+  }
+
+  @Test
+  void shouldHandleNonAllowedUpdateEmailState() throws Exception {
+    // Given
+    long id = 42;
+
+    doThrow(EmailUpdateNotAllowedException.class)
+        .when(emailStore).updateEmailState(id, EmailState.DRAFT, null);
+
+    // When & Then
+    mockMvc.perform(MockMvcRequestBuilders
+            .patch(prefixPath + "/update/" + id)
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(toJson(new EmailStateUpdateDto(EmailState.DRAFT))))
+        .andExpect(status().isBadRequest());
+  }
+
+  @Test
+  void shouldHandleBulkUpdateEmailState() throws Exception {
+    // Given
+    List<Long> ids = List.of(42L, 12L);
+
+    MultiValueMap<String, String> idParams = new LinkedMultiValueMap<>();
+    idParams.addAll("ids", List.of("42", "12"));
+
+    when(emailStore.updateEmailStates(ids, EmailState.DELETED))
+        .thenReturn(List.of(42L));
+
+    // When & Then
+    mockMvc.perform(MockMvcRequestBuilders
+            .patch(prefixPath + "/update")
+            .param("bulk", "true")
+            .params(idParams)
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(toJson(new EmailStateUpdateDto(EmailState.DELETED))))
+        .andExpect(status().isOk())
+        .andExpect(content().json("[42]", true));
+  }
+
   @Test
   void shouldHandleDeleteEmail() throws Exception {
     // Given
@@ -304,6 +673,94 @@ class EmailRestServiceControllerTest {
     verify(emailStore).deleteEmails(ids);
   }
 
+  @Test
+  void shouldHandleQuerySpamFilters() throws Exception {
+    // Given
+    List<SpamFilterDto> filters = List.of(new SpamFilterDto(SpamFilterType.SENDER, "carl@gbtec.com"));
+
+    when(emailSpamFilterService.getFilters())
+        .thenReturn(filters);
+
+    // When & Then
+    mockMvc.perform(MockMvcRequestBuilders
+            .get(prefixPath + "/spam-filter/query")
+            .accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk())
+        .andExpect(content().json(toJson(filters), true));
+  }
+
+  @ParameterizedTest
+  @MethodSource("provideInsertSpamFilterParams")
+  void shouldHandleInsertSpamFilter(boolean added, int expectedStatus) throws Exception {
+    // Given
+    SpamFilterDto newFilter = new SpamFilterDto(SpamFilterType.SENDER, "carl@gbtec.com");
+
+    when(emailSpamFilterService.addFilter(newFilter))
+        .thenReturn(added);
+
+    // When & Then
+    mockMvc.perform(MockMvcRequestBuilders
+            .post(prefixPath + "/spam-filter/insert")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(toJson(newFilter)))
+        .andExpect(status().is(expectedStatus));
+  }
+
+  private static Stream<Arguments> provideInsertSpamFilterParams() {
+
+    return Stream.of(
+        Arguments.of(Named.of("New filter", true), 201),
+        Arguments.of(Named.of("Present filter", false), 200)
+    );
+  }
+
+  @Test
+  void shouldHandleInsertInvalidSpamFilter() throws Exception {
+    // Given
+    SpamFilterDto newFilter = new SpamFilterDto(SpamFilterType.DOMAIN, "carl@gbtec.com");
+
+    when(emailSpamFilterService.addFilter(newFilter))
+        .thenThrow(new InvalidSpamFilterException("invalid filter"));
+
+    // When & Then
+    mockMvc.perform(MockMvcRequestBuilders
+            .post(prefixPath + "/spam-filter/insert")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(toJson(newFilter)))
+        .andExpect(status().isBadRequest());
+  }
+
+  @Test
+  void shouldHandleDeleteSpamFilter() throws Exception {
+    // Given
+    SpamFilterDto filter = new SpamFilterDto(SpamFilterType.SENDER, "carl@gbtec.com");
+
+    // When & Then
+    mockMvc.perform(MockMvcRequestBuilders
+            .delete(prefixPath + "/spam-filter/delete")
+            .param("type", "SENDER")
+            .param("value", "carl@gbtec.com"))
+        .andExpect(status().isOk());
+    // Verify call to spam service's removeFilter(filter).
+    verify(emailSpamFilterService).removeFilter(filter);
+  }
+
+  @Test
+  void shouldHandleDeleteNonExistingSpamFilter() throws Exception {
+    // Given
+    SpamFilterDto filter = new SpamFilterDto(SpamFilterType.SENDER, "carl@gbtec.com");
+
+    doThrow(new SpamFilterNotFoundException("no such filter"))
+        .when(emailSpamFilterService).removeFilter(filter);
+
+    // When & Then
+    mockMvc.perform(MockMvcRequestBuilders
+            .delete(prefixPath + "/spam-filter/delete")
+            .param("type", "SENDER")
+            .param("value", "carl@gbtec.com"))
+        .andExpect(status().isNotFound());
+  }
+
   @ParameterizedTest
   @MethodSource("provideMissingInputRequests")
   void shouldHandleMissingInput(String requestPath, HttpMethod httpMethod) throws Exception {
@@ -324,8 +781,11 @@ class EmailRestServiceControllerTest {
         Arguments.of("/query", HttpMethod.GET),
         Arguments.of("/query?bulk", HttpMethod.GET),
         Arguments.of("/update/0", HttpMethod.PUT),
+        Arguments.of("/update?bulk", HttpMethod.PUT),
         Arguments.of("/delete", HttpMethod.DELETE),
-        Arguments.of("/delete?bulk", HttpMethod.DELETE)
+        Arguments.of("/delete?bulk", HttpMethod.DELETE),
+        Arguments.of("/spam-filter/insert", HttpMethod.POST),
+        Arguments.of("/spam-filter/delete", HttpMethod.DELETE)
     );
   }
 
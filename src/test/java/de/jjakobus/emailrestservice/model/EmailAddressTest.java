@@ -6,7 +6,7 @@ import org.junit.jupiter.api.Test;
 import static org.assertj.core.api.Assertions.assertThat;
 
 /**
- * Tests mapping functionality of {@link EmailAddress} entity.
+ * Tests mapping and comparing functionality of {@link EmailAddress} entity.
  *
  * @author jjakobus
  */
@@ -41,4 +41,23 @@ class EmailAddressTest {
         .as("Mapped DTO should contain all information from entity.")
         .isEqualTo(expectedDto);
   }
+
+  @Test
+  void shouldHaveSameContentAsDtoOfSameInformation() {
+    // Given
+    EmailAddress entity = new EmailAddress("sample.address@domain.de", null);
+
+    // When
+    boolean sameContent = entity.hasSameContent(new EmailAddressDto("sample.address@domain.de", null));
+    boolean sameContentAsOtherDisplayName =
+        entity.hasSameContent(new EmailAddressDto("sample.address@domain.de", "Sample Address"));
+
+    // Then
+    assertThat(sameContent)
+        .as("DTO of same address and display name should have same content.")
+        .isTrue();
+    assertThat(sameContentAsOtherDisplayName)
+        .as("DTO of other display name should not have same content.")
+        .isFalse();
+  }
 }
@@ -4,13 +4,14 @@ import de.jjakobus.emailrestservice.model.dtos.EmailAddressDto;
 import de.jjakobus.emailrestservice.model.dtos.EmailDto;
 import org.junit.jupiter.api.Test;
 
+import java.sql.Timestamp;
 import java.util.Date;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
 /**
- * Tests mapping functionality of {@link Email} entity.
+ * Tests mapping and comparing functionality of {@link Email} entity.
  *
  * @author jjakobus
  */
@@ -36,7 +37,8 @@ class EmailTest {
         List.of(getExampleAddressDto(), getExampleAddressDto()),
         "Subject string",
         "Body string",
-        date);
+        date,
+        entity.getVersion());
 
     // When
     EmailDto mappedDto = entity.toDto();
@@ -67,7 +69,8 @@ class EmailTest {
         List.of(),
         "",
         "",
-        date);
+        date,
+        entity.getVersion());
 
     // When
     EmailDto mappedDto = entity.toDto();
@@ -78,6 +81,71 @@ class EmailTest {
         .isEqualTo(expectedDto);
   }
 
+  @Test
+  void shouldHaveSameContentAsDtoOfOtherStateAndVersion() {
+    // Given
+    Date date = new Date();
+    Email entity = new Email(
+        EmailState.SENT,
+        getExampleAddress(),
+        List.of(getExampleAddress()),
+        List.of(getExampleAddress(), getExampleAddress()),
+        "Subject string",
+        "Body string",
+        // Loaded by JPA as timestamp.
+        new Timestamp(date.getTime()));
+    EmailDto dto = new EmailDto(
+        entity.getId(),
+        EmailState.SPAM,
+        getExampleAddressDto(),
+        List.of(getExampleAddressDto()),
+        List.of(getExampleAddressDto(), getExampleAddressDto()),
+        "Subject string",
+        "Body string",
+        date,
+        entity.getVersion() + 1);
+
+    // When
+    boolean sameContent = entity.hasSameContent(dto);
+
+    // Then
+    assertThat(sameContent)
+        .as("Emails should have same content regardless of state, version and type of date.")
+        .isTrue();
+  }
+
+  @Test
+  void shouldNotHaveSameContentAsDtoOfOtherReceivers() {
+    // Given
+    Date date = new Date();
+    Email entity = new Email(
+        EmailState.SENT,
+        getExampleAddress(),
+        List.of(getExampleAddress()),
+        List.of(),
+        "Subject string",
+        "Body string",
+        date);
+    EmailDto dto = new EmailDto(
+        entity.getId(),
+        EmailState.SENT,
+        getExampleAddressDto(),
+        List.of(getExampleAddressDto(), getExampleAddressDto()),
+        List.of(),
+        "Subject string",
+        "Body string",
+        date,
+        entity.getVersion());
+
+    // When
+    boolean sameContent = entity.hasSameContent(dto);
+
+    // Then
+    assertThat(sameContent)
+        .as("Emails of other receivers should not have same content.")
+        .isFalse();
+  }
+
   private static EmailAddress getExampleAddress() {
     return new EmailAddress(
         "sample.address@domain.de",
@@ -0,0 +1,93 @@
+package de.jjakobus.emailrestservice.model.dtos;
+
+import de.jjakobus.emailrestservice.model.EmailState;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests comparing functionality of {@link EmailDto}.
+ *
+ * @author jjakobus
+ */
+class EmailDtoTest {
+
+  @Test
+  void shouldHaveSameContentIgnoringStateAndVersion() {
+    // Given
+    Date date = new Date();
+    EmailDto storedEmail = new EmailDto(
+        42,
+        EmailState.SENT,
+        getExampleAddressDto(),
+        List.of(getExampleAddressDto()),
+        List.of(getExampleAddressDto(), getExampleAddressDto()),
+        "Subject string",
+        "Body string",
+        // Read from database as timestamp.
+        new Timestamp(date.getTime()),
+        3);
+    EmailDto updatedEmail = new EmailDto(
+        42,
+        EmailState.SPAM,
+        getExampleAddressDto(),
+        List.of(getExampleAddressDto()),
+        List.of(getExampleAddressDto(), getExampleAddressDto()),
+        "Subject string",
+        "Body string",
+        date,
+        0);
+
+    // When
+    boolean sameContent = storedEmail.hasSameContent(updatedEmail);
+
+    // Then
+    assertThat(sameContent)
+        .as("Emails should have same content regardless of state, version and type of date.")
+        .isTrue();
+  }
+
+  @Test
+  void shouldNotHaveSameContentOfOtherReceivers() {
+    // Given
+    Date date = new Date();
+    EmailDto storedEmail = new EmailDto(
+        42,
+        EmailState.SENT,
+        getExampleAddressDto(),
+        List.of(getExampleAddressDto()),
+        List.of(),
+        "Subject string",
+        "Body string",
+        date,
+        0);
+    EmailDto updatedEmail = new EmailDto(
+        42,
+        EmailState.SENT,
+        getExampleAddressDto(),
+        List.of(getExampleAddressDto(), getExampleAddressDto()),
+        List.of(),
+        "Subject string",
+        "Body string",
+        date,
+        0);
+
+    // When
+    boolean sameContent = storedEmail.hasSameContent(updatedEmail);
+
+    // Then
+    assertThat(sameContent)
+        .as("Emails of other receivers should not have same content.")
+        .isFalse();
+  }
+
+  private static EmailAddressDto getExampleAddressDto() {
+    return new EmailAddressDto(
+        "sample.address@domain.de",
+        "Sample Address");
+  }
+}
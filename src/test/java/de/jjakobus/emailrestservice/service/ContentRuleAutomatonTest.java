@@ -0,0 +1,115 @@
+package de.jjakobus.emailrestservice.service;
+
+import org.junit.jupiter.api.Named;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+/**
+ * Tests matching texts against content rules.
+ *
+ * @author jjakobus
+ */
+class ContentRuleAutomatonTest {
+
+  private static final ContentRuleAutomaton AUTOMATON = ContentRuleAutomaton.of(List.of(
+      "cheap pills",
+      "Lottery",
+      "she",
+      "hers",
+      "Löwenzahn"));
+
+  @ParameterizedTest
+  @MethodSource("provideTextMatches")
+  void shouldMatchTexts(String text, boolean expectedMatch) {
+    // Given
+    // When
+    boolean actualMatch = AUTOMATON.matches(text);
+
+    // Then
+    assertThat(actualMatch)
+        .as("Text '%s' should be matched: %s.", text, expectedMatch)
+        .isEqualTo(expectedMatch);
+  }
+
+  private static Stream<Arguments> provideTextMatches() {
+
+    return Stream.of(
+        Arguments.of(Named.of("Phrase in text", "Buy cheap pills now!"), true),
+        Arguments.of(Named.of("Phrase in text (different case)", "Buy CHEAP Pills now!"), true),
+        Arguments.of(Named.of("Phrase is text", "lottery"), true),
+        Arguments.of(Named.of("Phrase at end of text", "You won the LOTTERY"), true),
+        Arguments.of(Named.of("Phrase with non-ASCII characters", "Planung LÖWENZAHN"), true),
+        Arguments.of(Named.of("Phrase found via failure link", "ushers"), true),
+        Arguments.of(Named.of("Phrase found after partial match", "cheap cheap pills"), true),
+        Arguments.of(Named.of("Partial phrase only", "Buy cheap pi"), false),
+        Arguments.of(Named.of("Phrase interrupted", "cheap  pills"), false),
+        Arguments.of(Named.of("Unrelated text", "Planung neuer Sendung"), false),
+        Arguments.of(Named.of("Empty text", ""), false)
+    );
+  }
+
+  @Test
+  void shouldMatchLikeNaiveSearch() {
+    // Given
+    Random random = new Random(42);
+    List<String> phrases = IntStream.range(0, 500)
+        .mapToObj(i -> randomText(random, 2 + random.nextInt(4)))
+        .toList();
+    ContentRuleAutomaton automaton = ContentRuleAutomaton.of(phrases);
+
+    // When & Then
+    for (int i = 0; i < 2_000; i++) {
+      String text = randomText(random, random.nextInt(40));
+      boolean expectedMatch = phrases.stream().anyMatch(text::contains);
+
+      assertThat(automaton.matches(text))
+          .as("Text '%s' should be matched like naive search: %s.", text, expectedMatch)
+          .isEqualTo(expectedMatch);
+    }
+  }
+
+  @Test
+  void shouldNotMatchAnythingIfEmpty() {
+    // Given
+    // When & Then
+    assertThat(ContentRuleAutomaton.EMPTY.matches("cheap pills"))
+        .as("Empty automaton should not match any text.")
+        .isFalse();
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"", " ", "\t\n"})
+  void shouldRejectBlankRules(String rule) {
+    // Given
+    // When & Then
+    assertThatIllegalArgumentException()
+        .as("Blank rule should be invalid.")
+        .isThrownBy(() -> ContentRuleAutomaton.normalizeRule(rule));
+  }
+
+  /**
+   * Creates a random text of given length over a small alphabet, so phrases are found frequently.
+   *
+   * @param random random to use
+   * @param length length of text
+   * @return random text
+   */
+  private static String randomText(Random random, int length) {
+    StringBuilder text = new StringBuilder(length);
+    for (int i = 0; i < length; i++) {
+      text.append("abc".charAt(random.nextInt(3)));
+    }
+    return text.toString();
+  }
+}
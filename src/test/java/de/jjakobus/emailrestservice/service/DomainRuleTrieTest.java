@@ -0,0 +1,113 @@
+package de.jjakobus.emailrestservice.service;
+
+import org.junit.jupiter.api.Named;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+/**
+ * Tests matching domains against domain rules.
+ *
+ * @author jjakobus
+ */
+class DomainRuleTrieTest {
+
+  private static final DomainRuleTrie TRIE = DomainRuleTrie.of(List.of(
+      "spam.example",
+      "*@Other-Spam.example",
+      "*.bulkmailer.net"));
+
+  @ParameterizedTest
+  @MethodSource("provideDomainMatches")
+  void shouldMatchDomains(String domain, boolean expectedMatch) {
+    // Given
+    // When
+    boolean actualMatch = TRIE.matches(domain);
+
+    // Then
+    assertThat(actualMatch)
+        .as("Domain '%s' should be matched: %s.", domain, expectedMatch)
+        .isEqualTo(expectedMatch);
+  }
+
+  private static Stream<Arguments> provideDomainMatches() {
+
+    return Stream.of(
+        Arguments.of(Named.of("Exact domain", "spam.example"), true),
+        Arguments.of(Named.of("Exact domain (different case)", "SPAM.Example"), true),
+        Arguments.of(Named.of("Exact domain (rule with address prefix)", "other-spam.example"), true),
+        Arguments.of(Named.of("Subdomain of exact domain", "mail.spam.example"), false),
+        Arguments.of(Named.of("Parent of exact domain", "example"), false),
+        Arguments.of(Named.of("Subdomain of wildcard domain", "eu.bulkmailer.net"), true),
+        Arguments.of(Named.of("Deep subdomain of wildcard domain", "a.b.c.bulkmailer.net"), true),
+        Arguments.of(Named.of("Wildcard domain itself", "bulkmailer.net"), false),
+        Arguments.of(Named.of("Domain with same suffix", "nobulkmailer.net"), false),
+        Arguments.of(Named.of("Unrelated domain", "gmx.de"), false),
+        Arguments.of(Named.of("Empty domain", ""), false)
+    );
+  }
+
+  @Test
+  void shouldMatchSenderAddresses() {
+    // Given
+    // When & Then
+    assertThat(TRIE.matchesAddress("carl@spam.example"))
+        .as("Address of matched domain should be matched.")
+        .isTrue();
+    assertThat(TRIE.matchesAddress("spam.example@gmx.de"))
+        .as("Address with matched domain in local part only should not be matched.")
+        .isFalse();
+    assertThat(DomainRuleTrie.EMPTY.matchesAddress("carl@spam.example"))
+        .as("Empty trie should not match any address.")
+        .isFalse();
+  }
+
+  @Test
+  void shouldMatchAmongManyRules() {
+    // Given
+    DomainRuleTrie trie = DomainRuleTrie.of(IntStream.range(0, 100_000)
+        .mapToObj(i -> "*.sender" + i + ".example")
+        .toList());
+
+    // When & Then
+    assertThat(trie.size())
+        .as("Trie should contain all rules.")
+        .isEqualTo(100_000);
+    assertThat(trie.matches("mail.sender99999.example"))
+        .as("Subdomain of last rule should be matched.")
+        .isTrue();
+    assertThat(trie.matches("mail.sender100000.example"))
+        .as("Subdomain of other domain should not be matched.")
+        .isFalse();
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"", "*.", "*@", ".spam.example", "spam.example.", "spam..example", "carl@spam.example",
+      "*.*.spam.example"})
+  void shouldRejectInvalidRules(String rule) {
+    // Given
+    // When & Then
+    assertThatIllegalArgumentException()
+        .as("Rule '%s' should be invalid.", rule)
+        .isThrownBy(() -> DomainRuleTrie.normalizeRule(rule));
+  }
+
+  @Test
+  void shouldNormalizeRules() {
+    // Given
+    // When & Then
+    assertThat(List.of("*@Spam.Example", " *.BulkMailer.net "))
+        .as("Rules should be normalized to lower case without address prefix.")
+        .map(DomainRuleTrie::normalizeRule)
+        .containsExactly("spam.example", "*.bulkmailer.net");
+  }
+}
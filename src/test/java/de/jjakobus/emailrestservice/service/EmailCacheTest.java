@@ -0,0 +1,116 @@
+package de.jjakobus.emailrestservice.service;
+
+import de.jjakobus.emailrestservice.EmailTestUtils;
+import de.jjakobus.emailrestservice.model.dtos.EmailCacheStatsDto;
+import de.jjakobus.emailrestservice.model.dtos.EmailDto;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.unit.DataSize;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.LongStream;
+
+import static de.jjakobus.emailrestservice.EmailTestUtils.createExampleEmail;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests caching and invalidation of emails by {@link EmailCache}.
+ *
+ * @author jjakobus
+ */
+class EmailCacheTest {
+
+  private EmailCache emailCache;
+
+  @BeforeEach
+  void createCacheUnderTest() {
+    emailCache = new EmailCache(DataSize.ofMegabytes(1));
+  }
+
+  @Test
+  void shouldGetPutEmails() {
+    // Given
+    emailCache.putAll(List.of(createExampleEmail(42), createExampleEmail(43)), emailCache.getReadToken());
+
+    // When
+    Optional<EmailDto> cachedEmail = emailCache.get(42);
+    Map<Long, EmailDto> cachedEmails = emailCache.getAll(List.of(42L, 43L, 44L));
+
+    // Then
+    assertThat(cachedEmail)
+        .as("Put email should be cached.")
+        .contains(createExampleEmail(42));
+    assertThat(cachedEmails)
+        .as("Only put emails should be cached.")
+        .containsOnlyKeys(42L, 43L);
+    assertThat(emailCache.getStats())
+        .as("Statistics should count lookups and cached emails.")
+        .returns(3L, EmailCacheStatsDto::hitCount)
+        .returns(1L, EmailCacheStatsDto::missCount)
+        .returns(2L, EmailCacheStatsDto::size)
+        .extracting(EmailCacheStatsDto::weight)
+        .as("Weight should be estimated from content of emails.")
+        .matches(weight -> weight > 2L * createExampleEmail(42).body().length());
+  }
+
+  @Test
+  void shouldNotPutEmailsReadBeforeInvalidation() {
+    // Given
+    long readToken = emailCache.getReadToken();
+    emailCache.invalidate(List.of(42L));
+
+    // When
+    emailCache.putAll(List.of(createExampleEmail(42)), readToken);
+
+    // Then
+    assertThat(emailCache.get(42))
+        .as("Email read before invalidation might be outdated, so should not be cached.")
+        .isEmpty();
+  }
+
+  @Test
+  void shouldInvalidateEmailsAfterCommit() {
+    // Given
+    emailCache.putAll(List.of(createExampleEmail(42)), emailCache.getReadToken());
+
+    TransactionSynchronizationManager.initSynchronization();
+    try {
+      // When
+      emailCache.invalidate(List.of(42L));
+
+      // Then
+      assertThat(emailCache.get(42))
+          .as("Email should be cached until transaction is committed.")
+          .isPresent();
+
+      TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+      assertThat(emailCache.get(42))
+          .as("Email should be invalidated after commit.")
+          .isEmpty();
+
+    } finally {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+  }
+
+  @Test
+  void shouldInvalidateIdRange() {
+    // Given
+    List<EmailDto> emails = LongStream.rangeClosed(1, 5)
+        .mapToObj(EmailTestUtils::createExampleEmail)
+        .toList();
+    emailCache.putAll(emails, emailCache.getReadToken());
+
+    // When
+    emailCache.invalidateIdRange(1, 3);
+
+    // Then
+    assertThat(emailCache.getAll(List.of(1L, 2L, 3L, 4L, 5L)))
+        .as("Only emails with ids in range (exclusive lower, inclusive upper bound) should be invalidated.")
+        .containsOnlyKeys(1L, 4L, 5L);
+  }
+}
@@ -0,0 +1,152 @@
+package de.jjakobus.emailrestservice.service;
+
+import de.jjakobus.emailrestservice.EmailTestUtils;
+import de.jjakobus.emailrestservice.model.dtos.EmailDto;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.util.unit.DataSize;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests publishing and handling of notifications about changed emails and SPAM filters by {@link EmailChangeBus}.
+ *
+ * @author jjakobus
+ */
+@ExtendWith(MockitoExtension.class)
+class EmailChangeBusTest {
+
+  @Mock
+  private SpamFilterRegistry spamFilterRegistry;
+
+  @Mock
+  private JdbcTemplate jdbcTemplate;
+
+  @Mock
+  private DataSource dataSource;
+
+  private EmailCache emailCache;
+
+  private EmailChangeBus emailChangeBus;
+
+  @BeforeEach
+  void createBusUnderTest() {
+    emailCache = new EmailCache(DataSize.ofMegabytes(1));
+    List<EmailDto> cachedEmails = LongStream.rangeClosed(1, 5)
+        .mapToObj(EmailTestUtils::createExampleEmail)
+        .toList();
+    emailCache.putAll(cachedEmails, emailCache.getReadToken());
+
+    emailChangeBus = new EmailChangeBus(emailCache, spamFilterRegistry, jdbcTemplate, dataSource);
+  }
+
+  @Test
+  void shouldPublishChangedIds() {
+    // Given
+    // When
+    emailChangeBus.publishChanged(List.of(2L, 4L));
+
+    // Then
+    verify(jdbcTemplate).queryForList(anyString(), eq(EmailChangeBus.CHANNEL), eq("ids:2,4"));
+    assertThat(emailCache.getAll(List.of(1L, 2L, 3L, 4L, 5L)))
+        .as("Changed emails should be invalidated locally.")
+        .containsOnlyKeys(1L, 3L, 5L);
+  }
+
+  @Test
+  void shouldPublishManyChangedIdsAsRange() {
+    // Given
+    List<Long> changedIds = LongStream.rangeClosed(3, EmailChangeBus.MAX_IDS_PER_NOTIFICATION + 3).boxed().toList();
+
+    // When
+    emailChangeBus.publishChanged(changedIds);
+
+    // Then
+    verify(jdbcTemplate).queryForList(anyString(), eq(EmailChangeBus.CHANNEL),
+        eq("range:2," + (EmailChangeBus.MAX_IDS_PER_NOTIFICATION + 3)));
+    assertThat(emailCache.getAll(List.of(1L, 2L, 3L, 4L, 5L)))
+        .as("All emails in range of changed ids should be invalidated locally.")
+        .containsOnlyKeys(1L, 2L);
+  }
+
+  @Test
+  void shouldNotPublishNoChangedIds() {
+    // Given
+    // When
+    emailChangeBus.publishChanged(List.of());
+
+    // Then
+    verifyNoInteractions(jdbcTemplate);
+  }
+
+  @Test
+  void shouldInvalidateIdsOfNotification() {
+    // Given
+    // When
+    emailChangeBus.handleNotification("ids:1,5");
+
+    // Then
+    assertThat(emailCache.getAll(List.of(1L, 2L, 3L, 4L, 5L)))
+        .as("Emails changed by other instance should be invalidated.")
+        .containsOnlyKeys(2L, 3L, 4L);
+  }
+
+  @Test
+  void shouldInvalidateIdRangeOfNotification() {
+    // Given
+    // When
+    emailChangeBus.handleNotification("range:1,3");
+
+    // Then
+    assertThat(emailCache.getAll(List.of(1L, 2L, 3L, 4L, 5L)))
+        .as("Emails in range changed by other instance should be invalidated.")
+        .containsOnlyKeys(1L, 4L, 5L);
+  }
+
+  @Test
+  void shouldPublishChangedSpamFilters() {
+    // Given
+    // When
+    emailChangeBus.publishSpamFiltersChanged();
+
+    // Then
+    verify(jdbcTemplate).queryForList(anyString(), eq(EmailChangeBus.CHANNEL), eq("spam-filters"));
+  }
+
+  @Test
+  void shouldReloadSpamFiltersOnNotification() {
+    // Given
+    // When
+    emailChangeBus.handleNotification("spam-filters");
+
+    // Then
+    verify(spamFilterRegistry).reload();
+    assertThat(emailCache.getAll(List.of(1L, 2L, 3L, 4L, 5L)))
+        .as("No email should be invalidated by changed SPAM filters.")
+        .hasSize(5);
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"", "unknown:1", "ids:one", "range:1"})
+  void shouldIgnoreMalformedNotification(String payload) {
+    // Given
+    // When
+    emailChangeBus.handleNotification(payload);
+
+    // Then
+    assertThat(emailCache.getAll(List.of(1L, 2L, 3L, 4L, 5L)))
+        .as("No email should be invalidated by malformed notification.")
+        .hasSize(5);
+  }
+}
@@ -1,22 +1,46 @@
 package de.jjakobus.emailrestservice.service;
 
 import de.jjakobus.emailrestservice.model.Email;
+import de.jjakobus.emailrestservice.model.EmailAddress;
 import de.jjakobus.emailrestservice.model.EmailState;
+import de.jjakobus.emailrestservice.model.SpamFilterType;
+import de.jjakobus.emailrestservice.model.SpamFilterWatermark;
+import de.jjakobus.emailrestservice.model.dtos.SpamFilterDto;
+import de.jjakobus.emailrestservice.model.exceptions.InvalidSpamFilterException;
+import de.jjakobus.emailrestservice.model.exceptions.SpamFilterNotFoundException;
+import de.jjakobus.emailrestservice.service.repositories.EmailJdbcRepository;
 import de.jjakobus.emailrestservice.service.repositories.EmailRepository;
+import de.jjakobus.emailrestservice.service.repositories.SpamFilterRangeRepository;
+import de.jjakobus.emailrestservice.service.repositories.SpamFilterRangeRepository.IdRange;
+import de.jjakobus.emailrestservice.service.repositories.SpamFilterWatermarkRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.AdditionalAnswers;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.transaction.support.TransactionOperations;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.BiPredicate;
+import java.util.stream.Stream;
 
 import static de.jjakobus.emailrestservice.EmailTestUtils.createExampleEmailEntity;
-import static java.util.Collections.emptyList;
+import static de.jjakobus.emailrestservice.service.EmailSpamFilterService.DEFAULT_FILTERS;
+import static de.jjakobus.emailrestservice.service.EmailSpamFilterService.DEFAULT_FILTERS_MARKER_NAME;
+import static de.jjakobus.emailrestservice.service.EmailSpamFilterService.WATERMARK_NAME;
 import static org.assertj.core.api.Assertions.assertThat;
-import static org.mockito.Mockito.verify;
-import static org.mockito.Mockito.when;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.assertThatNoException;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
 
 /**
  * Tests the functionality of the spam filter task.
@@ -26,63 +50,372 @@ import static org.mockito.Mockito.when;
 @ExtendWith(MockitoExtension.class)
 class EmailSpamFilterServiceTest {
 
+  /** Number of ids covered by a single update statement in tests. */
+  private static final long ID_RANGE_SIZE = 20;
+
   @Mock
   private EmailRepository emailRepository;
 
+  @Mock
+  private EmailJdbcRepository emailJdbcRepository;
+
+  @Mock
+  private SpamFilterWatermarkRepository watermarkRepository;
+
+  @Mock
+  private SpamFilterRangeRepository spamFilterRangeRepository;
+
+  @Mock
+  private SpamFilterRegistry spamFilterRegistry;
+
+  @Mock
+  private EmailChangeBus emailChangeBus;
+
   private EmailSpamFilterService emailSpamFilterService;
 
   @BeforeEach
   void createServiceUnderTest() {
-    emailSpamFilterService = new EmailSpamFilterService(emailRepository);
+    emailSpamFilterService = new EmailSpamFilterService(
+        emailRepository, emailJdbcRepository, watermarkRepository, spamFilterRangeRepository,
+        TransactionOperations.withoutTransaction(), spamFilterRegistry, emailChangeBus, ID_RANGE_SIZE);
   }
 
   @Test
   void shouldMarkMatchingEmailsAsSpam() {
     // Given
-    Email matchingEmail1 = createExampleEmailEntity(0, EmailState.SENT);
-    Email matchingEmail2 = createExampleEmailEntity(1, EmailState.SENT);
-    matchingEmail2.getFrom().setAddress("matching2@domain.de");
+    givenFilteredSenders("matching1@domain.de", "matching2@domain.de");
+
+    givenClaimedIdRanges(new IdRange(0, 15));
+
+    @SuppressWarnings("unchecked") // Cannot create captor with generic type of collection.
+    ArgumentCaptor<Collection<String>> addressesCaptor = ArgumentCaptor.forClass(Collection.class);
+    when(emailJdbcRepository.transitionStateBySendersInIdRange(addressesCaptor.capture(), eq(EmailState.SENT),
+        eq(EmailState.SPAM), eq(0L), eq(15L)))
+        .thenReturn(2);
+
+    // When
+    emailSpamFilterService.classifySpamEmails();
+
+    // Then
+    assertThat(addressesCaptor.getValue())
+        .as("All filter addresses should be looked for.")
+        .containsExactlyInAnyOrder("matching1@domain.de", "matching2@domain.de");
+    // Verify classified emails are published as changed.
+    verify(emailChangeBus).publishChangedIdRange(0L, 15L);
+  }
+
+  @Test
+  void shouldMarkMatchingEmailsAsSpamRangeWise() {
+    // Given
+    givenFilteredSenders("matching@domain.de");
+    givenClaimedIdRanges(new IdRange(0, 20), new IdRange(20, 40), new IdRange(40, 42));
+
+    // When
+    emailSpamFilterService.classifySpamEmails();
+
+    // Then
+    // Verify every claimed range has been covered by exactly one update statement.
+    verify(emailJdbcRepository).transitionStateBySendersInIdRange(
+        anyCollection(), eq(EmailState.SENT), eq(EmailState.SPAM), eq(0L), eq(20L));
+    verify(emailJdbcRepository).transitionStateBySendersInIdRange(
+        anyCollection(), eq(EmailState.SENT), eq(EmailState.SPAM), eq(20L), eq(40L));
+    verify(emailJdbcRepository).transitionStateBySendersInIdRange(
+        anyCollection(), eq(EmailState.SENT), eq(EmailState.SPAM), eq(40L), eq(42L));
+    verifyNoMoreInteractions(emailJdbcRepository);
+    // Verify no change is published, as no email has been classified.
+    verifyNoInteractions(emailChangeBus);
+  }
+
+  @Test
+  void shouldMarkEmailsOfMatchingDomainsAsSpam() {
+    // Given
+    when(spamFilterRegistry.getSnapshot())
+        .thenReturn(new SpamFilterSnapshot(List.of(new SpamFilterDto(SpamFilterType.DOMAIN, "*.bulkmailer.net"))));
+    givenClaimedIdRanges(new IdRange(0, 15));
+    when(emailJdbcRepository.findSenderDomainsInIdRange(EmailState.SENT, 0L, 15L))
+        .thenReturn(List.of("gmx.de", "eu.bulkmailer.net", "bulkmailer.net"));
 
-    Email nonMatchingStateDeleted = createExampleEmailEntity(2, EmailState.DELETED);
-    Email nonMatchingStateDraft = createExampleEmailEntity(3, EmailState.DRAFT);
-    Email nonMatchingStateSpam = createExampleEmailEntity(4, EmailState.SPAM);
+    // When
+    emailSpamFilterService.classifySpamEmails();
+
+    // Then
+    // Verify only matching domains have been updated and no sender filter statement has been issued.
+    verify(emailJdbcRepository).transitionStateBySenderDomainsInIdRange(
+        List.of("eu.bulkmailer.net"), EmailState.SENT, EmailState.SPAM, 0L, 15L);
+    verify(emailJdbcRepository, never()).transitionStateBySendersInIdRange(
+        anyCollection(), any(), any(), anyLong(), anyLong());
+  }
 
-    Email expectedSpamEmail1 = createExampleEmailEntity(0, EmailState.SPAM);
-    Email expectedSpamEmail2 = createExampleEmailEntity(1, EmailState.SPAM);
-    expectedSpamEmail2.getFrom().setAddress("matching2@domain.de");
+  @Test
+  void shouldNormalizeDomainFilter() throws InvalidSpamFilterException {
+    // Given
+    SpamFilterDto filter = new SpamFilterDto(SpamFilterType.DOMAIN, "*@Spam.Example");
 
-    emailSpamFilterService.addFilterAddress(
-        matchingEmail1.getFrom());
-    emailSpamFilterService.addFilterAddress(
-        matchingEmail2.getFrom());
+    // When
+    emailSpamFilterService.addFilter(filter);
 
-    when(emailRepository.findAllByFrom_Address(matchingEmail1.getFrom().getAddress()))
-        .thenReturn(List.of(matchingEmail1, nonMatchingStateDeleted, nonMatchingStateDraft, nonMatchingStateSpam));
-    when(emailRepository.findAllByFrom_Address("matching2@domain.de"))
-        .thenReturn(List.of(matchingEmail2));
+    // Then
+    // Verify normalized filter has been added.
+    verify(spamFilterRegistry).addFilter(new SpamFilterDto(SpamFilterType.DOMAIN, "spam.example"));
+  }
 
-    @SuppressWarnings("unchecked")
-    ArgumentCaptor<List<Email>> spamEmailsCaptor = ArgumentCaptor.forClass(List.class);
-    when(emailRepository.saveAll(spamEmailsCaptor.capture()))
-        .thenReturn(emptyList());
+  @Test
+  void shouldNormalizeContentFilter() throws InvalidSpamFilterException {
+    // Given
+    SpamFilterDto filter = new SpamFilterDto(SpamFilterType.CONTENT, " Cheap Pills ");
+
+    // When
+    emailSpamFilterService.addFilter(filter);
+
+    // Then
+    // Verify normalized filter has been added.
+    verify(spamFilterRegistry).addFilter(new SpamFilterDto(SpamFilterType.CONTENT, "cheap pills"));
+  }
+
+  @Test
+  void shouldNotAddInvalidDomainFilter() {
+    // Given
+    SpamFilterDto filter = new SpamFilterDto(SpamFilterType.DOMAIN, "carl@spam.example");
+
+    // When & Then
+    assertThatExceptionOfType(InvalidSpamFilterException.class)
+        .as("Invalid domain filter cannot be added.")
+        .isThrownBy(() -> emailSpamFilterService.addFilter(filter));
+    verifyNoInteractions(spamFilterRegistry);
+  }
+
+  @Test
+  void shouldEnqueueNewEmailsBeforeClassifying() {
+    // Given
+    givenFilteredSenders("matching@domain.de");
+
+    when(emailRepository.findMaxId())
+        .thenReturn(42L);
 
     // When
     emailSpamFilterService.classifySpamEmails();
 
     // Then
-    assertThat(spamEmailsCaptor.getValue())
-        .as("All SPAM emails should have been updated in repository.")
-        .containsExactlyInAnyOrder(expectedSpamEmail1, expectedSpamEmail2);
+    // Verify emails up to highest id have been enqueued in ranges.
+    verify(spamFilterRangeRepository).enqueueIdRanges(WATERMARK_NAME, 42L, ID_RANGE_SIZE);
   }
 
   @Test
-  void shouldMarkNoEmailAsSpamInEmptyRepo() {
+  void shouldMarkNoEmailAsSpamWithoutUnclaimedRanges() {
     // Given
+    givenFilteredSenders("matching@domain.de");
+
+    when(spamFilterRangeRepository.claimNextIdRange(anyCollection()))
+        .thenReturn(Optional.empty());
+
     // When
     emailSpamFilterService.classifySpamEmails();
 
     // Then
-    // Verify saveAll(...) on repository has been called with empty list = no updates.
-    verify(emailRepository).saveAll(emptyList());
+    // Verify no emails have been updated (all ranges done or claimed by other instances).
+    verifyNoInteractions(emailJdbcRepository);
+    verifyNoInteractions(emailChangeBus);
+  }
+
+  @Test
+  void shouldContinueWithNextRangeIfRangeFails() {
+    // Given
+    givenFilteredSenders("matching@domain.de");
+
+    // Failing range is left pending (rolled back), classified ranges are removed.
+    List<IdRange> pendingRanges = new ArrayList<>(List.of(new IdRange(0, 20), new IdRange(20, 40)));
+    when(spamFilterRangeRepository.claimNextIdRange(anyCollection()))
+        .thenAnswer(invocation -> {
+          Collection<Long> excludedRangeStarts = invocation.getArgument(0);
+          Optional<IdRange> claimedRange = pendingRanges.stream()
+              .filter(range -> !excludedRangeStarts.contains(range.fromId()))
+              .findFirst();
+          claimedRange.filter(range -> range.fromId() != 0).ifPresent(pendingRanges::remove);
+          return claimedRange;
+        });
+    when(emailJdbcRepository.transitionStateBySendersInIdRange(
+        anyCollection(), eq(EmailState.SENT), eq(EmailState.SPAM), eq(0L), eq(20L)))
+        .thenThrow(new QueryTimeoutException("Classification timed out."));
+    when(emailJdbcRepository.transitionStateBySendersInIdRange(
+        anyCollection(), eq(EmailState.SENT), eq(EmailState.SPAM), eq(20L), eq(40L)))
+        .thenReturn(1);
+
+    // When & Then
+    assertTimeoutPreemptively(Duration.ofSeconds(10), () -> emailSpamFilterService.classifySpamEmails(),
+        "Failing range should be claimed once only.");
+    assertThat(pendingRanges)
+        .as("Failing range should be left pending.")
+        .containsExactly(new IdRange(0, 20));
+    // Verify range after failing range has been classified.
+    verify(emailChangeBus).publishChangedIdRange(20L, 40L);
+  }
+
+  @Test
+  void shouldEnqueueSentEmailsDespiteFailure() {
+    // Given
+    when(spamFilterRangeRepository.enqueueIds(WATERMARK_NAME, List.of(42L, 43L), ID_RANGE_SIZE))
+        .thenThrow(new QueryTimeoutException("Enqueuing timed out."));
+
+    // When & Then
+    assertThatNoException()
+        .as("Failed enqueuing should not fail stored emails.")
+        .isThrownBy(() -> emailSpamFilterService.enqueueSentEmails(List.of(42L, 43L)));
+    emailSpamFilterService.enqueueSentEmails(List.of());
+    // Verify emails have been enqueued right away (no transaction), but nothing for no emails.
+    verify(spamFilterRangeRepository).enqueueIds(any(), any(), anyLong());
+  }
+
+  @Test
+  void shouldRequestFullRescanOnNewFilter() throws InvalidSpamFilterException {
+    // Given
+    SpamFilterDto filter = new SpamFilterDto(SpamFilterType.SENDER, "matching@domain.de");
+
+    when(spamFilterRegistry.addFilter(filter))
+        .thenReturn(true, false);
+
+    // When
+    boolean firstAdded = emailSpamFilterService.addFilter(filter);
+    boolean secondAdded = emailSpamFilterService.addFilter(filter);
+
+    // Then
+    assertThat(List.of(firstAdded, secondAdded))
+        .as("Filter should be added only once.")
+        .containsExactly(true, false);
+    // Verify watermark has been reset and filters have been published once (for new filter only).
+    verify(watermarkRepository, times(1)).save(new SpamFilterWatermark(WATERMARK_NAME, 0));
+    verify(emailChangeBus, times(1)).publishSpamFiltersChanged();
+  }
+
+  @Test
+  void shouldAddDefaultFiltersOnce() throws InvalidSpamFilterException {
+    // Given
+    when(watermarkRepository.existsById(DEFAULT_FILTERS_MARKER_NAME))
+        .thenReturn(false, true);
+    when(spamFilterRegistry.addFilter(any()))
+        .thenReturn(true);
+
+    // When
+    emailSpamFilterService.addDefaultFiltersOnce();
+    emailSpamFilterService.addDefaultFiltersOnce(); // Next start.
+
+    // Then
+    // Verify default filters have been added like new filters, and marked as added, once only.
+    for (SpamFilterDto filter : DEFAULT_FILTERS) {
+      verify(spamFilterRegistry).addFilter(filter);
+    }
+    verify(emailChangeBus, times(DEFAULT_FILTERS.size())).publishSpamFiltersChanged();
+    verify(watermarkRepository, times(DEFAULT_FILTERS.size())).save(new SpamFilterWatermark(WATERMARK_NAME, 0));
+    verify(watermarkRepository).save(new SpamFilterWatermark(DEFAULT_FILTERS_MARKER_NAME, 0));
+  }
+
+  @Test
+  void shouldPublishRemovedFilter() throws SpamFilterNotFoundException {
+    // Given
+    SpamFilterDto filter = new SpamFilterDto(SpamFilterType.SENDER, "matching@domain.de");
+
+    when(spamFilterRegistry.removeFilter(filter))
+        .thenReturn(true);
+
+    // When
+    emailSpamFilterService.removeFilter(filter);
+
+    // Then
+    verify(emailChangeBus).publishSpamFiltersChanged();
+  }
+
+  @Test
+  void shouldNotRemoveNonExistingFilter() {
+    // Given
+    SpamFilterDto filter = new SpamFilterDto(SpamFilterType.SENDER, "matching@domain.de");
+
+    when(spamFilterRegistry.removeFilter(filter))
+        .thenReturn(false);
+
+    // When & Then
+    assertThatExceptionOfType(SpamFilterNotFoundException.class)
+        .as("Non-existing filter cannot be removed.")
+        .isThrownBy(() -> emailSpamFilterService.removeFilter(filter));
+    verifyNoInteractions(emailChangeBus);
+  }
+
+  @Test
+  void shouldCheckSpamEmails() {
+    // Given
+    when(spamFilterRegistry.getSnapshot())
+        .thenReturn(new SpamFilterSnapshot(List.of(
+            new SpamFilterDto(SpamFilterType.SENDER, "matching@domain.de"),
+            new SpamFilterDto(SpamFilterType.CONTENT, "neuer sendung"))));
+
+    Email matchingSender = createExampleEmailEntity(1);
+    matchingSender.setFrom(new EmailAddress("matching@domain.de", "Matching"));
+    matchingSender.setBody("Hello");
+    Email matchingContent = createExampleEmailEntity(2);
+    Email nonMatching = createExampleEmailEntity(3);
+    nonMatching.setBody("Hello");
+
+    // When & Then
+    assertThat(emailSpamFilterService.isSpam(matchingSender))
+        .as("Email of sender matching filter should be filtered (independent of display name).")
+        .isTrue();
+    assertThat(emailSpamFilterService.isSpam(matchingContent))
+        .as("Email with body containing phrase of content filter should be filtered.")
+        .isTrue();
+    assertThat(emailSpamFilterService.isSpam(nonMatching))
+        .as("Other email should not be filtered.")
+        .isFalse();
+  }
+
+  @Test
+  void shouldMarkEmailsWithMatchingContentAsSpam() {
+    // Given
+    when(spamFilterRegistry.getSnapshot())
+        .thenReturn(new SpamFilterSnapshot(List.of(new SpamFilterDto(SpamFilterType.CONTENT, "cheap pills"))));
+    givenClaimedIdRanges(new IdRange(0, 15));
+
+    @SuppressWarnings("unchecked") // Cannot create captor with generic type of predicate.
+    ArgumentCaptor<BiPredicate<String, String>> matcherCaptor = ArgumentCaptor.forClass(BiPredicate.class);
+    when(emailJdbcRepository.findIdsByContentInIdRange(eq(EmailState.SENT), eq(0L), eq(15L), matcherCaptor.capture()))
+        .thenReturn(List.of(3L, 7L));
+
+    // When
+    emailSpamFilterService.classifySpamEmails();
+
+    // Then
+    assertThat(matcherCaptor.getValue().test("Offer", "Buy CHEAP Pills now!"))
+        .as("Content matcher should match content containing phrase.")
+        .isTrue();
+    assertThat(matcherCaptor.getValue().test("Offer", "Buy cheap flights now!"))
+        .as("Content matcher should not match other content.")
+        .isFalse();
+    // Verify matching emails have been marked as SPAM.
+    verify(emailJdbcRepository).transitionStateByIdIn(List.of(3L, 7L), EmailState.SENT, EmailState.SPAM);
+  }
+
+  /**
+   * Lets mocked queue return given ranges as claimed, one by one, then no further range.
+   *
+   * @param ranges claimed ranges
+   */
+  private void givenClaimedIdRanges(IdRange... ranges) {
+    List<Optional<IdRange>> claimedRanges = new ArrayList<>();
+    for (IdRange range : ranges) {
+      claimedRanges.add(Optional.of(range));
+    }
+    claimedRanges.add(Optional.empty());
+
+    when(spamFilterRangeRepository.claimNextIdRange(anyCollection()))
+        .thenAnswer(AdditionalAnswers.returnsElementsOf(claimedRanges));
+  }
+
+  /**
+   * Lets mocked registry return a snapshot containing sender filters of given addresses.
+   *
+   * @param addresses filtered sender addresses
+   */
+  private void givenFilteredSenders(String... addresses) {
+    when(spamFilterRegistry.getSnapshot())
+        .thenReturn(new SpamFilterSnapshot(Stream.of(addresses)
+            .map(address -> new SpamFilterDto(SpamFilterType.SENDER, address))
+            .toList()));
   }
 }
@@ -0,0 +1,180 @@
+package de.jjakobus.emailrestservice.service;
+
+import de.jjakobus.emailrestservice.model.Email;
+import de.jjakobus.emailrestservice.model.EmailState;
+import de.jjakobus.emailrestservice.model.dtos.EmailDto;
+import de.jjakobus.emailrestservice.model.dtos.EmailFilterDto;
+import de.jjakobus.emailrestservice.model.dtos.EmailPageDto;
+import de.jjakobus.emailrestservice.model.exceptions.InvalidCursorException;
+import de.jjakobus.emailrestservice.service.repositories.EmailJdbcRepository;
+import de.jjakobus.emailrestservice.service.repositories.EmailRepository;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.List;
+import java.util.stream.LongStream;
+
+import static de.jjakobus.emailrestservice.EmailTestUtils.createExampleEmailEntity;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests the number of statements needed by read paths of {@link EmailStoreService} against a temporary database.
+ * Reading many emails must not issue a query per email (to load its receivers), bulk queries must not load any entity.
+ * Cached emails must be invalidated on changes notified by other instances. Listing emails must be backed by indexes.
+ *
+ * @author jjakobus
+ */
+@Testcontainers(disabledWithoutDocker = true)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@TestPropertySource(properties = {
+    "spring.datasource.url=jdbc:tc:postgresql://localhost:5432/emails-test", // Use separate test database.
+    "spring.datasource.username=test",
+    "spring.datasource.password=test",
+    "spring.jpa.properties.hibernate.generate_statistics=true" // Count statements.
+})
+class EmailStoreServiceIT {
+
+  /** Number of emails read at once. */
+  private static final int EMAILS_COUNT = 500;
+
+  /** Statements needed to read emails: emails, "to" receivers and "cc" receivers. */
+  private static final int EXPECTED_STATEMENTS_COUNT = 3;
+
+  /**
+   * Postgres docker container for this integration test.
+   */
+  @Container
+  @ServiceConnection
+  @SuppressWarnings("resource") // Misleading warning about closable container when chaining with...() calls.
+  static PostgreSQLContainer<?> postgresContainer =
+      new PostgreSQLContainer<>("postgres:16.3-alpine")
+          .withDatabaseName("emails-test")
+          .withUsername("test")
+          .withPassword("test")
+          .withExposedPorts(5432);
+
+  @Autowired
+  private EmailStoreService emailStoreService;
+
+  @Autowired
+  private EmailRepository emailRepository;
+
+  @Autowired
+  private EmailJdbcRepository emailJdbcRepository;
+
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @Autowired
+  private TransactionTemplate transactionTemplate;
+
+  private List<Long> storedIds;
+
+  private Statistics statistics;
+
+  @BeforeEach
+  void prepareEmailsInDatabase() {
+    emailRepository.deleteAll();
+
+    List<Email> newEmails = LongStream.range(0, EMAILS_COUNT)
+        .mapToObj(i -> createExampleEmailEntity(0))
+        .toList();
+    storedIds = emailJdbcRepository.insertAll(newEmails).stream()
+        .map(Email::getId)
+        .toList();
+
+    statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    statistics.clear();
+  }
+
+  @Test
+  void shouldGetEmailsWithoutLoadingEntities() {
+    // Given
+    // When
+    List<EmailDto> emails = emailStoreService.getEmails(storedIds);
+
+    // Then
+    assertThat(emails)
+        .as("All emails should be found including their receivers.")
+        .hasSize(EMAILS_COUNT)
+        .allSatisfy(email -> assertThat(email.to()).hasSize(2))
+        .allSatisfy(email -> assertThat(email.cc()).hasSize(1));
+    assertThat(statistics.getPrepareStatementCount())
+        .as("Emails should be read into DTOs directly, without JPA.")
+        .isZero();
+    assertThat(statistics.getEntityLoadCount())
+        .as("No entity should be loaded.")
+        .isZero();
+  }
+
+  @Test
+  void shouldListEmailsWithConstantNumberOfStatements() throws InvalidCursorException {
+    // Given
+    // When
+    EmailPageDto page = emailStoreService.listEmails(EmailFilterDto.NONE, null, EMAILS_COUNT - 1);
+
+    // Then
+    assertThat(page.emails())
+        .as("Page should contain requested number of emails including their receivers.")
+        .hasSize(EMAILS_COUNT - 1)
+        .allSatisfy(email -> assertThat(email.to()).hasSize(2))
+        .allSatisfy(email -> assertThat(email.cc()).hasSize(1));
+    assertThat(statistics.getPrepareStatementCount())
+        .as("Page of emails and their receivers should be loaded by a constant number of statements.")
+        .isEqualTo(EXPECTED_STATEMENTS_COUNT);
+  }
+
+  @Test
+  void shouldCreateIndexesOfKeysetPagination() {
+    // Given
+    // When
+    List<String> indexDefinitions = jdbcTemplate.queryForList(
+        "SELECT indexdef FROM pg_indexes WHERE tablename = 'email'", String.class);
+
+    // Then
+    assertThat(indexDefinitions)
+        .as("Schema should contain indexes matching the order of listed emails, in total and per state.")
+        .anySatisfy(definition -> assertThat(definition).endsWith("USING btree (modified_date, id)"))
+        .anySatisfy(definition -> assertThat(definition).endsWith("USING btree (state, modified_date, id)"));
+  }
+
+  @Test
+  void shouldNotServeEmailChangedByOtherInstanceFromCache() throws Exception {
+    // Given
+    long id = storedIds.get(0);
+    emailStoreService.getEmail(id); // Cache email.
+
+    // When
+    // Change email like another instance (without this instance's services) and notify about change.
+    transactionTemplate.executeWithoutResult(status -> {
+      jdbcTemplate.update("UPDATE email SET state = 'DELETED' WHERE id = ?", id);
+      jdbcTemplate.queryForList("SELECT pg_notify(?, ?)", "email_changed", "ids:" + id);
+    });
+
+    // Then
+    // Notification is delivered asynchronously, so wait for invalidation.
+    EmailState state = emailStoreService.getEmail(id).state();
+    for (int attempt = 0; attempt < 50 && state != EmailState.DELETED; attempt++) {
+      Thread.sleep(100);
+      state = emailStoreService.getEmail(id).state();
+    }
+    assertThat(state)
+        .as("Email changed by other instance should be read again after notification.")
+        .isEqualTo(EmailState.DELETED);
+  }
+}
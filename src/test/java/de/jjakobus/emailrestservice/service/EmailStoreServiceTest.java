@@ -3,10 +3,18 @@ package de.jjakobus.emailrestservice.service;
 import de.jjakobus.emailrestservice.EmailTestUtils;
 import de.jjakobus.emailrestservice.model.Email;
 import de.jjakobus.emailrestservice.model.EmailState;
+import de.jjakobus.emailrestservice.model.EmailUpdateStatus;
+import de.jjakobus.emailrestservice.model.dtos.EmailCacheStatsDto;
 import de.jjakobus.emailrestservice.model.dtos.EmailDto;
+import de.jjakobus.emailrestservice.model.dtos.EmailFilterDto;
+import de.jjakobus.emailrestservice.model.dtos.EmailPageDto;
+import de.jjakobus.emailrestservice.model.dtos.EmailUpdateResultDto;
 import de.jjakobus.emailrestservice.model.dtos.InsertEmailDto;
 import de.jjakobus.emailrestservice.model.exceptions.EmailNotFoundException;
 import de.jjakobus.emailrestservice.model.exceptions.EmailUpdateNotAllowedException;
+import de.jjakobus.emailrestservice.model.exceptions.EmailVersionConflictException;
+import de.jjakobus.emailrestservice.model.exceptions.InvalidCursorException;
+import de.jjakobus.emailrestservice.service.repositories.EmailJdbcRepository;
 import de.jjakobus.emailrestservice.service.repositories.EmailRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Named;
@@ -15,18 +23,29 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.util.unit.DataSize;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
 import static de.jjakobus.emailrestservice.EmailTestUtils.*;
 import static java.util.Collections.emptyList;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
 /**
@@ -40,11 +59,34 @@ class EmailStoreServiceTest {
   @Mock
   private EmailRepository emailRepository;
 
+  @Mock
+  private EmailJdbcRepository emailJdbcRepository;
+
+  @Mock
+  private EmailSpamFilterService spamService;
+
+  @Mock
+  private SpamFilterRegistry spamFilterRegistry;
+
+  @Mock
+  private JdbcTemplate jdbcTemplate;
+
+  @Mock
+  private DataSource dataSource;
+
+  private EmailCache emailCache;
+
+  private EmailChangeBus emailChangeBus;
+
   private EmailStoreService emailStoreService;
 
   @BeforeEach
   void createServiceUnderTest() {
-    emailStoreService = new EmailStoreService(emailRepository);
+    emailCache = new EmailCache(DataSize.ofMegabytes(1));
+    // Bus is not started, so only changes published by this instance are handled.
+    emailChangeBus = new EmailChangeBus(emailCache, spamFilterRegistry, jdbcTemplate, dataSource);
+    emailStoreService = new EmailStoreService(emailRepository, emailJdbcRepository, spamService, emailCache,
+        emailChangeBus, false);
   }
 
   @Test
@@ -92,7 +134,7 @@ class EmailStoreServiceTest {
 
     @SuppressWarnings("unchecked") // Cannot create captor with generic type of list.
     ArgumentCaptor<List<Email>> emailsEntityCaptor = ArgumentCaptor.forClass(List.class);
-    when(emailRepository.saveAll(emailsEntityCaptor.capture()))
+    when(emailJdbcRepository.insertAll(emailsEntityCaptor.capture()))
         .thenReturn(expectedEmailEntities);
 
     // When
@@ -110,15 +152,104 @@ class EmailStoreServiceTest {
         .isEqualTo(expectedEmailEntities);
   }
 
+  @ParameterizedTest
+  @MethodSource("provideInlineSpamFilterStates")
+  void shouldClassifyNewEmailsAsSpamIfInlineFilterEnabled(boolean inlineSpamFilter, EmailState expectedState) {
+    // Given
+    emailStoreService = new EmailStoreService(emailRepository, emailJdbcRepository, spamService, emailCache,
+        emailChangeBus, inlineSpamFilter);
+    InsertEmailDto exampleEmail = createExampleInsertEmail();
+    InsertEmailDto newSpamEmail = new InsertEmailDto(EmailState.SENT, exampleEmail.from(), exampleEmail.to(),
+        exampleEmail.cc(), exampleEmail.subject(), exampleEmail.body(), exampleEmail.modifiedDate());
+    List<InsertEmailDto> newEmails = List.of(newSpamEmail, exampleEmail);
+
+    lenient().when(spamService.isSpam(any()))
+        .thenReturn(true);
+    @SuppressWarnings("unchecked") // Cannot create captor with generic type of list.
+    ArgumentCaptor<List<Email>> emailsEntityCaptor = ArgumentCaptor.forClass(List.class);
+    when(emailJdbcRepository.insertAll(emailsEntityCaptor.capture()))
+        .thenAnswer(invocation -> invocation.getArgument(0));
+
+    // When
+    emailStoreService.saveEmails(newEmails);
+
+    // Then
+    assertThat(emailsEntityCaptor.getValue())
+        .as("Only SENT email matching filters should be stored as SPAM (if inline filter is enabled).")
+        .extracting(Email::getState)
+        .containsExactly(expectedState, EmailState.DRAFT);
+  }
+
+  private static Stream<Arguments> provideInlineSpamFilterStates() {
+    return Stream.of(
+        Arguments.of(Named.of("inline filter enabled", true), EmailState.SPAM),
+        Arguments.of(Named.of("inline filter disabled", false), EmailState.SENT));
+  }
+
+  @Test
+  void shouldSaveStreamedNewEmailsInChunks() {
+    // Given
+    List<InsertEmailDto> newEmails = Arrays.asList(
+        createExampleInsertEmail(),
+        null,
+        createExampleInsertEmail(),
+        createExampleInsertEmail());
+
+    when(emailJdbcRepository.insertAll(anyList()))
+        .thenReturn(List.of(createExampleEmailEntity(42), createExampleEmailEntity(24)))
+        .thenReturn(List.of(createExampleEmailEntity(16)));
+
+    List<List<EmailDto>> savedChunks = new ArrayList<>();
+
+    // When
+    long savedEmailsCount = emailStoreService.saveEmails(newEmails.iterator(), 2, savedChunks::add);
+
+    // Then
+    assertThat(savedEmailsCount)
+        .as("All non-null emails should have been saved.")
+        .isEqualTo(3);
+    assertThat(savedChunks)
+        .as("Saved emails should be passed to consumer chunk-wise.")
+        .containsExactly(
+            List.of(createExampleEmail(42), createExampleEmail(24)),
+            List.of(createExampleEmail(16)));
+  }
+
+  @Test
+  void shouldImportStreamedNewEmailsInChunks() {
+    // Given
+    List<InsertEmailDto> newEmails = Arrays.asList(
+        createExampleInsertEmail(),
+        createExampleInsertEmail(),
+        null,
+        createExampleInsertEmail());
+
+    @SuppressWarnings("unchecked") // Cannot create captor with generic type of list.
+    ArgumentCaptor<List<Email>> emailsEntityCaptor = ArgumentCaptor.forClass(List.class);
+    when(emailJdbcRepository.copyAll(emailsEntityCaptor.capture()))
+        .thenAnswer(invocation -> invocation.getArgument(0));
+
+    // When
+    long importedEmailsCount = emailStoreService.importEmails(newEmails.iterator(), 2);
+
+    // Then
+    assertThat(importedEmailsCount)
+        .as("All non-null emails should have been imported.")
+        .isEqualTo(3);
+    assertThat(emailsEntityCaptor.getAllValues())
+        .as("Emails should be imported chunk-wise.")
+        .extracting(List::size)
+        .containsExactly(2, 1);
+  }
+
   @Test
   void shouldGetExistingEmail() throws EmailNotFoundException {
     // Given
     long id = 42;
-    Email existingEmailEntity = createExampleEmailEntity(id);
     EmailDto expectedExistingEmail = createExampleEmail(id);
 
-    when(emailRepository.findById(id))
-        .thenReturn(Optional.of(existingEmailEntity));
+    when(emailJdbcRepository.findDtosByIdIn(List.of(id)))
+        .thenReturn(List.of(expectedExistingEmail));
 
     // When
     EmailDto actualExistingEmail = emailStoreService.getEmail(id);
@@ -129,13 +260,85 @@ class EmailStoreServiceTest {
         .isEqualTo(expectedExistingEmail);
   }
 
+  @Test
+  void shouldGetCachedEmail() throws EmailNotFoundException {
+    // Given
+    long id = 42;
+    EmailDto expectedExistingEmail = createExampleEmail(id);
+
+    when(emailJdbcRepository.findDtosByIdIn(List.of(id)))
+        .thenReturn(List.of(expectedExistingEmail));
+
+    // When
+    emailStoreService.getEmail(id);
+    EmailDto actualCachedEmail = emailStoreService.getEmail(id);
+    List<EmailDto> actualCachedEmails = emailStoreService.getEmails(List.of(id));
+
+    // Then
+    assertThat(actualCachedEmail)
+        .as("Cached email should be equal to expected email.")
+        .isEqualTo(expectedExistingEmail);
+    assertThat(actualCachedEmails)
+        .as("Cached email should be found by bulk query, too.")
+        .containsExactly(expectedExistingEmail);
+    // Verify email has been read from database once only.
+    verify(emailJdbcRepository).findDtosByIdIn(anyCollection());
+    assertThat(emailStoreService.getCacheStats())
+        .as("Cache should count lookups of cached and not cached email.")
+        .returns(2L, EmailCacheStatsDto::hitCount)
+        .returns(1L, EmailCacheStatsDto::missCount);
+  }
+
+  @Test
+  void shouldGetOnlyMissingEmailsFromDatabase() {
+    // Given
+    EmailDto cachedEmail = createExampleEmail(16);
+    emailCache.putAll(List.of(cachedEmail), emailCache.getReadToken());
+
+    when(emailJdbcRepository.findDtosByIdIn(List.of(52L, 42L)))
+        .thenReturn(List.of(createExampleEmail(42), createExampleEmail(52)));
+
+    // When
+    List<EmailDto> actualMatchedEmails = emailStoreService.getEmails(List.of(52L, 16L, 42L, 52L));
+
+    // Then
+    assertThat(actualMatchedEmails)
+        .as("Cached and read emails should be returned once, ordered by id.")
+        .containsExactly(createExampleEmail(16), createExampleEmail(42), createExampleEmail(52));
+  }
+
+  @Test
+  void shouldNotGetDeletedEmailFromCache() throws EmailNotFoundException {
+    // Given
+    long id = 42;
+    EmailDto originalEmail = createExampleEmail(id);
+    EmailDto deletedEmail = new EmailDto(id, EmailState.DELETED, originalEmail.from(), originalEmail.to(),
+        originalEmail.cc(), originalEmail.subject(), originalEmail.body(), originalEmail.modifiedDate(),
+        originalEmail.version() + 1);
+
+    when(emailJdbcRepository.findDtosByIdIn(List.of(id)))
+        .thenReturn(List.of(originalEmail), List.of(deletedEmail));
+    when(emailRepository.updateStateByIdIn(List.of(id), EmailState.DELETED))
+        .thenReturn(1);
+
+    // When
+    emailStoreService.getEmail(id);
+    emailStoreService.deleteEmail(id);
+    EmailDto actualEmail = emailStoreService.getEmail(id);
+
+    // Then
+    assertThat(actualEmail)
+        .as("Deleted email should be read again instead of served from cache.")
+        .isEqualTo(deletedEmail);
+  }
+
   @Test
   void shouldNotGetNonExistingEmail() {
     // Given
     long id = 24;
 
-    when(emailRepository.findById(id))
-        .thenReturn(Optional.empty());
+    when(emailJdbcRepository.findDtosByIdIn(List.of(id)))
+        .thenReturn(emptyList());
 
     // When & Then
     assertThatExceptionOfType(EmailNotFoundException.class)
@@ -145,16 +348,69 @@ class EmailStoreServiceTest {
         .withMessageContainingAll("no", "email", "id", String.valueOf(id));
   }
 
+  @Test
+  void shouldGetEmailVersionWithoutReadingEmail() throws EmailNotFoundException {
+    // Given
+    long id = 42;
+
+    when(emailJdbcRepository.findVersionById(id))
+        .thenReturn(Optional.of(3L));
+
+    // When
+    long version = emailStoreService.getEmailVersion(id);
+
+    // Then
+    assertThat(version)
+        .as("Version of stored email should be returned.")
+        .isEqualTo(3L);
+    verify(emailJdbcRepository, never()).findDtosByIdIn(anyCollection());
+  }
+
+  @Test
+  void shouldGetEmailVersionFromCache() throws EmailNotFoundException {
+    // Given
+    long id = 42;
+    EmailDto cachedEmail = createExampleEmail(id);
+
+    when(emailJdbcRepository.findDtosByIdIn(List.of(id)))
+        .thenReturn(List.of(cachedEmail));
+    emailStoreService.getEmail(id);
+
+    // When
+    long version = emailStoreService.getEmailVersion(id);
+
+    // Then
+    assertThat(version)
+        .as("Version of cached email should be returned.")
+        .isEqualTo(cachedEmail.version());
+    verify(emailJdbcRepository, never()).findVersionById(anyLong());
+  }
+
+  @Test
+  void shouldNotGetVersionOfNonExistingEmail() {
+    // Given
+    long id = 24;
+
+    when(emailJdbcRepository.findVersionById(id))
+        .thenReturn(Optional.empty());
+
+    // When & Then
+    assertThatExceptionOfType(EmailNotFoundException.class)
+        .as("Exception should be thrown for no-email id.")
+        .isThrownBy(() -> emailStoreService.getEmailVersion(id))
+        .as("Exception should contain significant keywords and given id.")
+        .withMessageContainingAll("no", "email", "id", String.valueOf(id));
+  }
+
   @ParameterizedTest
   @MethodSource("provideGetMatchingEmailsParams")
   void shouldGetMatchingEmails(
       List<Long> searchedIds,
-      List<Email> matchedEmailEntities,
       List<EmailDto> expectedMatchedEmails
   ) {
     // Given
-    when(emailRepository.findAllById(searchedIds))
-        .thenReturn(matchedEmailEntities);
+    when(emailJdbcRepository.findDtosByIdIn(searchedIds))
+        .thenReturn(expectedMatchedEmails);
 
     // When
     List<EmailDto> actualMatchedEmail = emailStoreService.getEmails(searchedIds);
@@ -168,23 +424,65 @@ class EmailStoreServiceTest {
   private static Stream<Arguments> provideGetMatchingEmailsParams() {
     return Stream.of(
         Arguments.of(Named.of("All matching IDs", List.of(42L, 16L, 52L)),
-            List.of(createExampleEmailEntity(42), createExampleEmailEntity(16), createExampleEmailEntity(52)),
-            List.of(createExampleEmail(42), createExampleEmail(16), createExampleEmail(52))),
+            List.of(createExampleEmail(16), createExampleEmail(42), createExampleEmail(52))),
         Arguments.of(Named.of("Some matching IDs", List.of(42L, 16L, 52L)),
-            List.of(createExampleEmailEntity(42), createExampleEmailEntity(52)),
             List.of(createExampleEmail(42), createExampleEmail(52))),
         Arguments.of(Named.of("No matching ID", List.of(42L, 16L, 52L)),
-            emptyList(),
             emptyList())
     );
   }
 
+  @Test
+  void shouldListEmailsPageWise() throws InvalidCursorException {
+    // Given
+    List<Email> firstPageEntities = List.of(
+        createExampleEmailEntity(45),
+        createExampleEmailEntity(44),
+        createExampleEmailEntity(43));
+    List<Email> lastPageEntities = List.of(
+        createExampleEmailEntity(43));
+
+    when(emailRepository.<Email, List<Email>>findBy(any(), any()))
+        .thenReturn(firstPageEntities, lastPageEntities);
+
+    // When
+    EmailPageDto firstPage = emailStoreService.listEmails(EmailFilterDto.NONE, null, 2);
+    EmailPageDto lastPage = emailStoreService.listEmails(EmailFilterDto.NONE, firstPage.nextCursor(), 2);
+
+    // Then
+    assertThat(firstPage.emails())
+        .as("First page should contain requested number of emails only.")
+        .extracting(EmailDto::id)
+        .containsExactly(45L, 44L);
+    assertThat(firstPage.nextCursor())
+        .as("First page should have cursor of next page, as there are more emails.")
+        .isNotNull();
+    assertThat(lastPage.emails())
+        .as("Last page should contain remaining email.")
+        .extracting(EmailDto::id)
+        .containsExactly(43L);
+    assertThat(lastPage.nextCursor())
+        .as("Last page should have no cursor of next page.")
+        .isNull();
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"not-base64!", "bm8tc2VwYXJhdG9y", "bm90LWEtZGF0ZXw0Mg"})
+  void shouldNotListEmailsWithInvalidCursor(String cursor) {
+    // Given
+    // When & Then
+    assertThatExceptionOfType(InvalidCursorException.class)
+        .as("Malformed cursor should be rejected.")
+        .isThrownBy(() -> emailStoreService.listEmails(EmailFilterDto.NONE, cursor, 10));
+    verifyNoInteractions(emailRepository);
+  }
+
   @ParameterizedTest
   @MethodSource("provideAllowedUpdateParams")
   void shouldUpdateExistingEmail(
       Email origEmailEntity,
       Email expectedUpdatedEmail
-  ) throws EmailNotFoundException, EmailUpdateNotAllowedException {
+  ) throws EmailNotFoundException, EmailUpdateNotAllowedException, EmailVersionConflictException {
     // Given
     long id = origEmailEntity.getId();
 
@@ -192,11 +490,11 @@ class EmailStoreServiceTest {
         .thenReturn(Optional.of(origEmailEntity));
 
     ArgumentCaptor<Email> updatedEmailCaptor = ArgumentCaptor.forClass(Email.class);
-    when(emailRepository.save(updatedEmailCaptor.capture()))
+    when(emailRepository.saveAndFlush(updatedEmailCaptor.capture()))
         .thenReturn(expectedUpdatedEmail);
 
     // When
-    emailStoreService.updateEmail(id, expectedUpdatedEmail.toDto());
+    emailStoreService.updateEmail(id, expectedUpdatedEmail.toDto(), origEmailEntity.getVersion());
 
     // Then
     assertThat(updatedEmailCaptor.getValue())
@@ -240,6 +538,24 @@ class EmailStoreServiceTest {
     );
   }
 
+  @Test
+  void shouldEnqueueSentDraftForSpamClassification() throws Exception {
+    // Given
+    long id = 24;
+    Email storedDraft = EmailTestUtils.createExampleEmailEntity(id, EmailState.DRAFT);
+    EmailDto sentDraft = EmailTestUtils.createExampleEmailEntity(id, EmailState.SENT).toDto();
+
+    when(emailRepository.findById(id))
+        .thenReturn(Optional.of(storedDraft));
+
+    // When
+    emailStoreService.updateEmail(id, sentDraft, null);
+
+    // Then
+    // Verify sent draft has been enqueued, as its id might have been classified already.
+    verify(spamService).enqueueSentEmails(List.of(id));
+  }
+
   @Test
   void shouldNotUpdateNonExistingEmail() {
     // Given
@@ -251,11 +567,103 @@ class EmailStoreServiceTest {
     // When & Then
     assertThatExceptionOfType(EmailNotFoundException.class)
         .as("Exception should be thrown for no-email id.")
-        .isThrownBy(() -> emailStoreService.updateEmail(id, createExampleEmail(id)))
+        .isThrownBy(() -> emailStoreService.updateEmail(id, createExampleEmail(id), null))
         .as("Exception should contain significant keywords and given id.")
         .withMessageContainingAll("no", "email", "id", String.valueOf(id));
-    // Verify save(...) of repository has NOT been called.
-    verify(emailRepository, never()).save(any());
+    // Verify saveAndFlush(...) of repository has NOT been called.
+    verify(emailRepository, never()).saveAndFlush(any());
+  }
+
+  @Test
+  void shouldNotUpdateEmailOfOtherVersion() {
+    // Given
+    Email origEmailEntity = EmailTestUtils.createExampleEmailEntity(42, EmailState.SENT);
+    origEmailEntity.setVersion(3);
+    long id = origEmailEntity.getId();
+    EmailDto updatedEmail = EmailTestUtils.createExampleEmailEntity(42, EmailState.SPAM).toDto();
+
+    when(emailRepository.findById(id))
+        .thenReturn(Optional.of(origEmailEntity));
+
+    // When & Then
+    assertThatExceptionOfType(EmailVersionConflictException.class)
+        .as("Exception should be thrown for update based on other version.")
+        .isThrownBy(() -> emailStoreService.updateEmail(id, updatedEmail, 2L))
+        .as("Exception should contain stored and expected version.")
+        .withMessageContainingAll("version", "3", "2");
+    // Verify saveAndFlush(...) of repository has NOT been called.
+    verify(emailRepository, never()).saveAndFlush(any());
+    verifyNoInteractions(jdbcTemplate);
+  }
+
+  @Test
+  void shouldNotUpdateConcurrentlyChangedEmail() {
+    // Given
+    Email origEmailEntity = EmailTestUtils.createExampleEmailEntity(42, EmailState.SENT);
+    long id = origEmailEntity.getId();
+    EmailDto updatedEmail = EmailTestUtils.createExampleEmailEntity(42, EmailState.SPAM).toDto();
+
+    when(emailRepository.findById(id))
+        .thenReturn(Optional.of(origEmailEntity));
+    when(emailRepository.saveAndFlush(any()))
+        .thenThrow(new ObjectOptimisticLockingFailureException(Email.class, id));
+
+    // When & Then
+    assertThatExceptionOfType(EmailVersionConflictException.class)
+        .as("Exception should be thrown if email is changed between reading and writing it.")
+        .isThrownBy(() -> emailStoreService.updateEmail(id, updatedEmail, null))
+        .as("Exception should contain significant keywords and given id.")
+        .withMessageContainingAll("changed concurrently", String.valueOf(id));
+    verifyNoInteractions(jdbcTemplate);
+  }
+
+  @Test
+  void shouldUpdateEmailsWithResultPerEmail() {
+    // Given
+    Email storedDraftEntity = EmailTestUtils.createExampleEmailEntity(24, EmailState.DRAFT);
+    storedDraftEntity.setVersion(3);
+    EmailDto storedDraft = storedDraftEntity.toDto();
+    EmailDto storedSentEmail = EmailTestUtils.createExampleEmailEntity(42, EmailState.SENT).toDto();
+    EmailDto storedSpamEmail = EmailTestUtils.createExampleEmailEntity(43, EmailState.SPAM).toDto();
+
+    List<EmailDto> updatedEmails = List.of(
+        createUpdatedEmailOfState(24, EmailState.DRAFT).toDto(), // Content change of draft.
+        createExampleEmailEntity(16, EmailState.SENT).toDto(), // Not stored.
+        createExampleEmailEntity(42, EmailState.DELETED).toDto(), // State change, but changed concurrently.
+        createExampleEmailEntity(43, EmailState.DRAFT).toDto()); // Not allowed.
+
+    when(emailJdbcRepository.findDtosByIdIn(List.of(24L, 16L, 42L, 43L)))
+        .thenReturn(List.of(storedDraft, storedSentEmail, storedSpamEmail));
+    @SuppressWarnings("unchecked") // Cannot create captor with generic type of list.
+    ArgumentCaptor<List<EmailDto>> contentUpdatesCaptor = ArgumentCaptor.forClass(List.class);
+    when(emailJdbcRepository.updateAll(contentUpdatesCaptor.capture()))
+        .thenReturn(new int[] {1});
+    @SuppressWarnings("unchecked") // Cannot create captor with generic type of list.
+    ArgumentCaptor<List<EmailDto>> stateUpdatesCaptor = ArgumentCaptor.forClass(List.class);
+    when(emailJdbcRepository.updateStateAll(stateUpdatesCaptor.capture()))
+        .thenReturn(new int[] {0});
+
+    // When
+    List<EmailUpdateResultDto> results = emailStoreService.updateEmails(updatedEmails);
+
+    // Then
+    assertThat(results)
+        .as("Results should be returned in order of updated emails.")
+        .extracting(EmailUpdateResultDto::id, EmailUpdateResultDto::status, EmailUpdateResultDto::version)
+        .containsExactly(
+            tuple(24L, EmailUpdateStatus.UPDATED, 4L),
+            tuple(16L, EmailUpdateStatus.NOT_FOUND, null),
+            tuple(42L, EmailUpdateStatus.CONFLICT, null),
+            tuple(43L, EmailUpdateStatus.NOT_ALLOWED, null));
+    assertThat(contentUpdatesCaptor.getValue())
+        .as("Content update should be written guarded by version read.")
+        .extracting(EmailDto::id, EmailDto::subject, EmailDto::version)
+        .containsExactly(tuple(24L, updatedEmails.get(0).subject(), 3L));
+    assertThat(stateUpdatesCaptor.getValue())
+        .as("State only update should be written without content.")
+        .extracting(EmailDto::id, EmailDto::state)
+        .containsExactly(tuple(42L, EmailState.DELETED));
+    verify(jdbcTemplate).queryForList(anyString(), eq(EmailChangeBus.CHANNEL), eq("ids:24"));
   }
 
   @ParameterizedTest
@@ -272,11 +680,11 @@ class EmailStoreServiceTest {
     // When & Then
     assertThatExceptionOfType(EmailUpdateNotAllowedException.class)
         .as("Exception should be thrown for non-allowed update.")
-        .isThrownBy(() -> emailStoreService.updateEmail(id, updatedEmail.toDto()))
+        .isThrownBy(() -> emailStoreService.updateEmail(id, updatedEmail.toDto(), null))
         .as("Exception should contain significant keywords.")
         .withMessageContainingAll("not allowed", "email", "id", String.valueOf(id), "reason");
-    // Verify save(...) of repository has NOT been called.
-    verify(emailRepository, never()).save(any());
+    // Verify saveAndFlush(...) of repository has NOT been called.
+    verify(emailRepository, never()).saveAndFlush(any());
   }
 
   private static Stream<Arguments> provideNonAllowedUpdateParams() {
@@ -316,23 +724,134 @@ class EmailStoreServiceTest {
     );
   }
 
+  @Test
+  void shouldUpdateEmailStateWithoutReadingEmail() throws Exception {
+    // Given
+    long id = 42;
+
+    when(emailJdbcRepository.transitionStateById(id, EnumSet.complementOf(EnumSet.of(EmailState.DRAFT)),
+        EmailState.SPAM, 3L))
+        .thenReturn(Optional.of(4L));
+
+    // When
+    long version = emailStoreService.updateEmailState(id, EmailState.SPAM, 3L);
+
+    // Then
+    assertThat(version)
+        .as("New version of email should be returned.")
+        .isEqualTo(4L);
+    // Verify email has neither been loaded nor read.
+    verify(emailRepository, never()).findById(anyLong());
+    verify(emailJdbcRepository, never()).findDtosByIdIn(any());
+    verify(jdbcTemplate).queryForList(anyString(), eq(EmailChangeBus.CHANNEL), eq("ids:" + id));
+  }
+
+  @ParameterizedTest
+  @MethodSource("provideNonAllowedStateUpdateParams")
+  void shouldNotUpdateEmailStateIfNotAllowed(EmailState storedState, EmailState state) {
+    // Given
+    long id = 42;
+
+    when(emailJdbcRepository.transitionStateById(eq(id), any(), eq(state), isNull()))
+        .thenReturn(Optional.empty());
+    when(emailJdbcRepository.findDtosByIdIn(List.of(id)))
+        .thenReturn(List.of(createExampleEmailEntity(id, storedState).toDto()));
+
+    // When & Then
+    assertThatExceptionOfType(EmailUpdateNotAllowedException.class)
+        .as("Exception should be thrown for non-allowed state change.")
+        .isThrownBy(() -> emailStoreService.updateEmailState(id, state, null))
+        .as("Exception should contain significant keywords.")
+        .withMessageContainingAll("not allowed", "email", "id", String.valueOf(id), "reason");
+    verifyNoInteractions(jdbcTemplate);
+  }
+
+  private static Stream<Arguments> provideNonAllowedStateUpdateParams() {
+
+    return Stream.of(
+        Arguments.of(Named.of("Draft email to DELETED", EmailState.DRAFT), EmailState.DELETED),
+        Arguments.of(Named.of("Draft email to SPAM", EmailState.DRAFT), EmailState.SPAM),
+        Arguments.of(Named.of("SENT email to DRAFT", EmailState.SENT), EmailState.DRAFT),
+        Arguments.of(Named.of("SPAM email to DRAFT", EmailState.SPAM), EmailState.DRAFT)
+    );
+  }
+
+  @Test
+  void shouldNotUpdateStateOfNonExistingEmail() {
+    // Given
+    long id = 42;
+
+    when(emailJdbcRepository.transitionStateById(eq(id), any(), eq(EmailState.SENT), isNull()))
+        .thenReturn(Optional.empty());
+    when(emailJdbcRepository.findDtosByIdIn(List.of(id)))
+        .thenReturn(List.of());
+
+    // When & Then
+    assertThatExceptionOfType(EmailNotFoundException.class)
+        .as("Exception should be thrown for no-email id.")
+        .isThrownBy(() -> emailStoreService.updateEmailState(id, EmailState.SENT, null))
+        .as("Exception should contain significant keywords and given id.")
+        .withMessageContainingAll("no", "email", "id", String.valueOf(id));
+  }
+
+  @Test
+  void shouldNotUpdateStateOfEmailOfOtherVersion() {
+    // Given
+    Email storedEmail = createExampleEmailEntity(42, EmailState.SENT);
+    storedEmail.setVersion(3);
+    long id = storedEmail.getId();
+
+    when(emailJdbcRepository.transitionStateById(eq(id), any(), eq(EmailState.SPAM), eq(2L)))
+        .thenReturn(Optional.empty());
+    when(emailJdbcRepository.findDtosByIdIn(List.of(id)))
+        .thenReturn(List.of(storedEmail.toDto()));
+
+    // When & Then
+    assertThatExceptionOfType(EmailVersionConflictException.class)
+        .as("Exception should be thrown for state change based on other version.")
+        .isThrownBy(() -> emailStoreService.updateEmailState(id, EmailState.SPAM, 2L))
+        .as("Exception should contain stored and expected version.")
+        .withMessageContainingAll("version", "3", "2");
+  }
+
+  @Test
+  void shouldUpdateStatesOfAllowedEmails() {
+    // Given
+    List<Long> ids = List.of(42L, 16L, 24L, 8L);
+
+    when(emailJdbcRepository.transitionStateByIdIn(ids, EnumSet.of(EmailState.DRAFT), EmailState.SENT))
+        .thenReturn(List.of(8L));
+    when(emailJdbcRepository.transitionStateByIdIn(List.of(42L, 16L, 24L), EnumSet.allOf(EmailState.class),
+        EmailState.SENT))
+        .thenReturn(List.of(42L, 16L));
+
+    // When
+    List<Long> updatedIds = emailStoreService.updateEmailStates(ids, EmailState.SENT);
+
+    // Then
+    assertThat(updatedIds)
+        .as("Ids of updated emails should be returned in ascending order.")
+        .containsExactly(8L, 16L, 42L);
+    verify(jdbcTemplate).queryForList(anyString(), eq(EmailChangeBus.CHANNEL), eq("ids:8,16,42"));
+    // Verify only sent drafts have been enqueued for spam classification.
+    verify(spamService).enqueueSentEmails(List.of(8L));
+  }
+
   @Test
   void shouldDeleteExistingEmail() throws EmailNotFoundException {
     // Given
     long id = 42;
-    Email emailToDelete = createExampleEmailEntity(id);
-    Email expectedDeletedEmail = createExampleEmailEntity(id);
-    expectedDeletedEmail.setState(EmailState.DELETED);
 
-    when(emailRepository.findById(id))
-        .thenReturn(Optional.of(emailToDelete));
+    when(emailRepository.updateStateByIdIn(List.of(id), EmailState.DELETED))
+        .thenReturn(1);
 
     // When
     emailStoreService.deleteEmail(id);
 
     // Then
-    // Verify save(...) of repository has been called with updated email.
-    verify(emailRepository).save(expectedDeletedEmail);
+    // Verify state of email has been updated to DELETED (without loading email).
+    verify(emailRepository).updateStateByIdIn(List.of(id), EmailState.DELETED);
+    verify(emailRepository, never()).findById(anyLong());
   }
 
   @Test
@@ -340,37 +859,52 @@ class EmailStoreServiceTest {
     // Given
     long id = 24;
 
+    when(emailRepository.updateStateByIdIn(List.of(id), EmailState.DELETED))
+        .thenReturn(0);
+
     // When & Then
     assertThatExceptionOfType(EmailNotFoundException.class)
         .as("Exception should be thrown for no-email id.")
         .isThrownBy(() -> emailStoreService.deleteEmail(id))
         .as("Exception should contain significant keywords and given id.")
         .withMessageContainingAll("no", "email", "id", String.valueOf(id));
-    // Verify save(...) of repository has NOT been called.
-    verify(emailRepository, never()).save(any());
   }
 
   @Test
   void shouldDeleteMatchingEmails() {
     // Given
-    List<Long> ids = List.of(42L, 16L);
+    List<Long> ids = List.of(42L, 16L, 24L);
 
-    Email emailToDelete1 = createExampleEmailEntity(42L);
-    Email expectedDeletedEmail1 = createExampleEmailEntity(42L);
-    expectedDeletedEmail1.setState(EmailState.DELETED);
-    Email emailToDelete2 = createExampleEmailEntity(16L);
-    Email expectedDeletedEmail2 = createExampleEmailEntity(16L);
-    expectedDeletedEmail2.setState(EmailState.DELETED);
+    when(emailRepository.updateStateByIdIn(ids, EmailState.DELETED))
+        .thenReturn(2);
 
-    when(emailRepository.findAllById(ids))
-        .thenReturn(List.of(emailToDelete1, emailToDelete2));
+    // When
+    int deletedEmailsCount = emailStoreService.deleteEmails(ids);
+
+    // Then
+    assertThat(deletedEmailsCount)
+        .as("Number of deleted emails should be returned.")
+        .isEqualTo(2);
+    // Verify emails have not been loaded.
+    verify(emailRepository, never()).findAllById(any());
+  }
+
+  @Test
+  void shouldDeleteMatchingEmailsChunkWise() {
+    // Given
+    List<Long> ids = LongStream.range(0, 2500).boxed().toList();
 
+    when(emailRepository.updateStateByIdIn(anyList(), eq(EmailState.DELETED)))
+        .thenAnswer(invocation -> invocation.<List<Long>>getArgument(0).size());
 
     // When
-    emailStoreService.deleteEmails(ids);
+    int deletedEmailsCount = emailStoreService.deleteEmails(ids);
 
     // Then
-    // Verify saveAll(...) of repository has been called with updated emails.
-    verify(emailRepository).saveAll(List.of(expectedDeletedEmail1, expectedDeletedEmail2));
+    assertThat(deletedEmailsCount)
+        .as("All emails should have been deleted.")
+        .isEqualTo(2500);
+    // Verify a single statement per chunk of ids.
+    verify(emailRepository, times(3)).updateStateByIdIn(anyList(), eq(EmailState.DELETED));
   }
 }
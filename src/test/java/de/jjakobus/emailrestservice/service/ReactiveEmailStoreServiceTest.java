@@ -0,0 +1,332 @@
+package de.jjakobus.emailrestservice.service;
+
+import de.jjakobus.emailrestservice.model.EmailState;
+import de.jjakobus.emailrestservice.model.EmailUpdateStatus;
+import de.jjakobus.emailrestservice.model.dtos.EmailDto;
+import de.jjakobus.emailrestservice.model.dtos.EmailUpdateResultDto;
+import de.jjakobus.emailrestservice.model.exceptions.EmailNotFoundException;
+import de.jjakobus.emailrestservice.model.exceptions.EmailUpdateNotAllowedException;
+import de.jjakobus.emailrestservice.model.exceptions.EmailVersionConflictException;
+import de.jjakobus.emailrestservice.service.repositories.ReactiveEmailRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.AdditionalAnswers;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.sql.DataSource;
+import java.util.EnumSet;
+import java.util.List;
+
+import static de.jjakobus.emailrestservice.EmailTestUtils.createExampleEmail;
+import static de.jjakobus.emailrestservice.EmailTestUtils.createExampleEmailEntity;
+import static de.jjakobus.emailrestservice.EmailTestUtils.createUpdatedEmailOfState;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests the functionality of managing stored emails non-blocking in unit tests. Rules of updates are covered by
+ * {@link EmailStoreServiceTest}, as both services share them.
+ *
+ * @author jjakobus
+ */
+@ExtendWith(MockitoExtension.class)
+class ReactiveEmailStoreServiceTest {
+
+  /** Number of ids per range enqueued for the spam classification. */
+  private static final long SPAM_FILTER_ID_RANGE_SIZE = 20;
+
+  @Mock
+  private ReactiveEmailRepository emailRepository;
+
+  @Mock
+  private TransactionalOperator transactionalOperator;
+
+  @Mock
+  private EmailSpamFilterService spamService;
+
+  @Mock
+  private SpamFilterRegistry spamFilterRegistry;
+
+  @Mock
+  private JdbcTemplate jdbcTemplate;
+
+  @Mock
+  private DataSource dataSource;
+
+  private ReactiveEmailStoreService emailStoreService;
+
+  @BeforeEach
+  void createServiceUnderTest() {
+    EmailCache emailCache = new EmailCache(DataSize.ofMegabytes(1));
+    // Bus is not started, so only changes published by this instance are handled.
+    EmailChangeBus emailChangeBus = new EmailChangeBus(emailCache, spamFilterRegistry, jdbcTemplate, dataSource);
+    emailStoreService = new ReactiveEmailStoreService(emailRepository, transactionalOperator, spamService, emailCache,
+        emailChangeBus, false, SPAM_FILTER_ID_RANGE_SIZE);
+
+    // Run changes without transaction.
+    lenient().when(transactionalOperator.transactional(any(Mono.class)))
+        .thenAnswer(AdditionalAnswers.returnsFirstArg());
+    lenient().when(emailRepository.sendNotification(anyString(), anyString()))
+        .thenReturn(Mono.empty());
+    lenient().when(emailRepository.enqueueSpamFilterIds(anyString(), any(), anyLong()))
+        .thenReturn(Mono.just(1L));
+  }
+
+  @Test
+  void shouldGetCachedEmail() {
+    // Given
+    long id = 42;
+    EmailDto expectedExistingEmail = createExampleEmail(id);
+
+    when(emailRepository.findDtosByIdIn(List.of(id)))
+        .thenReturn(Flux.just(expectedExistingEmail));
+
+    // When
+    emailStoreService.getEmail(id).block();
+    EmailDto actualCachedEmail = emailStoreService.getEmail(id).block();
+    List<EmailDto> actualCachedEmails = emailStoreService.getEmails(List.of(id)).block();
+
+    // Then
+    assertThat(actualCachedEmail)
+        .as("Cached email should be equal to expected email.")
+        .isEqualTo(expectedExistingEmail);
+    assertThat(actualCachedEmails)
+        .as("Cached email should be found by bulk query, too.")
+        .containsExactly(expectedExistingEmail);
+    // Verify email has been read from database once only.
+    verify(emailRepository).findDtosByIdIn(List.of(id));
+  }
+
+  @Test
+  void shouldNotGetNonExistingEmail() {
+    // Given
+    long id = 24;
+
+    when(emailRepository.findDtosByIdIn(List.of(id)))
+        .thenReturn(Flux.empty());
+
+    // When
+    Mono<EmailDto> email = emailStoreService.getEmail(id);
+
+    // Then
+    assertThatThrownBy(email::block)
+        .as("Error should be emitted for no-email id.")
+        .hasCauseInstanceOf(EmailNotFoundException.class)
+        .hasMessageContainingAll("no", "email", "id", String.valueOf(id));
+  }
+
+  @Test
+  void shouldUpdateEmailAndNotifyInstances() {
+    // Given
+    long id = 42;
+    EmailDto updatedEmail = createUpdatedEmailOfState(id, EmailState.DRAFT).toDto();
+
+    when(emailRepository.findDtosByIdIn(List.of(id)))
+        .thenReturn(Flux.just(createExampleEmail(id)));
+    when(emailRepository.update(id, 0, updatedEmail))
+        .thenReturn(Mono.just(1L));
+
+    // When
+    Long version = emailStoreService.updateEmail(id, updatedEmail, 0L).block();
+
+    // Then
+    assertThat(version)
+        .as("Version of updated email should be incremented.")
+        .isEqualTo(1L);
+    verify(emailRepository).update(id, 0, updatedEmail);
+    verify(emailRepository).sendNotification(EmailChangeBus.CHANNEL, "ids:" + id);
+  }
+
+  @Test
+  void shouldNotUpdateConcurrentlyChangedEmail() {
+    // Given
+    long id = 42;
+    EmailDto updatedEmail = createUpdatedEmailOfState(id, EmailState.DRAFT).toDto();
+
+    when(emailRepository.findDtosByIdIn(List.of(id)))
+        .thenReturn(Flux.just(createExampleEmail(id)));
+    // Version has changed since email has been read.
+    when(emailRepository.update(id, 0, updatedEmail))
+        .thenReturn(Mono.just(0L));
+
+    // When
+    Mono<Long> update = emailStoreService.updateEmail(id, updatedEmail, null);
+
+    // Then
+    assertThatThrownBy(update::block)
+        .as("Error should be emitted if email is changed between reading and writing it.")
+        .hasCauseInstanceOf(EmailVersionConflictException.class);
+    verify(emailRepository, never()).sendNotification(anyString(), anyString());
+  }
+
+  @Test
+  void shouldNotProcessNonAllowedUpdate() {
+    // Given
+    long id = 42;
+    EmailDto updatedEmail = createUpdatedEmailOfState(id, EmailState.SENT).toDto();
+
+    when(emailRepository.findDtosByIdIn(List.of(id)))
+        .thenReturn(Flux.just(createExampleEmailEntity(id, EmailState.SENT).toDto()));
+    when(emailRepository.update(anyLong(), anyLong(), any()))
+        .thenReturn(Mono.just(1L));
+
+    // When
+    Mono<Long> update = emailStoreService.updateEmail(id, updatedEmail, null);
+
+    // Then
+    assertThatThrownBy(update::block)
+        .as("Error should be emitted for changed content of SENT email.")
+        .hasCauseInstanceOf(EmailUpdateNotAllowedException.class);
+    // Verify neither email has been updated nor instances have been notified.
+    verify(emailRepository, never()).sendNotification(anyString(), anyString());
+  }
+
+  @Test
+  void shouldUpdateEmailsWithResultPerEmail() {
+    // Given
+    EmailDto updatedDraft = createUpdatedEmailOfState(42, EmailState.DRAFT).toDto();
+    List<EmailDto> updatedEmails = List.of(
+        updatedDraft,
+        createUpdatedEmailOfState(16, EmailState.SENT).toDto(), // Not stored.
+        createUpdatedEmailOfState(43, EmailState.SENT).toDto()); // Content change of SENT email.
+
+    when(emailRepository.findDtosByIdIn(List.of(42L, 16L, 43L)))
+        .thenReturn(Flux.just(createExampleEmail(42), createExampleEmailEntity(43, EmailState.SENT).toDto()));
+    when(emailRepository.update(anyLong(), anyLong(), any()))
+        .thenReturn(Mono.just(1L));
+
+    // When
+    List<EmailUpdateResultDto> results = emailStoreService.updateEmails(updatedEmails).block();
+
+    // Then
+    assertThat(results)
+        .as("Results should be returned in order of updated emails.")
+        .extracting(EmailUpdateResultDto::id, EmailUpdateResultDto::status, EmailUpdateResultDto::version)
+        .containsExactly(
+            tuple(42L, EmailUpdateStatus.UPDATED, 1L),
+            tuple(16L, EmailUpdateStatus.NOT_FOUND, null),
+            tuple(43L, EmailUpdateStatus.NOT_ALLOWED, null));
+    verify(emailRepository).update(42, 0, updatedDraft);
+    verify(emailRepository).update(anyLong(), anyLong(), any());
+    verify(emailRepository).sendNotification(EmailChangeBus.CHANNEL, "ids:42,16,43");
+  }
+
+  @Test
+  void shouldUpdateEmailStateWithoutReadingEmail() {
+    // Given
+    long id = 42;
+
+    when(emailRepository.transitionStateById(eq(id), any(), eq(EmailState.SENT), isNull()))
+        .thenReturn(Mono.just(1L));
+
+    // When
+    Long version = emailStoreService.updateEmailState(id, EmailState.SENT, null).block();
+
+    // Then
+    assertThat(version)
+        .as("New version of email should be returned.")
+        .isEqualTo(1L);
+    verify(emailRepository, never()).findDtosByIdIn(any());
+    verify(emailRepository).sendNotification(EmailChangeBus.CHANNEL, "ids:" + id);
+  }
+
+  @Test
+  void shouldEnqueueSentDraftsAfterCommit() {
+    // Given
+    long draftId = 42;
+    long spamId = 43;
+
+    when(emailRepository.transitionStateByIdIn(List.of(draftId, spamId), EnumSet.of(EmailState.DRAFT),
+        EmailState.SENT))
+        .thenReturn(Flux.just(draftId));
+    when(emailRepository.transitionStateByIdIn(eq(List.of(spamId)), any(), eq(EmailState.SENT)))
+        .thenReturn(Flux.just(spamId));
+
+    // When
+    List<Long> updatedIds = emailStoreService.updateEmailStates(List.of(draftId, spamId), EmailState.SENT).block();
+
+    // Then
+    assertThat(updatedIds)
+        .as("Drafts and other emails should be changed to SENT.")
+        .containsExactly(draftId, spamId);
+    // Verify only the sent draft (not the email changed from SPAM) has been enqueued, after notifying instances.
+    InOrder inOrder = inOrder(emailRepository);
+    inOrder.verify(emailRepository).sendNotification(EmailChangeBus.CHANNEL, "ids:42,43");
+    inOrder.verify(emailRepository).enqueueSpamFilterIds(
+        EmailSpamFilterService.WATERMARK_NAME, List.of(draftId), SPAM_FILTER_ID_RANGE_SIZE);
+  }
+
+  @Test
+  void shouldNotUpdateEmailStateIfNotAllowed() {
+    // Given
+    long id = 42;
+
+    when(emailRepository.transitionStateById(eq(id), any(), eq(EmailState.SPAM), isNull()))
+        .thenReturn(Mono.empty());
+    when(emailRepository.findDtosByIdIn(List.of(id)))
+        .thenReturn(Flux.just(createExampleEmail(id)));
+
+    // When
+    Mono<Long> update = emailStoreService.updateEmailState(id, EmailState.SPAM, null);
+
+    // Then
+    assertThatThrownBy(update::block)
+        .as("Error should be emitted for DRAFT email changed to SPAM.")
+        .hasCauseInstanceOf(EmailUpdateNotAllowedException.class);
+    verify(emailRepository, never()).sendNotification(anyString(), anyString());
+  }
+
+  @Test
+  void shouldNotGetDeletedEmailFromCache() {
+    // Given
+    long id = 42;
+    EmailDto originalEmail = createExampleEmail(id);
+    EmailDto deletedEmail = new EmailDto(id, EmailState.DELETED, originalEmail.from(), originalEmail.to(),
+        originalEmail.cc(), originalEmail.subject(), originalEmail.body(), originalEmail.modifiedDate(),
+        originalEmail.version() + 1);
+
+    when(emailRepository.findDtosByIdIn(List.of(id)))
+        .thenReturn(Flux.just(originalEmail), Flux.just(deletedEmail));
+    when(emailRepository.updateStateByIdIn(List.of(id), EmailState.DELETED))
+        .thenReturn(Mono.just(1L));
+
+    // When
+    emailStoreService.getEmail(id).block();
+    emailStoreService.deleteEmail(id).block();
+    EmailDto actualEmail = emailStoreService.getEmail(id).block();
+
+    // Then
+    assertThat(actualEmail)
+        .as("Deleted email should be read again instead of served from cache.")
+        .isEqualTo(deletedEmail);
+  }
+
+  @Test
+  void shouldNotDeleteNonExistingEmail() {
+    // Given
+    long id = 42;
+
+    when(emailRepository.updateStateByIdIn(List.of(id), EmailState.DELETED))
+        .thenReturn(Mono.just(0L));
+
+    // When
+    Mono<Void> delete = emailStoreService.deleteEmail(id);
+
+    // Then
+    assertThatThrownBy(delete::block)
+        .as("Error should be emitted for no-email id.")
+        .hasCauseInstanceOf(EmailNotFoundException.class);
+  }
+}
@@ -0,0 +1,171 @@
+package de.jjakobus.emailrestservice.service;
+
+import de.jjakobus.emailrestservice.model.SpamFilter;
+import de.jjakobus.emailrestservice.model.SpamFilterType;
+import de.jjakobus.emailrestservice.model.dtos.SpamFilterDto;
+import de.jjakobus.emailrestservice.service.repositories.SpamFilterRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests the functionality of managing SPAM filters in unit tests.
+ *
+ * @author jjakobus
+ */
+@ExtendWith(MockitoExtension.class)
+class SpamFilterRegistryTest {
+
+  private static final SpamFilterDto CARL_FILTER = new SpamFilterDto(SpamFilterType.SENDER, "carl@gbtec.com");
+  private static final SpamFilterDto PETER_FILTER = new SpamFilterDto(SpamFilterType.SENDER, "peter@gmx.de");
+
+  @Mock
+  private SpamFilterRepository spamFilterRepository;
+
+  private SpamFilterRegistry spamFilterRegistry;
+
+  @BeforeEach
+  void createRegistryUnderTest() {
+    when(spamFilterRepository.findAll())
+        .thenReturn(List.of(new SpamFilter(CARL_FILTER.type(), CARL_FILTER.value())));
+
+    spamFilterRegistry = new SpamFilterRegistry(spamFilterRepository);
+    spamFilterRegistry.reload(); // Done by Spring after creation.
+  }
+
+  @Test
+  void shouldLoadPersistedFilters() {
+    // Given
+    // When
+    SpamFilterSnapshot snapshot = spamFilterRegistry.getSnapshot();
+
+    // Then
+    assertThat(snapshot.getFilters())
+        .as("Snapshot should contain persisted filters.")
+        .containsExactly(CARL_FILTER);
+    assertThat(snapshot.matchesSender("carl@gbtec.com"))
+        .as("Sender of persisted filter should be matched.")
+        .isTrue();
+  }
+
+  @Test
+  void shouldNotAccessDatabaseOnCreation() {
+    // Given
+    SpamFilterRepository otherSpamFilterRepository = mock(SpamFilterRepository.class);
+
+    // When
+    SpamFilterRegistry createdRegistry = new SpamFilterRegistry(otherSpamFilterRepository);
+
+    // Then
+    assertThat(createdRegistry.getSnapshot().isEmpty())
+        .as("Registry should have no filters until loaded.")
+        .isTrue();
+    verifyNoInteractions(otherSpamFilterRepository);
+  }
+
+  @Test
+  void shouldAddFilterAsNewSnapshot() {
+    // Given
+    SpamFilterSnapshot oldSnapshot = spamFilterRegistry.getSnapshot();
+
+    when(spamFilterRepository.existsByTypeAndValue(PETER_FILTER.type(), PETER_FILTER.value()))
+        .thenReturn(false);
+    when(spamFilterRepository.findAll())
+        .thenReturn(List.of(
+            new SpamFilter(CARL_FILTER.type(), CARL_FILTER.value()),
+            new SpamFilter(PETER_FILTER.type(), PETER_FILTER.value())));
+
+    // When
+    boolean added = spamFilterRegistry.addFilter(PETER_FILTER);
+
+    // Then
+    assertThat(added)
+        .as("New filter should be added.")
+        .isTrue();
+    verify(spamFilterRepository).save(new SpamFilter(PETER_FILTER.type(), PETER_FILTER.value()));
+    assertThat(spamFilterRegistry.getSnapshot().getFilters())
+        .as("Current snapshot should contain new filter.")
+        .containsExactlyInAnyOrder(CARL_FILTER, PETER_FILTER);
+    assertThat(oldSnapshot.getFilters())
+        .as("Previous snapshot should be left unchanged.")
+        .containsExactly(CARL_FILTER);
+  }
+
+  @Test
+  void shouldNotAddPresentFilter() {
+    // Given
+    when(spamFilterRepository.existsByTypeAndValue(CARL_FILTER.type(), CARL_FILTER.value()))
+        .thenReturn(true);
+
+    // When
+    boolean added = spamFilterRegistry.addFilter(CARL_FILTER);
+
+    // Then
+    assertThat(added)
+        .as("Present filter should not be added again.")
+        .isFalse();
+    verify(spamFilterRepository, never()).save(any());
+  }
+
+  @Test
+  void shouldNotAddFilterAddedConcurrently() {
+    // Given
+    when(spamFilterRepository.existsByTypeAndValue(PETER_FILTER.type(), PETER_FILTER.value()))
+        .thenReturn(false);
+    when(spamFilterRepository.save(any()))
+        .thenThrow(new DataIntegrityViolationException("duplicate key"));
+
+    // When
+    boolean added = spamFilterRegistry.addFilter(PETER_FILTER);
+
+    // Then
+    assertThat(added)
+        .as("Filter added concurrently (e.g. by other instance) should not be reported as added.")
+        .isFalse();
+  }
+
+  @Test
+  void shouldRemoveFilter() {
+    // Given
+    when(spamFilterRepository.deleteByTypeAndValue(CARL_FILTER.type(), CARL_FILTER.value()))
+        .thenReturn(1L);
+    when(spamFilterRepository.findAll())
+        .thenReturn(List.of());
+
+    // When
+    boolean removed = spamFilterRegistry.removeFilter(CARL_FILTER);
+
+    // Then
+    assertThat(removed)
+        .as("Present filter should be removed.")
+        .isTrue();
+    assertThat(spamFilterRegistry.getSnapshot().isEmpty())
+        .as("Current snapshot should not contain removed filter.")
+        .isTrue();
+  }
+
+  @Test
+  void shouldNotRemoveNonExistingFilter() {
+    // Given
+    when(spamFilterRepository.deleteByTypeAndValue(PETER_FILTER.type(), PETER_FILTER.value()))
+        .thenReturn(0L);
+
+    // When
+    boolean removed = spamFilterRegistry.removeFilter(PETER_FILTER);
+
+    // Then
+    assertThat(removed)
+        .as("Non-existing filter cannot be removed.")
+        .isFalse();
+    verify(spamFilterRepository, times(1)).findAll(); // Initial load only.
+  }
+}
@@ -0,0 +1,297 @@
+package de.jjakobus.emailrestservice.service.repositories;
+
+import de.jjakobus.emailrestservice.model.Email;
+import de.jjakobus.emailrestservice.model.EmailAddress;
+import de.jjakobus.emailrestservice.model.EmailState;
+import de.jjakobus.emailrestservice.model.dtos.EmailDto;
+import org.assertj.core.api.recursive.comparison.RecursiveComparisonConfiguration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.LongStream;
+
+import static de.jjakobus.emailrestservice.EmailTestUtils.createExampleEmailEntity;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests bulk inserts of {@link EmailJdbcRepository} against a temporary database and compares their throughput with
+ * inserts of the JPA {@link EmailRepository}.
+ *
+ * @author jjakobus
+ */
+@Testcontainers(disabledWithoutDocker = true)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@TestPropertySource(properties = {
+    "spring.datasource.url=jdbc:tc:postgresql://localhost:5432/emails-test", // Use separate test database.
+    "spring.datasource.username=test",
+    "spring.datasource.password=test"
+})
+class EmailJdbcRepositoryIT {
+
+  /** Number of emails inserted to measure throughput. */
+  private static final int THROUGHPUT_EMAILS_COUNT = 5_000;
+
+  /** Rows per email in example emails (email + 2 "to" + 1 "cc" receivers). */
+  private static final int ROWS_PER_EMAIL = 4;
+
+  private final Logger logger = LoggerFactory.getLogger(EmailJdbcRepositoryIT.class);
+
+  /**
+   * Postgres docker container for this integration test.
+   */
+  @Container
+  @ServiceConnection
+  @SuppressWarnings("resource") // Misleading warning about closable container when chaining with...() calls.
+  static PostgreSQLContainer<?> postgresContainer =
+      new PostgreSQLContainer<>("postgres:16.3-alpine")
+          .withDatabaseName("emails-test")
+          .withUsername("test")
+          .withPassword("test")
+          .withExposedPorts(5432);
+
+  @Autowired
+  private EmailJdbcRepository emailJdbcRepository;
+
+  @Autowired
+  private EmailRepository emailRepository;
+
+  @Autowired
+  private TransactionTemplate transactionTemplate;
+
+  @BeforeEach
+  void deleteEmailsInDatabase() {
+    emailRepository.deleteAll();
+  }
+
+  @Test
+  void shouldInsertAllEmailsWithReceivers() {
+    // Given
+    List<Email> newEmails = createNewEmails(120);
+
+    // When
+    List<Email> insertedEmails = emailJdbcRepository.insertAll(newEmails);
+
+    // Then
+    assertThat(insertedEmails)
+        .as("All emails should have distinct ids.")
+        .extracting(Email::getId)
+        .doesNotHaveDuplicates();
+    transactionTemplate.executeWithoutResult(status ->
+        assertThat(insertedEmails)
+            .as("Stored emails should contain all information including receivers.")
+            .allSatisfy(email -> assertThat(emailRepository.findById(email.getId()))
+                .isPresent().get()
+                .usingRecursiveComparison()
+                // Database returns timestamps (unequal to dates), so compare time only.
+                .withEqualsForType((date1, date2) -> date1.getTime() == date2.getTime(), Date.class)
+                .isEqualTo(email)));
+  }
+
+  @Test
+  void shouldCopyAllEmailsWithReceivers() {
+    // Given
+    List<Email> newEmails = createNewEmails(120);
+    // Use values that need escaping in CSV and empty values (which must not become NULL).
+    newEmails.get(0).setSubject("Quoted \"subject\", with comma");
+    newEmails.get(0).setBody("Multi-line\nbody with \\ backslash");
+    newEmails.get(1).setSubject("");
+    newEmails.get(1).setBody("");
+
+    // When
+    List<Email> copiedEmails = emailJdbcRepository.copyAll(newEmails);
+
+    // Then
+    assertThat(copiedEmails)
+        .as("All emails should have distinct ids.")
+        .extracting(Email::getId)
+        .doesNotHaveDuplicates();
+    transactionTemplate.executeWithoutResult(status ->
+        assertThat(copiedEmails)
+            .as("Stored emails should contain all information including receivers.")
+            .allSatisfy(email -> assertThat(emailRepository.findById(email.getId()))
+                .isPresent().get()
+                .usingRecursiveComparison()
+                // Database returns timestamps (unequal to dates), so compare time only.
+                .withEqualsForType((date1, date2) -> date1.getTime() == date2.getTime(), Date.class)
+                .isEqualTo(email)));
+  }
+
+  @Test
+  void shouldFindEmailsByIdsAsDtos() {
+    // Given
+    List<Email> newEmails = createNewEmails(3);
+    newEmails.get(1).setCc(new ArrayList<>());
+    List<Email> insertedEmails = emailJdbcRepository.insertAll(newEmails);
+    List<Long> searchedIds = List.of(insertedEmails.get(2).getId(), insertedEmails.get(1).getId(), -1L);
+
+    // When
+    List<EmailDto> foundEmails = emailJdbcRepository.findDtosByIdIn(searchedIds);
+
+    // Then
+    assertThat(foundEmails)
+        .as("Emails with matching ids should be found ordered by id, including all information and receivers.")
+        .usingRecursiveFieldByFieldElementComparator(RecursiveComparisonConfiguration.builder()
+            // Database returns timestamps (unequal to dates), so compare time only.
+            .withEqualsForType((date1, date2) -> date1.getTime() == date2.getTime(), Date.class)
+            .build())
+        .containsExactly(insertedEmails.get(1).toDto(), insertedEmails.get(2).toDto());
+  }
+
+  @Test
+  void shouldNotReuseIdsOfJpaInserts() {
+    // Given
+    Email jpaEmail = emailRepository.save(createNewEmails(1).get(0));
+
+    // When
+    List<Email> insertedEmails = emailJdbcRepository.insertAll(createNewEmails(60));
+
+    // Then
+    assertThat(insertedEmails)
+        .as("JDBC inserts should not use ids allocated by JPA.")
+        .extracting(Email::getId)
+        .doesNotContain(jpaEmail.getId());
+    assertThat(emailRepository.count())
+        .as("All emails should be stored.")
+        .isEqualTo(61);
+  }
+
+  @Test
+  void shouldTransitionStateOfMatchingEmailsInIdRange() {
+    // Given
+    List<Email> newEmails = createNewEmails(4);
+    newEmails.forEach(email -> email.setState(EmailState.SENT));
+    newEmails.get(1).setState(EmailState.DRAFT);
+    newEmails.get(2).setFrom(new EmailAddress("other@domain.de", null));
+    List<Email> insertedEmails = emailJdbcRepository.insertAll(newEmails);
+    long fromId = insertedEmails.get(0).getId();
+    long toId = insertedEmails.get(3).getId();
+
+    // When
+    int updatedCount = emailJdbcRepository.transitionStateBySendersInIdRange(
+        List.of("peter.mueller@gmx.de"), EmailState.SENT, EmailState.SPAM, fromId, toId);
+
+    // Then
+    assertThat(updatedCount)
+        .as("Only last email is matching sender and state in (exclusive) id range.")
+        .isEqualTo(1);
+    assertThat(emailRepository.findAllById(insertedEmails.stream().map(Email::getId).toList()))
+        .as("Only matching email should have new state.")
+        .extracting(Email::getState)
+        .containsExactlyInAnyOrder(EmailState.SENT, EmailState.DRAFT, EmailState.SENT, EmailState.SPAM);
+  }
+
+  @Test
+  void shouldTransitionStateOfEmailsFromMatchingDomainsInIdRange() {
+    // Given
+    List<Email> newEmails = createNewEmails(3);
+    newEmails.forEach(email -> email.setState(EmailState.SENT));
+    newEmails.get(1).setFrom(new EmailAddress("carl@EU.Bulkmailer.net", null));
+    newEmails.get(2).setFrom(new EmailAddress("other@domain.de", null));
+    List<Email> insertedEmails = emailJdbcRepository.insertAll(newEmails);
+    long fromId = insertedEmails.get(0).getId() - 1;
+    long toId = insertedEmails.get(2).getId();
+
+    // When
+    List<String> domains = emailJdbcRepository.findSenderDomainsInIdRange(EmailState.SENT, fromId, toId);
+    int updatedCount = emailJdbcRepository.transitionStateBySenderDomainsInIdRange(
+        List.of("eu.bulkmailer.net"), EmailState.SENT, EmailState.SPAM, fromId, toId);
+
+    // Then
+    assertThat(domains)
+        .as("All distinct sender domains should be found in lower case.")
+        .containsExactlyInAnyOrder("gmx.de", "eu.bulkmailer.net", "domain.de");
+    assertThat(updatedCount)
+        .as("Only email of matching domain should be updated.")
+        .isEqualTo(1);
+    assertThat(emailRepository.findById(insertedEmails.get(1).getId()))
+        .isPresent().get()
+        .as("Email of matching domain should have new state.")
+        .returns(EmailState.SPAM, Email::getState);
+  }
+
+  @Test
+  void shouldTransitionStateOfEmailsWithMatchingContent() {
+    // Given
+    List<Email> newEmails = createNewEmails(3);
+    newEmails.forEach(email -> email.setState(EmailState.SENT));
+    newEmails.get(1).setBody("Buy cheap pills now!");
+    newEmails.get(2).setState(EmailState.DRAFT);
+    newEmails.get(2).setBody("Buy cheap pills now!");
+    List<Email> insertedEmails = emailJdbcRepository.insertAll(newEmails);
+    long fromId = insertedEmails.get(0).getId() - 1;
+    long toId = insertedEmails.get(2).getId();
+
+    // When
+    List<Long> matchingIds = emailJdbcRepository.findIdsByContentInIdRange(EmailState.SENT, fromId, toId,
+        (subject, body) -> body.contains("cheap pills"));
+    int updatedCount = emailJdbcRepository.transitionStateByIdIn(matchingIds, EmailState.SENT, EmailState.SPAM);
+
+    // Then
+    assertThat(matchingIds)
+        .as("Only SENT email with matching content should be found.")
+        .containsExactly(insertedEmails.get(1).getId());
+    assertThat(updatedCount)
+        .as("Only email with matching content should be updated.")
+        .isEqualTo(1);
+    assertThat(emailRepository.findById(insertedEmails.get(1).getId()))
+        .isPresent().get()
+        .as("Email with matching content should have new state.")
+        .returns(EmailState.SPAM, Email::getState);
+  }
+
+  @Test
+  void shouldInsertFasterThanJpa() {
+    // Given
+    List<Email> jpaEmails = createNewEmails(THROUGHPUT_EMAILS_COUNT);
+    List<Email> jdbcEmails = createNewEmails(THROUGHPUT_EMAILS_COUNT);
+
+    // When
+    long jpaStart = System.nanoTime();
+    emailRepository.saveAll(jpaEmails);
+    long jpaNanos = System.nanoTime() - jpaStart;
+
+    long jdbcStart = System.nanoTime();
+    emailJdbcRepository.insertAll(jdbcEmails);
+    long jdbcNanos = System.nanoTime() - jdbcStart;
+
+    // Then
+    double jpaRowsPerSecond = rowsPerSecond(jpaNanos);
+    double jdbcRowsPerSecond = rowsPerSecond(jdbcNanos);
+    logger.info("Inserted {} emails ({} rows): JPA saveAll {} rows/s, JDBC batches {} rows/s.",
+        THROUGHPUT_EMAILS_COUNT, THROUGHPUT_EMAILS_COUNT * ROWS_PER_EMAIL,
+        Math.round(jpaRowsPerSecond), Math.round(jdbcRowsPerSecond));
+
+    assertThat(jdbcRowsPerSecond)
+        .as("JDBC batch inserts should have higher throughput than JPA inserts.")
+        .isGreaterThan(jpaRowsPerSecond);
+  }
+
+  private static double rowsPerSecond(long nanos) {
+    return THROUGHPUT_EMAILS_COUNT * ROWS_PER_EMAIL / (nanos / 1e9);
+  }
+
+  private static List<Email> createNewEmails(int count) {
+    return LongStream.range(0, count)
+        .mapToObj(i -> {
+          Email email = createExampleEmailEntity(0);
+          // Use mutable lists as JPA replaces element collections.
+          email.setTo(new ArrayList<>(email.getTo()));
+          email.setCc(new ArrayList<>(email.getCc()));
+          return email;
+        })
+        .toList();
+  }
+}
@@ -0,0 +1,221 @@
+package de.jjakobus.emailrestservice.service.repositories;
+
+import de.jjakobus.emailrestservice.service.repositories.SpamFilterRangeRepository.IdRange;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests enqueuing and claiming id ranges by {@link SpamFilterRangeRepository} against a temporary database. Concurrent
+ * transactions must claim disjoint ranges, and ranges of rolled back transactions must be claimed again.
+ *
+ * @author jjakobus
+ */
+@Testcontainers(disabledWithoutDocker = true)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@TestPropertySource(properties = {
+    "spring.datasource.url=jdbc:tc:postgresql://localhost:5432/emails-test", // Use separate test database.
+    "spring.datasource.username=test",
+    "spring.datasource.password=test"
+})
+class SpamFilterRangeRepositoryIT {
+
+  /** Name of watermark used by tests. */
+  private static final String WATERMARK_NAME = "spam-filter-test";
+
+  /**
+   * Postgres docker container for this integration test.
+   */
+  @Container
+  @ServiceConnection
+  @SuppressWarnings("resource") // Misleading warning about closable container when chaining with...() calls.
+  static PostgreSQLContainer<?> postgresContainer =
+      new PostgreSQLContainer<>("postgres:16.3-alpine")
+          .withDatabaseName("emails-test")
+          .withUsername("test")
+          .withPassword("test")
+          .withExposedPorts(5432);
+
+  @Autowired
+  private SpamFilterRangeRepository spamFilterRangeRepository;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @Autowired
+  private TransactionTemplate transactionTemplate;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @BeforeEach
+  void clearQueue() {
+    jdbcTemplate.update("DELETE FROM spam_filter_pending_range");
+    jdbcTemplate.update("DELETE FROM spam_filter_watermark WHERE name = ?", WATERMARK_NAME);
+  }
+
+  @Test
+  void shouldEnqueueIdsAboveWatermarkOnce() {
+    // Given
+    // When
+    int enqueuedCount = spamFilterRangeRepository.enqueueIdRanges(WATERMARK_NAME, 42, 20);
+    int enqueuedAgainCount = spamFilterRangeRepository.enqueueIdRanges(WATERMARK_NAME, 42, 20);
+
+    // Then
+    assertThat(enqueuedCount)
+        .as("Ids up to 42 should be enqueued in ranges of 20 ids.")
+        .isEqualTo(3);
+    assertThat(enqueuedAgainCount)
+        .as("Ids below watermark should not be enqueued again.")
+        .isZero();
+    assertThat(claimAllIdRanges())
+        .as("Ranges should cover all ids without overlaps.")
+        .containsExactly(new IdRange(0, 20), new IdRange(20, 40), new IdRange(40, 42));
+    assertThat(jdbcTemplate.queryForObject(
+        "SELECT last_classified_email_id FROM spam_filter_watermark WHERE name = ?", Long.class, WATERMARK_NAME))
+        .as("Watermark should be advanced to highest enqueued id.")
+        .isEqualTo(42L);
+  }
+
+  @Test
+  void shouldMergeEnqueuedRangesWithPendingRanges() {
+    // Given
+    // Range left over from before the watermark has been reset (e.g. to classify all emails again).
+    jdbcTemplate.update("INSERT INTO spam_filter_pending_range (range_start, range_end) VALUES (0, 500)");
+
+    // When
+    int enqueuedCount = spamFilterRangeRepository.enqueueIdRanges(WATERMARK_NAME, 100000, 100000);
+
+    // Then
+    assertThat(enqueuedCount)
+        .as("Range starting at pending range should be enqueued.")
+        .isEqualTo(1);
+    assertThat(claimAllIdRanges())
+        .as("Pending range should be extended to all enqueued ids.")
+        .containsExactly(new IdRange(0, 100000));
+  }
+
+  @Test
+  void shouldEnqueueIdsNotAboveWatermarkAgain() {
+    // Given
+    spamFilterRangeRepository.enqueueIdRanges(WATERMARK_NAME, 42, 20);
+    claimAllIdRanges();
+    // Range not claimed yet.
+    jdbcTemplate.update("INSERT INTO spam_filter_pending_range (range_start, range_end) VALUES (40, 42)");
+
+    // When
+    // Ids 5 and 7 share a range, 41 extends the pending range, 43 is above watermark.
+    int enqueuedCount = spamFilterRangeRepository.enqueueIds(WATERMARK_NAME, List.of(5L, 7L, 41L, 43L), 20);
+
+    // Then
+    assertThat(enqueuedCount)
+        .as("Ranges of ids not above watermark should be enqueued once.")
+        .isEqualTo(2);
+    assertThat(claimAllIdRanges())
+        .as("Ranges containing enqueued ids should be pending, merged with pending ranges.")
+        .containsExactly(new IdRange(0, 20), new IdRange(40, 60));
+  }
+
+  @Test
+  void shouldClaimDisjointRangesInConcurrentTransactions() {
+    // Given
+    spamFilterRangeRepository.enqueueIdRanges(WATERMARK_NAME, 40, 20);
+
+    TransactionTemplate otherTransactionTemplate = new TransactionTemplate(transactionManager);
+    otherTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+    // When
+    List<Optional<IdRange>> claimedRanges = transactionTemplate.execute(status -> {
+      Optional<IdRange> claimedRange = spamFilterRangeRepository.claimNextIdRange(List.of());
+      // Claim while first range is still locked, like another instance would.
+      Optional<IdRange> otherClaimedRange = otherTransactionTemplate.execute(
+          otherStatus -> spamFilterRangeRepository.claimNextIdRange(List.of()));
+      return List.of(claimedRange, otherClaimedRange);
+    });
+
+    // Then
+    assertThat(claimedRanges)
+        .as("Range claimed by one transaction should be skipped by the other.")
+        .containsExactly(Optional.of(new IdRange(0, 20)), Optional.of(new IdRange(20, 40)));
+    assertThat(claimAllIdRanges())
+        .as("Committed claims should remove ranges from queue.")
+        .isEmpty();
+  }
+
+  @Test
+  void shouldClaimRangeOfRolledBackTransactionAgain() {
+    // Given
+    spamFilterRangeRepository.enqueueIdRanges(WATERMARK_NAME, 20, 20);
+
+    // When
+    transactionTemplate.executeWithoutResult(status -> {
+      spamFilterRangeRepository.claimNextIdRange(List.of());
+      status.setRollbackOnly(); // Classification failed.
+    });
+
+    // Then
+    assertThat(claimAllIdRanges())
+        .as("Range should be pending again after rollback.")
+        .containsExactly(new IdRange(0, 20));
+  }
+
+  @Test
+  void shouldSkipExcludedRanges() {
+    // Given
+    spamFilterRangeRepository.enqueueIdRanges(WATERMARK_NAME, 60, 20);
+
+    // When
+    Optional<IdRange> claimedRange = transactionTemplate.execute(
+        status -> spamFilterRangeRepository.claimNextIdRange(List.of(0L, 40L)));
+
+    // Then
+    assertThat(claimedRange)
+        .as("Lowest range not excluded should be claimed.")
+        .contains(new IdRange(20, 40));
+    assertThat(claimAllIdRanges())
+        .as("Excluded ranges should be left pending.")
+        .containsExactly(new IdRange(0, 20), new IdRange(40, 60));
+  }
+
+  /**
+   * Claims all pending ranges, one transaction each.
+   *
+   * @return claimed ranges in order of claiming
+   */
+  private List<IdRange> claimAllIdRanges() {
+    List<IdRange> claimedRanges = new ArrayList<>();
+
+    Optional<IdRange> claimedRange = claimNextIdRange();
+    while (claimedRange != null && claimedRange.isPresent()) {
+      claimedRanges.add(claimedRange.get());
+      claimedRange = claimNextIdRange();
+    }
+
+    return claimedRanges;
+  }
+
+  /**
+   * Claims the next pending range (none excluded) in a transaction of its own.
+   *
+   * @return claimed range, empty if there is no unclaimed range
+   */
+  private Optional<IdRange> claimNextIdRange() {
+    return transactionTemplate.execute(status -> spamFilterRangeRepository.claimNextIdRange(List.of()));
+  }
+}